@@ -157,6 +157,7 @@ public class ApplicationContext extends MultiDexApplication implements DefaultLi
     Log.i(TAG, "App is no longer visible.");
     KeyCachingService.onAppBackgrounded(this);
     MessageNotifier.setVisibleThread(-1);
+    ApplicationDependencies.getJobManager().flush();
   }
 
   public ExpiringMessageManager getExpiringMessageManager() {
@@ -15,7 +15,6 @@ import org.thoughtcrime.securesms.crypto.storage.TextSecureIdentityKeyStore;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsSmsDatabase;
-import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.documents.IdentityKeyMismatch;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
@@ -157,8 +156,7 @@ public class ConfirmIdentityDialog extends AlertDialog {
 
         private void processIncomingMessageRecord(MessageRecord messageRecord) {
           try {
-            PushDatabase pushDatabase = DatabaseFactory.getPushDatabase(getContext());
-            SmsDatabase  smsDatabase  = DatabaseFactory.getSmsDatabase(getContext());
+            SmsDatabase smsDatabase = DatabaseFactory.getSmsDatabase(getContext());
 
             smsDatabase.removeMismatchedIdentity(messageRecord.getId(),
                                                  mismatch.getRecipientId(getContext()),
@@ -174,9 +172,7 @@ public class ConfirmIdentityDialog extends AlertDialog {
                                                                        !legacy ? Base64.decode(messageRecord.getBody()) : null,
                                                                        0, null);
 
-            long pushId = pushDatabase.insert(envelope);
-
-            ApplicationDependencies.getJobManager().add(new PushDecryptJob(getContext(), pushId, messageRecord.getId()));
+            ApplicationDependencies.getJobManager().add(new PushDecryptJob(getContext(), envelope, messageRecord.getId()));
           } catch (IOException e) {
             throw new AssertionError(e);
           }
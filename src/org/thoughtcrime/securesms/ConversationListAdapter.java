@@ -17,50 +17,52 @@
 package org.thoughtcrime.securesms;
 
 import android.content.Context;
-import android.database.Cursor;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import org.thoughtcrime.securesms.database.CursorRecyclerViewAdapter;
-import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.ThreadDatabase;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.mms.GlideRequests;
-import org.thoughtcrime.securesms.util.Conversions;
+import org.thoughtcrime.securesms.recipients.Recipient;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 
 /**
- * A CursorAdapter for building a list of conversation threads.
+ * An adapter for building a list of conversation threads.
  *
  * @author Moxie Marlinspike
  */
-class ConversationListAdapter extends CursorRecyclerViewAdapter<ConversationListAdapter.ViewHolder> {
+class ConversationListAdapter extends RecyclerView.Adapter<ConversationListAdapter.ViewHolder> {
 
   private static final int MESSAGE_TYPE_SWITCH_ARCHIVE = 1;
   private static final int MESSAGE_TYPE_THREAD         = 2;
   private static final int MESSAGE_TYPE_INBOX_ZERO     = 3;
 
-  private final @NonNull  ThreadDatabase    threadDatabase;
+  private static final long SWITCH_ARCHIVE_ID = -2;
+  private static final long INBOX_ZERO_ID     = -3;
+
   private final @NonNull  GlideRequests     glideRequests;
   private final @NonNull  Locale            locale;
   private final @NonNull  LayoutInflater    inflater;
   private final @Nullable ItemClickListener clickListener;
-  private final @NonNull  MessageDigest     digest;
 
   private final Set<Long> batchSet  = Collections.synchronizedSet(new HashSet<Long>());
   private       boolean   batchMode = false;
   private final Set<Long> typingSet = new HashSet<>();
 
+  private List<ThreadRecord> conversations = Collections.emptyList();
+  private int                archivedCount;
+  private boolean            complete;
+
   protected static class ViewHolder extends RecyclerView.ViewHolder {
     public <V extends View & BindableConversationListItem> ViewHolder(final @NonNull V itemView)
     {
@@ -72,40 +74,63 @@ class ConversationListAdapter extends CursorRecyclerViewAdapter<ConversationList
     }
   }
 
-  @Override
-  public long getItemId(@NonNull Cursor cursor) {
-    ThreadRecord  record  = getThreadRecord(cursor);
+  ConversationListAdapter(@NonNull Context context,
+                          @NonNull GlideRequests glideRequests,
+                          @NonNull Locale locale,
+                          @Nullable ItemClickListener clickListener)
+  {
+    this.glideRequests  = glideRequests;
+    this.locale         = locale;
+    this.inflater       = LayoutInflater.from(context);
+    this.clickListener  = clickListener;
+    setHasStableIds(true);
+  }
+
+  /**
+   * Replaces the conversations being shown.
+   *
+   * @param complete Whether these are all of the conversations. The archive and inbox-zero rows
+   *                 belong at the end of the list, so they're held back until it's all loaded.
+   * @param diff The difference between the conversations currently shown and the new ones.
+   */
+  void setConversations(@NonNull List<ThreadRecord> conversations, int archivedCount, boolean complete, @NonNull DiffUtil.DiffResult diff) {
+    int oldFooterCount   = getFooterCount();
+    int oldArchivedCount = this.archivedCount;
+
+    this.conversations = conversations;
+    this.archivedCount = archivedCount;
+    this.complete      = complete;
+
+    diff.dispatchUpdatesTo(this);
+
+    if (oldFooterCount != getFooterCount()) {
+      notifyItemRangeRemoved(conversations.size(), oldFooterCount);
+      notifyItemRangeInserted(conversations.size(), getFooterCount());
+    } else if (oldArchivedCount != archivedCount) {
+      notifyItemRangeChanged(conversations.size(), getFooterCount());
+    }
+  }
 
-    return Conversions.byteArrayToLong(digest.digest(record.getRecipient().getId().serialize().getBytes()));
+  @NonNull List<ThreadRecord> getConversations() {
+    return conversations;
   }
 
   @Override
-  protected long getFastAccessItemId(int position) {
-    return super.getFastAccessItemId(position);
+  public int getItemCount() {
+    return conversations.size() + getFooterCount();
   }
 
-  ConversationListAdapter(@NonNull Context context,
-                          @NonNull GlideRequests glideRequests,
-                          @NonNull Locale locale,
-                          @Nullable Cursor cursor,
-                          @Nullable ItemClickListener clickListener)
-  {
-    super(context, cursor);
-    try {
-      this.glideRequests  = glideRequests;
-      this.threadDatabase = DatabaseFactory.getThreadDatabase(context);
-      this.locale         = locale;
-      this.inflater       = LayoutInflater.from(context);
-      this.clickListener  = clickListener;
-      this.digest         = MessageDigest.getInstance("SHA1");
-      setHasStableIds(true);
-    } catch (NoSuchAlgorithmException nsae) {
-      throw new AssertionError("SHA-1 missing");
+  @Override
+  public long getItemId(int position) {
+    switch (getItemViewType(position)) {
+      case MESSAGE_TYPE_SWITCH_ARCHIVE: return SWITCH_ARCHIVE_ID;
+      case MESSAGE_TYPE_INBOX_ZERO:     return INBOX_ZERO_ID;
+      default:                          return conversations.get(position).getThreadId();
     }
   }
 
   @Override
-  public ViewHolder onCreateItemViewHolder(ViewGroup parent, int viewType) {
+  public @NonNull ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
     if (viewType == MESSAGE_TYPE_SWITCH_ARCHIVE) {
       ConversationListItemAction action = (ConversationListItemAction) inflater.inflate(R.layout.conversation_list_item_action,
                                                                                         parent, false);
@@ -135,25 +160,23 @@ class ConversationListAdapter extends CursorRecyclerViewAdapter<ConversationList
   }
 
   @Override
-  public void onItemViewRecycled(ViewHolder holder) {
+  public void onViewRecycled(@NonNull ViewHolder holder) {
     holder.getItem().unbind();
   }
 
   @Override
-  public void onBindItemViewHolder(ViewHolder viewHolder, @NonNull Cursor cursor) {
-    viewHolder.getItem().bind(getThreadRecord(cursor), glideRequests, locale, typingSet, batchSet, batchMode);
+  public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position) {
+    viewHolder.getItem().bind(getThreadRecord(position), glideRequests, locale, typingSet, batchSet, batchMode);
   }
 
   @Override
-  public int getItemViewType(@NonNull Cursor cursor) {
-    ThreadRecord threadRecord = getThreadRecord(cursor);
-
-    if (threadRecord.getDistributionType() == ThreadDatabase.DistributionTypes.ARCHIVE) {
-      return MESSAGE_TYPE_SWITCH_ARCHIVE;
-    } else if (threadRecord.getDistributionType() == ThreadDatabase.DistributionTypes.INBOX_ZERO) {
+  public int getItemViewType(int position) {
+    if (position < conversations.size()) {
+      return MESSAGE_TYPE_THREAD;
+    } else if (hasInboxZero() && position == conversations.size()) {
       return MESSAGE_TYPE_INBOX_ZERO;
     } else {
-      return MESSAGE_TYPE_THREAD;
+      return MESSAGE_TYPE_SWITCH_ARCHIVE;
     }
   }
 
@@ -163,8 +186,28 @@ class ConversationListAdapter extends CursorRecyclerViewAdapter<ConversationList
     notifyDataSetChanged();
   }
 
-  private ThreadRecord getThreadRecord(@NonNull Cursor cursor) {
-    return threadDatabase.readerFor(cursor).getCurrent();
+  private ThreadRecord getThreadRecord(int position) {
+    switch (getItemViewType(position)) {
+      case MESSAGE_TYPE_SWITCH_ARCHIVE: return getActionRecord(ThreadDatabase.DistributionTypes.ARCHIVE);
+      case MESSAGE_TYPE_INBOX_ZERO:     return getActionRecord(ThreadDatabase.DistributionTypes.INBOX_ZERO);
+      default:                          return conversations.get(position);
+    }
+  }
+
+  private ThreadRecord getActionRecord(int distributionType) {
+    return new ThreadRecord("", null, null, null, Recipient.UNKNOWN, System.currentTimeMillis(), archivedCount,
+                            0, -1, 0, -1, 0, distributionType, false, 0, 0, 0);
+  }
+
+  private boolean hasInboxZero() {
+    return archivedCount > 0 && conversations.isEmpty();
+  }
+
+  private int getFooterCount() {
+    if      (!complete)         return 0;
+    else if (hasInboxZero())    return 2;
+    else if (archivedCount > 0) return 1;
+    else                        return 0;
   }
 
   void toggleThreadInBatchSet(long threadId) {
@@ -190,9 +233,8 @@ class ConversationListAdapter extends CursorRecyclerViewAdapter<ConversationList
   }
 
   void selectAllThreads() {
-    for (int i = 0; i < getItemCount(); i++) {
-      long threadId = getThreadRecord(getCursorAtPositionOrThrow(i)).getThreadId();
-      if (threadId != -1) batchSet.add(threadId);
+    for (ThreadRecord conversation : conversations) {
+      batchSet.add(conversation.getThreadId());
     }
     this.notifyDataSetChanged();
   }
@@ -0,0 +1,344 @@
+package org.thoughtcrime.securesms;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.recyclerview.widget.DiffUtil;
+
+import org.thoughtcrime.securesms.contacts.ContactAccessor;
+import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.DatabaseObserver;
+import org.thoughtcrime.securesms.database.ThreadDatabase;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.Recipient;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.Util;
+import org.thoughtcrime.securesms.util.concurrent.SignalExecutors;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Loads the conversation list a page at a time, and keeps what has been loaded up to date by
+ * re-reading only the rows of threads that changed instead of re-running the query for the whole
+ * list. Every update is delivered on the main thread along with a {@link DiffUtil.DiffResult}
+ * against the previous one.
+ *
+ * Pages are read by (date, thread id) rather than by offset, so a thread moving to the top of the
+ * list while the user scrolls can't cause a page to skip or repeat a conversation.
+ */
+class ConversationListDataSource implements DatabaseObserver.Observer {
+
+  private static final String TAG = ConversationListDataSource.class.getSimpleName();
+
+  static final int PAGE_SIZE = 50;
+
+  private static final Comparator<ThreadRecord> LIST_ORDER = (lhs, rhs) -> compare(lhs.getDate(), lhs.getThreadId(), rhs.getDate(), rhs.getThreadId());
+
+  private final Context  context;
+  private final String   filter;
+  private final boolean  archived;
+  private final Listener listener;
+  private final Executor executor;
+
+  private List<RecipientId>  filterRecipients;
+  private List<ThreadRecord> records;
+  private long               boundaryDate;
+  private long               boundaryThreadId;
+
+  private volatile boolean complete;
+  private volatile boolean loading;
+  private volatile boolean stopped;
+
+  /**
+   * @param displayed The conversations currently being shown, which the first update is diffed against.
+   */
+  ConversationListDataSource(@NonNull Context context,
+                             @Nullable String filter,
+                             boolean archived,
+                             @NonNull List<ThreadRecord> displayed,
+                             @NonNull Listener listener)
+  {
+    this.context          = context.getApplicationContext();
+    this.filter           = filter != null && filter.trim().length() != 0 ? filter : null;
+    this.archived         = archived;
+    this.records          = displayed;
+    this.listener         = listener;
+    this.executor         = SignalExecutors.SERIAL;
+    this.boundaryDate     = Long.MAX_VALUE;
+    this.boundaryThreadId = Long.MAX_VALUE;
+  }
+
+  void start() {
+    ApplicationDependencies.getDatabaseObserver().registerObserver(this);
+
+    loading = true;
+    executor.execute(() -> {
+      try {
+        if (filter != null) {
+          filterRecipients = getFilterRecipients(filter);
+          publish(readFiltered(), 0);
+        } else {
+          publish(readNextPage(PAGE_SIZE), getArchivedCount());
+        }
+      } finally {
+        loading = false;
+      }
+    });
+  }
+
+  void stop() {
+    stopped = true;
+    ApplicationDependencies.getDatabaseObserver().unregisterObserver(this);
+  }
+
+  /**
+   * Loads the next page of the list, unless it's all loaded or a page is already on its way.
+   */
+  void loadMore() {
+    if (complete || loading) {
+      return;
+    }
+
+    loading = true;
+    executor.execute(() -> {
+      try {
+        List<ThreadRecord> updated = new ArrayList<>(records);
+        updated.addAll(readNextPage(PAGE_SIZE));
+
+        publish(updated, getArchivedCount());
+      } finally {
+        loading = false;
+      }
+    });
+  }
+
+  /**
+   * Loads whatever is left of the list, then runs the given callback on the main thread after the
+   * update has been delivered.
+   */
+  void loadRemaining(@NonNull Runnable onLoaded) {
+    executor.execute(() -> {
+      if (!complete) {
+        List<ThreadRecord> updated = new ArrayList<>(records);
+        updated.addAll(readNextPage(0));
+
+        publish(updated, getArchivedCount());
+      }
+
+      Util.runOnMain(() -> {
+        if (!stopped) onLoaded.run();
+      });
+    });
+  }
+
+  @Override
+  public void onChanged(@NonNull DatabaseObserver.Changes changes) {
+    if (!changes.isConversationListChanged() || stopped) {
+      return;
+    }
+
+    boolean   reload    = changes.isConversationListFullyChanged() || filter != null;
+    Set<Long> threadIds = new HashSet<>(changes.getChangedListThreadIds());
+
+    executor.execute(() -> {
+      if (stopped) return;
+
+      if (reload) reload();
+      else        refresh(threadIds);
+    });
+  }
+
+  private void reload() {
+    if (filter != null) {
+      publish(readFiltered(), 0);
+      return;
+    }
+
+    int limit = complete ? 0 : Math.max(records.size(), PAGE_SIZE);
+
+    boundaryDate     = Long.MAX_VALUE;
+    boundaryThreadId = Long.MAX_VALUE;
+
+    publish(readNextPage(limit), getArchivedCount());
+  }
+
+  private void refresh(@NonNull Set<Long> threadIds) {
+    ThreadDatabase     threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    List<ThreadRecord> changed        = readAll(threadDatabase.getConversationListThreads(archived, threadIds));
+
+    publish(merge(records, threadIds, changed, boundaryDate, boundaryThreadId), getArchivedCount());
+  }
+
+  /**
+   * Reads the page after the current boundary, moving the boundary past it.
+   *
+   * @param limit The most conversations to read, or 0 to read the rest of the list.
+   */
+  private @NonNull List<ThreadRecord> readNextPage(int limit) {
+    ThreadDatabase     threadDatabase = DatabaseFactory.getThreadDatabase(context);
+    List<ThreadRecord> page           = readAll(threadDatabase.getConversationListPage(archived, boundaryDate, boundaryThreadId, limit));
+
+    if (limit == 0 || page.size() < limit) {
+      complete         = true;
+      boundaryDate     = Long.MIN_VALUE;
+      boundaryThreadId = Long.MIN_VALUE;
+    } else {
+      ThreadRecord last = page.get(page.size() - 1);
+
+      complete         = false;
+      boundaryDate     = last.getDate();
+      boundaryThreadId = last.getThreadId();
+    }
+
+    return page;
+  }
+
+  private @NonNull List<ThreadRecord> readFiltered() {
+    complete = true;
+    return readAll(DatabaseFactory.getThreadDatabase(context).getFilteredConversationList(filterRecipients));
+  }
+
+  private @NonNull List<ThreadRecord> readAll(@Nullable Cursor cursor) {
+    if (cursor == null) {
+      return Collections.emptyList();
+    }
+
+    List<ThreadRecord> results = new ArrayList<>(cursor.getCount());
+
+    try (ThreadDatabase.Reader reader = DatabaseFactory.getThreadDatabase(context).readerFor(cursor)) {
+      ThreadRecord record;
+
+      while ((record = reader.getNext()) != null) {
+        results.add(record);
+      }
+    }
+
+    return results;
+  }
+
+  private int getArchivedCount() {
+    return archived ? 0 : DatabaseFactory.getThreadDatabase(context).getArchivedConversationListCount();
+  }
+
+  private @NonNull List<RecipientId> getFilterRecipients(@NonNull String filter) {
+    List<String>      numbers      = ContactAccessor.getInstance().getNumbersForThreadSearchFilter(context, filter);
+    List<RecipientId> recipientIds = new LinkedList<>();
+
+    for (String number : numbers) {
+      recipientIds.add(Recipient.external(context, number).getId());
+    }
+
+    return recipientIds;
+  }
+
+  private void publish(@NonNull List<ThreadRecord> updated, int archivedCount) {
+    DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffCallback(records, updated), true);
+
+    Log.d(TAG, "Published " + updated.size() + " conversations. Complete: " + complete);
+
+    records = updated;
+
+    boolean loadedAll = complete;
+
+    Util.runOnMain(() -> {
+      if (!stopped) listener.onConversationListUpdated(updated, archivedCount, loadedAll, diff);
+    });
+  }
+
+  /**
+   * Applies changes to a loaded list. The changed threads are dropped from it, and the ones that
+   * still belong in the list are put back in order, as long as they don't fall past the boundary of
+   * what has been loaded. Those will be picked up when the next page is.
+   *
+   * @param changedThreadIds The threads that changed.
+   * @param changedRecords The current rows of the changed threads that are still in the list.
+   */
+  @VisibleForTesting
+  static @NonNull List<ThreadRecord> merge(@NonNull List<ThreadRecord> records,
+                                           @NonNull Collection<Long> changedThreadIds,
+                                           @NonNull List<ThreadRecord> changedRecords,
+                                           long boundaryDate,
+                                           long boundaryThreadId)
+  {
+    List<ThreadRecord> merged = new ArrayList<>(records.size() + changedRecords.size());
+
+    for (ThreadRecord record : records) {
+      if (!changedThreadIds.contains(record.getThreadId())) {
+        merged.add(record);
+      }
+    }
+
+    for (ThreadRecord record : changedRecords) {
+      if (compare(record.getDate(), record.getThreadId(), boundaryDate, boundaryThreadId) > 0) {
+        continue;
+      }
+
+      int index = Collections.binarySearch(merged, record, LIST_ORDER);
+      merged.add(index < 0 ? -index - 1 : index, record);
+    }
+
+    return merged;
+  }
+
+  /**
+   * Compares two conversations by their position in the list, newest first.
+   */
+  private static int compare(long lhsDate, long lhsThreadId, long rhsDate, long rhsThreadId) {
+    if (lhsDate != rhsDate) return lhsDate > rhsDate ? -1 : 1;
+    else                    return Long.compare(rhsThreadId, lhsThreadId);
+  }
+
+  interface Listener {
+    /**
+     * @param complete Whether the last page of the list has been loaded.
+     */
+    void onConversationListUpdated(@NonNull List<ThreadRecord> conversations, int archivedCount, boolean complete, @NonNull DiffUtil.DiffResult diff);
+  }
+
+  private static final class DiffCallback extends DiffUtil.Callback {
+
+    private final List<ThreadRecord> oldRecords;
+    private final List<ThreadRecord> newRecords;
+
+    DiffCallback(@NonNull List<ThreadRecord> oldRecords, @NonNull List<ThreadRecord> newRecords) {
+      this.oldRecords = oldRecords;
+      this.newRecords = newRecords;
+    }
+
+    @Override
+    public int getOldListSize() {
+      return oldRecords.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+      return newRecords.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+      return oldRecords.get(oldItemPosition).getThreadId() == newRecords.get(newItemPosition).getThreadId();
+    }
+
+    /**
+     * Only the rows of changed threads are re-read, so an unchanged thread keeps the same record.
+     */
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+      return oldRecords.get(oldItemPosition) == newRecords.get(newItemPosition);
+    }
+  }
+}
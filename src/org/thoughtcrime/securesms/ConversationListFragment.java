@@ -22,7 +22,6 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.Intent;
 import android.content.res.TypedArray;
-import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
@@ -36,12 +35,11 @@ import androidx.annotation.Nullable;
 
 import com.google.android.material.snackbar.Snackbar;
 import androidx.fragment.app.Fragment;
-import androidx.loader.app.LoaderManager;
-import androidx.loader.content.Loader;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.ActionMode;
 import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import android.text.TextUtils;
@@ -74,7 +72,7 @@ import org.thoughtcrime.securesms.components.reminder.SystemSmsImportReminder;
 import org.thoughtcrime.securesms.components.reminder.UnauthorizedReminder;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MessagingDatabase.MarkedMessageInfo;
-import org.thoughtcrime.securesms.database.loaders.ConversationListLoader;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.events.ReminderUpdateEvent;
 import org.thoughtcrime.securesms.jobs.ServiceOutageDetectionJob;
@@ -97,7 +95,7 @@ import java.util.Set;
 
 
 public class ConversationListFragment extends Fragment
-  implements LoaderManager.LoaderCallbacks<Cursor>, ActionMode.Callback, ItemClickListener
+  implements ActionMode.Callback, ItemClickListener
 {
   public static final String ARCHIVE = "archive";
 
@@ -111,6 +109,7 @@ public class ConversationListFragment extends Fragment
                                                         R.drawable.empty_inbox_5 };
 
   private ActionMode                  actionMode;
+  private ConversationListDataSource  dataSource;
   private RecyclerView                list;
   private ReminderView                reminderView;
   private View                        emptyState;
@@ -199,13 +198,22 @@ public class ConversationListFragment extends Fragment
     EventBus.getDefault().unregister(this);
   }
 
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+
+    if (dataSource != null) {
+      dataSource.stop();
+    }
+  }
+
   public ConversationListAdapter getListAdapter() {
     return (ConversationListAdapter) list.getAdapter();
   }
 
   public void setQueryFilter(String query) {
     this.queryFilter = query;
-    getLoaderManager().restartLoader(0, null, this);
+    initializeDataSource();
   }
 
   public void resetQueryFilter() {
@@ -256,8 +264,17 @@ public class ConversationListFragment extends Fragment
   }
 
   private void initializeListAdapter() {
-    list.setAdapter(new ConversationListAdapter(getActivity(), GlideApp.with(this), locale, null, this));
-    getLoaderManager().restartLoader(0, null, this);
+    list.setAdapter(new ConversationListAdapter(getActivity(), GlideApp.with(this), locale, this));
+    initializeDataSource();
+  }
+
+  private void initializeDataSource() {
+    if (dataSource != null) {
+      dataSource.stop();
+    }
+
+    dataSource = new ConversationListDataSource(requireContext(), queryFilter, archive, getListAdapter().getConversations(), this::onConversationListUpdated);
+    dataSource.start();
   }
 
   private void initializeTypingObserver() {
@@ -368,29 +385,29 @@ public class ConversationListFragment extends Fragment
   }
 
   private void handleSelectAllThreads() {
-    getListAdapter().selectAllThreads();
-    actionMode.setTitle(String.valueOf(getListAdapter().getBatchSelections().size()));
+    dataSource.loadRemaining(() -> {
+      if (actionMode == null) return;
+
+      getListAdapter().selectAllThreads();
+      actionMode.setTitle(String.valueOf(getListAdapter().getBatchSelections().size()));
+    });
   }
 
   private void handleCreateConversation(long threadId, Recipient recipient, int distributionType, long lastSeen) {
     ((Controller)getActivity()).onCreateConversation(threadId, recipient, distributionType, lastSeen);
   }
 
-  @Override
-  public @NonNull Loader<Cursor> onCreateLoader(int arg0, Bundle arg1) {
-    return new ConversationListLoader(getActivity(), queryFilter, archive);
-  }
+  private void onConversationListUpdated(@NonNull List<ThreadRecord> conversations, int archivedCount, boolean complete, @NonNull DiffUtil.DiffResult diff) {
+    boolean empty = conversations.isEmpty() && archivedCount == 0;
 
-  @Override
-  public void onLoadFinished(@NonNull Loader<Cursor> arg0, Cursor cursor) {
-    if ((cursor == null || cursor.getCount() <= 0) && TextUtils.isEmpty(queryFilter) && !archive) {
+    if (empty && TextUtils.isEmpty(queryFilter) && !archive) {
       list.setVisibility(View.INVISIBLE);
       emptyState.setVisibility(View.VISIBLE);
       emptySearch.setVisibility(View.INVISIBLE);
       emptyImage.setImageResource(EMPTY_IMAGES[(int) (Math.random() * EMPTY_IMAGES.length)]);
       fab.startPulse(3 * 1000);
       cameraFab.startPulse(3 * 1000);
-    } else if ((cursor == null || cursor.getCount() <= 0) && !TextUtils.isEmpty(queryFilter)) {
+    } else if (empty && !TextUtils.isEmpty(queryFilter)) {
       list.setVisibility(View.INVISIBLE);
       emptyState.setVisibility(View.GONE);
       emptySearch.setVisibility(View.VISIBLE);
@@ -403,12 +420,7 @@ public class ConversationListFragment extends Fragment
       cameraFab.stopPulse();
     }
 
-    getListAdapter().changeCursor(cursor);
-  }
-
-  @Override
-  public void onLoaderReset(@NonNull Loader<Cursor> arg0) {
-    getListAdapter().changeCursor(null);
+    getListAdapter().setConversations(conversations, archivedCount, complete, diff);
   }
 
   @Override
@@ -639,6 +651,14 @@ public class ConversationListFragment extends Fragment
       } else {
         ((Controller) getActivity()).onListScrolledToTop();
       }
+
+      LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+
+      if (dataSource != null && layoutManager != null &&
+          layoutManager.findLastVisibleItemPosition() >= getListAdapter().getItemCount() - ConversationListDataSource.PAGE_SIZE / 2)
+      {
+        dataSource.loadMore();
+      }
     }
   }
 }
@@ -103,12 +103,9 @@ public class IncomingMessageProcessor {
     private @NonNull String processMessage(@NonNull SignalServiceEnvelope envelope) {
       Log.i(TAG, "Received message. Inserting in PushDatabase.");
 
-      long           id  = pushDatabase.insert(envelope);
-      PushDecryptJob job = new PushDecryptJob(context, id);
+      pushDatabase.insert(envelope);
 
-      jobManager.add(job);
-
-      return job.getId();
+      return PushDecryptJob.enqueueBatch(context);
     }
 
     private void processReceipt(@NonNull SignalServiceEnvelope envelope) {
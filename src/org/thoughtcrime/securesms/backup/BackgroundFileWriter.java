@@ -0,0 +1,157 @@
+package org.thoughtcrime.securesms.backup;
+
+import androidx.annotation.NonNull;
+
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moves writes to a single background thread, so that a backup restore can carry on decrypting the
+ * next frames while an attachment is still being encrypted and written to disk. Writes to every
+ * stream are performed in the order they were made, and no more than {@link #MAX_BUFFERED_BYTES}
+ * are held in memory at any one time.
+ *
+ * A failed write is reported by the next write or close on any wrapped stream, and by
+ * {@link #finish()}.
+ */
+final class BackgroundFileWriter {
+
+  private static final String TAG = Log.tag(BackgroundFileWriter.class);
+
+  private static final int MAX_BUFFERED_BYTES    = 4 * 1024 * 1024;
+  private static final int CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final ExecutorService   executor;
+  private final Semaphore         bufferedBytes;
+  private final Set<OutputStream> openStreams;
+
+  private volatile IOException failure;
+
+  BackgroundFileWriter() {
+    this.executor      = Executors.newSingleThreadExecutor(r -> new Thread(r, "signal-BackupRestoreWriter"));
+    this.bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+    this.openStreams   = Collections.synchronizedSet(new HashSet<>());
+  }
+
+  @NonNull OutputStream wrap(@NonNull OutputStream outputStream) {
+    openStreams.add(outputStream);
+    return new BackgroundOutputStream(outputStream);
+  }
+
+  /**
+   * Blocks until every write has been performed and every wrapped stream has been closed.
+   */
+  void finish() throws IOException {
+    executor.shutdown();
+
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+        throwIfFailed();
+      }
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    }
+
+    throwIfFailed();
+  }
+
+  /**
+   * Abandons any writes that haven't been performed yet, and closes every wrapped stream that hasn't
+   * been closed, including those whose close was still queued. Safe to call after {@link #finish()}.
+   */
+  void close() {
+    executor.shutdownNow();
+
+    try {
+      if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        Log.w(TAG, "Timed out waiting for the last write to finish.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    synchronized (openStreams) {
+      for (OutputStream outputStream : openStreams) {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          Log.w(TAG, e);
+        }
+      }
+
+      openStreams.clear();
+    }
+  }
+
+  private void throwIfFailed() throws IOException {
+    if (failure != null) {
+      throw new IOException(failure);
+    }
+  }
+
+  private class BackgroundOutputStream extends OutputStream {
+
+    private final OutputStream outputStream;
+
+    private BackgroundOutputStream(@NonNull OutputStream outputStream) {
+      this.outputStream = outputStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      throwIfFailed();
+
+      byte[] copy    = Arrays.copyOfRange(buffer, offset, offset + length);
+      int    permits = Math.min(length, MAX_BUFFERED_BYTES);
+
+      try {
+        bufferedBytes.acquire(permits);
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException();
+      }
+
+      executor.execute(() -> {
+        try {
+          if (failure == null) {
+            outputStream.write(copy);
+          }
+        } catch (IOException e) {
+          failure = e;
+        } finally {
+          bufferedBytes.release(permits);
+        }
+      });
+    }
+
+    @Override
+    public void close() throws IOException {
+      throwIfFailed();
+
+      executor.execute(() -> {
+        try {
+          outputStream.close();
+        } catch (IOException e) {
+          failure = e;
+        } finally {
+          openStreams.remove(outputStream);
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,480 @@
+package org.thoughtcrime.securesms.backup;
+
+import androidx.annotation.NonNull;
+
+import com.google.protobuf.CodedOutputStream;
+
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts backup frames and attachment streams on a pool of worker threads, while a single
+ * writer thread appends the results to the output in the order they were submitted.
+ *
+ * Every frame and every stream is encrypted with its own counter, and the counters are handed out
+ * in submission order, so the output is byte for byte what a sequential writer would have produced
+ * with the same keys and IV.
+ *
+ * Submitted work is split into segments. Small frames are batched into a single segment, while a
+ * stream gets a segment of its own. Workers encrypt each segment into a short queue of pooled
+ * buffers that the writer drains, so memory use is bounded no matter how large a stream is.
+ */
+final class BackupFramePipeline {
+
+  private static final String TAG = BackupFramePipeline.class.getSimpleName();
+
+  private static final int BUFFER_SIZE           = 64 * 1024;
+  private static final int MAX_BATCHED_FRAMES    = 64;
+  private static final int MAX_PENDING_SEGMENTS  = 32;
+  private static final int MAX_QUEUED_BUFFERS    = 4;
+  private static final int MAC_LENGTH            = 10;
+
+  private static final Chunk END_OF_SEGMENT = new Chunk(new byte[0]);
+
+  private final OutputStream              outputStream;
+  private final byte[]                    cipherKey;
+  private final byte[]                    macKey;
+  private final byte[]                    iv;
+  private final ExecutorService           workers;
+  private final ExecutorService           writer;
+  private final Future<?>                 writerFuture;
+  private final BlockingQueue<Segment>    segments;
+  private final Queue<byte[]>             freeBuffers;
+  private final ThreadLocal<FrameCipher>  frameCiphers;
+  private final Stats                     stats;
+  private final Segment                   endOfOutput;
+
+  private List<BackupProtos.BackupFrame> pendingFrames;
+  private int                            counter;
+  private final long                     startTime;
+
+  private volatile Throwable failure;
+
+  BackupFramePipeline(@NonNull OutputStream outputStream, @NonNull byte[] cipherKey, @NonNull byte[] macKey, @NonNull byte[] iv, int workerCount) {
+    this.outputStream  = outputStream;
+    this.cipherKey     = cipherKey;
+    this.macKey        = macKey;
+    this.iv            = iv.clone();
+    this.counter       = Conversions.byteArrayToInt(iv);
+    this.workers       = Executors.newFixedThreadPool(workerCount, r -> new Thread(r, "signal-BackupEncoder"));
+    this.writer        = Executors.newSingleThreadExecutor(r -> new Thread(r, "signal-BackupWriter"));
+    this.segments      = new ArrayBlockingQueue<>(MAX_PENDING_SEGMENTS);
+    this.freeBuffers   = new ConcurrentLinkedQueue<>();
+    this.frameCiphers  = new ThreadLocal<>();
+    this.stats         = new Stats();
+    this.endOfOutput   = new Segment();
+    this.pendingFrames = new ArrayList<>(MAX_BATCHED_FRAMES);
+    this.startTime     = System.currentTimeMillis();
+    this.writerFuture  = writer.submit(() -> {
+      writeSegments();
+      return null;
+    });
+  }
+
+  static int getDefaultWorkerCount() {
+    return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+  }
+
+  void write(@NonNull BackupProtos.BackupFrame frame) throws IOException {
+    pendingFrames.add(frame);
+
+    if (pendingFrames.size() >= MAX_BATCHED_FRAMES) {
+      submitPendingFrames();
+    }
+  }
+
+  /**
+   * Writes the frame, followed by the encrypted contents of the stream. The stream is read and
+   * closed on a worker thread.
+   */
+  void write(@NonNull BackupProtos.BackupFrame frame, @NonNull InputStream inputStream) throws IOException {
+    submitPendingFrames();
+
+    int frameCounter  = counter++;
+    int streamCounter = counter++;
+
+    submit(new Segment(), segment -> {
+      try {
+        FrameCipher frameCipher = getFrameCipher();
+        frameCipher.encryptFrame(segment, frame, frameCounter);
+        frameCipher.encryptStream(segment, inputStream, streamCounter);
+      } finally {
+        inputStream.close();
+      }
+    });
+  }
+
+  /**
+   * Waits for everything that has been submitted to be written, and flushes the output.
+   */
+  void finish() throws IOException {
+    submitPendingFrames();
+    enqueue(endOfOutput);
+
+    try {
+      writerFuture.get();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } catch (ExecutionException e) {
+      throw asIOException(e.getCause());
+    } finally {
+      shutdown();
+    }
+
+    stats.total.set(System.currentTimeMillis() - startTime);
+    Log.i(TAG, stats.toString());
+  }
+
+  /**
+   * Abandons any work that is still in flight. Safe to call after {@link #finish()}.
+   */
+  void shutdown() {
+    workers.shutdownNow();
+    writer.shutdownNow();
+  }
+
+  private void submitPendingFrames() throws IOException {
+    if (pendingFrames.isEmpty()) {
+      return;
+    }
+
+    List<BackupProtos.BackupFrame> frames       = pendingFrames;
+    int                            firstCounter = counter;
+
+    pendingFrames  = new ArrayList<>(MAX_BATCHED_FRAMES);
+    counter       += frames.size();
+
+    submit(new Segment(), segment -> {
+      FrameCipher frameCipher = getFrameCipher();
+
+      for (int i = 0; i < frames.size(); i++) {
+        frameCipher.encryptFrame(segment, frames.get(i), firstCounter + i);
+      }
+    });
+  }
+
+  private void submit(@NonNull Segment segment, @NonNull SegmentEncoder encoder) throws IOException {
+    enqueue(segment);
+
+    workers.execute(() -> {
+      try {
+        encoder.encode(segment);
+        segment.flush();
+      } catch (Throwable t) {
+        segment.error = t;
+      } finally {
+        segment.finish();
+      }
+    });
+  }
+
+  private void enqueue(@NonNull Segment segment) throws IOException {
+    long waitStart = System.nanoTime();
+
+    try {
+      while (!segments.offer(segment, 100, TimeUnit.MILLISECONDS)) {
+        throwIfFailed();
+      }
+      throwIfFailed();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException();
+    } finally {
+      stats.submitWait.addAndGet(System.nanoTime() - waitStart);
+    }
+  }
+
+  private void throwIfFailed() throws IOException {
+    if (failure != null) {
+      throw asIOException(failure);
+    }
+  }
+
+  private void writeSegments() throws IOException, InterruptedException {
+    try {
+      Segment segment;
+
+      while ((segment = segments.take()) != endOfOutput) {
+        Chunk chunk;
+
+        while ((chunk = segment.take()) != END_OF_SEGMENT) {
+          long writeStart = System.nanoTime();
+          outputStream.write(chunk.data, 0, chunk.length);
+          stats.write.addAndGet(System.nanoTime() - writeStart);
+          stats.bytes.addAndGet(chunk.length);
+
+          recycle(chunk.data);
+        }
+
+        if (segment.error != null) {
+          throw asIOException(segment.error);
+        }
+      }
+
+      long flushStart = System.nanoTime();
+      outputStream.flush();
+      stats.write.addAndGet(System.nanoTime() - flushStart);
+    } catch (IOException | InterruptedException | RuntimeException e) {
+      failure = e;
+      throw e;
+    }
+  }
+
+  private @NonNull FrameCipher getFrameCipher() {
+    FrameCipher frameCipher = frameCiphers.get();
+
+    if (frameCipher == null) {
+      frameCipher = new FrameCipher();
+      frameCiphers.set(frameCipher);
+    }
+
+    return frameCipher;
+  }
+
+  private @NonNull byte[] obtainBuffer(int minimumSize) {
+    if (minimumSize > BUFFER_SIZE) {
+      return new byte[minimumSize];
+    }
+
+    byte[] buffer = freeBuffers.poll();
+    return buffer != null ? buffer : new byte[BUFFER_SIZE];
+  }
+
+  private void recycle(@NonNull byte[] buffer) {
+    if (buffer.length == BUFFER_SIZE) {
+      freeBuffers.offer(buffer);
+    }
+  }
+
+  private static @NonNull IOException asIOException(@NonNull Throwable t) {
+    if (t instanceof IOException) return (IOException) t;
+    else                          return new IOException(t);
+  }
+
+  private interface SegmentEncoder {
+    void encode(@NonNull Segment segment) throws IOException, InterruptedException;
+  }
+
+  /**
+   * One worker thread's cipher state. Keys are only set up once, and frames are serialized and
+   * encrypted in place into the segment's current buffer.
+   */
+  private final class FrameCipher {
+
+    private final Cipher        cipher;
+    private final Mac           mac;
+    private final SecretKeySpec cipherKeySpec;
+    private final byte[]        frameIv;
+    private final byte[]        plaintext;
+    private final byte[]        digest;
+
+    private byte[] frameBuffer;
+
+    private FrameCipher() {
+      try {
+        this.cipher        = Cipher.getInstance("AES/CTR/NoPadding");
+        this.mac           = Mac.getInstance("HmacSHA256");
+        this.cipherKeySpec = new SecretKeySpec(cipherKey, "AES");
+        this.frameIv       = iv.clone();
+        this.plaintext     = new byte[8192];
+        this.digest        = new byte[mac.getMacLength()];
+        this.frameBuffer   = new byte[1024];
+
+        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+      } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    void encryptFrame(@NonNull Segment segment, @NonNull BackupProtos.BackupFrame frame, int frameCounter)
+        throws IOException, InterruptedException
+    {
+      long encodeStart = System.nanoTime();
+      int  frameLength = frame.getSerializedSize();
+
+      if (frameBuffer.length < frameLength) {
+        frameBuffer = new byte[Math.max(frameLength, frameBuffer.length * 2)];
+      }
+
+      CodedOutputStream codedOutput = CodedOutputStream.newInstance(frameBuffer, 0, frameLength);
+      frame.writeTo(codedOutput);
+      codedOutput.checkNoSpaceLeft();
+
+      long encryptStart = System.nanoTime();
+      stats.encode.addAndGet(encryptStart - encodeStart);
+
+      Chunk chunk = segment.reserve(4 + frameLength + MAC_LENGTH);
+
+      try {
+        Conversions.intToByteArray(frameIv, 0, frameCounter);
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKeySpec, new IvParameterSpec(frameIv));
+
+        int ciphertextOffset = chunk.length + 4;
+        int ciphertextLength = cipher.doFinal(frameBuffer, 0, frameLength, chunk.data, ciphertextOffset);
+
+        mac.update(chunk.data, ciphertextOffset, ciphertextLength);
+        mac.doFinal(digest, 0);
+
+        Conversions.intToByteArray(chunk.data, chunk.length, ciphertextLength + MAC_LENGTH);
+        System.arraycopy(digest, 0, chunk.data, ciphertextOffset + ciphertextLength, MAC_LENGTH);
+
+        chunk.length = ciphertextOffset + ciphertextLength + MAC_LENGTH;
+      } catch (GeneralSecurityException e) {
+        throw new AssertionError(e);
+      }
+
+      stats.encrypt.addAndGet(System.nanoTime() - encryptStart);
+    }
+
+    void encryptStream(@NonNull Segment segment, @NonNull InputStream inputStream, int streamCounter)
+        throws IOException, InterruptedException
+    {
+      try {
+        Conversions.intToByteArray(frameIv, 0, streamCounter);
+        cipher.init(Cipher.ENCRYPT_MODE, cipherKeySpec, new IvParameterSpec(frameIv));
+        mac.update(frameIv);
+
+        while (true) {
+          long readStart = System.nanoTime();
+          int  read      = inputStream.read(plaintext);
+          long readEnd   = System.nanoTime();
+
+          stats.decrypt.addAndGet(readEnd - readStart);
+
+          if (read == -1) break;
+
+          Chunk chunk   = segment.reserve(cipher.getOutputSize(read));
+          int   written = cipher.update(plaintext, 0, read, chunk.data, chunk.length);
+
+          mac.update(chunk.data, chunk.length, written);
+          chunk.length += written;
+
+          stats.encrypt.addAndGet(System.nanoTime() - readEnd);
+        }
+
+        long  finishStart = System.nanoTime();
+        Chunk chunk       = segment.reserve(cipher.getOutputSize(0) + MAC_LENGTH);
+        int   written     = cipher.doFinal(chunk.data, chunk.length);
+
+        mac.update(chunk.data, chunk.length, written);
+        mac.doFinal(digest, 0);
+
+        System.arraycopy(digest, 0, chunk.data, chunk.length + written, MAC_LENGTH);
+        chunk.length += written + MAC_LENGTH;
+
+        stats.encrypt.addAndGet(System.nanoTime() - finishStart);
+      } catch (GeneralSecurityException e) {
+        throw new AssertionError(e);
+      }
+    }
+  }
+
+  /**
+   * A contiguous piece of the output, handed from a worker to the writer one buffer at a time.
+   */
+  private final class Segment {
+
+    private final BlockingQueue<Chunk> chunks;
+
+    private Chunk current;
+
+    private volatile Throwable error;
+
+    private Segment() {
+      this.chunks = new ArrayBlockingQueue<>(MAX_QUEUED_BUFFERS);
+    }
+
+    /**
+     * Returns a chunk with at least the requested amount of space left after its current length.
+     */
+    @NonNull Chunk reserve(int size) throws InterruptedException {
+      if (current != null && current.data.length - current.length >= size) {
+        return current;
+      }
+
+      flush();
+      current = new Chunk(obtainBuffer(size));
+
+      return current;
+    }
+
+    void flush() throws InterruptedException {
+      if (current != null && current.length > 0) {
+        chunks.put(current);
+      }
+
+      current = null;
+    }
+
+    void finish() {
+      try {
+        chunks.put(END_OF_SEGMENT);
+      } catch (InterruptedException e) {
+        Log.w(TAG, "Interrupted before the segment could be finished.");
+      }
+    }
+
+    @NonNull Chunk take() throws InterruptedException {
+      long  waitStart = System.nanoTime();
+      Chunk chunk     = chunks.take();
+
+      stats.writeWait.addAndGet(System.nanoTime() - waitStart);
+      return chunk;
+    }
+  }
+
+  private static final class Chunk {
+    private final byte[] data;
+    private       int    length;
+
+    private Chunk(@NonNull byte[] data) {
+      this.data = data;
+    }
+  }
+
+  private static final class Stats {
+    private final AtomicLong decrypt    = new AtomicLong();
+    private final AtomicLong encode     = new AtomicLong();
+    private final AtomicLong encrypt    = new AtomicLong();
+    private final AtomicLong write      = new AtomicLong();
+    private final AtomicLong writeWait  = new AtomicLong();
+    private final AtomicLong submitWait = new AtomicLong();
+    private final AtomicLong bytes      = new AtomicLong();
+    private final AtomicLong total      = new AtomicLong();
+
+    @Override
+    public @NonNull String toString() {
+      return String.format("total: %d ms | bytes: %d | decrypt: %d ms | encode: %d ms | encrypt: %d ms | write: %d ms | writer waiting: %d ms | reader waiting: %d ms",
+                           total.get(), bytes.get(), millis(decrypt), millis(encode), millis(encrypt), millis(write), millis(writeWait), millis(submitWait));
+    }
+
+    private static long millis(@NonNull AtomicLong nanos) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos.get());
+    }
+  }
+}
@@ -41,20 +41,9 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.security.InvalidAlgorithmParameterException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
 import java.util.LinkedList;
 import java.util.List;
 
-import javax.crypto.BadPaddingException;
-import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.IvParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
-
 public class FullBackupExporter extends FullBackupBase {
 
   @SuppressWarnings("unused")
@@ -68,6 +57,23 @@ public class FullBackupExporter extends FullBackupBase {
       throws IOException
   {
     BackupFrameOutputStream outputStream = new BackupFrameOutputStream(output, passphrase);
+    int                     count;
+
+    try {
+      count = export(context, attachmentSecret, input, outputStream);
+    } finally {
+      outputStream.close();
+    }
+
+    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count));
+  }
+
+  private static int export(@NonNull Context context,
+                            @NonNull AttachmentSecret attachmentSecret,
+                            @NonNull SQLiteDatabase input,
+                            @NonNull BackupFrameOutputStream outputStream)
+      throws IOException
+  {
     outputStream.writeDatabaseVersion(input.getVersion());
 
     List<String> tables = exportSchema(input, outputStream);
@@ -104,8 +110,9 @@ public class FullBackupExporter extends FullBackupBase {
     }
 
     outputStream.writeEnd();
-    outputStream.close();
-    EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.FINISHED, ++count));
+    outputStream.finish();
+
+    return count;
   }
 
   private static List<String> exportSchema(@NonNull SQLiteDatabase input, @NonNull BackupFrameOutputStream outputStream)
@@ -275,146 +282,87 @@ public class FullBackupExporter extends FullBackupBase {
 
   private static class BackupFrameOutputStream extends BackupStream {
 
-    private final OutputStream outputStream;
-    private final Cipher       cipher;
-    private final Mac          mac;
+    private final OutputStream        outputStream;
+    private final BackupFramePipeline pipeline;
 
-    private final byte[]       cipherKey;
-    private final byte[]       macKey;
+    private BackupFrameOutputStream(@NonNull File output, @NonNull String passphrase) throws IOException {
+      byte[]   salt    = Util.getSecretBytes(32);
+      byte[]   key     = getBackupKey(passphrase, salt);
+      byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
+      byte[][] split   = ByteUtil.split(derived, 32, 32);
+      byte[]   iv      = Util.getSecretBytes(16);
 
-    private byte[] iv;
-    private int    counter;
+      this.outputStream = new FileOutputStream(output);
 
-    private BackupFrameOutputStream(@NonNull File output, @NonNull String passphrase) throws IOException {
-      try {
-        byte[]   salt    = Util.getSecretBytes(32);
-        byte[]   key     = getBackupKey(passphrase, salt);
-        byte[]   derived = new HKDFv3().deriveSecrets(key, "Backup Export".getBytes(), 64);
-        byte[][] split   = ByteUtil.split(derived, 32, 32);
-
-        this.cipherKey = split[0];
-        this.macKey    = split[1];
-
-        this.cipher       = Cipher.getInstance("AES/CTR/NoPadding");
-        this.mac          = Mac.getInstance("HmacSHA256");
-        this.outputStream = new FileOutputStream(output);
-        this.iv           = Util.getSecretBytes(16);
-        this.counter      = Conversions.byteArrayToInt(iv);
-
-        mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
-
-        byte[] header = BackupProtos.BackupFrame.newBuilder().setHeader(BackupProtos.Header.newBuilder()
-                                                                                           .setIv(ByteString.copyFrom(iv))
-                                                                                           .setSalt(ByteString.copyFrom(salt)))
-                                                .build().toByteArray();
-
-        outputStream.write(Conversions.intToByteArray(header.length));
-        outputStream.write(header);
-      } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
-        throw new AssertionError(e);
-      }
+      byte[] header = BackupProtos.BackupFrame.newBuilder().setHeader(BackupProtos.Header.newBuilder()
+                                                                                         .setIv(ByteString.copyFrom(iv))
+                                                                                         .setSalt(ByteString.copyFrom(salt)))
+                                              .build().toByteArray();
+
+      outputStream.write(Conversions.intToByteArray(header.length));
+      outputStream.write(header);
+
+      this.pipeline = new BackupFramePipeline(outputStream, split[0], split[1], iv, BackupFramePipeline.getDefaultWorkerCount());
     }
 
     public void write(BackupProtos.SharedPreference preference) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
+      pipeline.write(BackupProtos.BackupFrame.newBuilder().setPreference(preference).build());
     }
 
     public void write(BackupProtos.SqlStatement statement) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
+      pipeline.write(BackupProtos.BackupFrame.newBuilder().setStatement(statement).build());
     }
 
     public void write(@NonNull String avatarName, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAvatar(BackupProtos.Avatar.newBuilder()
-                                                                                .setRecipientId(avatarName)
-                                                                                .setLength(Util.toIntExact(size))
-                                                                                .build())
-                                                  .build());
-
-      writeStream(in);
+      pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                             .setAvatar(BackupProtos.Avatar.newBuilder()
+                                                                           .setRecipientId(avatarName)
+                                                                           .setLength(Util.toIntExact(size))
+                                                                           .build())
+                                             .build(),
+                     in);
     }
 
     public void write(@NonNull AttachmentId attachmentId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setAttachment(BackupProtos.Attachment.newBuilder()
-                                                                                        .setRowId(attachmentId.getRowId())
-                                                                                        .setAttachmentId(attachmentId.getUniqueId())
-                                                                                        .setLength(Util.toIntExact(size))
-                                                                                        .build())
-                                                  .build());
-
-      writeStream(in);
+      pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                             .setAttachment(BackupProtos.Attachment.newBuilder()
+                                                                                   .setRowId(attachmentId.getRowId())
+                                                                                   .setAttachmentId(attachmentId.getUniqueId())
+                                                                                   .setLength(Util.toIntExact(size))
+                                                                                   .build())
+                                             .build(),
+                     in);
     }
 
     public void writeSticker(long rowId, @NonNull InputStream in, long size) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setSticker(BackupProtos.Sticker.newBuilder()
-                                                                                  .setRowId(rowId)
-                                                                                  .setLength(Util.toIntExact(size))
-                                                                                  .build())
-                                                  .build());
-
-      writeStream(in);
+      pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                             .setSticker(BackupProtos.Sticker.newBuilder()
+                                                                             .setRowId(rowId)
+                                                                             .setLength(Util.toIntExact(size))
+                                                                             .build())
+                                             .build(),
+                     in);
     }
 
     void writeDatabaseVersion(int version) throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder()
-                                                  .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
-                                                  .build());
+      pipeline.write(BackupProtos.BackupFrame.newBuilder()
+                                             .setVersion(BackupProtos.DatabaseVersion.newBuilder().setVersion(version))
+                                             .build());
     }
 
     void writeEnd() throws IOException {
-      write(outputStream, BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
+      pipeline.write(BackupProtos.BackupFrame.newBuilder().setEnd(true).build());
     }
 
-    private void writeStream(@NonNull InputStream inputStream) throws IOException {
-      try {
-        Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
-        mac.update(iv);
-
-        byte[] buffer = new byte[8192];
-        int read;
-
-        while ((read = inputStream.read(buffer)) != -1) {
-          byte[] ciphertext = cipher.update(buffer, 0, read);
-
-          if (ciphertext != null) {
-            outputStream.write(ciphertext);
-            mac.update(ciphertext);
-          }
-        }
-
-        byte[] remainder = cipher.doFinal();
-        outputStream.write(remainder);
-        mac.update(remainder);
-
-        byte[] attachmentDigest = mac.doFinal();
-        outputStream.write(attachmentDigest, 0, 10);
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-        throw new AssertionError(e);
-      }
-    }
-
-    private void write(@NonNull OutputStream out, @NonNull BackupProtos.BackupFrame frame) throws IOException {
-      try {
-        Conversions.intToByteArray(iv, 0, counter++);
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(cipherKey, "AES"), new IvParameterSpec(iv));
-
-        byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
-        byte[] frameMac        = mac.doFinal(frameCiphertext);
-        byte[] length          = Conversions.intToByteArray(frameCiphertext.length + 10);
-
-        out.write(length);
-        out.write(frameCiphertext);
-        out.write(frameMac, 0, 10);
-      } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-        throw new AssertionError(e);
-      }
+    /**
+     * Waits for every frame written so far to be encrypted and written out.
+     */
+    void finish() throws IOException {
+      pipeline.finish();
     }
 
-
     public void close() throws IOException {
+      pipeline.shutdown();
       outputStream.close();
     }
   }
@@ -10,6 +10,7 @@ import androidx.annotation.NonNull;
 import android.util.Pair;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.backup.BackupProtos.Attachment;
@@ -44,8 +45,11 @@ import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -65,6 +69,8 @@ public class FullBackupImporter extends FullBackupBase {
       throws IOException
   {
     BackupRecordInputStream inputStream = new BackupRecordInputStream(file, passphrase);
+    StatementReplayer       replayer    = new StatementReplayer(db);
+    BackgroundFileWriter    fileWriter  = new BackgroundFileWriter();
     int                     count       = 0;
 
     try {
@@ -78,15 +84,20 @@ public class FullBackupImporter extends FullBackupBase {
         if (count++ % 100 == 0) EventBus.getDefault().post(new BackupEvent(BackupEvent.Type.PROGRESS, count));
 
         if      (frame.hasVersion())    processVersion(db, frame.getVersion());
-        else if (frame.hasStatement())  processStatement(db, frame.getStatement());
+        else if (frame.hasStatement())  processStatement(replayer, frame.getStatement());
         else if (frame.hasPreference()) processPreference(context, frame.getPreference());
-        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream);
-        else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream);
-        else if (frame.hasAvatar())     processAvatar(context, frame.getAvatar(), inputStream);
+        else if (frame.hasAttachment()) processAttachment(context, attachmentSecret, db, frame.getAttachment(), inputStream, fileWriter);
+        else if (frame.hasSticker())    processSticker(context, attachmentSecret, db, frame.getSticker(), inputStream, fileWriter);
+        else if (frame.hasAvatar())     processAvatar(context, frame.getAvatar(), inputStream, fileWriter);
       }
 
+      replayer.finish();
+      fileWriter.finish();
+
       db.setTransactionSuccessful();
     } finally {
+      replayer.close();
+      fileWriter.close();
       db.endTransaction();
     }
 
@@ -101,7 +112,7 @@ public class FullBackupImporter extends FullBackupBase {
     db.setVersion(version.getVersion());
   }
 
-  private static void processStatement(@NonNull SQLiteDatabase db, SqlStatement statement) {
+  private static void processStatement(@NonNull StatementReplayer replayer, SqlStatement statement) {
     boolean isForSmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_");
     boolean isForMmsFtsSecretTable = statement.getStatement().contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_");
     boolean isForSqliteSecretTable = statement.getStatement().toLowerCase().startsWith("create table sqlite_");
@@ -111,21 +122,10 @@ public class FullBackupImporter extends FullBackupBase {
       return;
     }
 
-    List<Object> parameters = new LinkedList<>();
-
-    for (SqlStatement.SqlParameter parameter : statement.getParametersList()) {
-      if      (parameter.hasStringParamter())   parameters.add(parameter.getStringParamter());
-      else if (parameter.hasDoubleParameter())  parameters.add(parameter.getDoubleParameter());
-      else if (parameter.hasIntegerParameter()) parameters.add(parameter.getIntegerParameter());
-      else if (parameter.hasBlobParameter())    parameters.add(parameter.getBlobParameter().toByteArray());
-      else if (parameter.hasNullparameter())    parameters.add(null);
-    }
-
-    if (parameters.size() > 0) db.execSQL(statement.getStatement(), parameters.toArray());
-    else                       db.execSQL(statement.getStatement());
+    replayer.replay(statement);
   }
 
-  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream)
+  private static void processAttachment(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Attachment attachment, BackupRecordInputStream inputStream, @NonNull BackgroundFileWriter fileWriter)
       throws IOException
   {
     File partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
@@ -133,7 +133,7 @@ public class FullBackupImporter extends FullBackupBase {
 
     Pair<byte[], OutputStream> output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
 
-    inputStream.readAttachmentTo(output.second, attachment.getLength());
+    inputStream.readAttachmentTo(fileWriter.wrap(output.second), attachment.getLength());
 
     ContentValues contentValues = new ContentValues();
     contentValues.put(AttachmentDatabase.DATA, dataFile.getAbsolutePath());
@@ -145,7 +145,7 @@ public class FullBackupImporter extends FullBackupBase {
               new String[] {String.valueOf(attachment.getRowId()), String.valueOf(attachment.getAttachmentId())});
   }
 
-  private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream)
+  private static void processSticker(@NonNull Context context, @NonNull AttachmentSecret attachmentSecret, @NonNull SQLiteDatabase db, @NonNull Sticker sticker, BackupRecordInputStream inputStream, @NonNull BackgroundFileWriter fileWriter)
       throws IOException
   {
     File stickerDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE);
@@ -153,7 +153,7 @@ public class FullBackupImporter extends FullBackupBase {
 
     Pair<byte[], OutputStream> output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false);
 
-    inputStream.readAttachmentTo(output.second, sticker.getLength());
+    inputStream.readAttachmentTo(fileWriter.wrap(output.second), sticker.getLength());
 
     ContentValues contentValues = new ContentValues();
     contentValues.put(StickerDatabase.FILE_PATH, dataFile.getAbsolutePath());
@@ -164,11 +164,11 @@ public class FullBackupImporter extends FullBackupBase {
               new String[] {String.valueOf(sticker.getRowId())});
   }
 
-  private static void processAvatar(@NonNull Context context, @NonNull BackupProtos.Avatar avatar, @NonNull BackupRecordInputStream inputStream) throws IOException {
+  private static void processAvatar(@NonNull Context context, @NonNull BackupProtos.Avatar avatar, @NonNull BackupRecordInputStream inputStream, @NonNull BackgroundFileWriter fileWriter) throws IOException {
     Recipient recipient = avatar.hasRecipientId() ? Recipient.resolved(RecipientId.from(avatar.getRecipientId()))
                                                   : Recipient.external(context, avatar.getName());
 
-    inputStream.readAttachmentTo(new FileOutputStream(AvatarHelper.getAvatarFile(context, recipient.getId())), avatar.getLength());
+    inputStream.readAttachmentTo(fileWriter.wrap(new FileOutputStream(AvatarHelper.getAvatarFile(context, recipient.getId()))), avatar.getLength());
   }
 
   @SuppressLint("ApplySharedPref")
@@ -190,6 +190,103 @@ public class FullBackupImporter extends FullBackupBase {
     }
   }
 
+  /**
+   * Replays the SQL statements in a backup. Each distinct parameterized statement, which in practice
+   * means one INSERT per table, is compiled once and then rebound for every row.
+   *
+   * Indices and triggers are only created once every row has been inserted. The search tables are
+   * then rebuilt in a single pass, rather than being updated by a trigger for each message.
+   */
+  private static final class StatementReplayer {
+
+    private static final Pattern CREATE_INDEX   = Pattern.compile("^\\s*CREATE\\s+(UNIQUE\\s+)?INDEX\\s", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CREATE_TRIGGER = Pattern.compile("^\\s*CREATE\\s+(TEMP\\s+|TEMPORARY\\s+)?TRIGGER\\s", Pattern.CASE_INSENSITIVE);
+
+    private final SQLiteDatabase               db;
+    private final Map<String, SQLiteStatement> compiledStatements;
+    private final List<String>                 deferredIndices;
+    private final List<String>                 deferredTriggers;
+
+    private StatementReplayer(@NonNull SQLiteDatabase db) {
+      this.db                 = db;
+      this.compiledStatements = new HashMap<>();
+      this.deferredIndices    = new LinkedList<>();
+      this.deferredTriggers   = new LinkedList<>();
+    }
+
+    void replay(@NonNull SqlStatement statement) {
+      String sql = statement.getStatement();
+
+      if (statement.getParametersCount() == 0) {
+        if      (CREATE_INDEX.matcher(sql).find())   deferredIndices.add(sql);
+        else if (CREATE_TRIGGER.matcher(sql).find()) deferredTriggers.add(sql);
+        else                                         db.execSQL(sql);
+        return;
+      }
+
+      SQLiteStatement compiled = compiledStatements.get(sql);
+
+      if (compiled == null) {
+        compiled = db.compileStatement(sql);
+        compiledStatements.put(sql, compiled);
+      }
+
+      compiled.clearBindings();
+
+      int index = 1;
+
+      for (SqlStatement.SqlParameter parameter : statement.getParametersList()) {
+        if      (parameter.hasStringParamter())   compiled.bindString(index++, parameter.getStringParamter());
+        else if (parameter.hasDoubleParameter())  compiled.bindDouble(index++, parameter.getDoubleParameter());
+        else if (parameter.hasIntegerParameter()) compiled.bindLong(index++, parameter.getIntegerParameter());
+        else if (parameter.hasBlobParameter())    compiled.bindBlob(index++, parameter.getBlobParameter().toByteArray());
+        else if (parameter.hasNullparameter())    compiled.bindNull(index++);
+      }
+
+      compiled.execute();
+    }
+
+    /**
+     * Creates the indices and triggers that were held back, and populates the search tables.
+     */
+    void finish() {
+      long startTime = System.currentTimeMillis();
+
+      for (String sql : deferredIndices) {
+        db.execSQL(sql);
+      }
+
+      long indexTime = System.currentTimeMillis();
+
+      rebuildSearchTable(SearchDatabase.SMS_FTS_TABLE_NAME);
+      rebuildSearchTable(SearchDatabase.MMS_FTS_TABLE_NAME);
+
+      for (String sql : deferredTriggers) {
+        db.execSQL(sql);
+      }
+
+      Log.i(TAG, "Created " + deferredIndices.size() + " indices in " + (indexTime - startTime) + " ms, rebuilt search in " + (System.currentTimeMillis() - indexTime) + " ms.");
+    }
+
+    void close() {
+      for (SQLiteStatement compiled : compiledStatements.values()) {
+        compiled.close();
+      }
+
+      compiledStatements.clear();
+    }
+
+    private void rebuildSearchTable(@NonNull String table) {
+      try (Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table' AND name = ?", new String[] { table })) {
+        if (cursor == null || !cursor.moveToFirst()) {
+          return;
+        }
+      }
+
+      db.execSQL("INSERT INTO " + table + "(" + table + ") VALUES ('rebuild')");
+    }
+  }
+
   private static class BackupRecordInputStream extends BackupStream {
 
     private final InputStream in;
@@ -92,11 +92,11 @@ class EmojiProvider {
     if (matches == null || text == null) return null;
     SpannableStringBuilder      builder = new SpannableStringBuilder(text);
 
-    for (EmojiParser.Candidate candidate : matches) {
-      Drawable drawable = getEmojiDrawable(candidate.getDrawInfo());
+    for (int i = 0; i < matches.size(); i++) {
+      Drawable drawable = getEmojiDrawable(matches.getDrawInfo(i));
 
       if (drawable != null) {
-        builder.setSpan(new EmojiSpan(drawable, tv), candidate.getStartIndex(), candidate.getEndIndex(),
+        builder.setSpan(new EmojiSpan(drawable, tv), matches.getStartIndex(i), matches.getEndIndex(i),
                         Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
       }
     }
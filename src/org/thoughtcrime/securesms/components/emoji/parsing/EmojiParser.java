@@ -24,15 +24,22 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Based in part on code from emoji-java
  */
 public class EmojiParser {
 
+  private static final ThreadLocal<CandidateBuffer> BUFFER = new ThreadLocal<CandidateBuffer>() {
+    @Override
+    protected CandidateBuffer initialValue() {
+      return new CandidateBuffer();
+    }
+  };
+
   private final EmojiTree emojiTree;
 
   public EmojiParser(EmojiTree emojiTree) {
@@ -40,16 +47,17 @@ public class EmojiParser {
   }
 
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
-
-    if (text == null) {
-      return new CandidateList(results, false);
+    if (text == null || text.length() == 0) {
+      return CandidateList.EMPTY;
     }
 
-    boolean allEmojis = text.length() > 0;
+    CandidateBuffer buffer    = BUFFER.get();
+    boolean         allEmojis = true;
+
+    buffer.clear();
 
     for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      int emojiEnd = emojiTree.getLongestEmojiEnd(text, i);
 
       if (emojiEnd != -1) {
         EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
@@ -60,7 +68,7 @@ public class EmojiParser {
           }
         }
 
-        results.add(new Candidate(i, emojiEnd, drawInfo));
+        buffer.add(i, emojiEnd, drawInfo);
 
         i = emojiEnd - 1;
       } else if (text.charAt(i) != ' '){
@@ -68,25 +76,9 @@ public class EmojiParser {
       }
     }
 
-    allEmojis &= !results.isEmpty();
+    allEmojis &= buffer.size > 0;
 
-    return new CandidateList(results, allEmojis);
-  }
-
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
-    }
-
-    return best;
+    return buffer.toCandidateList(allEmojis);
   }
 
   public static class Candidate {
@@ -114,22 +106,108 @@ public class EmojiParser {
     }
   }
 
+  /**
+   * The candidates are stored in parallel arrays. Use the indexed getters to read them without
+   * allocating, or iterate to get {@link Candidate} objects.
+   */
   public static class CandidateList implements Iterable<Candidate> {
-    public final List<EmojiParser.Candidate> list;
-    public final boolean                     allEmojis;
 
-    public CandidateList(List<EmojiParser.Candidate> candidates, boolean allEmojis) {
-      this.list = candidates;
-      this.allEmojis = allEmojis;
+    private static final CandidateList EMPTY = new CandidateList(new int[0], new int[0], new EmojiDrawInfo[0], false);
+
+    private final int[]           startIndices;
+    private final int[]           endIndices;
+    private final EmojiDrawInfo[] drawInfos;
+
+    public final boolean allEmojis;
+
+    private CandidateList(int[] startIndices, int[] endIndices, EmojiDrawInfo[] drawInfos, boolean allEmojis) {
+      this.startIndices = startIndices;
+      this.endIndices   = endIndices;
+      this.drawInfos    = drawInfos;
+      this.allEmojis    = allEmojis;
     }
 
     public int size() {
-      return list.size();
+      return startIndices.length;
+    }
+
+    public int getStartIndex(int index) {
+      return startIndices[index];
+    }
+
+    public int getEndIndex(int index) {
+      return endIndices[index];
+    }
+
+    public EmojiDrawInfo getDrawInfo(int index) {
+      return drawInfos[index];
     }
 
     @Override
     public @NonNull Iterator<Candidate> iterator() {
-      return list.iterator();
+      return new Iterator<Candidate>() {
+        private int index = 0;
+
+        @Override
+        public boolean hasNext() {
+          return index < size();
+        }
+
+        @Override
+        public Candidate next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+
+          Candidate candidate = new Candidate(startIndices[index], endIndices[index], drawInfos[index]);
+          index++;
+          return candidate;
+        }
+      };
+    }
+  }
+
+  /**
+   * Scratch space for a single parse. There's one per thread, so it only grows to fit the most
+   * emoji-heavy text that thread has seen, and each parse only allocates the final list.
+   */
+  private static class CandidateBuffer {
+
+    private int[]           startIndices = new int[16];
+    private int[]           endIndices   = new int[16];
+    private EmojiDrawInfo[] drawInfos    = new EmojiDrawInfo[16];
+    private int             size;
+
+    void clear() {
+      Arrays.fill(drawInfos, 0, size, null);
+      size = 0;
+    }
+
+    void add(int startIndex, int endIndex, @Nullable EmojiDrawInfo drawInfo) {
+      if (size == startIndices.length) {
+        startIndices = Arrays.copyOf(startIndices, size * 2);
+        endIndices   = Arrays.copyOf(endIndices, size * 2);
+        drawInfos    = Arrays.copyOf(drawInfos, size * 2);
+      }
+
+      startIndices[size] = startIndex;
+      endIndices[size]   = endIndex;
+      drawInfos[size]    = drawInfo;
+      size++;
+    }
+
+    @NonNull CandidateList toCandidateList(boolean allEmojis) {
+      if (size == 0) {
+        return CandidateList.EMPTY;
+      }
+
+      CandidateList list = new CandidateList(Arrays.copyOf(startIndices, size),
+                                             Arrays.copyOf(endIndices, size),
+                                             Arrays.copyOf(drawInfos, size),
+                                             allEmojis);
+      clear();
+
+      return list;
     }
   }
 
@@ -20,10 +20,10 @@
 
 package org.thoughtcrime.securesms.components.emoji.parsing;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Based in part on code from emoji-java
@@ -38,65 +38,75 @@ public class EmojiTree {
     EmojiTreeNode tree = root;
 
     for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+      EmojiTreeNode child = tree.getChild(c);
+
+      if (child == null) {
+        child = tree.addChild(c);
       }
 
-      tree = tree.getChild(c);
+      tree = child;
     }
 
     tree.setEmoji(emoji);
   }
 
-  public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
-    if (sequence == null) {
-      return Matches.POSSIBLY;
-    }
-
+  /**
+   * Finds the longest emoji that starts at startPosition, walking down the tree a single time.
+   *
+   * @return The end position (exclusive) of the longest emoji, or -1 if there isn't one.
+   */
+  public int getLongestEmojiEnd(@NonNull CharSequence sequence, int startPosition) {
     EmojiTreeNode tree = root;
+    int           best = -1;
 
-    for (int i=startPosition; i<endPosition; i++) {
+    for (int i = startPosition; i < sequence.length(); i++) {
       char character = sequence.charAt(i);
 
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
+      tree = tree.getChild(character);
+
+      if (tree == null) {
+        return best;
       }
 
-      tree = tree.getChild(character);
+      if (tree.isEndOfEmoji() || (character != TERMINATOR && isEndOfEmoji(tree.getChild(TERMINATOR)))) {
+        best = i + 1;
+      }
     }
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else {
-      return Matches.POSSIBLY;
-    }
+    return best;
   }
 
   public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPostiion) {
     EmojiTreeNode tree = root;
 
     for (int i=startPosition; i<endPostiion; i++) {
-      char character = unicode.charAt(i);
+      tree = tree.getChild(unicode.charAt(i));
 
-      if (!tree.hasChild(character)) {
+      if (tree == null) {
         return null;
       }
-
-      tree = tree.getChild(character);
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPostiion-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
+    EmojiTreeNode terminator = tree.getChild(TERMINATOR);
+
+    if      (tree.getEmoji() != null)                                           return tree.getEmoji();
+    else if (unicode.charAt(endPostiion-1) != TERMINATOR && terminator != null) return terminator.getEmoji();
     else    return null;
   }
 
+  private static boolean isEndOfEmoji(@Nullable EmojiTreeNode node) {
+    return node != null && node.isEndOfEmoji();
+  }
 
+  /**
+   * Children are kept in a sorted array rather than a map, so that looking one up doesn't box the
+   * character. The tree is built once and then only read.
+   */
   private static class EmojiTreeNode {
 
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
+    private char[]          keys     = new char[0];
+    private EmojiTreeNode[] children = new EmojiTreeNode[0];
+    private EmojiDrawInfo   emoji;
 
     public void setEmoji(EmojiDrawInfo emoji) {
       this.emoji = emoji;
@@ -106,33 +116,35 @@ public class EmojiTree {
       return emoji;
     }
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
-    }
+    @NonNull EmojiTreeNode addChild(char child) {
+      int           index = -(Arrays.binarySearch(keys, child) + 1);
+      EmojiTreeNode node  = new EmojiTreeNode();
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
-    }
+      char[]          newKeys     = new char[keys.length + 1];
+      EmojiTreeNode[] newChildren = new EmojiTreeNode[children.length + 1];
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
-    }
+      System.arraycopy(keys, 0, newKeys, 0, index);
+      System.arraycopy(children, 0, newChildren, 0, index);
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
-    }
-  }
+      newKeys[index]     = child;
+      newChildren[index] = node;
 
-  public enum Matches {
-    EXACTLY, POSSIBLY, IMPOSSIBLE;
+      System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+      System.arraycopy(children, index, newChildren, index + 1, children.length - index);
 
-    public boolean exactMatch() {
-      return this == EXACTLY;
+      keys     = newKeys;
+      children = newChildren;
+
+      return node;
     }
 
-    public boolean impossibleMatch() {
-      return this == IMPOSSIBLE;
+    @Nullable EmojiTreeNode getChild(char child) {
+      int index = Arrays.binarySearch(keys, child);
+      return index >= 0 ? children[index] : null;
     }
-  }
 
+    boolean isEndOfEmoji() {
+      return emoji != null;
+    }
+  }
 }
@@ -28,11 +28,9 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import com.annimon.stream.Stream;
 
 import org.thoughtcrime.securesms.BindableConversationItem;
 import org.thoughtcrime.securesms.R;
-import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.conversation.ConversationAdapter.HeaderViewHolder;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.FastCursorRecyclerViewAdapter;
@@ -44,24 +42,22 @@ import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.mms.GlideRequests;
 import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.recipients.Recipient;
-import org.thoughtcrime.securesms.util.Conversions;
 import org.thoughtcrime.securesms.util.DateUtils;
-import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.LongLRUCache;
 import org.thoughtcrime.securesms.util.StickyHeaderDecoration;
 import org.thoughtcrime.securesms.util.Util;
 import org.thoughtcrime.securesms.util.ViewUtil;
+import org.thoughtcrime.securesms.util.concurrent.SignalExecutors;
 import org.whispersystems.libsignal.util.guava.Optional;
 
-import java.lang.ref.SoftReference;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
 import java.util.Set;
 
 /**
@@ -77,10 +73,13 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   implements StickyHeaderDecoration.StickyHeaderAdapter<HeaderViewHolder>
 {
 
-  private static final int MAX_CACHE_SIZE = 40;
   private static final String TAG = ConversationAdapter.class.getSimpleName();
-  private final Map<String,SoftReference<MessageRecord>> messageRecordCache =
-      Collections.synchronizedMap(new LRUCache<String, SoftReference<MessageRecord>>(MAX_CACHE_SIZE));
+
+  private static final int  MIN_CACHE_SIZE = 40;
+  private static final int  CACHED_PAGES   = 3;
+  private static final long NO_ITEM_ID     = Long.MIN_VALUE;
+
+  private final LongLRUCache<MessageRecord> messageRecordCache = new LongLRUCache<>(MIN_CACHE_SIZE);
 
   private static final int MESSAGE_TYPE_OUTGOING           = 0;
   private static final int MESSAGE_TYPE_INCOMING           = 1;
@@ -101,11 +100,22 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   private final @NonNull  MmsSmsDatabase    db;
   private final @NonNull  LayoutInflater    inflater;
   private final @NonNull  Calendar          calendar;
-  private final @NonNull  MessageDigest     digest;
 
   private MessageRecord recordToPulseHighlight;
   private String        searchQuery;
 
+  private Cursor                   readerCursor;
+  private MmsSmsDatabase.Reader    reader;
+  private long[]                   itemIdCache;
+  private MmsSmsDatabase.PageKey[] pageKeyCache;
+
+  private long    threadId = -1;
+  private int     cacheGeneration;
+  private boolean prefetching;
+  private int     lastFirstVisiblePosition;
+  private int     prefetchedStart = -1;
+  private int     prefetchedEnd   = -1;
+
   protected static class ViewHolder extends RecyclerView.ViewHolder {
     public <V extends View & BindableConversationItem> ViewHolder(final @NonNull V itemView) {
       super(itemView);
@@ -146,18 +156,13 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   @VisibleForTesting
   ConversationAdapter(Context context, Cursor cursor) {
     super(context, cursor);
-    try {
-      this.glideRequests = null;
-      this.locale        = null;
-      this.clickListener = null;
-      this.recipient     = null;
-      this.inflater      = null;
-      this.db            = null;
-      this.calendar      = null;
-      this.digest        = MessageDigest.getInstance("SHA1");
-    } catch (NoSuchAlgorithmException nsae) {
-      throw new AssertionError("SHA1 isn't supported!");
-    }
+    this.glideRequests = null;
+    this.locale        = null;
+    this.clickListener = null;
+    this.recipient     = null;
+    this.inflater      = null;
+    this.db            = null;
+    this.calendar      = null;
   }
 
   public ConversationAdapter(@NonNull Context context,
@@ -169,25 +174,33 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
   {
     super(context, cursor);
 
-    try {
-      this.glideRequests = glideRequests;
-      this.locale        = locale;
-      this.clickListener = clickListener;
-      this.recipient     = recipient;
-      this.inflater      = LayoutInflater.from(context);
-      this.db            = DatabaseFactory.getMmsSmsDatabase(context);
-      this.calendar      = Calendar.getInstance();
-      this.digest        = MessageDigest.getInstance("SHA1");
-
-      setHasStableIds(true);
-    } catch (NoSuchAlgorithmException nsae) {
-      throw new AssertionError("SHA1 isn't supported!");
-    }
+    this.glideRequests = glideRequests;
+    this.locale        = locale;
+    this.clickListener = clickListener;
+    this.recipient     = recipient;
+    this.inflater      = LayoutInflater.from(context);
+    this.db            = DatabaseFactory.getMmsSmsDatabase(context);
+    this.calendar      = Calendar.getInstance();
+
+    setHasStableIds(true);
+  }
+
+  /**
+   * Tells the adapter which thread the next cursor will hold, so that it can load the records of rows
+   * that are about to scroll into view.
+   */
+  void setThreadId(long threadId) {
+    this.threadId = threadId;
   }
 
   @Override
   public void changeCursor(Cursor cursor) {
     messageRecordCache.clear();
+    cacheGeneration++;
+    itemIdCache     = null;
+    pageKeyCache    = null;
+    prefetchedStart = -1;
+    prefetchedEnd   = -1;
     super.cleanFastRecords();
     super.changeCursor(cursor);
   }
@@ -278,18 +291,27 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
     return record.getId() == id;
   }
 
+  /**
+   * RecyclerView asks for the id of every row it lays out, over and over while scrolling, so ids are
+   * remembered by cursor position until the cursor changes.
+   */
   @Override
   public long getItemId(@NonNull Cursor cursor) {
-    List<DatabaseAttachment> attachments        = DatabaseFactory.getAttachmentDatabase(getContext()).getAttachment(cursor);
-    List<DatabaseAttachment> messageAttachments = Stream.of(attachments).filterNot(DatabaseAttachment::isQuote).toList();
+    int position = cursor.getPosition();
+
+    if (itemIdCache == null || itemIdCache.length != cursor.getCount()) {
+      itemIdCache = new long[cursor.getCount()];
+      Arrays.fill(itemIdCache, NO_ITEM_ID);
+    }
+
+    long itemId = itemIdCache[position];
 
-    if (messageAttachments.size() > 0 && messageAttachments.get(0).getFastPreflightId() != null) {
-      return Long.valueOf(messageAttachments.get(0).getFastPreflightId());
+    if (itemId == NO_ITEM_ID) {
+      itemId                = getReader(cursor).getCurrentStableId();
+      itemIdCache[position] = itemId;
     }
 
-    final String unique = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsColumns.UNIQUE_ROW_ID));
-    final byte[] bytes  = digest.digest(unique.getBytes());
-    return Conversions.byteArrayToLong(bytes);
+    return itemId;
   }
 
   @Override
@@ -312,21 +334,156 @@ public class ConversationAdapter <V extends View & BindableConversationItem>
 
   @Override
   protected MessageRecord getRecordFromCursor(@NonNull Cursor cursor) {
-    long   messageId = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID));
-    String type      = cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT));
+    rememberPageKey(cursor);
 
-    final SoftReference<MessageRecord> reference = messageRecordCache.get(type + messageId);
-    if (reference != null) {
-      final MessageRecord record = reference.get();
-      if (record != null) return record;
+    long          key           = getCacheKey(cursor);
+    MessageRecord messageRecord = messageRecordCache.get(key);
+
+    if (messageRecord != null) {
+      return messageRecord;
     }
 
-    final MessageRecord messageRecord = db.readerFor(cursor).getCurrent();
-    messageRecordCache.put(type + messageId, new SoftReference<>(messageRecord));
+    messageRecord = getReader(cursor).getCurrent();
+    messageRecordCache.put(key, messageRecord);
 
     return messageRecord;
   }
 
+  /**
+   * Sizes the record cache to a few pages of the visible window, and starts loading the records of
+   * the next page in the direction of the scroll on a background thread.
+   */
+  void onVisibleRangeChanged(int firstVisiblePosition, int lastVisiblePosition) {
+    if (!isActiveCursor() || firstVisiblePosition < 0 || lastVisiblePosition < firstVisiblePosition) {
+      return;
+    }
+
+    int     pageSize     = lastVisiblePosition - firstVisiblePosition + 1;
+    boolean towardsOlder = firstVisiblePosition >= lastFirstVisiblePosition;
+
+    messageRecordCache.setMaxSize(Math.max(MIN_CACHE_SIZE, pageSize * CACHED_PAGES));
+    lastFirstVisiblePosition = firstVisiblePosition;
+
+    if (prefetching || threadId == -1) {
+      return;
+    }
+
+    int start = getCursorPosition(towardsOlder ? lastVisiblePosition + 1 : firstVisiblePosition - pageSize);
+    int end   = getCursorPosition(towardsOlder ? lastVisiblePosition + pageSize : firstVisiblePosition - 1);
+
+    start = Math.max(start, 0);
+    end   = Math.min(end, getCursorCount() - 1);
+
+    if (start > end || (isLoaded(start) && isLoaded(end))) {
+      return;
+    }
+
+    MmsSmsDatabase.PageKey pageKey = getPageKey(towardsOlder ? start - 1 : end + 1);
+
+    if (pageKey == null) {
+      return;
+    }
+
+    prefetchedStart = start;
+    prefetchedEnd   = end;
+
+    MmsSmsDatabase db         = this.db;
+    long           threadId   = this.threadId;
+    int            count      = end - start + 1;
+    int            generation = cacheGeneration;
+
+    prefetching = true;
+
+    SignalExecutors.BOUNDED.execute(() -> {
+      List<MessageRecord> records = new ArrayList<>(count);
+
+      try {
+        Cursor page = towardsOlder ? db.getConversationOlderThan(threadId, pageKey, false, count)
+                                   : db.getConversationNewerThan(threadId, pageKey, count);
+
+        MmsSmsDatabase.Reader reader = db.readerFor(page);
+        MessageRecord         record;
+
+        while ((record = reader.getNext()) != null) {
+          records.add(record);
+        }
+
+        reader.close();
+      } finally {
+        Util.runOnMain(() -> {
+          prefetching = false;
+
+          if (generation != cacheGeneration) {
+            return;
+          }
+
+          for (MessageRecord prefetched : records) {
+            long key = getCacheKey(prefetched.getId(), prefetched.isMms());
+
+            if (!messageRecordCache.containsKey(key)) {
+              messageRecordCache.put(key, prefetched);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Remembers where the record at the cursor's current position sits in the conversation, so that a
+   * prefetch can start from it later without moving the cursor outside of a bind.
+   */
+  private void rememberPageKey(@NonNull Cursor cursor) {
+    int position = cursor.getPosition();
+
+    if (pageKeyCache == null || pageKeyCache.length != cursor.getCount()) {
+      pageKeyCache = new MmsSmsDatabase.PageKey[cursor.getCount()];
+    }
+
+    if (position >= 0 && position < pageKeyCache.length && pageKeyCache[position] == null) {
+      pageKeyCache[position] = getReader(cursor).getCurrentPageKey();
+    }
+  }
+
+  private @Nullable MmsSmsDatabase.PageKey getPageKey(int cursorPosition) {
+    if (pageKeyCache == null || cursorPosition < 0 || cursorPosition >= pageKeyCache.length) {
+      return null;
+    }
+
+    return pageKeyCache[cursorPosition];
+  }
+
+  /**
+   * @return True if the record at the position has been bound, or was part of the last prefetch.
+   */
+  private boolean isLoaded(int cursorPosition) {
+    return getPageKey(cursorPosition) != null || (cursorPosition >= prefetchedStart && cursorPosition <= prefetchedEnd);
+  }
+
+  private static long getCacheKey(@NonNull Cursor cursor) {
+    long    messageId = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.ID));
+    boolean mms       = MmsSmsDatabase.MMS_TRANSPORT.equals(cursor.getString(cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT)));
+
+    return getCacheKey(messageId, mms);
+  }
+
+  private static long getCacheKey(long messageId, boolean mms) {
+    return messageId << 1 | (mms ? 1 : 0);
+  }
+
+  /**
+   * Readers resolve their column indices once, so keep using the same one for as long as the
+   * cursor stays the same.
+   */
+  private @NonNull MmsSmsDatabase.Reader getReader(@NonNull Cursor cursor) {
+    if (reader == null || readerCursor != cursor) {
+      reader       = db.readerFor(cursor);
+      readerCursor = cursor;
+    }
+
+    return reader;
+  }
+
   public void close() {
     getCursor().close();
   }
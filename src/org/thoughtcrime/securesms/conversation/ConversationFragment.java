@@ -701,6 +701,7 @@ public class ConversationFragment extends Fragment
 
     activeOffset = loader.getOffset();
 
+    adapter.setThreadId(threadId);
     adapter.changeCursor(cursor);
 
     int lastSeenPosition = adapter.findLastSeenPosition(lastSeen);
@@ -900,6 +901,9 @@ public class ConversationFragment extends Fragment
         bindScrollHeader(conversationDateHeader, positionId);
       }
 
+      ((ConversationAdapter) rv.getAdapter()).onVisibleRangeChanged(getListLayoutManager().findFirstVisibleItemPosition(),
+                                                                     getListLayoutManager().findLastVisibleItemPosition());
+
       wasAtBottom           = currentlyAtBottom;
       wasAtZoomScrollHeight = currentlyAtZoomScrollHeight;
       lastPositionId        = positionId;
@@ -0,0 +1,157 @@
+package org.thoughtcrime.securesms.crypto;
+
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads a file written by {@link ModernEncryptingPartOutputStream} at any position, for callers
+ * that make many small reads all over a file, like media players seeking in a video.
+ *
+ * Unlike {@link ModernDecryptingPartInputStream}, which derives the key, opens the file and skips
+ * to the offset every time it's created, this derives the key once, keeps the file open for
+ * positional reads, and only re-initializes the cipher at the counter of the block being read when
+ * a read doesn't carry on from where the last one ended. Data is decrypted in place in the
+ * caller's buffer.
+ */
+public final class ModernDecryptingPartChannel implements Closeable {
+
+  private static final int BLOCK_SIZE = 16;
+
+  private final FileInputStream inputStream;
+  private final FileChannel     channel;
+  private final long            dataOffset;
+  private final SecretKeySpec   key;
+  private final Cipher          cipher;
+  private final byte[]          iv;
+  private final byte[]          scratch;
+
+  private long cipherPosition = -1;
+
+  /**
+   * @param random The random part of the key, or null if it's stored at the start of the file.
+   */
+  public static ModernDecryptingPartChannel createFor(@NonNull AttachmentSecret attachmentSecret, @Nullable byte[] random, @NonNull File file)
+      throws IOException
+  {
+    FileInputStream inputStream = new FileInputStream(file);
+
+    try {
+      if (random != null) {
+        return new ModernDecryptingPartChannel(attachmentSecret, random, inputStream, 0);
+      }
+
+      byte[]     header = new byte[32];
+      ByteBuffer buffer = ByteBuffer.wrap(header);
+
+      while (buffer.hasRemaining()) {
+        if (inputStream.getChannel().read(buffer) == -1) {
+          throw new IOException("Prematurely reached end of stream!");
+        }
+      }
+
+      return new ModernDecryptingPartChannel(attachmentSecret, header, inputStream, header.length);
+    } catch (IOException | RuntimeException e) {
+      inputStream.close();
+      throw e;
+    }
+  }
+
+  private ModernDecryptingPartChannel(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull FileInputStream inputStream, long dataOffset) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      this.inputStream = inputStream;
+      this.channel     = inputStream.getChannel();
+      this.dataOffset  = dataOffset;
+      this.key         = new SecretKeySpec(mac.doFinal(random), "AES");
+      this.cipher      = Cipher.getInstance("AES/CTR/NoPadding");
+      this.iv          = new byte[BLOCK_SIZE];
+      this.scratch     = new byte[BLOCK_SIZE];
+    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Reads and decrypts up to {@code length} bytes starting at {@code position} in the plaintext.
+   * Only returns fewer bytes than asked for at the end of the file.
+   *
+   * @return The number of bytes read, or -1 if the position is at or past the end of the file.
+   */
+  public synchronized int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException {
+    ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+
+    while (target.hasRemaining()) {
+      if (channel.read(target, dataOffset + position + target.position() - offset) == -1) {
+        break;
+      }
+    }
+
+    int read = target.position() - offset;
+
+    if (read == 0) {
+      return length == 0 ? 0 : -1;
+    }
+
+    seekCipher(position);
+
+    try {
+      cipher.update(buffer, offset, read, buffer, offset);
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+
+    cipherPosition = position + read;
+
+    return read;
+  }
+
+  /**
+   * Sets the cipher up to decrypt from the given position, unless it's already there. In CTR mode
+   * the keystream of a block only depends on its counter, so any block can be started directly.
+   */
+  private void seekCipher(long position) {
+    if (position == cipherPosition) {
+      return;
+    }
+
+    try {
+      Conversions.longTo4ByteArray(iv, 12, position / BLOCK_SIZE);
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+
+      int remainder = (int) (position % BLOCK_SIZE);
+
+      if (remainder > 0) {
+        cipher.update(scratch, 0, remainder, scratch, 0);
+      }
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException | ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    inputStream.close();
+  }
+}
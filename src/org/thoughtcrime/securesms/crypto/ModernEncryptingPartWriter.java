@@ -0,0 +1,165 @@
+package org.thoughtcrime.securesms.crypto;
+
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts a stream into a file in the same format as {@link ModernEncryptingPartOutputStream},
+ * taking the SHA-256 of the plaintext along the way.
+ *
+ * Rather than copying through a digest stream and a cipher stream in small chunks, each large chunk
+ * is hashed and encrypted while it's still in cache, into a direct buffer that's written straight
+ * to the file's channel. The buffers are pooled, since attachments are often saved a few at a time.
+ */
+public final class ModernEncryptingPartWriter {
+
+  private static final int BUFFER_SIZE = 128 * 1024;
+  private static final int POOL_SIZE   = 4;
+
+  private static final Queue<Buffers> POOL = new ConcurrentLinkedQueue<>();
+
+  /**
+   * Writes the stream to the file, and closes the stream.
+   */
+  public static @NonNull Result write(@NonNull AttachmentSecret attachmentSecret, @NonNull File file, @NonNull InputStream in)
+      throws IOException
+  {
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+
+    Buffers buffers = obtainBuffers();
+
+    try (InputStream input = in; FileOutputStream out = new FileOutputStream(file)) {
+      FileChannel   channel = out.getChannel();
+      MessageDigest digest  = MessageDigest.getInstance("SHA-256");
+      Cipher        cipher  = createCipher(attachmentSecret, random);
+      long          length  = 0;
+      int           read;
+
+      while ((read = readChunk(input, buffers.plaintext)) > 0) {
+        digest.update(buffers.plaintext, 0, read);
+
+        buffers.ciphertext.clear();
+        cipher.update(ByteBuffer.wrap(buffers.plaintext, 0, read), buffers.ciphertext);
+        writeFully(channel, buffers.ciphertext);
+
+        length += read;
+      }
+
+      buffers.ciphertext.clear();
+      cipher.doFinal(ByteBuffer.allocate(0), buffers.ciphertext);
+      writeFully(channel, buffers.ciphertext);
+
+      return new Result(random, length, digest.digest());
+    } catch (NoSuchAlgorithmException | ShortBufferException | IllegalBlockSizeException | BadPaddingException e) {
+      throw new AssertionError(e);
+    } finally {
+      releaseBuffers(buffers);
+    }
+  }
+
+  private static @NonNull Cipher createCipher(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random) {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(random), "AES"), new IvParameterSpec(new byte[16]));
+
+      return cipher;
+    } catch (NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Fills the buffer, unless the stream ends first.
+   *
+   * @return The number of bytes read, which is 0 at the end of the stream.
+   */
+  private static int readChunk(@NonNull InputStream in, @NonNull byte[] buffer) throws IOException {
+    int total = 0;
+    int read;
+
+    while (total < buffer.length && (read = in.read(buffer, total, buffer.length - total)) != -1) {
+      total += read;
+    }
+
+    return total;
+  }
+
+  private static void writeFully(@NonNull FileChannel channel, @NonNull ByteBuffer buffer) throws IOException {
+    buffer.flip();
+
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static @NonNull Buffers obtainBuffers() {
+    Buffers buffers = POOL.poll();
+    return buffers != null ? buffers : new Buffers();
+  }
+
+  private static void releaseBuffers(@NonNull Buffers buffers) {
+    if (POOL.size() < POOL_SIZE) {
+      POOL.offer(buffers);
+    }
+  }
+
+  public static final class Result {
+
+    private final byte[] random;
+    private final long   length;
+    private final byte[] hash;
+
+    private Result(@NonNull byte[] random, long length, @NonNull byte[] hash) {
+      this.random = random;
+      this.length = length;
+      this.hash   = hash;
+    }
+
+    public @NonNull byte[] getRandom() {
+      return random;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    /**
+     * @return The SHA-256 of the plaintext.
+     */
+    public @NonNull byte[] getHash() {
+      return hash;
+    }
+  }
+
+  private static final class Buffers {
+    private final byte[]     plaintext  = new byte[BUFFER_SIZE];
+    private final ByteBuffer ciphertext = ByteBuffer.allocateDirect(BUFFER_SIZE + 16);
+  }
+}
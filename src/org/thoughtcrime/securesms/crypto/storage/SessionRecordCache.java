@@ -0,0 +1,185 @@
+package org.thoughtcrime.securesms.crypto.storage;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.logging.Log;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.LRUCache;
+import org.whispersystems.libsignal.protocol.CiphertextMessage;
+import org.whispersystems.libsignal.state.SessionRecord;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, write-through cache of session records keyed by recipient and device, along with a
+ * set of striped locks that serialize access to the sessions of any one recipient while leaving
+ * unrelated recipients free to proceed in parallel.
+ *
+ * Records are held in serialized form and every lookup hands out a fresh copy. Callers like
+ * SessionCipher mutate the record they load and only store it once they've succeeded, so sharing
+ * a single instance would leak half-finished state whenever they fail.
+ */
+final class SessionRecordCache {
+
+  private static final String TAG = SessionRecordCache.class.getSimpleName();
+
+  private static final int LOCK_COUNT         = 64;
+  private static final int STATS_LOG_INTERVAL = 10000;
+
+  private final Object[]                           locks;
+  private final LRUCache<SessionKey, CachedRecord> records;
+  private final AtomicLong                         hits;
+  private final AtomicLong                         misses;
+
+  SessionRecordCache(int maxSize) {
+    this.locks   = new Object[LOCK_COUNT];
+    this.records = new LRUCache<>(maxSize);
+    this.hits    = new AtomicLong();
+    this.misses  = new AtomicLong();
+
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * @return The lock that must be held while reading or writing any session for the recipient.
+   */
+  @NonNull Object getLock(@NonNull RecipientId recipientId) {
+    return locks[(recipientId.hashCode() & 0x7fffffff) % LOCK_COUNT];
+  }
+
+  /**
+   * @return The cached state of the session, or null if it isn't cached. A session that's known not
+   *         to exist is cached too.
+   */
+  @Nullable CachedRecord get(@NonNull RecipientId recipientId, int deviceId) {
+    CachedRecord cached;
+
+    synchronized (records) {
+      cached = records.get(new SessionKey(recipientId, deviceId));
+    }
+
+    long lookups;
+
+    if (cached != null) lookups = hits.incrementAndGet() + misses.get();
+    else                lookups = misses.incrementAndGet() + hits.get();
+
+    if (lookups % STATS_LOG_INTERVAL == 0) {
+      Log.i(TAG, getDebugInfo());
+    }
+
+    return cached;
+  }
+
+  @NonNull CachedRecord put(@NonNull RecipientId recipientId, int deviceId, @Nullable SessionRecord record) {
+    CachedRecord cached = CachedRecord.of(record);
+
+    synchronized (records) {
+      records.put(new SessionKey(recipientId, deviceId), cached);
+    }
+
+    return cached;
+  }
+
+  void remove(@NonNull RecipientId recipientId, int deviceId) {
+    synchronized (records) {
+      records.remove(new SessionKey(recipientId, deviceId));
+    }
+  }
+
+  void removeAll(@NonNull RecipientId recipientId) {
+    synchronized (records) {
+      Iterator<SessionKey> keys = records.keySet().iterator();
+
+      while (keys.hasNext()) {
+        if (keys.next().recipientId.equals(recipientId)) {
+          keys.remove();
+        }
+      }
+    }
+  }
+
+  long getHitCount() {
+    return hits.get();
+  }
+
+  long getMissCount() {
+    return misses.get();
+  }
+
+  @NonNull String getDebugInfo() {
+    int size;
+
+    synchronized (records) {
+      size = records.size();
+    }
+
+    return String.format("size: %d | hits: %d | misses: %d", size, hits.get(), misses.get());
+  }
+
+  static final class CachedRecord {
+
+    private final @Nullable byte[] serialized;
+    private final boolean          hasCurrentSession;
+
+    static @NonNull CachedRecord of(@Nullable SessionRecord record) {
+      return new CachedRecord(record);
+    }
+
+    private CachedRecord(@Nullable SessionRecord record) {
+      this.serialized        = record != null ? record.serialize() : null;
+      this.hasCurrentSession = record != null                                    &&
+                               record.getSessionState().hasSenderChain()         &&
+                               record.getSessionState().getSessionVersion() == CiphertextMessage.CURRENT_VERSION;
+    }
+
+    /**
+     * @return A copy of the cached record that the caller is free to modify, or null if there's no
+     *         session.
+     */
+    @Nullable SessionRecord getRecord() {
+      if (serialized == null) {
+        return null;
+      }
+
+      try {
+        return new SessionRecord(serialized);
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    boolean hasCurrentSession() {
+      return hasCurrentSession;
+    }
+  }
+
+  private static final class SessionKey {
+
+    private final RecipientId recipientId;
+    private final int         deviceId;
+
+    private SessionKey(@NonNull RecipientId recipientId, int deviceId) {
+      this.recipientId = recipientId;
+      this.deviceId    = deviceId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      SessionKey other = (SessionKey) o;
+      return deviceId == other.deviceId && recipientId.equals(other.recipientId);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * recipientId.hashCode() + deviceId;
+    }
+  }
+}
@@ -3,24 +3,28 @@ package org.thoughtcrime.securesms.crypto.storage;
 import android.content.Context;
 import androidx.annotation.NonNull;
 
-import org.thoughtcrime.securesms.database.Address;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.SessionDatabase;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.whispersystems.libsignal.SignalProtocolAddress;
-import org.whispersystems.libsignal.protocol.CiphertextMessage;
 import org.whispersystems.libsignal.state.SessionRecord;
 import org.whispersystems.libsignal.state.SessionStore;
 
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class TextSecureSessionStore implements SessionStore {
 
   private static final String TAG = TextSecureSessionStore.class.getSimpleName();
 
-  private static final Object FILE_LOCK = new Object();
+  private static final int CACHE_SIZE = 1000;
+
+  private static final SessionRecordCache            SESSION_CACHE = new SessionRecordCache(CACHE_SIZE);
+  private static final LRUCache<String, RecipientId> RECIPIENT_IDS = new LRUCache<>(CACHE_SIZE);
 
   @NonNull  private final Context context;
 
@@ -30,9 +34,10 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public SessionRecord loadSession(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      RecipientId   recipientId   = Recipient.external(context, address.getName()).getId();
-      SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(recipientId, address.getDeviceId());
+    RecipientId recipientId = getRecipientId(address.getName());
+
+    synchronized (SESSION_CACHE.getLock(recipientId)) {
+      SessionRecord sessionRecord = load(recipientId, address.getDeviceId()).getRecord();
 
       if (sessionRecord == null) {
         Log.w(TAG, "No existing session information found.");
@@ -45,70 +50,133 @@ public class TextSecureSessionStore implements SessionStore {
 
   @Override
   public void storeSession(@NonNull SignalProtocolAddress address, @NonNull SessionRecord record) {
-    synchronized (FILE_LOCK) {
-      RecipientId id = Recipient.external(context, address.getName()).getId();
-      DatabaseFactory.getSessionDatabase(context).store(id, address.getDeviceId(), record);
+    RecipientId recipientId = getRecipientId(address.getName());
+
+    synchronized (SESSION_CACHE.getLock(recipientId)) {
+      store(recipientId, address.getDeviceId(), record);
     }
   }
 
   @Override
   public boolean containsSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      RecipientId   recipientId   = Recipient.external(context, address.getName()).getId();
-      SessionRecord sessionRecord = DatabaseFactory.getSessionDatabase(context).load(recipientId, address.getDeviceId());
+    RecipientId recipientId = getRecipientId(address.getName());
 
-      return sessionRecord != null &&
-             sessionRecord.getSessionState().hasSenderChain() &&
-             sessionRecord.getSessionState().getSessionVersion() == CiphertextMessage.CURRENT_VERSION;
+    synchronized (SESSION_CACHE.getLock(recipientId)) {
+      return load(recipientId, address.getDeviceId()).hasCurrentSession();
     }
   }
 
   @Override
   public void deleteSession(SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      RecipientId recipientId = Recipient.external(context, address.getName()).getId();
-      DatabaseFactory.getSessionDatabase(context).delete(recipientId, address.getDeviceId());
+    RecipientId recipientId = getRecipientId(address.getName());
+
+    synchronized (SESSION_CACHE.getLock(recipientId)) {
+      SessionDatabase database = DatabaseFactory.getSessionDatabase(context);
+
+      database.delete(recipientId, address.getDeviceId());
+
+      if (database.isInTransaction()) SESSION_CACHE.remove(recipientId, address.getDeviceId());
+      else                            SESSION_CACHE.put(recipientId, address.getDeviceId(), null);
     }
   }
 
   @Override
   public void deleteAllSessions(String name) {
-    synchronized (FILE_LOCK) {
-      RecipientId recipientId = Recipient.external(context, name).getId();
+    RecipientId recipientId = getRecipientId(name);
+
+    synchronized (SESSION_CACHE.getLock(recipientId)) {
       DatabaseFactory.getSessionDatabase(context).deleteAllFor(recipientId);
+      SESSION_CACHE.removeAll(recipientId);
     }
   }
 
   @Override
   public List<Integer> getSubDeviceSessions(String name) {
-    synchronized (FILE_LOCK) {
-      RecipientId recipientId = Recipient.external(context, name).getId();
+    RecipientId recipientId = getRecipientId(name);
+
+    synchronized (SESSION_CACHE.getLock(recipientId)) {
       return DatabaseFactory.getSessionDatabase(context).getSubDevices(recipientId);
     }
   }
 
   public void archiveSiblingSessions(@NonNull SignalProtocolAddress address) {
-    synchronized (FILE_LOCK) {
-      RecipientId                      recipientId = Recipient.external(context, address.getName()).getId();
-      List<SessionDatabase.SessionRow> sessions    = DatabaseFactory.getSessionDatabase(context).getAllFor(recipientId);
+    RecipientId recipientId = getRecipientId(address.getName());
+
+    synchronized (SESSION_CACHE.getLock(recipientId)) {
+      List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAllFor(recipientId);
 
       for (SessionDatabase.SessionRow row : sessions) {
         if (row.getDeviceId() != address.getDeviceId()) {
           row.getRecord().archiveCurrentState();
-          storeSession(new SignalProtocolAddress(Recipient.resolved(row.getRecipientId()).requireAddress().serialize(), row.getDeviceId()), row.getRecord());
+          store(recipientId, row.getDeviceId(), row.getRecord());
         }
       }
     }
   }
 
   public void archiveAllSessions() {
-    synchronized (FILE_LOCK) {
-      List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAll();
+    Set<RecipientId> recipientIds = new LinkedHashSet<>();
 
-      for (SessionDatabase.SessionRow row : sessions) {
-        row.getRecord().archiveCurrentState();
-        storeSession(new SignalProtocolAddress(Recipient.resolved(row.getRecipientId()).requireAddress().serialize(), row.getDeviceId()), row.getRecord());
+    for (SessionDatabase.SessionRow row : DatabaseFactory.getSessionDatabase(context).getAll()) {
+      recipientIds.add(row.getRecipientId());
+    }
+
+    for (RecipientId recipientId : recipientIds) {
+      synchronized (SESSION_CACHE.getLock(recipientId)) {
+        List<SessionDatabase.SessionRow> sessions = DatabaseFactory.getSessionDatabase(context).getAllFor(recipientId);
+
+        for (SessionDatabase.SessionRow row : sessions) {
+          row.getRecord().archiveCurrentState();
+          store(recipientId, row.getDeviceId(), row.getRecord());
+        }
       }
     }
   }
+
+  /**
+   * Records read or written while a transaction is open are never cached, since the transaction
+   * could still be rolled back, leaving the cache ahead of the database. Messages decrypted again
+   * after the rollback would then fail, or be dropped as duplicates.
+   */
+  private @NonNull SessionRecordCache.CachedRecord load(@NonNull RecipientId recipientId, int deviceId) {
+    SessionRecordCache.CachedRecord cached = SESSION_CACHE.get(recipientId, deviceId);
+
+    if (cached == null) {
+      SessionDatabase database = DatabaseFactory.getSessionDatabase(context);
+      SessionRecord   record   = database.load(recipientId, deviceId);
+
+      if (database.isInTransaction()) cached = SessionRecordCache.CachedRecord.of(record);
+      else                            cached = SESSION_CACHE.put(recipientId, deviceId, record);
+    }
+
+    return cached;
+  }
+
+  private void store(@NonNull RecipientId recipientId, int deviceId, @NonNull SessionRecord record) {
+    SessionDatabase database = DatabaseFactory.getSessionDatabase(context);
+
+    database.store(recipientId, deviceId, record);
+
+    if (database.isInTransaction()) SESSION_CACHE.remove(recipientId, deviceId);
+    else                            SESSION_CACHE.put(recipientId, deviceId, record);
+  }
+
+  /**
+   * Addresses always map to the same recipient, so the mapping is remembered rather than looked up
+   * and formatted again for every session operation.
+   */
+  private @NonNull RecipientId getRecipientId(@NonNull String name) {
+    synchronized (RECIPIENT_IDS) {
+      RecipientId recipientId = RECIPIENT_IDS.get(name);
+      if (recipientId != null) return recipientId;
+    }
+
+    RecipientId recipientId = Recipient.external(context, name).getId();
+
+    synchronized (RECIPIENT_IDS) {
+      RECIPIENT_IDS.put(name, recipientId);
+    }
+
+    return recipientId;
+  }
 }
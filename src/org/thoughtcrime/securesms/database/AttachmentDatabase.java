@@ -45,13 +45,15 @@ import org.thoughtcrime.securesms.attachments.DatabaseAttachment;
 import org.thoughtcrime.securesms.blurhash.BlurHash;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.ClassicDecryptingPartInputStream;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
-import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartWriter;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.mms.MediaStream;
 import org.thoughtcrime.securesms.mms.MmsException;
 import org.thoughtcrime.securesms.mms.PartAuthority;
+import org.thoughtcrime.securesms.mms.PartUriParser;
 import org.thoughtcrime.securesms.stickers.StickerLocator;
 import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.BitmapDecodingException;
@@ -69,10 +71,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -89,6 +87,7 @@ public class AttachmentDatabase extends Database {
   public  static final String TABLE_NAME             = "part";
   public  static final String ROW_ID                 = "_id";
           static final String ATTACHMENT_JSON_ALIAS  = "attachment_json";
+          static final String PREFLIGHT_ID_ALIAS     = "attachment_fast_preflight_id";
   public  static final String MMS_ID                 = "mid";
           static final String CONTENT_TYPE           = "ct";
           static final String NAME                   = "name";
@@ -161,6 +160,8 @@ public class AttachmentDatabase extends Database {
 
   private final AttachmentSecret attachmentSecret;
 
+  private DataHashReferences dataHashReferences;
+
   public AttachmentDatabase(Context context, SQLCipherOpenHelper databaseHelper, AttachmentSecret attachmentSecret) {
     super(context, databaseHelper);
     this.attachmentSecret = attachmentSecret;
@@ -287,56 +288,29 @@ public class AttachmentDatabase extends Database {
     return attachments;
   }
 
-  @SuppressWarnings("ResultOfMethodCallIgnored")
   public void deleteAttachmentsForMessage(long mmsId) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
+    DataHashReferences    references = getDataHashReferences();
+    SQLiteDatabase        database   = databaseHelper.getWritableDatabase();
+    List<AttachmentFiles> files      = getAttachmentFilesForMessage(database, mmsId);
 
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE, DATA_HASH, ROW_ID, UNIQUE_ID}, MMS_ID + " = ?",
-                              new String[] {mmsId+""}, null, null, null);
+    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
 
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(cursor.getColumnIndex(DATA)),
-                               cursor.getString(cursor.getColumnIndex(THUMBNAIL)),
-                               cursor.getString(cursor.getColumnIndex(CONTENT_TYPE)),
-                               cursor.getString(cursor.getColumnIndex(DATA_HASH)),
-                               new AttachmentId(cursor.getLong(cursor.getColumnIndex(ROW_ID)),
-                                                cursor.getLong(cursor.getColumnIndex(UNIQUE_ID))));
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
+    for (AttachmentFiles file : files) {
+      deleteAttachmentOnDisk(references, file.data, file.thumbnail, file.contentType, file.hash, file.attachmentId);
     }
 
-    database.delete(TABLE_NAME, MMS_ID + " = ?", new String[] {mmsId + ""});
     notifyAttachmentListeners();
   }
 
   public void deleteAttachmentFilesForMessage(long mmsId) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    Cursor cursor           = null;
-
-    try {
-      cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE, DATA_HASH, ROW_ID, UNIQUE_ID}, MMS_ID + " = ?",
-          new String[] {mmsId+""}, null, null, null);
-
-      while (cursor != null && cursor.moveToNext()) {
-        deleteAttachmentOnDisk(cursor.getString(cursor.getColumnIndex(DATA)),
-                               cursor.getString(cursor.getColumnIndex(THUMBNAIL)),
-                               cursor.getString(cursor.getColumnIndex(CONTENT_TYPE)),
-                               cursor.getString(cursor.getColumnIndex(DATA_HASH)),
-                               new AttachmentId(cursor.getLong(cursor.getColumnIndex(ROW_ID)),
-                                                cursor.getLong(cursor.getColumnIndex(UNIQUE_ID))));
-      }
-    } finally {
-      if (cursor != null)
-        cursor.close();
-    }
+    DataHashReferences    references = getDataHashReferences();
+    SQLiteDatabase        database   = databaseHelper.getWritableDatabase();
+    List<AttachmentFiles> files      = getAttachmentFilesForMessage(database, mmsId);
 
     ContentValues values = new ContentValues();
     values.put(DATA, (String) null);
     values.put(DATA_RANDOM, (byte[]) null);
+    values.put(DATA_HASH, (String) null);
     values.put(THUMBNAIL, (String) null);
     values.put(THUMBNAIL_RANDOM, (byte[]) null);
     values.put(FILE_NAME, (String) null);
@@ -348,6 +322,11 @@ public class AttachmentDatabase extends Database {
     values.put(BLUR_HASH, (String) null);
 
     database.update(TABLE_NAME, values, MMS_ID + " = ?", new String[] {mmsId + ""});
+
+    for (AttachmentFiles file : files) {
+      deleteAttachmentOnDisk(references, file.data, file.thumbnail, file.contentType, file.hash, file.attachmentId);
+    }
+
     notifyAttachmentListeners();
 
     long threadId = DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(mmsId);
@@ -357,8 +336,32 @@ public class AttachmentDatabase extends Database {
   }
 
 
+  /**
+   * Read before a message's rows are deleted or cleared, so that its files can be deleted after,
+   * once the message's own rows no longer count as using them.
+   */
+  private @NonNull List<AttachmentFiles> getAttachmentFilesForMessage(@NonNull SQLiteDatabase database, long mmsId) {
+    List<AttachmentFiles> files = new LinkedList<>();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE, DATA_HASH, ROW_ID, UNIQUE_ID}, MMS_ID + " = ?",
+                                        new String[] {mmsId+""}, null, null, null))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        files.add(new AttachmentFiles(cursor.getString(cursor.getColumnIndex(DATA)),
+                                      cursor.getString(cursor.getColumnIndex(THUMBNAIL)),
+                                      cursor.getString(cursor.getColumnIndex(CONTENT_TYPE)),
+                                      cursor.getString(cursor.getColumnIndex(DATA_HASH)),
+                                      new AttachmentId(cursor.getLong(cursor.getColumnIndex(ROW_ID)),
+                                                       cursor.getLong(cursor.getColumnIndex(UNIQUE_ID)))));
+      }
+    }
+
+    return files;
+  }
+
   public void deleteAttachment(@NonNull AttachmentId id) {
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    DataHashReferences references = getDataHashReferences();
+    SQLiteDatabase     database   = databaseHelper.getWritableDatabase();
 
     try (Cursor cursor = database.query(TABLE_NAME,
                                         new String[]{DATA, THUMBNAIL, CONTENT_TYPE, DATA_HASH},
@@ -378,7 +381,7 @@ public class AttachmentDatabase extends Database {
       String dataHash    = cursor.getString(cursor.getColumnIndex(DATA_HASH));
 
       database.delete(TABLE_NAME, PART_ID_WHERE, id.toStrings());
-      deleteAttachmentOnDisk(data, thumbnail, contentType, dataHash, id);
+      deleteAttachmentOnDisk(references, data, thumbnail, contentType, dataHash, id);
       notifyAttachmentListeners();
     }
   }
@@ -387,6 +390,7 @@ public class AttachmentDatabase extends Database {
   void deleteAllAttachments() {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     database.delete(TABLE_NAME, null, null);
+    getDataHashReferences().clear();
 
     File   attachmentsDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
     File[] attachments          = attachmentsDirectory.listFiles();
@@ -399,12 +403,15 @@ public class AttachmentDatabase extends Database {
   }
 
   @SuppressWarnings("ResultOfMethodCallIgnored")
-  private void deleteAttachmentOnDisk(@Nullable String data,
+  private void deleteAttachmentOnDisk(@NonNull DataHashReferences references,
+                                      @Nullable String data,
                                       @Nullable String thumbnail,
                                       @Nullable String contentType,
                                       @Nullable String attachmentHash,
                                       @NonNull AttachmentId attachmentId)
   {
+    references.release(attachmentHash);
+
     boolean dataInUse = isDataUsedByAnotherAttachment(attachmentHash, attachmentId);
 
     if (dataInUse) {
@@ -440,19 +447,24 @@ public class AttachmentDatabase extends Database {
   public void insertAttachmentsForPlaceholder(long mmsId, @NonNull AttachmentId attachmentId, @NonNull InputStream inputStream)
       throws MmsException
   {
+    DataHashReferences references  = getDataHashReferences();
     DatabaseAttachment placeholder = getAttachment(attachmentId);
     SQLiteDatabase     database    = databaseHelper.getWritableDatabase();
     ContentValues      values      = new ContentValues();
+    String             oldHash     = getDataHash(attachmentId);
     DataInfo           oldInfo     = getAttachmentDataFileInfo(attachmentId, DATA);
     DataInfo           dataInfo    = setAttachmentData(inputStream, false, attachmentId);
+    boolean            updatesHash = true;
 
-    if (oldInfo != null) {
+    if (oldInfo != null && oldInfo.hash != null) {
       updateAttachmentDataHash(database, dataInfo.hash, oldInfo.hash);
+      oldHash = dataInfo.hash;
     }
 
     if (placeholder != null && placeholder.isQuote() && !placeholder.getContentType().startsWith("image")) {
       values.put(THUMBNAIL, dataInfo.file.getAbsolutePath());
       values.put(THUMBNAIL_RANDOM, dataInfo.random);
+      updatesHash = false;
     } else {
       values.put(DATA, dataInfo.file.getAbsolutePath());
       values.put(SIZE, dataInfo.length);
@@ -472,11 +484,19 @@ public class AttachmentDatabase extends Database {
     values.put(FAST_PREFLIGHT_ID, (String)null);
 
     if (database.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings()) == 0) {
-      //noinspection ResultOfMethodCallIgnored
-      dataInfo.file.delete();
+      if (!isDataUsedByAnotherAttachment(dataInfo.hash, attachmentId)) {
+        //noinspection ResultOfMethodCallIgnored
+        dataInfo.file.delete();
+      }
     } else {
-      notifyConversationListeners(DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(mmsId));
-      notifyConversationListListeners();
+      if (updatesHash) {
+        references.replace(oldHash, dataInfo.hash);
+      }
+
+      long threadId = DatabaseFactory.getMmsDatabase(context).getThreadIdForMessage(mmsId);
+
+      notifyConversationListeners(threadId);
+      notifyConversationListListeners(threadId);
     }
 
     thumbnailExecutor.submit(new ThumbnailFetchCallable(attachmentId));
@@ -496,8 +516,10 @@ public class AttachmentDatabase extends Database {
       throw new MmsException("Cannot find attachment for source!");
     }
 
-    SQLiteDatabase database       = databaseHelper.getWritableDatabase();
-    DataInfo       sourceDataInfo = getAttachmentDataFileInfo(sourceId, DATA);
+    DataHashReferences references     = getDataHashReferences();
+    SQLiteDatabase     database       = databaseHelper.getWritableDatabase();
+    DataInfo           sourceDataInfo = getAttachmentDataFileInfo(sourceId, DATA);
+    String             oldHash        = getDataHash(destinationId);
 
     if (sourceDataInfo == null) {
       throw new MmsException("No attachment data found for source!");
@@ -522,7 +544,9 @@ public class AttachmentDatabase extends Database {
     contentValues.put(CONTENT_TYPE, sourceAttachment.getContentType());
     contentValues.put(BLUR_HASH, getBlurHashStringOrNull(sourceAttachment.getBlurHash()));
 
-    database.update(TABLE_NAME, contentValues, PART_ID_WHERE, destinationId.toStrings());
+    if (database.update(TABLE_NAME, contentValues, PART_ID_WHERE, destinationId.toStrings()) > 0) {
+      references.replace(oldHash, sourceDataInfo.hash);
+    }
   }
 
   public void updateAttachmentAfterUpload(@NonNull AttachmentId id, @NonNull Attachment attachment) {
@@ -567,8 +591,9 @@ public class AttachmentDatabase extends Database {
                                    @NonNull MediaStream mediaStream)
       throws MmsException
   {
-    SQLiteDatabase database    = databaseHelper.getWritableDatabase();
-    DataInfo       oldDataInfo = getAttachmentDataFileInfo(databaseAttachment.getAttachmentId(), DATA);
+    DataHashReferences references  = getDataHashReferences();
+    SQLiteDatabase     database    = databaseHelper.getWritableDatabase();
+    DataInfo           oldDataInfo = getAttachmentDataFileInfo(databaseAttachment.getAttachmentId(), DATA);
 
     if (oldDataInfo == null) {
       throw new MmsException("No attachment data found!");
@@ -588,12 +613,14 @@ public class AttachmentDatabase extends Database {
     contentValues.put(DATA_RANDOM, dataInfo.random);
     contentValues.put(DATA_HASH, dataInfo.hash);
 
-    database.update(TABLE_NAME, contentValues, PART_ID_WHERE, databaseAttachment.getAttachmentId().toStrings());
+    if (database.update(TABLE_NAME, contentValues, PART_ID_WHERE, databaseAttachment.getAttachmentId().toStrings()) > 0 && oldDataInfo.hash == null) {
+      references.acquire(dataInfo.hash);
+    }
   }
 
-  private static void updateAttachmentDataHash(@NonNull SQLiteDatabase database,
-                                               @NonNull String newHash,
-                                               @Nullable String oldHash)
+  private void updateAttachmentDataHash(@NonNull SQLiteDatabase database,
+                                        @NonNull String newHash,
+                                        @Nullable String oldHash)
   {
     if (oldHash == null) return;
 
@@ -603,6 +630,8 @@ public class AttachmentDatabase extends Database {
                     contentValues,
                     DATA_HASH + " = ?",
                     new String[]{oldHash});
+
+    getDataHashReferences().rename(oldHash, newHash);
   }
 
   public void updateAttachmentFileName(@NonNull AttachmentId attachmentId,
@@ -698,6 +727,46 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  private @Nullable String getDataHash(@NonNull AttachmentId attachmentId) {
+    SQLiteDatabase database = databaseHelper.getReadableDatabase();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[]{DATA_HASH}, PART_ID_WHERE, attachmentId.toStrings(), null, null, null)) {
+      if (cursor != null && cursor.moveToFirst()) {
+        return cursor.getString(0);
+      } else {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Loaded with a single query the first time it's needed. Anything that changes a row's hash has to
+   * get hold of it before touching the table, so the initial counts can't miss or double up a change.
+   */
+  private synchronized @NonNull DataHashReferences getDataHashReferences() {
+    if (dataHashReferences == null) {
+      SQLiteDatabase     database   = databaseHelper.getReadableDatabase();
+      DataHashReferences references = new DataHashReferences();
+
+      try (Cursor cursor = database.query(TABLE_NAME, new String[]{DATA_HASH, "COUNT(*)"}, DATA_HASH + " IS NOT NULL", null, DATA_HASH, null, null)) {
+        while (cursor != null && cursor.moveToNext()) {
+          references.add(cursor.getString(0), cursor.getInt(1));
+        }
+      }
+
+      dataHashReferences = references;
+    }
+
+    return dataHashReferences;
+  }
+
+  /**
+   * For when the table has been replaced underneath us, like after restoring a backup.
+   */
+  synchronized void resetDataHashReferences() {
+    dataHashReferences = null;
+  }
+
   private @Nullable DataInfo getAttachmentDataFileInfo(@NonNull AttachmentId attachmentId, @NonNull String dataType)
   {
     SQLiteDatabase database = databaseHelper.getReadableDatabase();
@@ -739,6 +808,15 @@ public class AttachmentDatabase extends Database {
                                               @Nullable AttachmentId attachmentId)
       throws MmsException
   {
+    if (!isThumbnail && PartAuthority.isAttachmentDataUri(uri)) {
+      DataInfo sourceDataInfo = getAttachmentDataFileInfo(new PartUriParser(uri).getPartId(), DATA);
+
+      if (sourceDataInfo != null && sourceDataInfo.hash != null) {
+        Log.i(TAG, "setAttachmentData: Sharing data file of existing attachment " + sourceDataInfo.file.getAbsolutePath());
+        return sourceDataInfo;
+      }
+    }
+
     try {
       InputStream inputStream = PartAuthority.getAttachmentStream(context, uri);
       return setAttachmentData(inputStream, isThumbnail, attachmentId);
@@ -768,13 +846,10 @@ public class AttachmentDatabase extends Database {
       throws MmsException
   {
     try {
-      MessageDigest              messageDigest     = MessageDigest.getInstance("SHA-256");
-      DigestInputStream          digestInputStream = new DigestInputStream(in, messageDigest);
-      Pair<byte[], OutputStream> out               = ModernEncryptingPartOutputStream.createFor(attachmentSecret, destination, false);
-      long                       length            = Util.copy(digestInputStream, out.second);
-      String                     hash              = Base64.encodeBytes(digestInputStream.getMessageDigest().digest());
+      ModernEncryptingPartWriter.Result written = ModernEncryptingPartWriter.write(attachmentSecret, destination, in);
+      String                            hash    = Base64.encodeBytes(written.getHash());
 
-      if (!isThumbnail) {
+      if (!isThumbnail && getDataHashReferences().isReferenced(hash)) {
         Log.i(TAG, "setAttachmentData: " + destination.getAbsolutePath());
         SQLiteDatabase     database       = databaseHelper.getWritableDatabase();
         Optional<DataInfo> sharedDataInfo = findDuplicateDataFileInfo(database, hash, attachmentId);
@@ -786,8 +861,8 @@ public class AttachmentDatabase extends Database {
         }
       }
 
-      return new DataInfo(destination, length, out.first, hash);
-    } catch (IOException | NoSuchAlgorithmException e) {
+      return new DataInfo(destination, written.getLength(), written.getRandom(), hash);
+    } catch (IOException e) {
       throw new MmsException(e);
     }
   }
@@ -920,9 +995,10 @@ public class AttachmentDatabase extends Database {
   {
     Log.d(TAG, "Inserting attachment for mms id: " + mmsId);
 
-    SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    DataInfo       dataInfo = null;
-    long           uniqueId = System.currentTimeMillis();
+    DataHashReferences references = getDataHashReferences();
+    SQLiteDatabase     database   = databaseHelper.getWritableDatabase();
+    DataInfo           dataInfo   = null;
+    long               uniqueId   = System.currentTimeMillis();
 
     if (attachment.getDataUri() != null) {
       dataInfo = setAttachmentData(attachment.getDataUri(), false, null);
@@ -967,6 +1043,10 @@ public class AttachmentDatabase extends Database {
     Uri          thumbnailUri = attachment.getThumbnailUri();
     boolean      hasThumbnail = false;
 
+    if (rowId != -1 && dataInfo != null) {
+      references.acquire(dataInfo.hash);
+    }
+
     if (thumbnailUri != null) {
       try (InputStream attachmentStream = PartAuthority.getAttachmentStream(context, thumbnailUri)) {
         Pair<Integer, Integer> dimens = BitmapUtil.getDimensions(attachmentStream);
@@ -1093,6 +1173,20 @@ public class AttachmentDatabase extends Database {
     }
   }
 
+  /**
+   * @return A channel for reading the attachment at any position, or null if the attachment has no
+   *         data or was stored in the classic format, which can only be read through a stream.
+   */
+  public @Nullable ModernDecryptingPartChannel getAttachmentChannel(@NonNull AttachmentId attachmentId) throws IOException {
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
+
+    if (dataInfo == null || dataInfo.random == null || dataInfo.random.length != 32) {
+      return null;
+    }
+
+    return ModernDecryptingPartChannel.createFor(attachmentSecret, dataInfo.random, dataInfo.file);
+  }
+
   @RequiresApi(23)
   public @Nullable MediaDataSource mediaDataSourceFor(@NonNull AttachmentId attachmentId) {
     DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
@@ -1105,6 +1199,22 @@ public class AttachmentDatabase extends Database {
     return EncryptedMediaDataSource.createFor(attachmentSecret, dataInfo.file, dataInfo.random, dataInfo.length);
   }
 
+  private static class AttachmentFiles {
+    private final String       data;
+    private final String       thumbnail;
+    private final String       contentType;
+    private final String       hash;
+    private final AttachmentId attachmentId;
+
+    private AttachmentFiles(String data, String thumbnail, String contentType, String hash, AttachmentId attachmentId) {
+      this.data         = data;
+      this.thumbnail    = thumbnail;
+      this.contentType  = contentType;
+      this.hash         = hash;
+      this.attachmentId = attachmentId;
+    }
+  }
+
   private static class DataInfo {
     private final File   file;
     private final long   length;
@@ -0,0 +1,62 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.Cursor;
+import android.database.MergeCursor;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Resolves each column index of a cursor once, rather than once per row. Readers ask for the same
+ * handful of columns on every row, and they almost always pass in the same constant, so a short
+ * table that's checked by reference first is much cheaper than looking the name up again.
+ *
+ * A {@link MergeCursor} may be made up of cursors with different column layouts, so indices are
+ * never cached for one.
+ */
+final class ColumnIndexCache {
+
+  private final Cursor   cursor;
+  private final boolean  enabled;
+
+  private String[] columns = new String[16];
+  private int[]    indices = new int[16];
+  private int      size;
+
+  ColumnIndexCache(Cursor cursor) {
+    this.cursor  = cursor;
+    this.enabled = !(cursor instanceof MergeCursor);
+  }
+
+  int get(@NonNull String column) {
+    if (!enabled) {
+      return cursor.getColumnIndexOrThrow(column);
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (columns[i] == column) return indices[i];
+    }
+
+    for (int i = 0; i < size; i++) {
+      if (columns[i].equals(column)) return indices[i];
+    }
+
+    int index = cursor.getColumnIndexOrThrow(column);
+
+    if (size == columns.length) {
+      String[] newColumns = new String[size * 2];
+      int[]    newIndices = new int[size * 2];
+
+      System.arraycopy(columns, 0, newColumns, 0, size);
+      System.arraycopy(indices, 0, newIndices, 0, size);
+
+      columns = newColumns;
+      indices = newIndices;
+    }
+
+    columns[size] = column;
+    indices[size] = index;
+    size++;
+
+    return index;
+  }
+}
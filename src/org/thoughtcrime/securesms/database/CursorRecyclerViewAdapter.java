@@ -212,7 +212,7 @@ public abstract class CursorRecyclerViewAdapter<VH extends RecyclerView.ViewHold
     return hasHeaderView() && position == 0;
   }
 
-  private int getCursorPosition(int position) {
+  protected int getCursorPosition(int position) {
     if (hasHeaderView()) {
       position -= 1;
     }
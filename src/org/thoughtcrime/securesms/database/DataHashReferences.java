@@ -0,0 +1,80 @@
+package org.thoughtcrime.securesms.database;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts how many attachments reference each {@link AttachmentDatabase#DATA_HASH}, so that new
+ * attachments whose hash nobody has can skip looking for a duplicate data file.
+ *
+ * {@link AttachmentDatabase} loads it once and then keeps it in step with every change it makes to
+ * a row's hash. Rows are also written outside of it, by migrations for example, and neither an
+ * acquire nor a release is undone if its transaction rolls back. So the counts are only a hint, and
+ * whether a data file is still used before it's deleted is always decided by the table.
+ */
+final class DataHashReferences {
+
+  private final Map<String, Integer> counts = new HashMap<>();
+
+  synchronized void add(@Nullable String hash, int count) {
+    if (hash == null || count <= 0) return;
+
+    Integer current = counts.get(hash);
+    counts.put(hash, current != null ? current + count : count);
+  }
+
+  synchronized void acquire(@Nullable String hash) {
+    add(hash, 1);
+  }
+
+  /**
+   * @return True if nothing references the hash any more, and its data file can be deleted.
+   */
+  synchronized boolean release(@Nullable String hash) {
+    if (hash == null) return true;
+
+    Integer current = counts.get(hash);
+
+    if (current == null || current <= 1) {
+      counts.remove(hash);
+      return true;
+    }
+
+    counts.put(hash, current - 1);
+    return false;
+  }
+
+  /**
+   * A single attachment's hash changed.
+   */
+  synchronized void replace(@Nullable String oldHash, @Nullable String newHash) {
+    if (oldHash != null && oldHash.equals(newHash)) return;
+
+    release(oldHash);
+    acquire(newHash);
+  }
+
+  /**
+   * Every attachment with the old hash now has the new one.
+   */
+  synchronized void rename(@NonNull String oldHash, @NonNull String newHash) {
+    if (oldHash.equals(newHash)) return;
+
+    Integer count = counts.remove(oldHash);
+
+    if (count != null) {
+      add(newHash, count);
+    }
+  }
+
+  synchronized boolean isReferenced(@Nullable String hash) {
+    return hash != null && counts.containsKey(hash);
+  }
+
+  synchronized void clear() {
+    counts.clear();
+  }
+}
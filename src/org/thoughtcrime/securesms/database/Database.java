@@ -22,6 +22,7 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 
 import java.util.Set;
 
@@ -43,19 +44,40 @@ public abstract class Database {
   }
 
   protected void notifyConversationListeners(long threadId) {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
+    ApplicationDependencies.getDatabaseObserver().notifyConversation(threadId);
+  }
+
+  /**
+   * Like {@link #notifyConversationListeners(long)}, but lets observers know that only the given
+   * message changed.
+   */
+  protected void notifyConversationListeners(long threadId, long messageId, boolean mms) {
+    ApplicationDependencies.getDatabaseObserver().notifyConversation(threadId, messageId, mms);
   }
 
   protected void notifyConversationListListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
+    ApplicationDependencies.getDatabaseObserver().notifyConversationList();
+  }
+
+  protected void notifyConversationListListeners(Set<Long> threadIds) {
+    for (long threadId : threadIds)
+      notifyConversationListListeners(threadId);
+  }
+
+  /**
+   * Like {@link #notifyConversationListListeners()}, but lets observers know that only the given
+   * thread's row in the conversation list changed.
+   */
+  protected void notifyConversationListListeners(long threadId) {
+    ApplicationDependencies.getDatabaseObserver().notifyConversationList(threadId);
   }
 
   protected void notifyStickerListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Sticker.CONTENT_URI, null);
+    ApplicationDependencies.getDatabaseObserver().notifyUri(DatabaseContentProviders.Sticker.CONTENT_URI);
   }
 
   protected void notifyStickerPackListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.StickerPack.CONTENT_URI, null);
+    ApplicationDependencies.getDatabaseObserver().notifyUri(DatabaseContentProviders.StickerPack.CONTENT_URI);
   }
 
   protected void setNotifyConverationListeners(Cursor cursor, long threadId) {
@@ -80,8 +102,14 @@ public abstract class Database {
                                                          observer);
   }
 
+  protected void registerConversationListeners(@NonNull ContentObserver observer) {
+    context.getContentResolver().registerContentObserver(DatabaseContentProviders.Conversation.CONTENT_URI,
+                                                         true,
+                                                         observer);
+  }
+
   protected void notifyAttachmentListeners() {
-    context.getContentResolver().notifyChange(DatabaseContentProviders.Attachment.CONTENT_URI, null);
+    ApplicationDependencies.getDatabaseObserver().notifyUri(DatabaseContentProviders.Attachment.CONTENT_URI);
   }
 
   public void reset(SQLCipherOpenHelper databaseHelper) {
@@ -20,6 +20,8 @@ public class DatabaseContentProviders {
   public static class Conversation extends NoopContentProvider {
     private static final String CONTENT_URI_STRING = "content://org.thoughtcrime.securesms.database.conversation/";
 
+    public static final Uri CONTENT_URI = Uri.parse(CONTENT_URI_STRING);
+
     public static Uri getUriForThread(long threadId) {
       return Uri.parse(CONTENT_URI_STRING + threadId);
     }
@@ -152,6 +152,7 @@ public class DatabaseFactory {
   public static void upgradeRestored(Context context, SQLiteDatabase database){
     getInstance(context).databaseHelper.onUpgrade(database, database.getVersion(), -1);
     getInstance(context).databaseHelper.markCurrent(database);
+    getInstance(context).attachments.resetDataHashReferences();
     getInstance(context).mms.trimEntriesForExpiredMessages();
   }
 
@@ -0,0 +1,245 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the change notifications sent by databases and delivers them in coalesced batches, at
+ * most once a frame. Writing a single message can touch the same thread several times (the insert,
+ * the thread snippet, receipts), and every notification makes any cursor loader watching that thread
+ * re-run its full query.
+ *
+ * Batches are delivered both to {@link android.database.ContentObserver}s through the
+ * {@link android.content.ContentResolver}, once per uri, and to in-process {@link Observer}s along
+ * with the messages that changed, so that they can refresh only what they need to.
+ */
+public class DatabaseObserver {
+
+  private static final long FLUSH_DELAY_MS = 16;
+
+  private final Application              application;
+  private final ScheduledExecutorService executor;
+  private final Set<Observer>            observers;
+
+  private Changes pending;
+  private boolean flushScheduled;
+
+  public DatabaseObserver(@NonNull Application application) {
+    this(application, Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-DatabaseObserver")));
+  }
+
+  DatabaseObserver(@NonNull Application application, @NonNull ScheduledExecutorService executor) {
+    this.application = application;
+    this.executor    = executor;
+    this.observers   = new CopyOnWriteArraySet<>();
+    this.pending     = new Changes();
+  }
+
+  /**
+   * Observers are called on a background thread.
+   */
+  public void registerObserver(@NonNull Observer observer) {
+    observers.add(observer);
+  }
+
+  public void unregisterObserver(@NonNull Observer observer) {
+    observers.remove(observer);
+  }
+
+  /**
+   * Something in the thread changed, but it's unknown which messages.
+   */
+  void notifyConversation(long threadId) {
+    synchronized (this) {
+      pending.addThread(threadId);
+      scheduleFlush();
+    }
+  }
+
+  void notifyConversation(long threadId, long messageId, boolean mms) {
+    synchronized (this) {
+      pending.addMessage(threadId, messageId, mms);
+      scheduleFlush();
+    }
+  }
+
+  /**
+   * Something in the conversation list changed, but it's unknown which threads.
+   */
+  void notifyConversationList() {
+    synchronized (this) {
+      pending.conversationListChanged      = true;
+      pending.conversationListFullyChanged = true;
+      scheduleFlush();
+    }
+  }
+
+  void notifyConversationList(long threadId) {
+    synchronized (this) {
+      pending.conversationListChanged = true;
+      pending.listThreadIds.add(threadId);
+      scheduleFlush();
+    }
+  }
+
+  void notifyUri(@NonNull Uri uri) {
+    synchronized (this) {
+      pending.uris.add(uri);
+      scheduleFlush();
+    }
+  }
+
+  private void scheduleFlush() {
+    if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(() -> flush(), FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  void flush() {
+    Changes changes;
+
+    synchronized (this) {
+      changes        = pending;
+      pending        = new Changes();
+      flushScheduled = false;
+    }
+
+    if (changes.isEmpty()) {
+      return;
+    }
+
+    notifyContentObservers(changes);
+
+    for (Observer observer : observers) {
+      observer.onChanged(changes);
+    }
+  }
+
+  @VisibleForTesting
+  void notifyContentObservers(@NonNull Changes changes) {
+    for (long threadId : changes.getThreadIds()) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.Conversation.getUriForThread(threadId), null);
+    }
+
+    if (changes.isConversationListChanged()) {
+      application.getContentResolver().notifyChange(DatabaseContentProviders.ConversationList.CONTENT_URI, null);
+    }
+
+    for (Uri uri : changes.getUris()) {
+      application.getContentResolver().notifyChange(uri, null);
+    }
+  }
+
+  public interface Observer {
+    void onChanged(@NonNull Changes changes);
+  }
+
+  /**
+   * A coalesced batch of changes.
+   */
+  public static final class Changes {
+
+    private final Map<Long, ThreadChanges> threads       = new HashMap<>();
+    private final Set<Long>                listThreadIds = new HashSet<>();
+    private final Set<Uri>                 uris          = new LinkedHashSet<>();
+
+    private boolean conversationListChanged;
+    private boolean conversationListFullyChanged;
+
+    Changes() {}
+
+    public @NonNull Set<Long> getThreadIds() {
+      return threads.keySet();
+    }
+
+    public boolean isConversationListChanged() {
+      return conversationListChanged;
+    }
+
+    /**
+     * @return True if threads in the conversation list may have changed without saying which, in
+     *         which case {@link #getChangedListThreadIds()} isn't complete.
+     */
+    public boolean isConversationListFullyChanged() {
+      return conversationListFullyChanged;
+    }
+
+    /**
+     * @return The threads whose row in the conversation list changed, was added, or was removed.
+     */
+    public @NonNull Set<Long> getChangedListThreadIds() {
+      return listThreadIds;
+    }
+
+    public @NonNull Set<Uri> getUris() {
+      return uris;
+    }
+
+    /**
+     * @return True if anything in the thread may have changed, in which case the changed message ids
+     *         aren't complete.
+     */
+    public boolean isThreadFullyChanged(long threadId) {
+      ThreadChanges changes = threads.get(threadId);
+      return changes != null && changes.allChanged;
+    }
+
+    public @NonNull Set<Long> getChangedSmsIds(long threadId) {
+      ThreadChanges changes = threads.get(threadId);
+      return changes != null ? changes.smsIds : Collections.emptySet();
+    }
+
+    public @NonNull Set<Long> getChangedMmsIds(long threadId) {
+      ThreadChanges changes = threads.get(threadId);
+      return changes != null ? changes.mmsIds : Collections.emptySet();
+    }
+
+    boolean isEmpty() {
+      return threads.isEmpty() && uris.isEmpty() && !conversationListChanged;
+    }
+
+    private void addThread(long threadId) {
+      getThreadChanges(threadId).allChanged = true;
+    }
+
+    private void addMessage(long threadId, long messageId, boolean mms) {
+      ThreadChanges changes = getThreadChanges(threadId);
+
+      if (mms) changes.mmsIds.add(messageId);
+      else     changes.smsIds.add(messageId);
+    }
+
+    private @NonNull ThreadChanges getThreadChanges(long threadId) {
+      ThreadChanges changes = threads.get(threadId);
+
+      if (changes == null) {
+        changes = new ThreadChanges();
+        threads.put(threadId, changes);
+      }
+
+      return changes;
+    }
+  }
+
+  private static final class ThreadChanges {
+    private final Set<Long> smsIds = new HashSet<>();
+    private final Set<Long> mmsIds = new HashSet<>();
+
+    private boolean allChanged;
+  }
+}
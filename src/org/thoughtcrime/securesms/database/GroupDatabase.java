@@ -153,15 +153,15 @@ public class GroupDatabase extends Database {
   }
 
   public @NonNull List<Recipient> getGroupMembers(String groupId, boolean includeSelf) {
-    List<RecipientId> members     = getCurrentMembers(groupId);
-    List<Recipient>   recipients  = new LinkedList<>();
+    List<Recipient> members    = Recipient.resolvedList(getCurrentMembers(groupId));
+    List<Recipient> recipients = new LinkedList<>();
 
-    for (RecipientId member : members) {
-      if (!includeSelf && Recipient.resolved(member).isLocalNumber()) {
+    for (Recipient member : members) {
+      if (!includeSelf && member.isLocalNumber()) {
         continue;
       }
 
-      recipients.add(Recipient.resolved(member));
+      recipients.add(member);
     }
 
     return recipients;
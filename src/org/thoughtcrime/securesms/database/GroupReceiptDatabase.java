@@ -4,13 +4,17 @@ package org.thoughtcrime.securesms.database;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.util.Pair;
+
 import androidx.annotation.NonNull;
 
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 
+import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -75,6 +79,31 @@ public class GroupReceiptDatabase extends Database {
 
   }
 
+  /**
+   * Records whether each recipient was sent the message with unidentified delivery, with every
+   * update made in a single transaction.
+   */
+  public void setUnidentified(@NonNull Collection<Pair<RecipientId, Boolean>> results, long mmsId) {
+    SQLiteDatabase  db        = databaseHelper.getWritableDatabase();
+    SQLiteStatement statement = db.compileStatement("UPDATE " + TABLE_NAME + " SET " + UNIDENTIFIED + " = ? WHERE " + MMS_ID + " = ? AND " + RECIPIENT_ID + " = ?");
+
+    db.beginTransaction();
+
+    try {
+      for (Pair<RecipientId, Boolean> result : results) {
+        statement.bindLong(1, result.second ? 1 : 0);
+        statement.bindLong(2, mmsId);
+        statement.bindString(3, result.first.serialize());
+        statement.execute();
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      statement.close();
+    }
+  }
+
   public @NonNull List<GroupReceiptInfo> getGroupReceiptInfo(long mmsId) {
     SQLiteDatabase         db      = databaseHelper.getReadableDatabase();
     List<GroupReceiptInfo> results = new LinkedList<>();
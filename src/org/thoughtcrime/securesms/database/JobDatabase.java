@@ -122,11 +122,12 @@ public class JobDatabase extends Database {
     databaseHelper.getWritableDatabase().update(Jobs.TABLE_NAME, contentValues, query, args);
   }
 
-  public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime) {
+  public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
     ContentValues contentValues = new ContentValues();
     contentValues.put(Jobs.IS_RUNNING, isRunning ? 1 : 0);
     contentValues.put(Jobs.RUN_ATTEMPT, runAttempt);
     contentValues.put(Jobs.NEXT_RUN_ATTEMPT_TIME, nextRunAttemptTime);
+    contentValues.put(Jobs.SERIALIZED_DATA, serializedData);
 
     String   query = Jobs.JOB_SPEC_ID + " = ?";
     String[] args  = new String[]{ id };
@@ -195,6 +196,18 @@ public class JobDatabase extends Database {
     }
   }
 
+  public void beginTransaction() {
+    databaseHelper.getWritableDatabase().beginTransaction();
+  }
+
+  public void setTransactionSuccessful() {
+    databaseHelper.getWritableDatabase().setTransactionSuccessful();
+  }
+
+  public void endTransaction() {
+    databaseHelper.getWritableDatabase().endTransaction();
+  }
+
   public synchronized @NonNull List<ConstraintSpec> getAllConstraintSpecs() {
     List<ConstraintSpec> constraints = new LinkedList<>();
 
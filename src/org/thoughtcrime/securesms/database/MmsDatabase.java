@@ -74,6 +74,7 @@ import org.whispersystems.libsignal.util.guava.Optional;
 import java.io.Closeable;
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -253,7 +254,7 @@ public class MmsDatabase extends MessagingDatabase {
 
             DatabaseFactory.getGroupReceiptDatabase(context).update(ourRecipientId, id, status, timestamp);
             DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
+            notifyConversationListeners(threadId, id, true);
           }
         }
       }
@@ -344,32 +345,32 @@ public class MmsDatabase extends MessagingDatabase {
   public void markAsForcedSms(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.PUSH_MESSAGE_BIT, Types.MESSAGE_FORCE_SMS_BIT, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   public void markAsPendingInsecureSmsFallback(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_PENDING_INSECURE_SMS_FALLBACK, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   public void markAsSending(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENDING_TYPE, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   public void markAsSentFailed(long messageId) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENT_FAILED_TYPE, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   @Override
   public void markAsSent(long messageId, boolean secure) {
     long threadId = getThreadIdForMessage(messageId);
     updateMailboxBitmask(messageId, Types.BASE_TYPE_MASK, Types.BASE_SENT_TYPE | (secure ? Types.PUSH_MESSAGE_BIT | Types.SECURE_MESSAGE_BIT : 0), Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   public void markDownloadState(long messageId, long state) {
@@ -383,7 +384,7 @@ public class MmsDatabase extends MessagingDatabase {
 
   public void markAsNoSession(long messageId, long threadId) {
     updateMailboxBitmask(messageId, Types.ENCRYPTION_MASK, Types.ENCRYPTION_REMOTE_NO_SESSION_BIT, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
 //  public void markAsSecure(long messageId) {
@@ -400,17 +401,17 @@ public class MmsDatabase extends MessagingDatabase {
 
   public void markAsDecryptFailed(long messageId, long threadId) {
     updateMailboxBitmask(messageId, Types.ENCRYPTION_MASK, Types.ENCRYPTION_REMOTE_FAILED_BIT, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   public void markAsDecryptDuplicate(long messageId, long threadId) {
     updateMailboxBitmask(messageId, Types.ENCRYPTION_MASK, Types.ENCRYPTION_REMOTE_DUPLICATE_BIT, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   public void markAsLegacyVersion(long messageId, long threadId) {
     updateMailboxBitmask(messageId, Types.ENCRYPTION_MASK, Types.ENCRYPTION_REMOTE_LEGACY_BIT, Optional.of(threadId));
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   @Override
@@ -436,7 +437,7 @@ public class MmsDatabase extends MessagingDatabase {
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(messageId)});
 
     long threadId = getThreadIdForMessage(messageId);
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
   }
 
   public void markAsNotified(long id) {
@@ -573,7 +574,7 @@ public class MmsDatabase extends MessagingDatabase {
     long threadId = getThreadIdForMessage(messageId);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, true);
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
     notifyConversationListListeners();
 
     return new Pair<>(messageId, threadId);
@@ -866,7 +867,7 @@ public class MmsDatabase extends MessagingDatabase {
       DatabaseFactory.getThreadDatabase(context).update(threadId, true);
     }
 
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, true);
     ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
 
     return Optional.of(new InsertResult(messageId, threadId));
@@ -1116,6 +1117,35 @@ public class MmsDatabase extends MessagingDatabase {
     return threadDeleted;
   }
 
+  /**
+   * Deletes the given messages along with their attachments and receipts, without touching their
+   * threads. The caller is left to update and notify each affected thread once.
+   *
+   * @return The ids of the threads the deleted messages belonged to.
+   */
+  /*package*/ @NonNull Set<Long> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds) {
+    AttachmentDatabase   attachmentDatabase   = DatabaseFactory.getAttachmentDatabase(context);
+    GroupReceiptDatabase groupReceiptDatabase = DatabaseFactory.getGroupReceiptDatabase(context);
+    SQLiteDatabase       database             = databaseHelper.getWritableDatabase();
+    String               where                = ID + " IN (" + TextUtils.join(",", messageIds) + ")";
+    Set<Long>            threadIds            = new HashSet<>();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {THREAD_ID}, where, null, THREAD_ID, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        threadIds.add(cursor.getLong(0));
+      }
+    }
+
+    for (long messageId : messageIds) {
+      attachmentDatabase.deleteAttachmentsForMessage(messageId);
+      groupReceiptDatabase.deleteRowsForMessage(messageId);
+    }
+
+    database.delete(TABLE_NAME, where, null);
+
+    return threadIds;
+  }
+
   public void deleteThread(long threadId) {
     Set<Long> singleThreadSet = new HashSet<>();
     singleThreadSet.add(threadId);
@@ -1400,10 +1430,14 @@ public class MmsDatabase extends MessagingDatabase {
 
   public class Reader implements Closeable {
 
-    private final Cursor cursor;
+    private final Cursor           cursor;
+    private final ColumnIndexCache columns;
+    private final boolean          readReceiptsEnabled;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this.cursor              = cursor;
+      this.columns             = new ColumnIndexCache(cursor);
+      this.readReceiptsEnabled = TextSecurePreferences.isReadReceiptsEnabled(context);
     }
 
     public MessageRecord getNext() {
@@ -1414,7 +1448,7 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     public MessageRecord getCurrent() {
-      long mmsType = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_TYPE));
+      long mmsType = cursor.getLong(columns.get(MmsDatabase.MESSAGE_TYPE));
 
       if (mmsType == PduHeaders.MESSAGE_TYPE_NOTIFICATION_IND) {
         return getNotificationMmsMessageRecord(cursor);
@@ -1424,25 +1458,25 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     private NotificationMmsMessageRecord getNotificationMmsMessageRecord(Cursor cursor) {
-      long      id                   = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.ID));
-      long      dateSent             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT));
-      long      dateReceived         = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long      threadId             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID));
-      long      mailbox              = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
-      long      recipientId          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.RECIPIENT_ID));
-      int       addressDeviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID));
+      long      id                   = cursor.getLong(columns.get(MmsDatabase.ID));
+      long      dateSent             = cursor.getLong(columns.get(MmsDatabase.NORMALIZED_DATE_SENT));
+      long      dateReceived         = cursor.getLong(columns.get(MmsDatabase.NORMALIZED_DATE_RECEIVED));
+      long      threadId             = cursor.getLong(columns.get(MmsDatabase.THREAD_ID));
+      long      mailbox              = cursor.getLong(columns.get(MmsDatabase.MESSAGE_BOX));
+      long      recipientId          = cursor.getLong(columns.get(MmsDatabase.RECIPIENT_ID));
+      int       addressDeviceId      = cursor.getInt(columns.get(MmsDatabase.ADDRESS_DEVICE_ID));
       Recipient recipient            = Recipient.live(RecipientId.from(recipientId)).get();
 
-      String    contentLocation      = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.CONTENT_LOCATION));
-      String    transactionId        = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.TRANSACTION_ID));
-      long      messageSize          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_SIZE));
-      long      expiry               = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRY));
-      int       status               = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.STATUS));
-      int       deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.DELIVERY_RECEIPT_COUNT));
-      int       readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.READ_RECEIPT_COUNT));
-      int       subscriptionId       = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID));
+      String    contentLocation      = cursor.getString(columns.get(MmsDatabase.CONTENT_LOCATION));
+      String    transactionId        = cursor.getString(columns.get(MmsDatabase.TRANSACTION_ID));
+      long      messageSize          = cursor.getLong(columns.get(MmsDatabase.MESSAGE_SIZE));
+      long      expiry               = cursor.getLong(columns.get(MmsDatabase.EXPIRY));
+      int       status               = cursor.getInt(columns.get(MmsDatabase.STATUS));
+      int       deliveryReceiptCount = cursor.getInt(columns.get(MmsDatabase.DELIVERY_RECEIPT_COUNT));
+      int       readReceiptCount     = cursor.getInt(columns.get(MmsDatabase.READ_RECEIPT_COUNT));
+      int       subscriptionId       = cursor.getInt(columns.get(MmsDatabase.SUBSCRIPTION_ID));
 
-      if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
+      if (!readReceiptsEnabled) {
         readReceiptCount = 0;
       }
 
@@ -1466,26 +1500,26 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     private MediaMmsMessageRecord getMediaMmsMessageRecord(Cursor cursor) {
-      long               id                   = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.ID));
-      long               dateSent             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_SENT));
-      long               dateReceived         = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long               box                  = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.MESSAGE_BOX));
-      long               threadId             = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.THREAD_ID));
-      long               recipientId          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.RECIPIENT_ID));
-      int                addressDeviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.ADDRESS_DEVICE_ID));
-      int                deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.DELIVERY_RECEIPT_COUNT));
-      int                readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.READ_RECEIPT_COUNT));
-      String             body                 = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.BODY));
-      int                partCount            = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.PART_COUNT));
-      String             mismatchDocument     = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.MISMATCHED_IDENTITIES));
-      String             networkDocument      = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.NETWORK_FAILURE));
-      int                subscriptionId       = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.SUBSCRIPTION_ID));
-      long               expiresIn            = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRES_IN));
-      long               expireStarted        = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.EXPIRE_STARTED));
-      boolean            unidentified         = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.UNIDENTIFIED)) == 1;
-      boolean            isViewOnce           = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.VIEW_ONCE)) == 1;
-
-      if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
+      long               id                   = cursor.getLong(columns.get(MmsDatabase.ID));
+      long               dateSent             = cursor.getLong(columns.get(MmsDatabase.NORMALIZED_DATE_SENT));
+      long               dateReceived         = cursor.getLong(columns.get(MmsDatabase.NORMALIZED_DATE_RECEIVED));
+      long               box                  = cursor.getLong(columns.get(MmsDatabase.MESSAGE_BOX));
+      long               threadId             = cursor.getLong(columns.get(MmsDatabase.THREAD_ID));
+      long               recipientId          = cursor.getLong(columns.get(MmsDatabase.RECIPIENT_ID));
+      int                addressDeviceId      = cursor.getInt(columns.get(MmsDatabase.ADDRESS_DEVICE_ID));
+      int                deliveryReceiptCount = cursor.getInt(columns.get(MmsDatabase.DELIVERY_RECEIPT_COUNT));
+      int                readReceiptCount     = cursor.getInt(columns.get(MmsDatabase.READ_RECEIPT_COUNT));
+      String             body                 = cursor.getString(columns.get(MmsDatabase.BODY));
+      int                partCount            = cursor.getInt(columns.get(MmsDatabase.PART_COUNT));
+      String             mismatchDocument     = cursor.getString(columns.get(MmsDatabase.MISMATCHED_IDENTITIES));
+      String             networkDocument      = cursor.getString(columns.get(MmsDatabase.NETWORK_FAILURE));
+      int                subscriptionId       = cursor.getInt(columns.get(MmsDatabase.SUBSCRIPTION_ID));
+      long               expiresIn            = cursor.getLong(columns.get(MmsDatabase.EXPIRES_IN));
+      long               expireStarted        = cursor.getLong(columns.get(MmsDatabase.EXPIRE_STARTED));
+      boolean            unidentified         = cursor.getInt(columns.get(MmsDatabase.UNIDENTIFIED)) == 1;
+      boolean            isViewOnce           = cursor.getLong(columns.get(MmsDatabase.VIEW_ONCE)) == 1;
+
+      if (!readReceiptsEnabled) {
         readReceiptCount = 0;
       }
 
@@ -1539,10 +1573,10 @@ public class MmsDatabase extends MessagingDatabase {
     }
 
     private @Nullable Quote getQuote(@NonNull Cursor cursor) {
-      long                       quoteId          = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_ID));
-      long                       quoteAuthor      = cursor.getLong(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_AUTHOR));
-      String                     quoteText        = cursor.getString(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_BODY));
-      boolean                    quoteMissing     = cursor.getInt(cursor.getColumnIndexOrThrow(MmsDatabase.QUOTE_MISSING)) == 1;
+      long                       quoteId          = cursor.getLong(columns.get(MmsDatabase.QUOTE_ID));
+      long                       quoteAuthor      = cursor.getLong(columns.get(MmsDatabase.QUOTE_AUTHOR));
+      String                     quoteText        = cursor.getString(columns.get(MmsDatabase.QUOTE_BODY));
+      boolean                    quoteMissing     = cursor.getInt(columns.get(MmsDatabase.QUOTE_MISSING)) == 1;
       List<DatabaseAttachment>   attachments      = DatabaseFactory.getAttachmentDatabase(context).getAttachment(cursor);
       List<? extends Attachment> quoteAttachments = Stream.of(attachments).filter(Attachment::isQuote).toList();
       SlideDeck                  quoteDeck        = new SlideDeck(context, quoteAttachments);
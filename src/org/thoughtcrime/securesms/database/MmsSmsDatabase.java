@@ -17,7 +17,9 @@
 package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -27,15 +29,18 @@ import net.sqlcipher.database.SQLiteQueryBuilder;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
+import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.thoughtcrime.securesms.util.LRUCache;
 
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
 
-  @SuppressWarnings("unused")
   private static final String TAG = MmsSmsDatabase.class.getSimpleName();
 
   public static final String TRANSPORT     = "transport_type";
@@ -43,6 +48,7 @@ public class MmsSmsDatabase extends Database {
   public static final String SMS_TRANSPORT = "sms";
 
   private static final String[] PROJECTION = {MmsSmsColumns.ID, MmsSmsColumns.UNIQUE_ROW_ID,
+                                              AttachmentDatabase.PREFLIGHT_ID_ALIAS,
                                               SmsDatabase.BODY, SmsDatabase.TYPE,
                                               MmsSmsColumns.THREAD_ID,
                                               SmsDatabase.RECIPIENT_ID, SmsDatabase.ADDRESS_DEVICE_ID, SmsDatabase.SUBJECT,
@@ -74,8 +80,27 @@ public class MmsSmsDatabase extends Database {
                                               MmsDatabase.LINK_PREVIEWS,
                                               MmsDatabase.VIEW_ONCE};
 
+  private static final String CONVERSATION_ORDER = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + TRANSPORT + " DESC, " + MmsSmsColumns.ID + " DESC";
+
+  private static final int POSITION_CACHE_THREADS = 10;
+  private static final int POSITION_CACHE_SIZE    = 50;
+
+  private final Map<Long, Map<String, Integer>> positionCache = new LRUCache<>(POSITION_CACHE_THREADS);
+
   public MmsSmsDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
+
+    registerConversationListeners(new ContentObserver(null) {
+      @Override
+      public void onChange(boolean selfChange) {
+        invalidatePositions(null);
+      }
+
+      @Override
+      public void onChange(boolean selfChange, @Nullable Uri uri) {
+        invalidatePositions(uri);
+      }
+    });
   }
 
   public @Nullable MessageRecord getMessageFor(long timestamp, RecipientId author) {
@@ -99,11 +124,36 @@ public class MmsSmsDatabase extends Database {
   }
 
   public Cursor getConversation(long threadId, long offset, long limit) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
     String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
     String limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
 
-    Cursor cursor = queryTables(PROJECTION, selection, order, limitStr);
+    Cursor cursor = queryTables(PROJECTION, selection, CONVERSATION_ORDER, limitStr);
+    setNotifyConverationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * Returns up to {@code limit} messages of a thread that are older than the given one, newest
+   * first. Unlike {@link #getConversation(long, long, long)} with an offset, this reads only the
+   * rows it returns, so it costs the same no matter how far back in the conversation the page is.
+   *
+   * @param inclusive Whether to include the message with the given key.
+   */
+  public Cursor getConversationOlderThan(long threadId, @NonNull PageKey key, boolean inclusive, int limit) {
+    Cursor cursor = queryPage(threadId, key, true, inclusive, limit);
+    setNotifyConverationListeners(cursor, threadId);
+
+    return cursor;
+  }
+
+  /**
+   * Returns the {@code limit} messages of a thread that come right after the given one, newest
+   * first. Like {@link #getConversationOlderThan(long, PageKey, boolean, int)}, the cost doesn't
+   * depend on where in the conversation the page is.
+   */
+  public Cursor getConversationNewerThan(long threadId, @NonNull PageKey key, int limit) {
+    Cursor cursor = queryPage(threadId, key, false, false, limit);
     setNotifyConverationListeners(cursor, threadId);
 
     return cursor;
@@ -165,42 +215,80 @@ public class MmsSmsDatabase extends Database {
     DatabaseFactory.getMmsDatabase(context).incrementReceiptCount(syncMessageId, timestamp, false, true);
   }
 
-  public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+  /**
+   * Deletes a batch of sms and mms messages in a single transaction. Each affected thread is only
+   * updated and notified once, no matter how many of its messages were deleted.
+   */
+  public void deleteMessages(@NonNull Collection<Long> smsIds, @NonNull Collection<Long> mmsIds) {
+    if (smsIds.isEmpty() && mmsIds.isEmpty()) {
+      return;
+    }
 
-    try (Cursor cursor = queryTables(new String[]{ MmsSmsColumns.NORMALIZED_DATE_SENT, MmsSmsColumns.RECIPIENT_ID}, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isLocalNumber();
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds = new HashSet<>();
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean quoteIdMatches     = cursor.getLong(0) == quoteId;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+    db.beginTransaction();
 
-        if (quoteIdMatches && (recipientIdMatches || isOwnNumber)) {
-          return cursor.getPosition();
-        }
+    try {
+      if (!smsIds.isEmpty()) threadIds.addAll(DatabaseFactory.getSmsDatabase(context).deleteMessagesWithoutThreadUpdate(smsIds));
+      if (!mmsIds.isEmpty()) threadIds.addAll(DatabaseFactory.getMmsDatabase(context).deleteMessagesWithoutThreadUpdate(mmsIds));
+
+      ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
+
+      for (long threadId : threadIds) {
+        threadDatabase.update(threadId, false);
       }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    notifyConversationListeners(threadIds);
+
+    if (!mmsIds.isEmpty()) {
+      notifyStickerListeners();
+      notifyStickerPackListeners();
     }
-    return -1;
   }
 
-  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+  /**
+   * Retrieves the position of the quoted message in the query results you'd get from calling
+   * {@link #getConversation(long)}, or -1 if it can't be found.
+   */
+  public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
+    String  cacheKey = "quote:" + quoteId + ":" + recipientId.serialize();
+    Integer cached   = getCachedPosition(threadId, cacheKey);
 
-    try (Cursor cursor = queryTables(new String[]{ MmsSmsColumns.NORMALIZED_DATE_RECEIVED, MmsSmsColumns.RECIPIENT_ID}, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isLocalNumber();
+    if (cached != null) {
+      return cached;
+    }
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean timestampMatches   = cursor.getLong(0) == receivedTimestamp;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+    long dateReceived = findDateReceived(threadId, SmsDatabase.DATE_SENT, MmsDatabase.DATE_SENT, quoteId, recipientId);
+    int  position     = dateReceived >= 0 ? getCountNewerThan(threadId, dateReceived) : -1;
 
-        if (timestampMatches && (recipientIdMatches || isOwnNumber)) {
-          return cursor.getPosition();
-        }
-      }
+    cachePosition(threadId, cacheKey, position);
+    return position;
+  }
+
+  /**
+   * Retrieves the position of the message received at the provided time by the provided recipient
+   * in the query results you'd get from calling {@link #getConversation(long)}, or -1 if it can't
+   * be found.
+   */
+  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
+    String  cacheKey = "received:" + receivedTimestamp + ":" + recipientId.serialize();
+    Integer cached   = getCachedPosition(threadId, cacheKey);
+
+    if (cached != null) {
+      return cached;
     }
-    return -1;
+
+    long dateReceived = findDateReceived(threadId, SmsDatabase.DATE_RECEIVED, MmsDatabase.DATE_RECEIVED, receivedTimestamp, recipientId);
+    int  position     = dateReceived >= 0 ? getCountNewerThan(threadId, dateReceived) : -1;
+
+    cachePosition(threadId, cacheKey, position);
+    return position;
   }
 
   boolean hasReceivedAnyCallsSince(long threadId, long timestamp) {
@@ -216,18 +304,159 @@ public class MmsSmsDatabase extends Database {
    * you'll still wind up in about the right spot.
    */
   public int getMessagePositionInConversation(long threadId, long receivedTimestamp) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " > " + receivedTimestamp;
+    return getCountNewerThan(threadId, receivedTimestamp);
+  }
 
-    try (Cursor cursor = queryTables(new String[]{ "COUNT(*)" }, selection, order, null)) {
+  /**
+   * Finds the newest message in the thread whose sms/mms column matches the provided value and
+   * that was sent by the provided recipient, or by anyone if the recipient is the local user.
+   *
+   * @return The received timestamp of the message, or -1 if there is no such message.
+   */
+  private long findDateReceived(long threadId, @NonNull String smsColumn, @NonNull String mmsColumn, long value, @NonNull RecipientId recipientId) {
+    boolean isOwnNumber = Recipient.resolved(recipientId).isLocalNumber();
+
+    long smsDateReceived = findDateReceived(SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, smsColumn, threadId, value, recipientId, isOwnNumber);
+    long mmsDateReceived = findDateReceived(MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, mmsColumn, threadId, value, recipientId, isOwnNumber);
+
+    return Math.max(smsDateReceived, mmsDateReceived);
+  }
+
+  private long findDateReceived(@NonNull String table,
+                                @NonNull String dateReceivedColumn,
+                                @NonNull String column,
+                                long threadId,
+                                long value,
+                                @NonNull RecipientId recipientId,
+                                boolean isOwnNumber)
+  {
+    SQLiteDatabase db        = databaseHelper.getReadableDatabase();
+    String[]       columns   = new String[] { dateReceivedColumn, MmsSmsColumns.RECIPIENT_ID };
+    String         selection = MmsSmsColumns.THREAD_ID + " = ? AND " + column + " = ?";
+    String[]       args      = new String[] { String.valueOf(threadId), String.valueOf(value) };
+    long           newest    = -1;
+
+    try (Cursor cursor = db.query(table, columns, selection, args, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        if (isOwnNumber || recipientId.equals(RecipientId.from(cursor.getLong(1)))) {
+          newest = Math.max(newest, cursor.getLong(0));
+        }
+      }
+    }
+
+    return newest;
+  }
+
+  /**
+   * Counts the messages in the thread that were received after the provided time, which is the
+   * position a message received at that time has in {@link #getConversation(long)}. Both tables
+   * are counted separately so that each count can be answered from its (thread_id, date) index
+   * rather than from the full conversation query.
+   */
+  private int getCountNewerThan(long threadId, long receivedTimestamp) {
+    return getCountNewerThan(SmsDatabase.TABLE_NAME, SmsDatabase.DATE_RECEIVED, threadId, receivedTimestamp) +
+           getCountNewerThan(MmsDatabase.TABLE_NAME, MmsDatabase.DATE_RECEIVED, threadId, receivedTimestamp);
+  }
+
+  private int getCountNewerThan(@NonNull String table, @NonNull String dateReceivedColumn, long threadId, long receivedTimestamp) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = "SELECT COUNT(*) FROM " + table + " WHERE " + MmsSmsColumns.THREAD_ID + " = ? AND " + dateReceivedColumn + " > ?";
+
+    try (Cursor cursor = db.rawQuery(query, new String[] { String.valueOf(threadId), String.valueOf(receivedTimestamp) })) {
       if (cursor != null && cursor.moveToFirst()) {
         return cursor.getInt(0);
       }
     }
-    return -1;
+
+    return 0;
+  }
+
+  private @Nullable Integer getCachedPosition(long threadId, @NonNull String key) {
+    synchronized (positionCache) {
+      Map<String, Integer> positions = positionCache.get(threadId);
+      return positions != null ? positions.get(key) : null;
+    }
+  }
+
+  private void cachePosition(long threadId, @NonNull String key, int position) {
+    synchronized (positionCache) {
+      Map<String, Integer> positions = positionCache.get(threadId);
+
+      if (positions == null) {
+        positions = new LRUCache<>(POSITION_CACHE_SIZE);
+        positionCache.put(threadId, positions);
+      }
+
+      positions.put(key, position);
+    }
+  }
+
+  private void invalidatePositions(@Nullable Uri uri) {
+    Long threadId = null;
+
+    if (uri != null && uri.getLastPathSegment() != null) {
+      try {
+        threadId = Long.parseLong(uri.getLastPathSegment());
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Unexpected conversation uri: " + uri);
+      }
+    }
+
+    synchronized (positionCache) {
+      if (threadId != null) positionCache.remove(threadId);
+      else                  positionCache.clear();
+    }
+  }
+
+  private Cursor queryPage(long threadId, @NonNull PageKey key, boolean older, boolean inclusive, int limit) {
+    String direction = older ? " DESC" : " ASC";
+    String smsTable  = "(SELECT * FROM " + SmsDatabase.TABLE_NAME +
+                       " WHERE " + MmsSmsColumns.THREAD_ID + " = " + threadId +
+                       " AND " + getKeysetClause(SMS_TRANSPORT, SmsDatabase.DATE_RECEIVED, key, older, inclusive) +
+                       " ORDER BY " + SmsDatabase.DATE_RECEIVED + direction + ", " + MmsSmsColumns.ID + direction +
+                       " LIMIT " + limit + ") AS " + SmsDatabase.TABLE_NAME;
+    String mmsTable  = "(SELECT * FROM " + MmsDatabase.TABLE_NAME +
+                       " WHERE " + MmsSmsColumns.THREAD_ID + " = " + threadId +
+                       " AND " + getKeysetClause(MMS_TRANSPORT, MmsDatabase.DATE_RECEIVED, key, older, inclusive) +
+                       " ORDER BY " + MmsDatabase.DATE_RECEIVED + direction + ", " + MmsSmsColumns.ID + direction +
+                       " LIMIT " + limit + ") AS " + MmsDatabase.TABLE_NAME;
+    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + direction + ", " + TRANSPORT + direction + ", " + MmsSmsColumns.ID + direction;
+
+    return queryTables(PROJECTION, smsTable, mmsTable, null, order, String.valueOf(limit), older ? null : CONVERSATION_ORDER);
+  }
+
+  /**
+   * Builds the condition that selects the messages of one table that are older (or newer) than the
+   * given key. The conversation is sorted by (date received, transport, id), and the transport is
+   * the same for every row of a table, so only the date and id need comparing. The date is always
+   * bounded on its own so that the (thread id, date received) index can be used for the range.
+   */
+  private static @NonNull String getKeysetClause(@NonNull String transport, @NonNull String dateReceivedColumn, @NonNull PageKey key, boolean older, boolean inclusive) {
+    int    transportOrder = transport.compareTo(key.getTransport());
+    String date           = String.valueOf(key.getDateReceived());
+    String before         = older ? " < " : " > ";
+    String beforeOrEqual  = older ? " <= " : " >= ";
+
+    if (transportOrder != 0) {
+      boolean sameDateIncluded = older == (transportOrder < 0);
+      return dateReceivedColumn + (sameDateIncluded ? beforeOrEqual : before) + date;
+    }
+
+    return dateReceivedColumn + beforeOrEqual + date + " AND " +
+           "(" + dateReceivedColumn + before + date + " OR " + MmsSmsColumns.ID + (inclusive ? beforeOrEqual : before) + key.getId() + ")";
   }
 
   private Cursor queryTables(String[] projection, String selection, String order, String limit) {
+    return queryTables(projection, SmsDatabase.TABLE_NAME, MmsDatabase.TABLE_NAME, selection, order, limit, null);
+  }
+
+  /**
+   * @param smsTable The table, or subquery aliased as the sms table, to read sms messages from.
+   * @param mmsTable The table, or subquery aliased as the mms table, to read mms messages from.
+   * @param outerOrder The order of the final results, if it's different from the order used to
+   *                   apply the limit.
+   */
+  private Cursor queryTables(String[] projection, String smsTable, String mmsTable, String selection, String order, String limit, String outerOrder) {
     String[] mmsProjection = {MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT,
                               MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED,
                               MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MmsSmsColumns.ID,
@@ -258,6 +487,10 @@ public class MmsSmsDatabase extends Database {
                                   "'" + AttachmentDatabase.STICKER_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.STICKER_ID + ", " +
                                   "'" + AttachmentDatabase.BLUR_HASH + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.BLUR_HASH +
                                   ")) AS " + AttachmentDatabase.ATTACHMENT_JSON_ALIAS,
+                              "(SELECT " + AttachmentDatabase.FAST_PREFLIGHT_ID + " FROM " + AttachmentDatabase.TABLE_NAME +
+                                  " WHERE " + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID +
+                                  " AND " + AttachmentDatabase.QUOTE + " = 0" +
+                                  " ORDER BY " + AttachmentDatabase.ROW_ID + " LIMIT 1) AS " + AttachmentDatabase.PREFLIGHT_ID_ALIAS,
                               SmsDatabase.BODY, MmsSmsColumns.READ, MmsSmsColumns.THREAD_ID,
                               SmsDatabase.TYPE, SmsDatabase.RECIPIENT_ID, SmsDatabase.ADDRESS_DEVICE_ID, SmsDatabase.SUBJECT, MmsDatabase.MESSAGE_TYPE,
                               MmsDatabase.MESSAGE_BOX, SmsDatabase.STATUS, MmsDatabase.PART_COUNT,
@@ -285,6 +518,7 @@ public class MmsSmsDatabase extends Database {
                                   + " || '::' || " + SmsDatabase.DATE_SENT
                                   + " AS " + MmsSmsColumns.UNIQUE_ROW_ID,
                               "NULL AS " + AttachmentDatabase.ATTACHMENT_JSON_ALIAS,
+                              "NULL AS " + AttachmentDatabase.PREFLIGHT_ID_ALIAS,
                               SmsDatabase.BODY, MmsSmsColumns.READ, MmsSmsColumns.THREAD_ID,
                               SmsDatabase.TYPE, SmsDatabase.RECIPIENT_ID, SmsDatabase.ADDRESS_DEVICE_ID, SmsDatabase.SUBJECT, MmsDatabase.MESSAGE_TYPE,
                               MmsDatabase.MESSAGE_BOX, SmsDatabase.STATUS, MmsDatabase.PART_COUNT,
@@ -311,8 +545,8 @@ public class MmsSmsDatabase extends Database {
     mmsQueryBuilder.setDistinct(true);
     smsQueryBuilder.setDistinct(true);
 
-    smsQueryBuilder.setTables(SmsDatabase.TABLE_NAME);
-    mmsQueryBuilder.setTables(MmsDatabase.TABLE_NAME + " LEFT OUTER JOIN " +
+    smsQueryBuilder.setTables(smsTable);
+    mmsQueryBuilder.setTables(mmsTable + " LEFT OUTER JOIN " +
                               AttachmentDatabase.TABLE_NAME +
                               " ON " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.MMS_ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID);
 
@@ -398,9 +632,9 @@ public class MmsSmsDatabase extends Database {
     smsColumnsPresent.add(SmsDatabase.UNIDENTIFIED);
 
     @SuppressWarnings("deprecation")
-    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, selection, null, MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, null);
+    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 5, MMS_TRANSPORT, selection, null, MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID, null);
     @SuppressWarnings("deprecation")
-    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, selection, null, null, null);
+    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 5, SMS_TRANSPORT, selection, null, null, null);
 
     SQLiteQueryBuilder unionQueryBuilder = new SQLiteQueryBuilder();
     String unionQuery = unionQueryBuilder.buildUnionQuery(new String[] {smsSubQuery, mmsSubQuery}, order, limit);
@@ -409,7 +643,7 @@ public class MmsSmsDatabase extends Database {
     outerQueryBuilder.setTables("(" + unionQuery + ")");
 
     @SuppressWarnings("deprecation")
-    String query      = outerQueryBuilder.buildQuery(projection, null, null, null, null, null, null);
+    String query      = outerQueryBuilder.buildQuery(projection, null, null, null, null, outerOrder, null);
 
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
     return db.rawQuery(query, null);
@@ -422,11 +656,13 @@ public class MmsSmsDatabase extends Database {
   public class Reader {
 
     private final Cursor                 cursor;
+    private final ColumnIndexCache       columns;
     private       SmsDatabase.Reader     smsReader;
     private       MmsDatabase.Reader     mmsReader;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this.cursor  = cursor;
+      this.columns = new ColumnIndexCache(cursor);
     }
 
     private SmsDatabase.Reader getSmsReader() {
@@ -453,15 +689,83 @@ public class MmsSmsDatabase extends Database {
     }
 
     public MessageRecord getCurrent() {
-      String type = cursor.getString(cursor.getColumnIndexOrThrow(TRANSPORT));
+      String type = cursor.getString(columns.get(TRANSPORT));
 
       if      (MmsSmsDatabase.MMS_TRANSPORT.equals(type)) return getMmsReader().getCurrent();
       else if (MmsSmsDatabase.SMS_TRANSPORT.equals(type)) return getSmsReader().getCurrent();
       else                                                throw new AssertionError("Bad type: " + type);
     }
 
+    /**
+     * @return A stable id for the current row that's cheap to compute. Messages whose first
+     *         attachment was given a fast preflight id use that, so they keep the id they had while
+     *         they were still being sent. Every other message uses a hash of its type, id and sent
+     *         date.
+     */
+    public long getCurrentStableId() {
+      String fastPreflightId = cursor.getString(columns.get(AttachmentDatabase.PREFLIGHT_ID_ALIAS));
+
+      if (fastPreflightId != null) {
+        return Long.valueOf(fastPreflightId);
+      }
+
+      boolean mms      = MmsSmsDatabase.MMS_TRANSPORT.equals(cursor.getString(columns.get(TRANSPORT)));
+      long    id       = cursor.getLong(columns.get(MmsSmsColumns.ID));
+      long    dateSent = cursor.getLong(columns.get(MmsSmsColumns.NORMALIZED_DATE_SENT));
+
+      return getStableId(mms, id, dateSent);
+    }
+
+    public @NonNull PageKey getCurrentPageKey() {
+      return new PageKey(cursor.getLong(columns.get(MmsSmsColumns.NORMALIZED_DATE_RECEIVED)),
+                         cursor.getString(columns.get(TRANSPORT)),
+                         cursor.getLong(columns.get(MmsSmsColumns.ID)));
+    }
+
     public void close() {
       cursor.close();
     }
   }
+
+  /**
+   * Where a message sits in its conversation, which is sorted by date received, then transport,
+   * then id.
+   */
+  public static final class PageKey {
+
+    private final long   dateReceived;
+    private final String transport;
+    private final long   id;
+
+    PageKey(long dateReceived, @NonNull String transport, long id) {
+      this.dateReceived = dateReceived;
+      this.transport    = transport;
+      this.id           = id;
+    }
+
+    public long getDateReceived() {
+      return dateReceived;
+    }
+
+    public @NonNull String getTransport() {
+      return transport;
+    }
+
+    public long getId() {
+      return id;
+    }
+  }
+
+  /**
+   * Mixes the parts of {@link MmsSmsColumns#UNIQUE_ROW_ID} into a well distributed 64-bit value,
+   * using the finalizer from SplitMix64.
+   */
+  static long getStableId(boolean mms, long id, long dateSent) {
+    long hash = (id << 1 | (mms ? 1 : 0)) * 0x9E3779B97F4A7C15L + dateSent;
+
+    hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+    hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+
+    return hash ^ (hash >>> 31);
+  }
 }
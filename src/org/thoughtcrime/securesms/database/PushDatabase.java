@@ -95,6 +95,13 @@ public class PushDatabase extends Database {
     return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, null, null, null, null, null);
   }
 
+  /**
+   * @return A cursor over the oldest pending envelopes, in the order they were inserted.
+   */
+  public Cursor getPending(int limit) {
+    return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, null, null, null, null, ID + " ASC", String.valueOf(limit));
+  }
+
   public void delete(long id) {
     databaseHelper.getWritableDatabase().delete(TABLE_NAME, ID_WHERE, new String[] {id+""});
   }
@@ -159,6 +166,13 @@ public class PushDatabase extends Database {
       }
     }
 
+    /**
+     * @return The id of the envelope most recently returned by {@link #getNext()}.
+     */
+    public long getCurrentId() {
+      return cursor.getLong(cursor.getColumnIndexOrThrow(ID));
+    }
+
     public void close() {
       this.cursor.close();
     }
@@ -24,6 +24,9 @@ import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -78,6 +81,8 @@ public class RecipientDatabase extends Database {
 
   private static final String[] ID_PROJECTION = new String[] { ID };
 
+  private static final int MAX_QUERY_ARGS = 500;
+
   public  static final String[] SEARCH_PROJECTION = new String[] { ID, SYSTEM_DISPLAY_NAME, SIGNAL_PROFILE_NAME, PHONE, EMAIL, SYSTEM_PHONE_LABEL, SYSTEM_PHONE_TYPE, REGISTERED, "IFNULL(" + SYSTEM_DISPLAY_NAME + ", " + SIGNAL_PROFILE_NAME + ") AS " + SORT_NAME };
 
   private static Address addressFromCursor(Cursor cursor) {
@@ -236,6 +241,32 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Reads the settings of several recipients. Recipients that don't exist are left out of the
+   * results.
+   */
+  public @NonNull Map<RecipientId, RecipientSettings> getRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    Map<RecipientId, RecipientSettings> results = new HashMap<>(ids.size());
+
+    try (RecipientSettingsReader reader = readerForRecipientSettings(ids)) {
+      RecipientSettings settings;
+
+      while ((settings = reader.getNext()) != null) {
+        results.put(settings.getId(), settings);
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Streams the settings of several recipients, reading them with one query per chunk of ids so
+   * that no query has more arguments than SQLite allows. Recipients that don't exist are skipped.
+   */
+  public @NonNull RecipientSettingsReader readerForRecipientSettings(@NonNull Collection<RecipientId> ids) {
+    return new RecipientSettingsReader(new ArrayList<>(ids));
+  }
+
   @NonNull RecipientSettings getRecipientSettings(@NonNull Cursor cursor) {
     long    id                     = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
     Address address                = addressFromCursor(cursor);
@@ -871,6 +902,54 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  public class RecipientSettingsReader implements Closeable {
+
+    private final List<RecipientId> ids;
+
+    private int    queried;
+    private Cursor cursor;
+
+    private RecipientSettingsReader(@NonNull List<RecipientId> ids) {
+      this.ids = ids;
+    }
+
+    public @Nullable RecipientSettings getNext() {
+      while (cursor == null || !cursor.moveToNext()) {
+        close();
+
+        if (queried >= ids.size()) {
+          return null;
+        }
+
+        cursor = queryNextChunk();
+      }
+
+      return getRecipientSettings(cursor);
+    }
+
+    private @Nullable Cursor queryNextChunk() {
+      List<RecipientId> chunk = ids.subList(queried, Math.min(queried + MAX_QUERY_ARGS, ids.size()));
+      String            query = ID + " IN (" + TextUtils.join(",", Collections.nCopies(chunk.size(), "?")) + ")";
+      String[]          args  = new String[chunk.size()];
+
+      for (int i = 0; i < args.length; i++) {
+        args[i] = chunk.get(i).serialize();
+      }
+
+      queried += chunk.size();
+
+      return databaseHelper.getReadableDatabase().query(TABLE_NAME, null, query, args, null, null, null);
+    }
+
+    @Override
+    public void close() {
+      if (cursor != null) {
+        cursor.close();
+        cursor = null;
+      }
+    }
+  }
+
   private static class PendingContactInfo {
 
     private final String displayName;
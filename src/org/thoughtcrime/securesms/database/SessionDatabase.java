@@ -39,6 +39,13 @@ public class SessionDatabase extends Database {
     super(context, databaseHelper);
   }
 
+  /**
+   * @return True if the calling thread has a transaction open, whose writes may still be rolled back.
+   */
+  public boolean isInTransaction() {
+    return databaseHelper.getWritableDatabase().inTransaction();
+  }
+
   public void store(@NonNull RecipientId recipientId, int deviceId, @NonNull SessionRecord record) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
 
@@ -49,6 +49,8 @@ import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -124,7 +126,7 @@ public class SmsDatabase extends MessagingDatabase {
     long threadId = getThreadIdForMessage(id);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, id, false);
   }
 
   public long getThreadIdForMessage(long id) {
@@ -277,7 +279,7 @@ public class SmsDatabase extends MessagingDatabase {
     long threadId = getThreadIdForMessage(id);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, id, false);
   }
 
   public void markStatus(long id, int status) {
@@ -290,7 +292,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     long threadId = getThreadIdForMessage(id);
     DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, id, false);
   }
 
   public void markAsSentFailed(long id) {
@@ -323,15 +325,16 @@ public class SmsDatabase extends MessagingDatabase {
           String      columnName       = deliveryReceipt ? DELIVERY_RECEIPT_COUNT : READ_RECEIPT_COUNT;
 
           if (outRecipientId.equals(theirRecipientId)) {
-            long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
+            long threadId  = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
+            long messageId = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
 
             database.execSQL("UPDATE " + TABLE_NAME +
                              " SET " + columnName + " = " + columnName + " + 1 WHERE " +
                              ID + " = ?",
-                             new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
+                             new String[] {String.valueOf(messageId)});
 
             DatabaseFactory.getThreadDatabase(context).update(threadId, false);
-            notifyConversationListeners(threadId);
+            notifyConversationListeners(threadId, messageId, false);
             foundMessage = true;
           }
         }
@@ -451,8 +454,8 @@ public class SmsDatabase extends MessagingDatabase {
     long threadId = getThreadIdForMessage(messageId);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, true);
-    notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListeners(threadId, messageId, false);
+    notifyConversationListListeners(threadId);
 
     return new Pair<>(messageId, threadId);
   }
@@ -477,7 +480,7 @@ public class SmsDatabase extends MessagingDatabase {
       long           newMessageId = db.insert(TABLE_NAME, null, contentValues);
 
       DatabaseFactory.getThreadDatabase(context).update(record.getThreadId(), true);
-      notifyConversationListeners(record.getThreadId());
+      notifyConversationListeners(record.getThreadId(), newMessageId, false);
 
       ApplicationDependencies.getJobManager().add(new TrimThreadJob(record.getThreadId()));
 
@@ -530,7 +533,7 @@ public class SmsDatabase extends MessagingDatabase {
     long messageId    = db.insert(TABLE_NAME, null, values);
 
     DatabaseFactory.getThreadDatabase(context).update(threadId, true);
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, false);
     ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
 
     if (unread) {
@@ -622,7 +625,7 @@ public class SmsDatabase extends MessagingDatabase {
         DatabaseFactory.getRecipientDatabase(context).setDefaultSubscriptionId(recipient.getId(), message.getSubscriptionId());
       }
 
-      notifyConversationListeners(threadId);
+      notifyConversationListeners(threadId, messageId, false);
 
       if (!message.isIdentityUpdate() && !message.isIdentityVerified() && !message.isIdentityDefault()) {
         ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
@@ -680,7 +683,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     DatabaseFactory.getThreadDatabase(context).setHasSent(threadId, true);
 
-    notifyConversationListeners(threadId);
+    notifyConversationListeners(threadId, messageId, false);
 
     if (!message.isIdentityVerified() && !message.isIdentityDefault()) {
       ApplicationDependencies.getJobManager().add(new TrimThreadJob(threadId));
@@ -735,6 +738,28 @@ public class SmsDatabase extends MessagingDatabase {
     return threadDeleted;
   }
 
+  /**
+   * Deletes the given messages without touching their threads, leaving the caller to update and
+   * notify each affected thread once.
+   *
+   * @return The ids of the threads the deleted messages belonged to.
+   */
+  /*package*/ @NonNull Set<Long> deleteMessagesWithoutThreadUpdate(@NonNull Collection<Long> messageIds) {
+    SQLiteDatabase db        = databaseHelper.getWritableDatabase();
+    String         where     = ID + " IN (" + TextUtils.join(",", messageIds) + ")";
+    Set<Long>      threadIds = new HashSet<>();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {THREAD_ID}, where, null, THREAD_ID, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        threadIds.add(cursor.getLong(0));
+      }
+    }
+
+    db.delete(TABLE_NAME, where, null);
+
+    return threadIds;
+  }
+
   public void ensureMigration() {
     databaseHelper.getWritableDatabase();
   }
@@ -856,10 +881,14 @@ public class SmsDatabase extends MessagingDatabase {
 
   public class Reader {
 
-    private final Cursor cursor;
+    private final Cursor           cursor;
+    private final ColumnIndexCache columns;
+    private final boolean          readReceiptsEnabled;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this.cursor              = cursor;
+      this.columns             = new ColumnIndexCache(cursor);
+      this.readReceiptsEnabled = TextSecurePreferences.isReadReceiptsEnabled(context);
     }
 
     public SmsMessageRecord getNext() {
@@ -875,24 +904,24 @@ public class SmsDatabase extends MessagingDatabase {
     }
 
     public SmsMessageRecord getCurrent() {
-      long    messageId            = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.ID));
-      long    recipientId          = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.RECIPIENT_ID));
-      int     addressDeviceId      = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.ADDRESS_DEVICE_ID));
-      long    type                 = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.TYPE));
-      long    dateReceived         = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_RECEIVED));
-      long    dateSent             = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.NORMALIZED_DATE_SENT));
-      long    threadId             = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.THREAD_ID));
-      int     status               = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.STATUS));
-      int     deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.DELIVERY_RECEIPT_COUNT));
-      int     readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.READ_RECEIPT_COUNT));
-      String  mismatchDocument     = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.MISMATCHED_IDENTITIES));
-      int     subscriptionId       = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.SUBSCRIPTION_ID));
-      long    expiresIn            = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRES_IN));
-      long    expireStarted        = cursor.getLong(cursor.getColumnIndexOrThrow(SmsDatabase.EXPIRE_STARTED));
-      String  body                 = cursor.getString(cursor.getColumnIndexOrThrow(SmsDatabase.BODY));
-      boolean unidentified         = cursor.getInt(cursor.getColumnIndexOrThrow(SmsDatabase.UNIDENTIFIED)) == 1;
-
-      if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
+      long    messageId            = cursor.getLong(columns.get(SmsDatabase.ID));
+      long    recipientId          = cursor.getLong(columns.get(SmsDatabase.RECIPIENT_ID));
+      int     addressDeviceId      = cursor.getInt(columns.get(SmsDatabase.ADDRESS_DEVICE_ID));
+      long    type                 = cursor.getLong(columns.get(SmsDatabase.TYPE));
+      long    dateReceived         = cursor.getLong(columns.get(SmsDatabase.NORMALIZED_DATE_RECEIVED));
+      long    dateSent             = cursor.getLong(columns.get(SmsDatabase.NORMALIZED_DATE_SENT));
+      long    threadId             = cursor.getLong(columns.get(SmsDatabase.THREAD_ID));
+      int     status               = cursor.getInt(columns.get(SmsDatabase.STATUS));
+      int     deliveryReceiptCount = cursor.getInt(columns.get(SmsDatabase.DELIVERY_RECEIPT_COUNT));
+      int     readReceiptCount     = cursor.getInt(columns.get(SmsDatabase.READ_RECEIPT_COUNT));
+      String  mismatchDocument     = cursor.getString(columns.get(SmsDatabase.MISMATCHED_IDENTITIES));
+      int     subscriptionId       = cursor.getInt(columns.get(SmsDatabase.SUBSCRIPTION_ID));
+      long    expiresIn            = cursor.getLong(columns.get(SmsDatabase.EXPIRES_IN));
+      long    expireStarted        = cursor.getLong(columns.get(SmsDatabase.EXPIRE_STARTED));
+      String  body                 = cursor.getString(columns.get(SmsDatabase.BODY));
+      boolean unidentified         = cursor.getInt(columns.get(SmsDatabase.UNIDENTIFIED)) == 1;
+
+      if (!readReceiptsEnabled) {
         readReceiptCount = 0;
       }
 
@@ -6,14 +6,13 @@ import android.database.Cursor;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.text.TextUtils;
-import android.util.Pair;
 
 import net.sqlcipher.database.SQLiteDatabase;
 
 import org.greenrobot.eventbus.EventBus;
 import org.thoughtcrime.securesms.crypto.AttachmentSecret;
 import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream;
-import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream;
+import org.thoughtcrime.securesms.crypto.ModernEncryptingPartWriter;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.IncomingSticker;
 import org.thoughtcrime.securesms.database.model.StickerPackRecord;
@@ -22,13 +21,11 @@ import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.mms.DecryptableStreamUriLoader.DecryptableUri;
 import org.thoughtcrime.securesms.stickers.BlessedPacks;
 import org.thoughtcrime.securesms.stickers.StickerPackInstallEvent;
-import org.thoughtcrime.securesms.util.Util;
 
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 public class StickerDatabase extends Database {
 
@@ -304,12 +301,11 @@ public class StickerDatabase extends Database {
   }
 
   private FileInfo saveStickerImage(@NonNull InputStream inputStream) throws IOException {
-    File                       partsDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
-    File                       file           = File.createTempFile("sticker", ".mms", partsDirectory);
-    Pair<byte[], OutputStream> out            = ModernEncryptingPartOutputStream.createFor(attachmentSecret, file, false);
-    long                       length         = Util.copy(inputStream, out.second);
+    File                              partsDirectory = context.getDir(DIRECTORY, Context.MODE_PRIVATE);
+    File                              file           = File.createTempFile("sticker", ".mms", partsDirectory);
+    ModernEncryptingPartWriter.Result written        = ModernEncryptingPartWriter.write(attachmentSecret, file, inputStream);
 
-    return new FileInfo(file, length, out.first);
+    return new FileInfo(file, written.getLength(), written.getRandom());
   }
 
   private void deleteSticker(@NonNull SQLiteDatabase db, long rowId, @Nullable String filePath) {
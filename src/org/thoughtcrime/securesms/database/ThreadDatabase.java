@@ -22,6 +22,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.MergeCursor;
 import android.net.Uri;
+import android.text.TextUtils;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -44,14 +45,19 @@ import org.thoughtcrime.securesms.mms.SlideDeck;
 import org.thoughtcrime.securesms.recipients.Recipient;
 import org.thoughtcrime.securesms.recipients.RecipientId;
 import org.thoughtcrime.securesms.util.JsonUtils;
+import org.thoughtcrime.securesms.util.LRUCache;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.Pair;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 public class ThreadDatabase extends Database {
@@ -96,6 +102,7 @@ public class ThreadDatabase extends Database {
   public static final String[] CREATE_INDEXS = {
     "CREATE INDEX IF NOT EXISTS thread_recipient_ids_index ON " + TABLE_NAME + " (" + RECIPIENT_ID + ");",
     "CREATE INDEX IF NOT EXISTS archived_count_index ON " + TABLE_NAME + " (" + ARCHIVED + ", " + MESSAGE_COUNT + ");",
+    "CREATE INDEX IF NOT EXISTS thread_archived_date_index ON " + TABLE_NAME + " (" + ARCHIVED + ", " + DATE + ");",
   };
 
   private static final String[] THREAD_PROJECTION = {
@@ -112,6 +119,10 @@ public class ThreadDatabase extends Database {
                                                                                                Stream.of(GroupDatabase.TYPED_GROUP_PROJECTION))
                                                                                        .toList();
 
+  private static final Map<String, Extra> EXTRA_CACHE = new LRUCache<>(32);
+
+  private final ThreadLocal<Map<Long, Boolean>> deferredUpdates = new ThreadLocal<>();
+
   public ThreadDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -170,7 +181,7 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public void updateSnippet(long threadId, String snippet, @Nullable Uri attachment, long date, long type, boolean unarchive) {
@@ -187,13 +198,13 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   private void deleteThread(long threadId) {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.delete(TABLE_NAME, ID_WHERE, new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   private void deleteThreads(Set<Long> threadIds) {
@@ -207,7 +218,7 @@ public class ThreadDatabase extends Database {
     where = where.substring(0, where.length() - 4);
 
     db.delete(TABLE_NAME, where, null);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadIds);
   }
 
   private void deleteAllThreads() {
@@ -304,7 +315,7 @@ public class ThreadDatabase extends Database {
     final List<MarkedMessageInfo> smsRecords = DatabaseFactory.getSmsDatabase(context).setMessagesRead(threadId);
     final List<MarkedMessageInfo> mmsRecords = DatabaseFactory.getMmsDatabase(context).setMessagesRead(threadId);
 
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
 
     return new LinkedList<MarkedMessageInfo>() {{
       addAll(smsRecords);
@@ -326,7 +337,7 @@ public class ThreadDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public int getDistributionType(long threadId) {
@@ -414,6 +425,51 @@ public class ThreadDatabase extends Database {
     return cursor;
   }
 
+  /**
+   * Returns up to {@code limit} conversations that come after the given date and thread id in the
+   * conversation list, so that the list can be loaded a page at a time without an offset. Pass
+   * {@link Long#MAX_VALUE} for both to get the first page.
+   */
+  public Cursor getConversationListPage(boolean archived, long afterDate, long afterThreadId, int limit) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         where = ARCHIVED + " = ? AND " + MESSAGE_COUNT + " != 0 AND " +
+                           "(" + TABLE_NAME + "." + DATE + " < ? OR " +
+                           "(" + TABLE_NAME + "." + DATE + " = ? AND " + TABLE_NAME + "." + ID + " < ?))";
+    String[]       args  = new String[] { archived ? "1" : "0", String.valueOf(afterDate), String.valueOf(afterDate), String.valueOf(afterThreadId) };
+
+    return db.rawQuery(createQuery(where, limit), args);
+  }
+
+  /**
+   * Returns the conversation list rows of the given threads. Threads that have since been deleted,
+   * emptied, or moved in or out of the archive are left out.
+   */
+  public Cursor getConversationListThreads(boolean archived, @NonNull Collection<Long> threadIds) {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         where = ARCHIVED + " = ? AND " + MESSAGE_COUNT + " != 0 AND " +
+                           TABLE_NAME + "." + ID + " IN (" + TextUtils.join(",", threadIds) + ")";
+
+    return db.rawQuery(createQuery(where, 0), new String[] { archived ? "1" : "0" });
+  }
+
+  /**
+   * @return The recipients of the most recent unarchived conversations, newest first.
+   */
+  public @NonNull List<RecipientId> getRecentRecipientIds(int limit) {
+    SQLiteDatabase    db           = databaseHelper.getReadableDatabase();
+    List<RecipientId> recipientIds = new ArrayList<>(limit);
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { RECIPIENT_ID }, ARCHIVED + " = 0 AND " + MESSAGE_COUNT + " != 0",
+                                  null, null, null, DATE + " DESC", String.valueOf(limit)))
+    {
+      while (cursor != null && cursor.moveToNext()) {
+        recipientIds.add(RecipientId.from(cursor.getLong(0)));
+      }
+    }
+
+    return recipientIds;
+  }
+
   public Cursor getDirectShareList() {
     SQLiteDatabase db    = databaseHelper.getReadableDatabase();
     String         query = createQuery(MESSAGE_COUNT + " != 0", 0);
@@ -446,7 +502,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(ARCHIVED, 1);
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public void unarchiveConversation(long threadId) {
@@ -455,7 +511,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(ARCHIVED, 0);
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public void setLastSeen(long threadId) {
@@ -464,7 +520,7 @@ public class ThreadDatabase extends Database {
     contentValues.put(LAST_SEEN, System.currentTimeMillis());
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public Pair<Long, Boolean> getLastSeenAndHasSent(long threadId) {
@@ -488,7 +544,7 @@ public class ThreadDatabase extends Database {
     DatabaseFactory.getDraftDatabase(context).clearDrafts(threadId);
     deleteThread(threadId);
     notifyConversationListeners(threadId);
-    notifyConversationListListeners();
+    notifyConversationListListeners(threadId);
   }
 
   public void deleteConversations(Set<Long> selectedConversations) {
@@ -497,7 +553,7 @@ public class ThreadDatabase extends Database {
     DatabaseFactory.getDraftDatabase(context).clearDrafts(selectedConversations);
     deleteThreads(selectedConversations);
     notifyConversationListeners(selectedConversations);
-    notifyConversationListListeners();
+    notifyConversationListListeners(selectedConversations);
   }
 
   public void deleteAllConversations() {
@@ -592,13 +648,47 @@ public class ThreadDatabase extends Database {
     notifyConversationListListeners();
   }
 
+  /**
+   * Defers every call to {@link #update(long, boolean)} made on the current thread until
+   * {@link #endDeferredUpdates(boolean)} is called, so that a thread that receives many messages in
+   * a row only has its snippet recalculated once. While deferring, {@link #update(long, boolean)}
+   * will always report that the thread was not deleted.
+   */
+  public void beginDeferredUpdates() {
+    deferredUpdates.set(new LinkedHashMap<>());
+  }
+
+  /**
+   * Stops deferring updates on the current thread. Does nothing if updates weren't being deferred.
+   *
+   * @param apply Whether or not the deferred updates should be performed.
+   */
+  public void endDeferredUpdates(boolean apply) {
+    Map<Long, Boolean> pending = deferredUpdates.get();
+    deferredUpdates.remove();
+
+    if (pending != null && apply) {
+      for (Map.Entry<Long, Boolean> entry : pending.entrySet()) {
+        update(entry.getKey(), entry.getValue());
+      }
+    }
+  }
+
   public boolean update(long threadId, boolean unarchive) {
+    Map<Long, Boolean> pending = deferredUpdates.get();
+
+    if (pending != null) {
+      Boolean previousUnarchive = pending.get(threadId);
+      pending.put(threadId, unarchive || (previousUnarchive != null && previousUnarchive));
+      return false;
+    }
+
     MmsSmsDatabase mmsSmsDatabase = DatabaseFactory.getMmsSmsDatabase(context);
     long count                    = mmsSmsDatabase.getConversationCount(threadId);
 
     if (count == 0) {
       deleteThread(threadId);
-      notifyConversationListListeners();
+      notifyConversationListListeners(threadId);
       return true;
     }
 
@@ -613,11 +703,11 @@ public class ThreadDatabase extends Database {
                      getContentTypeFor(record), getExtrasFor(record),
                      record.getTimestamp(), record.getDeliveryStatus(), record.getDeliveryReceiptCount(),
                      record.getType(), unarchive, record.getExpiresIn(), record.getReadReceiptCount());
-        notifyConversationListListeners();
+        notifyConversationListListeners(threadId);
         return false;
       } else {
         deleteThread(threadId);
-        notifyConversationListListeners();
+        notifyConversationListListeners(threadId);
         return true;
       }
     } finally {
@@ -680,7 +770,7 @@ public class ThreadDatabase extends Database {
            " LEFT OUTER JOIN " + GroupDatabase.TABLE_NAME +
            " ON " + TABLE_NAME + "." + RECIPIENT_ID + " = " + GroupDatabase.TABLE_NAME + "." + GroupDatabase.RECIPIENT_ID +
            " WHERE " + where +
-           " ORDER BY " + TABLE_NAME + "." + DATE + " DESC";
+           " ORDER BY " + TABLE_NAME + "." + DATE + " DESC, " + TABLE_NAME + "." + ID + " DESC";
 
     if (limit >  0) {
       query += " LIMIT " + limit;
@@ -707,10 +797,14 @@ public class ThreadDatabase extends Database {
 
   public class Reader implements Closeable {
 
-    private final Cursor cursor;
+    private final Cursor           cursor;
+    private final ColumnIndexCache columns;
+    private final boolean          readReceiptsEnabled;
 
     public Reader(Cursor cursor) {
-      this.cursor = cursor;
+      this.cursor              = cursor;
+      this.columns             = new ColumnIndexCache(cursor);
+      this.readReceiptsEnabled = TextSecurePreferences.isReadReceiptsEnabled(context);
     }
 
     public ThreadRecord getNext() {
@@ -721,52 +815,67 @@ public class ThreadDatabase extends Database {
     }
 
     public ThreadRecord getCurrent() {
-      long        threadId         = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.ID));
-      int         distributionType = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.TYPE));
-      RecipientId recipientId      = RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.RECIPIENT_ID)));
+      long        threadId         = cursor.getLong(columns.get(ThreadDatabase.ID));
+      int         distributionType = cursor.getInt(columns.get(ThreadDatabase.TYPE));
+      RecipientId recipientId      = RecipientId.from(cursor.getLong(columns.get(ThreadDatabase.RECIPIENT_ID)));
 
       Recipient          recipient            = Recipient.live(recipientId).get();
-      String             body                 = cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET));
-      long               date                 = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.DATE));
-      long               count                = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.MESSAGE_COUNT));
-      int                unreadCount          = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.UNREAD_COUNT));
-      long               type                 = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_TYPE));
-      boolean            archived             = cursor.getInt(cursor.getColumnIndex(ThreadDatabase.ARCHIVED)) != 0;
-      int                status               = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.STATUS));
-      int                deliveryReceiptCount = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.DELIVERY_RECEIPT_COUNT));
-      int                readReceiptCount     = cursor.getInt(cursor.getColumnIndexOrThrow(ThreadDatabase.READ_RECEIPT_COUNT));
-      long               expiresIn            = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.EXPIRES_IN));
-      long               lastSeen             = cursor.getLong(cursor.getColumnIndexOrThrow(ThreadDatabase.LAST_SEEN));
+      String             body                 = cursor.getString(columns.get(ThreadDatabase.SNIPPET));
+      long               date                 = cursor.getLong(columns.get(ThreadDatabase.DATE));
+      long               count                = cursor.getLong(columns.get(ThreadDatabase.MESSAGE_COUNT));
+      int                unreadCount          = cursor.getInt(columns.get(ThreadDatabase.UNREAD_COUNT));
+      long               type                 = cursor.getLong(columns.get(ThreadDatabase.SNIPPET_TYPE));
+      boolean            archived             = cursor.getInt(columns.get(ThreadDatabase.ARCHIVED)) != 0;
+      int                status               = cursor.getInt(columns.get(ThreadDatabase.STATUS));
+      int                deliveryReceiptCount = cursor.getInt(columns.get(ThreadDatabase.DELIVERY_RECEIPT_COUNT));
+      int                readReceiptCount     = cursor.getInt(columns.get(ThreadDatabase.READ_RECEIPT_COUNT));
+      long               expiresIn            = cursor.getLong(columns.get(ThreadDatabase.EXPIRES_IN));
+      long               lastSeen             = cursor.getLong(columns.get(ThreadDatabase.LAST_SEEN));
       Uri                snippetUri           = getSnippetUri(cursor);
-      String             contentType          = cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_CONTENT_TYPE));
-      String             extraString          = cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_EXTRAS));
+      String             contentType          = cursor.getString(columns.get(ThreadDatabase.SNIPPET_CONTENT_TYPE));
+      String             extraString          = cursor.getString(columns.get(ThreadDatabase.SNIPPET_EXTRAS));
 
-      if (!TextSecurePreferences.isReadReceiptsEnabled(context)) {
+      if (!readReceiptsEnabled) {
         readReceiptCount = 0;
       }
 
-      Extra extra = null;
-
-      if (extraString != null) {
-        try {
-          extra = JsonUtils.fromJson(extraString, Extra.class);
-        } catch (IOException e) {
-          Log.w(TAG, "Failed to decode extras!");
-        }
-      }
+      Extra extra = extraString != null ? getExtra(extraString) : null;
 
       return new ThreadRecord(body, snippetUri, contentType, extra, recipient, date, count,
                               unreadCount, threadId, deliveryReceiptCount, status, type,
                               distributionType, archived, expiresIn, lastSeen, readReceiptCount);
     }
 
+    private @Nullable Extra getExtra(@NonNull String extraString) {
+      synchronized (EXTRA_CACHE) {
+        Extra extra = EXTRA_CACHE.get(extraString);
+
+        if (extra != null) {
+          return extra;
+        }
+      }
+
+      try {
+        Extra extra = JsonUtils.fromJson(extraString, Extra.class);
+
+        synchronized (EXTRA_CACHE) {
+          EXTRA_CACHE.put(extraString, extra);
+        }
+
+        return extra;
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to decode extras!");
+        return null;
+      }
+    }
+
     private @Nullable Uri getSnippetUri(Cursor cursor) {
-      if (cursor.isNull(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_URI))) {
+      if (cursor.isNull(columns.get(ThreadDatabase.SNIPPET_URI))) {
         return null;
       }
 
       try {
-        return Uri.parse(cursor.getString(cursor.getColumnIndexOrThrow(ThreadDatabase.SNIPPET_URI)));
+        return Uri.parse(cursor.getString(columns.get(ThreadDatabase.SNIPPET_URI)));
       } catch (IllegalArgumentException e) {
         Log.w(TAG, e);
         return null;
@@ -86,8 +86,9 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int NOTIFICATION_RECIPIENT_IDS       = 29;
   private static final int BLUR_HASH                        = 30;
   private static final int MMS_RECIPIENT_CLEANUP_2          = 31;
+  private static final int THREAD_DATE_INDEX                = 32;
 
-  private static final int    DATABASE_VERSION = 31;
+  private static final int    DATABASE_VERSION = 32;
   private static final String DATABASE_NAME    = "signal.db";
 
   private final Context        context;
@@ -597,6 +598,10 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         Log.i(TAG, "MMS recipient cleanup 2 updated " + count + " rows.");
       }
 
+      if (oldVersion < THREAD_DATE_INDEX) {
+        db.execSQL("CREATE INDEX IF NOT EXISTS thread_archived_date_index ON thread (archived, date)");
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
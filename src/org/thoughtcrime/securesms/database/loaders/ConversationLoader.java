@@ -3,16 +3,21 @@ package org.thoughtcrime.securesms.database.loaders;
 import android.content.Context;
 import android.database.Cursor;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import org.thoughtcrime.securesms.database.DatabaseFactory;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.util.AbstractCursorLoader;
 import org.whispersystems.libsignal.util.Pair;
 
 public class ConversationLoader extends AbstractCursorLoader {
-  private final long    threadId;
-  private       int     offset;
-  private       int     limit;
-  private       long    lastSeen;
-  private       boolean hasSent;
+  private final long                   threadId;
+  private       int                    offset;
+  private       int                    limit;
+  private       long                   lastSeen;
+  private       boolean                hasSent;
+  private       MmsSmsDatabase.PageKey pageKey;
 
   public ConversationLoader(Context context, long threadId, int offset, int limit, long lastSeen) {
     super(context);
@@ -53,6 +58,35 @@ public class ConversationLoader extends AbstractCursorLoader {
       this.lastSeen = lastSeenAndHasSent.first();
     }
 
-    return DatabaseFactory.getMmsSmsDatabase(context).getConversation(threadId, offset, limit);
+    MmsSmsDatabase db = DatabaseFactory.getMmsSmsDatabase(context);
+
+    if (offset == 0 || limit == 0) {
+      return db.getConversation(threadId, offset, limit);
+    }
+
+    Cursor cursor;
+
+    if (pageKey == null) {
+      cursor = db.getConversation(threadId, offset, limit);
+    } else {
+      cursor = db.getConversationOlderThan(threadId, pageKey, true, limit);
+      offset = db.getMessagePositionInConversation(threadId, pageKey.getDateReceived());
+    }
+
+    rememberPageKey(db, cursor);
+
+    return cursor;
+  }
+
+  /**
+   * Remembers the key of the first message in the window, so that reloading it when the
+   * conversation changes can read the window from there instead of skipping over every newer
+   * message again.
+   */
+  private void rememberPageKey(@NonNull MmsSmsDatabase db, @Nullable Cursor cursor) {
+    if (cursor != null && cursor.moveToFirst()) {
+      pageKey = db.readerFor(cursor).getCurrentPageKey();
+      cursor.moveToPosition(-1);
+    }
   }
 }
@@ -5,8 +5,10 @@ import android.app.Application;
 import androidx.annotation.NonNull;
 
 import org.thoughtcrime.securesms.IncomingMessageProcessor;
+import org.thoughtcrime.securesms.database.DatabaseObserver;
 import org.thoughtcrime.securesms.gcm.MessageRetriever;
 import org.thoughtcrime.securesms.jobmanager.JobManager;
+import org.thoughtcrime.securesms.push.SignalCdnClient;
 import org.thoughtcrime.securesms.push.SignalServiceNetworkAccess;
 import org.thoughtcrime.securesms.recipients.LiveRecipientCache;
 import org.thoughtcrime.securesms.service.IncomingMessageObserver;
@@ -14,6 +16,7 @@ import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.whispersystems.signalservice.api.SignalServiceAccountManager;
 import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
 import org.whispersystems.signalservice.api.SignalServiceMessageSender;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
 
 /**
  * Location for storing and retrieving application-scoped singletons. Users must call
@@ -35,14 +38,18 @@ public class ApplicationDependencies {
   private static MessageRetriever             messageRetriever;
   private static LiveRecipientCache           recipientCache;
   private static JobManager                   jobManager;
+  private static SignalCdnClient              cdnClient;
+
+  private static volatile DatabaseObserver databaseObserver;
 
   public static synchronized void init(@NonNull Application application, @NonNull Provider provider) {
     if (ApplicationDependencies.application != null || ApplicationDependencies.provider != null) {
       throw new IllegalStateException("Already initialized!");
     }
 
-    ApplicationDependencies.application = application;
-    ApplicationDependencies.provider    = provider;
+    ApplicationDependencies.application      = application;
+    ApplicationDependencies.provider         = provider;
+    ApplicationDependencies.databaseObserver = provider.provideDatabaseObserver();
   }
 
   public static synchronized @NonNull SignalServiceAccountManager getSignalServiceAccountManager() {
@@ -128,6 +135,36 @@ public class ApplicationDependencies {
     return jobManager;
   }
 
+  /**
+   * Rebuilt if the network configuration has changed since it was created, like when the local
+   * number changes to one in a censored region.
+   */
+  public static synchronized @NonNull SignalCdnClient getSignalCdnClient() {
+    assertInitialization();
+
+    SignalServiceConfiguration configuration = provider.provideSignalServiceNetworkAccess().getConfiguration(application);
+
+    if (cdnClient == null || cdnClient.getConfiguration() != configuration) {
+      cdnClient = provider.provideSignalCdnClient(configuration);
+    }
+
+    return cdnClient;
+  }
+
+  /**
+   * Called for every database write, so it's created up front in {@link #init(Application, Provider)}
+   * rather than lazily behind the class lock.
+   */
+  public static @NonNull DatabaseObserver getDatabaseObserver() {
+    DatabaseObserver observer = databaseObserver;
+
+    if (observer == null) {
+      throw new UninitializedException();
+    }
+
+    return observer;
+  }
+
   private static void assertInitialization() {
     if (application == null || provider == null) {
       throw new UninitializedException();
@@ -143,6 +180,8 @@ public class ApplicationDependencies {
     @NonNull MessageRetriever provideMessageRetriever();
     @NonNull LiveRecipientCache provideRecipientCache();
     @NonNull JobManager provideJobManager();
+    @NonNull DatabaseObserver provideDatabaseObserver();
+    @NonNull SignalCdnClient provideSignalCdnClient(@NonNull SignalServiceConfiguration configuration);
   }
 
   private static class UninitializedException extends IllegalStateException {
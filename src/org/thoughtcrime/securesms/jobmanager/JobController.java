@@ -22,10 +22,16 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages the queue of jobs. This is the only class that should write to {@link JobStorage} to
  * ensure consistency.
+ *
+ * All state changes happen under {@link #lock}, but it is only held for as long as it takes to
+ * update storage. Constraints are evaluated outside of the lock, and runners waiting for work are
+ * only woken up in proportion to the number of jobs that could be ready, rather than all at once.
  */
 class JobController {
 
@@ -41,6 +47,10 @@ class JobController {
   private final Debouncer              debouncer;
   private final Callback               callback;
   private final Set<String>            runningJobs;
+  private final ReentrantLock          lock;
+  private final Condition              jobsChanged;
+
+  private long generation;
 
   JobController(@NonNull Application application,
                 @NonNull JobStorage jobStorage,
@@ -62,20 +72,32 @@ class JobController {
     this.debouncer              = debouncer;
     this.callback               = callback;
     this.runningJobs            = new HashSet<>();
+    this.lock                   = new ReentrantLock();
+    this.jobsChanged            = lock.newCondition();
   }
 
   @WorkerThread
-  synchronized void init() {
-    jobStorage.updateAllJobsToBePending();
-    notifyAll();
+  void init() {
+    lock.lock();
+    try {
+      jobStorage.updateAllJobsToBePending();
+      onJobsChanged();
+    } finally {
+      lock.unlock();
+    }
   }
 
-  synchronized void wakeUp() {
-    notifyAll();
+  void wakeUp() {
+    lock.lock();
+    try {
+      onJobsChanged();
+    } finally {
+      lock.unlock();
+    }
   }
 
   @WorkerThread
-  synchronized void submitNewJobChain(@NonNull List<List<Job>> chain) {
+  void submitNewJobChain(@NonNull List<List<Job>> chain) {
     chain = Stream.of(chain).filterNot(List::isEmpty).toList();
 
     if (chain.isEmpty()) {
@@ -83,26 +105,43 @@ class JobController {
       return;
     }
 
-    if (chainExceedsMaximumInstances(chain)) {
-      Job solo = chain.get(0).get(0);
-      jobTracker.onStateChange(solo.getId(), JobTracker.JobState.IGNORED);
-      Log.w(TAG, JobLogger.format(solo, "Already at the max instance count of " + solo.getParameters().getMaxInstances() + ". Skipping."));
-      return;
+    lock.lock();
+    try {
+      if (chainExceedsMaximumInstances(chain)) {
+        Job solo = chain.get(0).get(0);
+        jobTracker.onStateChange(solo.getId(), JobTracker.JobState.IGNORED);
+        Log.w(TAG, JobLogger.format(solo, "Already at the max instance count of " + solo.getParameters().getMaxInstances() + ". Skipping."));
+        return;
+      }
+
+      insertJobChain(chain);
+      triggerOnSubmit(chain);
+    } finally {
+      lock.unlock();
     }
 
-    insertJobChain(chain);
     scheduleJobs(chain.get(0));
-    triggerOnSubmit(chain);
-    notifyAll();
+
+    lock.lock();
+    try {
+      onJobsChanged();
+    } finally {
+      lock.unlock();
+    }
   }
 
   @WorkerThread
-  synchronized void onRetry(@NonNull Job job) {
+  void onRetry(@NonNull Job job) {
     int  nextRunAttempt     = job.getRunAttempt() + 1;
     long nextRunAttemptTime = calculateNextRunAttemptTime(System.currentTimeMillis(), nextRunAttempt, job.getParameters().getMaxBackoff());
 
-    jobStorage.updateJobAfterRetry(job.getId(), false, nextRunAttempt, nextRunAttemptTime);
-    jobTracker.onStateChange(job.getId(), JobTracker.JobState.PENDING);
+    lock.lock();
+    try {
+      jobStorage.updateJobAfterRetry(job.getId(), false, nextRunAttempt, nextRunAttemptTime, dataSerializer.serialize(job.serialize()));
+      jobTracker.onStateChange(job.getId(), JobTracker.JobState.PENDING);
+    } finally {
+      lock.unlock();
+    }
 
     List<Constraint> constraints = Stream.of(jobStorage.getConstraintSpecs(job.getId()))
                                          .map(ConstraintSpec::getFactoryKey)
@@ -115,43 +154,75 @@ class JobController {
     Log.i(TAG, JobLogger.format(job, "Scheduling a retry in " + delay + " ms."));
     scheduler.schedule(delay, constraints);
 
-    notifyAll();
+    lock.lock();
+    try {
+      onJobsChanged();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Persists any writes that the {@link JobStorage} has deferred. Intentionally done outside of
+   * {@link #lock}, as the storage handles its own locking and we don't want to block runners on
+   * disk I/O.
+   */
+  @WorkerThread
+  void flush() {
+    jobStorage.flush();
   }
 
-  synchronized void onJobFinished(@NonNull Job job) {
-    runningJobs.remove(job.getId());
+  void onJobFinished(@NonNull Job job) {
+    lock.lock();
+    try {
+      runningJobs.remove(job.getId());
+    } finally {
+      lock.unlock();
+    }
   }
 
   @WorkerThread
-  synchronized void onSuccess(@NonNull Job job) {
-    jobStorage.deleteJob(job.getId());
-    jobTracker.onStateChange(job.getId(), JobTracker.JobState.SUCCESS);
-    notifyAll();
+  void onSuccess(@NonNull Job job) {
+    lock.lock();
+    try {
+      jobStorage.deleteJob(job.getId());
+      jobTracker.onStateChange(job.getId(), JobTracker.JobState.SUCCESS);
+      onJobsChanged();
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
    * @return The list of all dependent jobs that should also be failed.
    */
   @WorkerThread
-  synchronized @NonNull List<Job> onFailure(@NonNull Job job) {
-    List<Job> dependents = Stream.of(jobStorage.getDependencySpecsThatDependOnJob(job.getId()))
-                                 .map(DependencySpec::getJobId)
-                                 .map(jobStorage::getJobSpec)
-                                 .withoutNulls()
-                                 .map(jobSpec -> {
-                                   List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
-                                   return createJob(jobSpec, constraintSpecs);
-                                 })
-                                 .toList();
-
-    List<Job> all = new ArrayList<>(dependents.size() + 1);
-    all.add(job);
-    all.addAll(dependents);
-
-    jobStorage.deleteJobs(Stream.of(all).map(Job::getId).toList());
-    Stream.of(all).forEach(j -> jobTracker.onStateChange(j.getId(), JobTracker.JobState.FAILURE));
-
-    return dependents;
+  @NonNull List<Job> onFailure(@NonNull Job job) {
+    lock.lock();
+    try {
+      List<Job> dependents = Stream.of(jobStorage.getDependencySpecsThatDependOnJob(job.getId()))
+                                   .map(DependencySpec::getJobId)
+                                   .map(jobStorage::getJobSpec)
+                                   .withoutNulls()
+                                   .map(jobSpec -> {
+                                     List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
+                                     return createJob(jobSpec, constraintSpecs);
+                                   })
+                                   .toList();
+
+      List<Job> all = new ArrayList<>(dependents.size() + 1);
+      all.add(job);
+      all.addAll(dependents);
+
+      jobStorage.deleteJobs(Stream.of(all).map(Job::getId).toList());
+      Stream.of(all).forEach(j -> jobTracker.onStateChange(j.getId(), JobTracker.JobState.FAILURE));
+
+      onJobsChanged();
+
+      return dependents;
+    } finally {
+      lock.unlock();
+    }
   }
 
   /**
@@ -163,23 +234,39 @@ class JobController {
    * When the job returned from this method has been run, you must call {@link #onJobFinished(Job)}.
    */
   @WorkerThread
-  synchronized @NonNull Job pullNextEligibleJobForExecution() {
+  @NonNull Job pullNextEligibleJobForExecution() {
     try {
-      Job job;
-
-      while ((job = getNextEligibleJobForExecution()) == null) {
-        if (runningJobs.isEmpty()) {
-          debouncer.publish(callback::onEmpty);
+      while (true) {
+        List<JobSpec> candidates;
+        long          snapshotGeneration;
+
+        lock.lock();
+        try {
+          candidates         = jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis());
+          snapshotGeneration = generation;
+        } finally {
+          lock.unlock();
         }
 
-        wait();
-      }
+        Job job = claimNextEligibleJob(candidates, snapshotGeneration);
 
-      jobStorage.updateJobRunningState(job.getId(), true);
-      runningJobs.add(job.getId());
-      jobTracker.onStateChange(job.getId(), JobTracker.JobState.RUNNING);
+        if (job != null) {
+          return job;
+        }
 
-      return job;
+        lock.lock();
+        try {
+          if (generation == snapshotGeneration) {
+            if (runningJobs.isEmpty()) {
+              debouncer.publish(callback::onEmpty);
+            }
+
+            jobsChanged.await();
+          }
+        } finally {
+          lock.unlock();
+        }
+      }
     } catch (InterruptedException e) {
       Log.e(TAG, "Interrupted.");
       throw new AssertionError(e);
@@ -190,10 +277,19 @@ class JobController {
    * Retrieves a string representing the state of the job queue. Intended for debugging.
    */
   @WorkerThread
-  synchronized @NonNull String getDebugInfo() {
-    List<JobSpec>        jobs         = jobStorage.getAllJobSpecs();
-    List<ConstraintSpec> constraints  = jobStorage.getAllConstraintSpecs();
-    List<DependencySpec> dependencies = jobStorage.getAllDependencySpecs();
+  @NonNull String getDebugInfo() {
+    List<JobSpec>        jobs;
+    List<ConstraintSpec> constraints;
+    List<DependencySpec> dependencies;
+
+    lock.lock();
+    try {
+      jobs         = jobStorage.getAllJobSpecs();
+      constraints  = jobStorage.getAllConstraintSpecs();
+      dependencies = jobStorage.getAllDependencySpecs();
+    } finally {
+      lock.unlock();
+    }
 
     StringBuilder info = new StringBuilder();
 
@@ -218,6 +314,9 @@ class JobController {
       info.append("None\n");
     }
 
+    info.append("\n-- Storage\n");
+    info.append(jobStorage.getDebugInfo()).append('\n');
+
     return info.toString();
   }
 
@@ -235,6 +334,10 @@ class JobController {
     return false;
   }
 
+  /**
+   * Must be called under {@link #lock} along with inserting the chain. Runners only find jobs while
+   * holding it, so a job can't be run and finished before its {@link Job#onSubmit()} has run.
+   */
   @WorkerThread
   private void triggerOnSubmit(@NonNull List<List<Job>> chain) {
     Stream.of(chain)
@@ -300,25 +403,66 @@ class JobController {
     }
   }
 
+  /**
+   * Checks the constraints of each candidate outside of the lock, and then marks the first one
+   * whose constraints are met as running, provided another runner hasn't claimed it in the
+   * meantime.
+   */
   @WorkerThread
-  private @Nullable Job getNextEligibleJobForExecution() {
-    List<JobSpec> jobSpecs = jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis());
-
-    for (JobSpec jobSpec : jobSpecs) {
+  private @Nullable Job claimNextEligibleJob(@NonNull List<JobSpec> candidates, long snapshotGeneration) {
+    for (JobSpec jobSpec : candidates) {
       List<ConstraintSpec> constraintSpecs = jobStorage.getConstraintSpecs(jobSpec.getId());
       List<Constraint>     constraints     = Stream.of(constraintSpecs)
                                                    .map(ConstraintSpec::getFactoryKey)
                                                    .map(constraintInstantiator::instantiate)
                                                    .toList();
 
-      if (Stream.of(constraints).allMatch(Constraint::isMet)) {
-        return createJob(jobSpec, constraintSpecs);
+      if (!Stream.of(constraints).allMatch(Constraint::isMet)) {
+        continue;
+      }
+
+      lock.lock();
+      try {
+        if (generation != snapshotGeneration && !isStillEligible(jobSpec)) {
+          continue;
+        }
+
+        Job job = createJob(jobSpec, constraintSpecs);
+
+        jobStorage.updateJobRunningState(job.getId(), true);
+        runningJobs.add(job.getId());
+        jobTracker.onStateChange(job.getId(), JobTracker.JobState.RUNNING);
+
+        generation++;
+
+        return job;
+      } finally {
+        lock.unlock();
       }
     }
 
     return null;
   }
 
+  private boolean isStillEligible(@NonNull JobSpec jobSpec) {
+    return Stream.of(jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis()))
+                 .anyMatch(j -> j.equals(jobSpec));
+  }
+
+  /**
+   * Must be called while holding {@link #lock} after any change that could make a job eligible.
+   * Wakes up one waiting runner per job that could now be ready to run.
+   */
+  private void onJobsChanged() {
+    generation++;
+
+    int ready = jobStorage.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis()).size();
+
+    for (int i = 0; i < ready; i++) {
+      jobsChanged.signal();
+    }
+  }
+
   private @NonNull Job createJob(@NonNull JobSpec jobSpec, @NonNull List<ConstraintSpec> constraintSpecs) {
     Job.Parameters parameters = buildJobParameters(jobSpec, constraintSpecs);
     Data           data       = dataSerializer.deserialize(jobSpec.getSerializedData());
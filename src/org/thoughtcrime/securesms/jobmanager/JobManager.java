@@ -149,6 +149,14 @@ public class JobManager implements ConstraintObserver.Notifier {
     }
   }
 
+  /**
+   * Persists any job state that is still buffered in memory. Should be called whenever the process
+   * is at risk of being killed, like when the app is backgrounded.
+   */
+  public void flush() {
+    executor.execute(jobController::flush);
+  }
+
   /**
    * Adds a listener that will be notified when the job queue has been drained.
    */
@@ -195,6 +203,8 @@ public class JobManager implements ConstraintObserver.Notifier {
 
   private void onEmptyQueue() {
     executor.execute(() -> {
+      jobController.flush();
+
       for (EmptyQueueListener listener : emptyQueueListeners) {
         listener.onQueueEmpty();
       }
@@ -30,7 +30,7 @@ public interface JobStorage {
   void updateJobRunningState(@NonNull String id, boolean isRunning);
 
   @WorkerThread
-  void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime);
+  void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData);
 
   @WorkerThread
   void updateAllJobsToBePending();
@@ -55,4 +55,15 @@ public interface JobStorage {
 
   @WorkerThread
   @NonNull List<DependencySpec> getAllDependencySpecs();
+
+  /**
+   * Synchronously persists any writes that the storage may have deferred.
+   */
+  @WorkerThread
+  void flush();
+
+  /**
+   * @return A string describing the state of the storage itself. Intended for debugging.
+   */
+  @NonNull String getDebugInfo();
 }
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.jobs;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import android.text.TextUtils;
 
@@ -18,14 +19,16 @@ import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.mms.MmsException;
+import org.thoughtcrime.securesms.net.ResumableDownloader;
 import org.thoughtcrime.securesms.notifications.MessageNotifier;
+import org.thoughtcrime.securesms.push.SignalCdnClient;
 import org.thoughtcrime.securesms.util.AttachmentUtil;
 import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.Hex;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.InvalidMessageException;
 import org.whispersystems.libsignal.util.guava.Optional;
-import org.whispersystems.signalservice.api.SignalServiceMessageReceiver;
+import org.whispersystems.signalservice.api.crypto.AttachmentCipherInputStream;
 import org.whispersystems.signalservice.api.messages.SignalServiceAttachmentPointer;
 import org.whispersystems.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
 import org.whispersystems.signalservice.api.push.exceptions.PushNetworkException;
@@ -41,16 +44,22 @@ public class AttachmentDownloadJob extends BaseJob {
   private static final int    MAX_ATTACHMENT_SIZE = 150 * 1024  * 1024;
   private static final String TAG                  = AttachmentDownloadJob.class.getSimpleName();
 
-  private static final String KEY_MESSAGE_ID    = "message_id";
-  private static final String KEY_PART_ROW_ID   = "part_row_id";
-  private static final String KEY_PAR_UNIQUE_ID = "part_unique_id";
-  private static final String KEY_MANUAL        = "part_manual";
+  private static final String KEY_MESSAGE_ID     = "message_id";
+  private static final String KEY_PART_ROW_ID    = "part_row_id";
+  private static final String KEY_PAR_UNIQUE_ID  = "part_unique_id";
+  private static final String KEY_MANUAL         = "part_manual";
+  private static final String KEY_TEMP_FILE      = "temp_file";
+  private static final String KEY_BYTES_RECEIVED = "bytes_received";
+  private static final String KEY_CHECKPOINT     = "checkpoint";
 
   private long    messageId;
   private long    partRowId;
   private long    partUniqueId;
   private boolean manual;
 
+  private String                         tempFile;
+  private ResumableDownloader.Checkpoint checkpoint;
+
   public AttachmentDownloadJob(long messageId, AttachmentId attachmentId, boolean manual) {
     this(new Job.Parameters.Builder()
                            .setQueue("AttachmentDownloadJob" + attachmentId.getRowId() + "-" + attachmentId.getUniqueId())
@@ -59,17 +68,27 @@ public class AttachmentDownloadJob extends BaseJob {
                            .build(),
          messageId,
          attachmentId,
-         manual);
+         manual,
+         null,
+         ResumableDownloader.Checkpoint.EMPTY);
 
   }
 
-  private AttachmentDownloadJob(@NonNull Job.Parameters parameters, long messageId, AttachmentId attachmentId, boolean manual) {
+  private AttachmentDownloadJob(@NonNull Job.Parameters parameters,
+                                long messageId,
+                                AttachmentId attachmentId,
+                                boolean manual,
+                                @Nullable String tempFile,
+                                @NonNull ResumableDownloader.Checkpoint checkpoint)
+  {
     super(parameters);
 
     this.messageId    = messageId;
     this.partRowId    = attachmentId.getRowId();
     this.partUniqueId = attachmentId.getUniqueId();
     this.manual       = manual;
+    this.tempFile     = tempFile;
+    this.checkpoint   = checkpoint;
   }
 
   @Override
@@ -78,6 +97,9 @@ public class AttachmentDownloadJob extends BaseJob {
                              .putLong(KEY_PART_ROW_ID, partRowId)
                              .putLong(KEY_PAR_UNIQUE_ID, partUniqueId)
                              .putBoolean(KEY_MANUAL, manual)
+                             .putString(KEY_TEMP_FILE, tempFile)
+                             .putLong(KEY_BYTES_RECEIVED, checkpoint.getLength())
+                             .putString(KEY_CHECKPOINT, checkpoint.getDigest() != null ? Base64.encodeBytes(checkpoint.getDigest()) : null)
                              .build();
   }
 
@@ -142,6 +164,7 @@ public class AttachmentDownloadJob extends BaseJob {
 
     final AttachmentId attachmentId = new AttachmentId(partRowId, partUniqueId);
     markFailed(messageId, attachmentId);
+    clearPartialDownload();
   }
 
   @Override
@@ -149,31 +172,46 @@ public class AttachmentDownloadJob extends BaseJob {
     return (exception instanceof PushNetworkException);
   }
 
+  /**
+   * Downloads into a file that outlives this attempt. If the connection drops, how far we got is
+   * kept in the job's data, so the next attempt only asks the CDN for the rest.
+   */
   private void retrieveAttachment(long messageId,
                                   final AttachmentId attachmentId,
                                   final Attachment attachment)
       throws IOException
   {
-
     AttachmentDatabase database       = DatabaseFactory.getAttachmentDatabase(context);
-    File               attachmentFile = null;
+    File               attachmentFile = getTempFile(attachmentId);
 
     try {
-      attachmentFile = createTempFile();
+      SignalServiceAttachmentPointer pointer = createAttachmentPointer(attachment);
+
+      if (!pointer.getDigest().isPresent()) {
+        throw new InvalidMessageException("Missing digest!");
+      }
 
-      SignalServiceMessageReceiver   messageReceiver = ApplicationDependencies.getSignalServiceMessageReceiver();
-      SignalServiceAttachmentPointer pointer         = createAttachmentPointer(attachment);
-      InputStream                    stream          = messageReceiver.retrieveAttachment(pointer, attachmentFile, MAX_ATTACHMENT_SIZE, (total, progress) -> EventBus.getDefault().postSticky(new PartProgressEvent(attachment, PartProgressEvent.Type.NETWORK, total, progress)));
+      SignalCdnClient.Connection cdn        = ApplicationDependencies.getSignalCdnClient().getConnection();
+      ResumableDownloader        downloader = new ResumableDownloader(cdn.getClient(), cdn.getAttachmentUrl(pointer.getId()), cdn.getHostHeader(), attachmentFile, checkpoint);
+
+      try {
+        downloader.download(MAX_ATTACHMENT_SIZE, (total, progress) -> EventBus.getDefault().postSticky(new PartProgressEvent(attachment, PartProgressEvent.Type.NETWORK, total, progress)));
+      } catch (ResumableDownloader.PermanentFailureException e) {
+        throw e;
+      } catch (IOException e) {
+        checkpoint = downloader.getCheckpoint();
+        Log.w(TAG, "Download interrupted at " + checkpoint.getLength() + " bytes, will resume.", e);
+        throw new PushNetworkException(e);
+      }
+
+      InputStream stream = AttachmentCipherInputStream.createForAttachment(attachmentFile, pointer.getSize().or(0), pointer.getKey(), pointer.getDigest().get());
 
       database.insertAttachmentsForPlaceholder(messageId, attachmentId, stream);
-    } catch (InvalidPartException | NonSuccessfulResponseCodeException | InvalidMessageException | MmsException e) {
+      clearPartialDownload();
+    } catch (InvalidPartException | ResumableDownloader.PermanentFailureException | NonSuccessfulResponseCodeException | InvalidMessageException | MmsException e) {
       Log.w(TAG, "Experienced exception while trying to download an attachment.", e);
       markFailed(messageId, attachmentId);
-    } finally {
-      if (attachmentFile != null) {
-        //noinspection ResultOfMethodCallIgnored
-        attachmentFile.delete();
-      }
+      clearPartialDownload();
     }
   }
 
@@ -219,15 +257,22 @@ public class AttachmentDownloadJob extends BaseJob {
     }
   }
 
-  private File createTempFile() throws InvalidPartException {
-    try {
-      File file = File.createTempFile("push-attachment", "tmp", context.getCacheDir());
-      file.deleteOnExit();
+  private @NonNull File getTempFile(@NonNull AttachmentId attachmentId) {
+    if (tempFile == null) {
+      tempFile = new File(context.getCacheDir(), "push-attachment-" + attachmentId.getRowId() + "-" + attachmentId.getUniqueId() + ".tmp").getAbsolutePath();
+    }
 
-      return file;
-    } catch (IOException e) {
-      throw new InvalidPartException(e);
+    return new File(tempFile);
+  }
+
+  private void clearPartialDownload() {
+    if (tempFile != null) {
+      //noinspection ResultOfMethodCallIgnored
+      new File(tempFile).delete();
     }
+
+    tempFile   = null;
+    checkpoint = ResumableDownloader.Checkpoint.EMPTY;
   }
 
   private void markFailed(long messageId, AttachmentId attachmentId) {
@@ -250,7 +295,24 @@ public class AttachmentDownloadJob extends BaseJob {
       return new AttachmentDownloadJob(parameters,
                                        data.getLong(KEY_MESSAGE_ID),
                                        new AttachmentId(data.getLong(KEY_PART_ROW_ID), data.getLong(KEY_PAR_UNIQUE_ID)),
-                                       data.getBoolean(KEY_MANUAL));
+                                       data.getBoolean(KEY_MANUAL),
+                                       data.getStringOrDefault(KEY_TEMP_FILE, null),
+                                       getCheckpoint(data));
+    }
+
+    private static @NonNull ResumableDownloader.Checkpoint getCheckpoint(@NonNull Data data) {
+      String digest = data.getStringOrDefault(KEY_CHECKPOINT, null);
+
+      if (digest == null) {
+        return ResumableDownloader.Checkpoint.EMPTY;
+      }
+
+      try {
+        return new ResumableDownloader.Checkpoint(data.getLongOrDefault(KEY_BYTES_RECEIVED, 0), Base64.decode(digest));
+      } catch (IOException e) {
+        Log.w(TAG, "Bad checkpoint, starting over.", e);
+        return ResumableDownloader.Checkpoint.EMPTY;
+      }
     }
   }
 }
@@ -19,27 +19,58 @@ import org.whispersystems.libsignal.util.guava.Optional;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.TreeSet;
+
+/**
+ * An in-memory mirror of {@link JobDatabase} that keeps a few indexes so that the hot paths used
+ * by the job controller don't need to scan every job:
+ *
+ *  - Jobs are keyed by id, preserving insertion order.
+ *  - Each queue keeps its job ids ordered by create time, so the head of a queue is O(1).
+ *  - Dependencies are indexed in both directions.
+ *  - A set of 'candidate' jobs is maintained in created order, which are the jobs that are first in
+ *    their queue (or have no queue) and have no outstanding dependencies. Only these ever need to
+ *    be checked for eligibility.
+ */
 public class FastJobStorage implements JobStorage {
 
-  private final JobDatabase jobDatabase;
+  private final JobDatabase        jobDatabase;
+  private final JobDatabaseJournal journal;
 
-  private final List<JobSpec>                     jobs;
+  private final Map<String, JobSpec>              jobs;
+  private final Map<String, LinkedList<String>>   jobIdsByQueue;
   private final Map<String, List<ConstraintSpec>> constraintsByJobId;
   private final Map<String, List<DependencySpec>> dependenciesByJobId;
+  private final Map<String, List<DependencySpec>> dependentsByJobId;
+  private final Set<String>                       candidateJobIds;
 
   public FastJobStorage(@NonNull JobDatabase jobDatabase) {
+    this(jobDatabase, JobDatabaseJournal.writeThrough(jobDatabase));
+  }
+
+  /**
+   * Creates a storage whose running-state, retry and deletion writes are batched in the background
+   * rather than written immediately. See {@link JobDatabaseJournal}.
+   */
+  public static @NonNull FastJobStorage withWriteBehind(@NonNull JobDatabase jobDatabase) {
+    return new FastJobStorage(jobDatabase, JobDatabaseJournal.writeBehind(jobDatabase));
+  }
+
+  private FastJobStorage(@NonNull JobDatabase jobDatabase, @NonNull JobDatabaseJournal journal) {
     this.jobDatabase         = jobDatabase;
-    this.jobs                = new ArrayList<>();
+    this.journal             = journal;
+    this.jobs                = new LinkedHashMap<>();
+    this.jobIdsByQueue       = new HashMap<>();
     this.constraintsByJobId  = new HashMap<>();
     this.dependenciesByJobId = new HashMap<>();
+    this.dependentsByJobId   = new HashMap<>();
+    this.candidateJobIds     = new TreeSet<>(this::compareByCreateTime);
   }
 
   @Override
@@ -48,8 +79,6 @@ public class FastJobStorage implements JobStorage {
     List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
     List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-    jobs.addAll(jobSpecs);
-
     for (ConstraintSpec constraintSpec: constraintSpecs) {
       List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
       jobConstraints.add(constraintSpec);
@@ -57,36 +86,37 @@ public class FastJobStorage implements JobStorage {
     }
 
     for (DependencySpec dependencySpec : dependencySpecs) {
-      List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
-      jobDependencies.add(dependencySpec);
-      dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+      addDependency(dependencySpec);
+    }
+
+    for (JobSpec jobSpec : jobSpecs) {
+      addJob(jobSpec);
     }
   }
 
   @Override
   public synchronized void insertJobs(@NonNull List<FullSpec> fullSpecs) {
-    jobDatabase.insertJobs(fullSpecs);
+    journal.flushWith(() -> jobDatabase.insertJobs(fullSpecs));
 
     for (FullSpec fullSpec : fullSpecs) {
-      jobs.add(fullSpec.getJobSpec());
-      constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-      dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
+      constraintsByJobId.put(fullSpec.getJobSpec().getId(), new LinkedList<>(fullSpec.getConstraintSpecs()));
+
+      for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+        addDependency(dependencySpec);
+      }
+
+      addJob(fullSpec.getJobSpec());
     }
   }
 
   @Override
   public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-    for (JobSpec jobSpec : jobs) {
-      if (jobSpec.getId().equals(id)) {
-        return jobSpec;
-      }
-    }
-    return null;
+    return jobs.get(id);
   }
 
   @Override
   public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-    return new ArrayList<>(jobs);
+    return new ArrayList<>(jobs.values());
   }
 
   @Override
@@ -98,104 +128,83 @@ public class FastJobStorage implements JobStorage {
     } else if (migrationJob.isPresent()) {
       return Collections.emptyList();
     } else {
-      return Stream.of(jobs)
+      return Stream.of(candidateJobIds)
+                   .map(jobs::get)
                    .filterNot(JobSpec::isRunning)
-                   .filter(this::firstInQueue)
-                   .filter(j -> !dependenciesByJobId.containsKey(j.getId()) || dependenciesByJobId.get(j.getId()).isEmpty())
                    .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                   .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
                    .toList();
     }
   }
 
   private Optional<JobSpec> getMigrationJob() {
-    return Optional.fromNullable(Stream.of(jobs)
-                                       .filter(j -> Job.Parameters.MIGRATION_QUEUE_KEY.equals(j.getQueueKey()))
-                                       .filter(this::firstInQueue)
-                                       .findFirst()
-                                       .orElse(null));
-  }
+    LinkedList<String> migrationQueue = jobIdsByQueue.get(Job.Parameters.MIGRATION_QUEUE_KEY);
 
-  private boolean firstInQueue(@NonNull JobSpec job) {
-    if (job.getQueueKey() == null) {
-      return true;
+    if (migrationQueue == null || migrationQueue.isEmpty()) {
+      return Optional.absent();
     }
 
-    return Stream.of(jobs)
-                 .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                 .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                 .toList()
-                 .get(0)
-                 .equals(job);
+    return Optional.fromNullable(jobs.get(migrationQueue.getFirst()));
   }
 
   @Override
   public synchronized int getJobInstanceCount(@NonNull String factoryKey) {
-    return (int) Stream.of(jobs)
+    return (int) Stream.of(jobs.values())
                        .filter(j -> j.getFactoryKey().equals(factoryKey))
                        .count();
   }
 
   @Override
   public synchronized void updateJobRunningState(@NonNull String id, boolean isRunning) {
-    jobDatabase.updateJobRunningState(id, isRunning);
-
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      existing.getNextRunAttemptTime(),
-                                      existing.getRunAttempt(),
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      existing.getSerializedData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+    journal.updateJobRunningState(id, isRunning);
+
+    JobSpec existing = jobs.get(id);
+
+    if (existing != null) {
+      JobSpec updated = new JobSpec(existing.getId(),
+                                    existing.getFactoryKey(),
+                                    existing.getQueueKey(),
+                                    existing.getCreateTime(),
+                                    existing.getNextRunAttemptTime(),
+                                    existing.getRunAttempt(),
+                                    existing.getMaxAttempts(),
+                                    existing.getMaxBackoff(),
+                                    existing.getLifespan(),
+                                    existing.getMaxInstances(),
+                                    existing.getSerializedData(),
+                                    isRunning);
+      jobs.put(id, updated);
     }
   }
 
   @Override
-  public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime) {
-    jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime);
-
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      if (existing.getId().equals(id)) {
-        JobSpec updated = new JobSpec(existing.getId(),
-                                      existing.getFactoryKey(),
-                                      existing.getQueueKey(),
-                                      existing.getCreateTime(),
-                                      nextRunAttemptTime,
-                                      runAttempt,
-                                      existing.getMaxAttempts(),
-                                      existing.getMaxBackoff(),
-                                      existing.getLifespan(),
-                                      existing.getMaxInstances(),
-                                      existing.getSerializedData(),
-                                      isRunning);
-        iter.set(updated);
-      }
+  public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
+    journal.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
+
+    JobSpec existing = jobs.get(id);
+
+    if (existing != null) {
+      JobSpec updated = new JobSpec(existing.getId(),
+                                    existing.getFactoryKey(),
+                                    existing.getQueueKey(),
+                                    existing.getCreateTime(),
+                                    nextRunAttemptTime,
+                                    runAttempt,
+                                    existing.getMaxAttempts(),
+                                    existing.getMaxBackoff(),
+                                    existing.getLifespan(),
+                                    existing.getMaxInstances(),
+                                    serializedData,
+                                    isRunning);
+      jobs.put(id, updated);
     }
   }
 
   @Override
   public synchronized void updateAllJobsToBePending() {
-    jobDatabase.updateAllJobsToBePending();
+    journal.flushWith(jobDatabase::updateAllJobsToBePending);
 
-    ListIterator<JobSpec> iter = jobs.listIterator();
-
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
+    for (Map.Entry<String, JobSpec> entry : jobs.entrySet()) {
+      JobSpec existing = entry.getValue();
       JobSpec updated  = new JobSpec(existing.getId(),
                                      existing.getFactoryKey(),
                                      existing.getQueueKey(),
@@ -208,23 +217,27 @@ public class FastJobStorage implements JobStorage {
                                      existing.getMaxInstances(),
                                      existing.getSerializedData(),
                                      false);
-      iter.set(updated);
+      entry.setValue(updated);
     }
   }
 
   @Override
-  public void updateJobs(@NonNull List<JobSpec> jobSpecs) {
-    jobDatabase.updateJobs(jobSpecs);
+  public synchronized void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+    journal.flushWith(() -> jobDatabase.updateJobs(jobSpecs));
 
-    Map<String, JobSpec>  updates = Stream.of(jobSpecs).collect(Collectors.toMap(JobSpec::getId));
-    ListIterator<JobSpec> iter    = jobs.listIterator();
+    for (JobSpec update : jobSpecs) {
+      JobSpec existing = jobs.get(update.getId());
 
-    while (iter.hasNext()) {
-      JobSpec existing = iter.next();
-      JobSpec update   = updates.get(existing.getId());
+      if (existing == null) {
+        continue;
+      }
 
-      if (update != null) {
-        iter.set(update);
+      if (Util.equals(existing.getQueueKey(), update.getQueueKey()) && existing.getCreateTime() == update.getCreateTime()) {
+        jobs.put(update.getId(), update);
+      } else {
+        removeFromQueue(existing);
+        jobs.put(update.getId(), update);
+        addToQueue(update);
       }
     }
   }
@@ -236,33 +249,56 @@ public class FastJobStorage implements JobStorage {
 
   @Override
   public synchronized void deleteJobs(@NonNull List<String> jobIds) {
-    jobDatabase.deleteJobs(jobIds);
+    journal.deleteJobs(jobIds);
 
-    Set<String> deleteIds = new HashSet<>(jobIds);
+    for (String jobId : jobIds) {
+      JobSpec existing = jobs.get(jobId);
 
-    Iterator<JobSpec> jobIter = jobs.iterator();
-    while (jobIter.hasNext()) {
-      if (deleteIds.contains(jobIter.next().getId())) {
-        jobIter.remove();
+      if (existing != null) {
+        removeFromQueue(existing);
+        jobs.remove(jobId);
       }
-    }
 
-    for (String jobId : jobIds) {
       constraintsByJobId.remove(jobId);
-      dependenciesByJobId.remove(jobId);
 
-      for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-        Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+      List<DependencySpec> dependencies = dependenciesByJobId.remove(jobId);
 
-        while (depedencyIter.hasNext()) {
-          if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-            depedencyIter.remove();
+      if (dependencies != null) {
+        for (DependencySpec dependency : dependencies) {
+          List<DependencySpec> dependents = dependentsByJobId.get(dependency.getDependsOnJobId());
+
+          if (dependents != null) {
+            dependents.remove(dependency);
+          }
+        }
+      }
+
+      List<DependencySpec> dependents = dependentsByJobId.remove(jobId);
+
+      if (dependents != null) {
+        for (DependencySpec dependent : dependents) {
+          List<DependencySpec> dependentDependencies = dependenciesByJobId.get(dependent.getJobId());
+
+          if (dependentDependencies != null) {
+            dependentDependencies.remove(dependent);
           }
+
+          updateCandidacy(dependent.getJobId());
         }
       }
     }
   }
 
+  @Override
+  public void flush() {
+    journal.flush();
+  }
+
+  @Override
+  public @NonNull String getDebugInfo() {
+    return journal.getDebugInfo();
+  }
+
   @Override
   public synchronized @NonNull List<ConstraintSpec> getConstraintSpecs(@NonNull String jobId) {
     return Util.getOrDefault(constraintsByJobId, jobId, new LinkedList<>());
@@ -298,18 +334,121 @@ public class FastJobStorage implements JobStorage {
   }
 
   private @NonNull List<DependencySpec> getSingleLayerOfDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-    return Stream.of(dependenciesByJobId.entrySet())
-                 .map(Map.Entry::getValue)
-                 .flatMap(Stream::of)
-                 .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                 .toList();
+    return new ArrayList<>(Util.getOrDefault(dependentsByJobId, jobSpecId, Collections.emptyList()));
   }
 
   @Override
-  public @NonNull List<DependencySpec> getAllDependencySpecs() {
+  public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
     return Stream.of(dependenciesByJobId)
                  .map(Map.Entry::getValue)
                  .flatMap(Stream::of)
                  .toList();
   }
+
+  private void addJob(@NonNull JobSpec jobSpec) {
+    jobs.put(jobSpec.getId(), jobSpec);
+    addToQueue(jobSpec);
+  }
+
+  private void addDependency(@NonNull DependencySpec dependencySpec) {
+    List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
+    jobDependencies.add(dependencySpec);
+    dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+
+    List<DependencySpec> jobDependents = Util.getOrDefault(dependentsByJobId, dependencySpec.getDependsOnJobId(), new LinkedList<>());
+    jobDependents.add(dependencySpec);
+    dependentsByJobId.put(dependencySpec.getDependsOnJobId(), jobDependents);
+  }
+
+  /**
+   * Inserts the job into its queue, keeping the queue ordered by create time. Jobs are almost
+   * always created in order, so we search from the tail. Jobs with equal create times retain their
+   * insertion order.
+   */
+  private void addToQueue(@NonNull JobSpec jobSpec) {
+    String queueKey = jobSpec.getQueueKey();
+
+    if (queueKey == null) {
+      updateCandidacy(jobSpec.getId());
+      return;
+    }
+
+    LinkedList<String> queue = jobIdsByQueue.get(queueKey);
+
+    if (queue == null) {
+      queue = new LinkedList<>();
+      jobIdsByQueue.put(queueKey, queue);
+    }
+
+    String previousHead = queue.peekFirst();
+
+    ListIterator<String> iter = queue.listIterator(queue.size());
+
+    while (iter.hasPrevious()) {
+      if (jobs.get(iter.previous()).getCreateTime() <= jobSpec.getCreateTime()) {
+        iter.next();
+        break;
+      }
+    }
+
+    iter.add(jobSpec.getId());
+
+    if (previousHead != null && !previousHead.equals(queue.peekFirst())) {
+      candidateJobIds.remove(previousHead);
+    }
+
+    updateCandidacy(queue.getFirst());
+  }
+
+  private void removeFromQueue(@NonNull JobSpec jobSpec) {
+    candidateJobIds.remove(jobSpec.getId());
+
+    String queueKey = jobSpec.getQueueKey();
+
+    if (queueKey == null) {
+      return;
+    }
+
+    LinkedList<String> queue = jobIdsByQueue.get(queueKey);
+
+    if (queue == null) {
+      return;
+    }
+
+    queue.remove(jobSpec.getId());
+
+    if (queue.isEmpty()) {
+      jobIdsByQueue.remove(queueKey);
+    } else {
+      updateCandidacy(queue.getFirst());
+    }
+  }
+
+  private void updateCandidacy(@NonNull String jobId) {
+    JobSpec jobSpec = jobs.get(jobId);
+
+    if (jobSpec == null) {
+      return;
+    }
+
+    List<DependencySpec> dependencies = dependenciesByJobId.get(jobId);
+
+    boolean noDependencies = dependencies == null || dependencies.isEmpty();
+    boolean firstInQueue   = jobSpec.getQueueKey() == null || jobId.equals(jobIdsByQueue.get(jobSpec.getQueueKey()).peekFirst());
+
+    if (noDependencies && firstInQueue) {
+      candidateJobIds.add(jobId);
+    } else {
+      candidateJobIds.remove(jobId);
+    }
+  }
+
+  /**
+   * Only valid for jobs that are currently present in {@link #jobs}. Ties are broken by id so that
+   * distinct jobs are never considered equal.
+   */
+  private int compareByCreateTime(@NonNull String jobId1, @NonNull String jobId2) {
+    int result = Long.compare(jobs.get(jobId1).getCreateTime(), jobs.get(jobId2).getCreateTime());
+    return result != 0 ? result : jobId1.compareTo(jobId2);
+  }
 }
@@ -0,0 +1,238 @@
+package org.thoughtcrime.securesms.jobs;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits in front of {@link JobDatabase} and buffers the writes that are safe to delay, namely
+ * running-state changes and retry bookkeeping. Writes to the same job are coalesced,
+ * and everything that is pending is written in a single transaction, either once
+ * {@link #MAX_PENDING_WRITES} have piled up or {@link #FLUSH_DELAY_MS} after the first pending
+ * write, whichever comes first.
+ *
+ * Inserts and deletions are never delayed. They are written synchronously in the same transaction
+ * as whatever else is pending, so that a job chain is always persisted by the time it's been
+ * submitted, and a job that has finished can't run a second time after a restart.
+ *
+ * A journal created with {@link #writeThrough(JobDatabase)} performs every write immediately.
+ */
+class JobDatabaseJournal {
+
+  private static final String TAG = JobDatabaseJournal.class.getSimpleName();
+
+  private static final int  MAX_PENDING_WRITES   = 100;
+  private static final long FLUSH_DELAY_MS       = 250;
+  private static final int  METRICS_LOG_INTERVAL = 100;
+
+  private final JobDatabase               jobDatabase;
+  private final ScheduledExecutorService  executor;
+  private final Map<String, PendingWrite> pendingWrites;
+  private final Object                    flushLock;
+
+  private boolean flushScheduled;
+
+  private long flushCount;
+  private long flushedWriteCount;
+  private long totalFlushTime;
+  private int  maxBatchSize;
+
+  static @NonNull JobDatabaseJournal writeBehind(@NonNull JobDatabase jobDatabase) {
+    return new JobDatabaseJournal(jobDatabase, Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "signal-JobDatabaseJournal")));
+  }
+
+  static @NonNull JobDatabaseJournal writeThrough(@NonNull JobDatabase jobDatabase) {
+    return new JobDatabaseJournal(jobDatabase, null);
+  }
+
+  private JobDatabaseJournal(@NonNull JobDatabase jobDatabase, @Nullable ScheduledExecutorService executor) {
+    this.jobDatabase   = jobDatabase;
+    this.executor      = executor;
+    this.pendingWrites = new LinkedHashMap<>();
+    this.flushLock     = new Object();
+  }
+
+  void updateJobRunningState(@NonNull String id, boolean isRunning) {
+    if (isWriteThrough()) {
+      jobDatabase.updateJobRunningState(id, isRunning);
+      return;
+    }
+
+    synchronized (this) {
+      PendingWrite existing = pendingWrites.get(id);
+
+      if (existing == null) {
+        pendingWrites.put(id, PendingWrite.runningState(isRunning));
+      } else {
+        existing.isRunning = isRunning;
+      }
+
+      onWriteEnqueued();
+    }
+  }
+
+  void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
+    if (isWriteThrough()) {
+      jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
+      return;
+    }
+
+    synchronized (this) {
+      pendingWrites.put(id, PendingWrite.retry(isRunning, runAttempt, nextRunAttemptTime, serializedData));
+      onWriteEnqueued();
+    }
+  }
+
+  /**
+   * Deletes the jobs on the calling thread, dropping anything still pending for them.
+   */
+  @WorkerThread
+  void deleteJobs(@NonNull List<String> ids) {
+    if (isWriteThrough()) {
+      jobDatabase.deleteJobs(ids);
+      return;
+    }
+
+    synchronized (this) {
+      for (String id : ids) {
+        pendingWrites.remove(id);
+      }
+    }
+
+    flush(() -> jobDatabase.deleteJobs(ids));
+  }
+
+  /**
+   * Writes everything that is pending, followed by the result of running the provided write, in
+   * a single transaction on the calling thread.
+   */
+  @WorkerThread
+  void flushWith(@NonNull Runnable write) {
+    if (isWriteThrough()) {
+      write.run();
+      return;
+    }
+
+    flush(write);
+  }
+
+  /**
+   * Synchronously writes everything that is pending.
+   */
+  @WorkerThread
+  void flush() {
+    if (isWriteThrough()) {
+      return;
+    }
+
+    flush(null);
+  }
+
+  synchronized @NonNull String getDebugInfo() {
+    long averageBatchSize = flushCount > 0 ? flushedWriteCount / flushCount : 0;
+    long averageFlushTime = flushCount > 0 ? totalFlushTime / flushCount : 0;
+
+    return String.format("flushes: %d | writes: %d | pending: %d | avgBatchSize: %d | maxBatchSize: %d | avgFlushTime: %d ms",
+                         flushCount, flushedWriteCount, pendingWrites.size(), averageBatchSize, maxBatchSize, averageFlushTime);
+  }
+
+  private boolean isWriteThrough() {
+    return executor == null;
+  }
+
+  private void onWriteEnqueued() {
+    if (pendingWrites.size() >= MAX_PENDING_WRITES) {
+      executor.execute(() -> flush());
+    } else if (!flushScheduled) {
+      flushScheduled = true;
+      executor.schedule(() -> flush(), FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void flush(@Nullable Runnable additionalWrite) {
+    synchronized (flushLock) {
+      Map<String, PendingWrite> batch;
+
+      synchronized (this) {
+        batch = new LinkedHashMap<>(pendingWrites);
+        pendingWrites.clear();
+        flushScheduled = false;
+      }
+
+      if (batch.isEmpty() && additionalWrite == null) {
+        return;
+      }
+
+      long startTime = System.currentTimeMillis();
+
+      jobDatabase.beginTransaction();
+
+      try {
+        for (Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+          PendingWrite write = entry.getValue();
+
+          if (write.retry) {
+            jobDatabase.updateJobAfterRetry(entry.getKey(), write.isRunning, write.runAttempt, write.nextRunAttemptTime, write.serializedData);
+          } else {
+            jobDatabase.updateJobRunningState(entry.getKey(), write.isRunning);
+          }
+        }
+
+        if (additionalWrite != null) {
+          additionalWrite.run();
+        }
+
+        jobDatabase.setTransactionSuccessful();
+      } finally {
+        jobDatabase.endTransaction();
+      }
+
+      onFlushed(batch.size(), System.currentTimeMillis() - startTime);
+    }
+  }
+
+  private synchronized void onFlushed(int batchSize, long flushTime) {
+    flushCount++;
+    flushedWriteCount += batchSize;
+    totalFlushTime    += flushTime;
+    maxBatchSize       = Math.max(maxBatchSize, batchSize);
+
+    if (flushCount % METRICS_LOG_INTERVAL == 0) {
+      Log.i(TAG, getDebugInfo());
+    }
+  }
+
+  private static final class PendingWrite {
+    private boolean retry;
+    private boolean isRunning;
+    private int     runAttempt;
+    private long    nextRunAttemptTime;
+    private String  serializedData;
+
+    static PendingWrite runningState(boolean isRunning) {
+      PendingWrite write = new PendingWrite();
+      write.isRunning = isRunning;
+      return write;
+    }
+
+    static PendingWrite retry(boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
+      PendingWrite write = new PendingWrite();
+      write.retry              = true;
+      write.isRunning          = isRunning;
+      write.runAttempt         = runAttempt;
+      write.nextRunAttemptTime = nextRunAttemptTime;
+      write.serializedData     = serializedData;
+      return write;
+    }
+  }
+}
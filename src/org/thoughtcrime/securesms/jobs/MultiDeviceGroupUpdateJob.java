@@ -84,8 +84,8 @@ public class MultiDeviceGroupUpdateJob extends BaseJob {
         if (!record.isMms()) {
           List<String> members = new LinkedList<>();
 
-          for (RecipientId member : record.getMembers()) {
-            members.add(Recipient.resolved(member).requireAddress().serialize());
+          for (Recipient member : Recipient.resolvedList(record.getMembers())) {
+            members.add(member.requireAddress().serialize());
           }
 
           RecipientId       recipientId     = DatabaseFactory.getRecipientDatabase(context).getOrInsertFromGroupId(GroupUtil.getEncodedId(record.getId(), record.isMms()));
@@ -92,6 +92,7 @@ import org.thoughtcrime.securesms.sms.OutgoingEndSessionMessage;
 import org.thoughtcrime.securesms.sms.OutgoingTextMessage;
 import org.thoughtcrime.securesms.stickers.StickerLocator;
 import org.thoughtcrime.securesms.transport.RetryLaterException;
+import org.thoughtcrime.securesms.util.Base64;
 import org.thoughtcrime.securesms.util.GroupUtil;
 import org.thoughtcrime.securesms.util.Hex;
 import org.thoughtcrime.securesms.util.IdentityUtil;
@@ -126,72 +127,168 @@ import org.whispersystems.signalservice.api.messages.shared.SharedContact;
 import org.whispersystems.signalservice.api.push.SignalServiceAddress;
 import org.whispersystems.signalservice.internal.push.UnsupportedDataMessageException;
 
+import java.io.IOException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.whispersystems.libsignal.SessionCipher.SESSION_LOCK;
 
 public class PushDecryptJob extends BaseJob {
 
-  public static final String KEY = "PushDecryptJob";
+  public static final String KEY       = "PushDecryptJob";
+  public static final String BATCH_KEY = "PushDecryptBatchJob";
 
   public static final String TAG = PushDecryptJob.class.getSimpleName();
 
-  private static final String KEY_MESSAGE_ID     = "message_id";
-  private static final String KEY_SMS_MESSAGE_ID = "sms_message_id";
+  private static final String KEY_MESSAGE_ID                = "message_id";
+  private static final String KEY_SMS_MESSAGE_ID            = "sms_message_id";
+  private static final String KEY_ENVELOPE_TYPE             = "envelope_type";
+  private static final String KEY_ENVELOPE_SOURCE           = "envelope_source";
+  private static final String KEY_ENVELOPE_SOURCE_DEVICE    = "envelope_source_device";
+  private static final String KEY_ENVELOPE_TIMESTAMP        = "envelope_timestamp";
+  private static final String KEY_ENVELOPE_LEGACY_MESSAGE   = "envelope_legacy_message";
+  private static final String KEY_ENVELOPE_CONTENT          = "envelope_content";
+  private static final String KEY_ENVELOPE_SERVER_TIMESTAMP = "envelope_server_timestamp";
+  private static final String KEY_ENVELOPE_SERVER_GUID      = "envelope_server_guid";
+
+  private static final long NO_MESSAGE_ID    = -2;
+  private static final long BATCH_MESSAGE_ID = -1;
+  private static final int  BATCH_SIZE       = 20;
+
+  private static final AtomicReference<String> pendingBatchJobId = new AtomicReference<>(null);
+
+  private long                  messageId;
+  private long                  smsMessageId;
+  private SignalServiceEnvelope envelope;
+
+  private Set<Long> batchThreadIds;
+
+  /**
+   * Makes sure a job is pending that will decrypt everything currently in the {@link PushDatabase}.
+   * Envelopes are decrypted in batches, each in a single transaction, and notifications are only
+   * updated once per batch. Must be called after the envelope has been inserted.
+   *
+   * The batch job is the only thing that reads envelopes out of the {@link PushDatabase}, so it
+   * never has to know which of them some other job is about to process.
+   *
+   * @return The id of the job that will decrypt the envelope.
+   */
+  public static @NonNull String enqueueBatch(@NonNull Context context) {
+    while (true) {
+      String pendingJobId = pendingBatchJobId.get();
+
+      if (pendingJobId != null) {
+        return pendingJobId;
+      }
 
-  private long messageId;
-  private long smsMessageId;
+      PushDecryptJob job = new PushDecryptJob(context, BATCH_MESSAGE_ID);
 
-  public PushDecryptJob(Context context, long pushMessageId) {
-    this(context, pushMessageId, -1);
+      if (pendingBatchJobId.compareAndSet(null, job.getId())) {
+        ApplicationDependencies.getJobManager().add(job);
+        return job.getId();
+      }
+    }
   }
 
-  public PushDecryptJob(Context context, long pushMessageId, long smsMessageId) {
+  private PushDecryptJob(Context context, long pushMessageId) {
     this(new Job.Parameters.Builder()
                            .setQueue("__PUSH_DECRYPT_JOB__")
                            .setMaxAttempts(Parameters.UNLIMITED)
                            .build(),
          pushMessageId,
-         smsMessageId);
+         -1,
+         null);
+    setContext(context);
+  }
+
+  /**
+   * Decrypts the envelope again for an existing message, replacing it. The envelope is carried in
+   * the job's data rather than put in the {@link PushDatabase}, where the batch job would pick it up
+   * as a new message.
+   */
+  public PushDecryptJob(Context context, @NonNull SignalServiceEnvelope envelope, long smsMessageId) {
+    this(new Job.Parameters.Builder()
+                           .setQueue("__PUSH_DECRYPT_JOB__")
+                           .setMaxAttempts(Parameters.UNLIMITED)
+                           .build(),
+         NO_MESSAGE_ID,
+         smsMessageId,
+         envelope);
     setContext(context);
   }
 
-  private PushDecryptJob(@NonNull Job.Parameters parameters, long pushMessageId, long smsMessageId) {
+  private PushDecryptJob(@NonNull Job.Parameters parameters, long pushMessageId, long smsMessageId, @Nullable SignalServiceEnvelope envelope) {
     super(parameters);
 
     this.messageId    = pushMessageId;
     this.smsMessageId = smsMessageId;
+    this.envelope     = envelope;
   }
 
   @Override
   public @NonNull Data serialize() {
-    return new Data.Builder().putLong(KEY_MESSAGE_ID, messageId)
-                             .putLong(KEY_SMS_MESSAGE_ID, smsMessageId)
-                             .build();
+    Data.Builder builder = new Data.Builder().putLong(KEY_MESSAGE_ID, messageId)
+                                             .putLong(KEY_SMS_MESSAGE_ID, smsMessageId);
+
+    if (envelope != null) {
+      builder.putInt(KEY_ENVELOPE_TYPE, envelope.getType())
+             .putString(KEY_ENVELOPE_SOURCE, envelope.getSource())
+             .putInt(KEY_ENVELOPE_SOURCE_DEVICE, envelope.getSourceDevice())
+             .putLong(KEY_ENVELOPE_TIMESTAMP, envelope.getTimestamp())
+             .putString(KEY_ENVELOPE_LEGACY_MESSAGE, envelope.hasLegacyMessage() ? Base64.encodeBytes(envelope.getLegacyMessage()) : null)
+             .putString(KEY_ENVELOPE_CONTENT, envelope.hasContent() ? Base64.encodeBytes(envelope.getContent()) : null)
+             .putLong(KEY_ENVELOPE_SERVER_TIMESTAMP, envelope.getServerTimestamp())
+             .putString(KEY_ENVELOPE_SERVER_GUID, envelope.getUuid());
+    }
+
+    return builder.build();
   }
 
   @Override
   public @NonNull String getFactoryKey() {
-    return KEY;
+    return isBatch() ? BATCH_KEY : KEY;
   }
 
   @Override
-  public void onRun() throws NoSuchMessageException, RetryLaterException {
+  public void onRun() throws RetryLaterException {
     if (needsMigration()) {
       Log.w(TAG, "Migration is still needed.");
       postMigrationNotification();
       throw new RetryLaterException();
     }
 
-    PushDatabase          database             = DatabaseFactory.getPushDatabase(context);
-    SignalServiceEnvelope envelope             = database.get(messageId);
-    Optional<Long>        optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) : Optional.absent();
+    if (isBatch()) {
+      pendingBatchJobId.compareAndSet(getId(), null);
+      decryptPendingEnvelopes();
+      return;
+    }
+
+    Optional<Long> optionalSmsMessageId = smsMessageId > 0 ? Optional.of(smsMessageId) : Optional.absent();
+
+    if (envelope != null) {
+      handleMessage(envelope, optionalSmsMessageId);
+      return;
+    }
 
-    handleMessage(envelope, optionalSmsMessageId);
+    PushDatabase          database = DatabaseFactory.getPushDatabase(context);
+    SignalServiceEnvelope pending;
+
+    try {
+      pending = database.get(messageId);
+    } catch (NoSuchMessageException e) {
+      Log.w(TAG, "Envelope " + messageId + " was already decrypted by a batch.");
+      return;
+    }
+
+    handleMessage(pending, optionalSmsMessageId);
     database.delete(messageId);
   }
 
@@ -204,6 +301,105 @@ public class PushDecryptJob extends BaseJob {
   public void onCanceled() {
   }
 
+  private boolean isBatch() {
+    return messageId == BATCH_MESSAGE_ID;
+  }
+
+  private void decryptPendingEnvelopes() {
+    PushDatabase pushDatabase = DatabaseFactory.getPushDatabase(context);
+
+    while (true) {
+      long                  startTime = System.currentTimeMillis();
+      List<PendingEnvelope> batch     = readPendingEnvelopes(pushDatabase);
+      Set<Long>             threadIds = new LinkedHashSet<>();
+
+      if (batch.isEmpty()) {
+        return;
+      }
+
+      try {
+        decryptInTransaction(batch, threadIds);
+      } catch (RuntimeException batchFailure) {
+        Log.w(TAG, "Failed to decrypt a batch of " + batch.size() + " envelope(s), decrypting them one at a time.", batchFailure);
+
+        for (PendingEnvelope pending : batch) {
+          try {
+            decryptInTransaction(Collections.singletonList(pending), threadIds);
+          } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to decrypt envelope " + pending.id + ", dropping it.", e);
+            pushDatabase.delete(pending.id);
+          }
+        }
+      }
+
+      MessageNotifier.updateNotification(context, threadIds);
+
+      Log.i(TAG, "Decrypted a batch of " + batch.size() + " envelope(s) in " + (System.currentTimeMillis() - startTime) + " ms.");
+    }
+  }
+
+  private static @NonNull List<PendingEnvelope> readPendingEnvelopes(@NonNull PushDatabase pushDatabase) {
+    List<PendingEnvelope> envelopes = new ArrayList<>(BATCH_SIZE);
+    PushDatabase.Reader   reader    = pushDatabase.readerFor(pushDatabase.getPending(BATCH_SIZE));
+
+    try {
+      SignalServiceEnvelope envelope;
+
+      while ((envelope = reader.getNext()) != null) {
+        envelopes.add(new PendingEnvelope(reader.getCurrentId(), envelope));
+      }
+    } finally {
+      reader.close();
+    }
+
+    return envelopes;
+  }
+
+  /**
+   * Decrypts and stores the envelopes, and removes them from the {@link PushDatabase}, all in one
+   * transaction. If any of them fails, none of them are.
+   *
+   * The session lock is taken before the transaction is started. Senders hold it while they read
+   * sessions from the database, so waiting for it while holding the transaction would deadlock.
+   */
+  private void decryptInTransaction(@NonNull List<PendingEnvelope> envelopes, @NonNull Set<Long> threadIds) {
+    PushDatabase   pushDatabase   = DatabaseFactory.getPushDatabase(context);
+    MmsDatabase    mmsDatabase    = DatabaseFactory.getMmsDatabase(context);
+    ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
+
+    synchronized (SESSION_LOCK) {
+      batchThreadIds = threadIds;
+
+      mmsDatabase.beginTransaction();
+      threadDatabase.beginDeferredUpdates();
+
+      try {
+        for (PendingEnvelope pending : envelopes) {
+          handleMessage(pending.envelope, Optional.absent());
+          pushDatabase.delete(pending.id);
+        }
+
+        threadDatabase.endDeferredUpdates(true);
+        mmsDatabase.setTransactionSuccessful();
+      } finally {
+        threadDatabase.endDeferredUpdates(false);
+        mmsDatabase.endTransaction();
+        batchThreadIds = null;
+      }
+    }
+  }
+
+  /**
+   * Updates the notification for the thread, or defers it until the end of the current batch.
+   */
+  private void updateNotification(long threadId) {
+    if (batchThreadIds != null) {
+      batchThreadIds.add(threadId);
+    } else {
+      MessageNotifier.updateNotification(context, threadId);
+    }
+  }
+
   private boolean needsMigration() {
     return !IdentityKeyUtil.hasIdentityKey(context) || TextSecurePreferences.getNeedsSqlCipherMigration(context);
   }
@@ -435,7 +631,7 @@ public class PushDecryptJob extends BaseJob {
       sessionStore.deleteAllSessions(content.getSender());
 
       SecurityEvent.broadcastSecurityUpdateEvent(context);
-      MessageNotifier.updateNotification(context, threadId);
+      updateNotification(threadId);
     }
   }
 
@@ -713,7 +909,7 @@ public class PushDecryptJob extends BaseJob {
     }
 
     if (insertResult.isPresent()) {
-      MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+      updateNotification(insertResult.get().getThreadId());
 
       if (message.isViewOnce()) {
         ApplicationContext.getInstance(context).getViewOnceMessageManager().scheduleIfNecessary();
@@ -899,7 +1095,7 @@ public class PushDecryptJob extends BaseJob {
     }
 
     if (threadId != null) {
-      MessageNotifier.updateNotification(context, threadId);
+      updateNotification(threadId);
     }
   }
 
@@ -964,7 +1160,7 @@ public class PushDecryptJob extends BaseJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsInvalidVersionKeyExchange(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsInvalidVersionKeyExchange(smsMessageId.get());
@@ -981,7 +1177,7 @@ public class PushDecryptJob extends BaseJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsDecryptFailed(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsDecryptFailed(smsMessageId.get());
@@ -998,7 +1194,7 @@ public class PushDecryptJob extends BaseJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsNoSession(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsNoSession(smsMessageId.get());
@@ -1018,7 +1214,7 @@ public class PushDecryptJob extends BaseJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsUnsupportedProtocolVersion(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsNoSession(smsMessageId.get());
@@ -1038,7 +1234,7 @@ public class PushDecryptJob extends BaseJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsInvalidMessage(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsNoSession(smsMessageId.get());
@@ -1055,7 +1251,7 @@ public class PushDecryptJob extends BaseJob {
 
       if (insertResult.isPresent()) {
         smsDatabase.markAsLegacyVersion(insertResult.get().getMessageId());
-        MessageNotifier.updateNotification(context, insertResult.get().getThreadId());
+        updateNotification(insertResult.get().getThreadId());
       }
     } else {
       smsDatabase.markAsLegacyVersion(smsMessageId.get());
@@ -1419,10 +1615,42 @@ public class PushDecryptJob extends BaseJob {
     }
   }
 
+  private static final class PendingEnvelope {
+    private final long                  id;
+    private final SignalServiceEnvelope envelope;
+
+    private PendingEnvelope(long id, @NonNull SignalServiceEnvelope envelope) {
+      this.id       = id;
+      this.envelope = envelope;
+    }
+  }
+
   public static final class Factory implements Job.Factory<PushDecryptJob> {
     @Override
     public @NonNull PushDecryptJob create(@NonNull Parameters parameters, @NonNull Data data) {
-      return new PushDecryptJob(parameters, data.getLong(KEY_MESSAGE_ID), data.getLong(KEY_SMS_MESSAGE_ID));
+      return new PushDecryptJob(parameters, data.getLong(KEY_MESSAGE_ID), data.getLong(KEY_SMS_MESSAGE_ID), getEnvelope(data));
+    }
+
+    private static @Nullable SignalServiceEnvelope getEnvelope(@NonNull Data data) {
+      if (!data.hasInt(KEY_ENVELOPE_TYPE)) {
+        return null;
+      }
+
+      try {
+        String legacyMessage = data.getStringOrDefault(KEY_ENVELOPE_LEGACY_MESSAGE, null);
+        String content       = data.getStringOrDefault(KEY_ENVELOPE_CONTENT, null);
+
+        return new SignalServiceEnvelope(data.getInt(KEY_ENVELOPE_TYPE),
+                                         data.getString(KEY_ENVELOPE_SOURCE),
+                                         data.getInt(KEY_ENVELOPE_SOURCE_DEVICE),
+                                         data.getLong(KEY_ENVELOPE_TIMESTAMP),
+                                         legacyMessage != null ? Base64.decode(legacyMessage) : null,
+                                         content != null ? Base64.decode(content) : null,
+                                         data.getLong(KEY_ENVELOPE_SERVER_TIMESTAMP),
+                                         data.getStringOrDefault(KEY_ENVELOPE_SERVER_GUID, null));
+      } catch (IOException e) {
+        throw new AssertionError(e);
+      }
     }
   }
 }
@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.jobs;
 
 import android.content.Context;
+import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.WorkerThread;
@@ -48,7 +49,9 @@ import org.whispersystems.signalservice.internal.push.SignalServiceProtos.GroupC
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -145,37 +148,48 @@ public class PushGroupSendJob extends PushSendJob {
       else                                         target = getGroupMessageRecipients(message.getRecipient().requireAddress().toGroupString(), messageId);
 
       List<SendMessageResult>   results                  = deliver(message, target);
-      List<NetworkFailure>      networkFailures          = Stream.of(results).filter(SendMessageResult::isNetworkFailure).map(result -> new NetworkFailure(Recipient.external(context, result.getAddress().getNumber()).getId())).toList();
-      List<IdentityKeyMismatch> identityMismatches       = Stream.of(results).filter(result -> result.getIdentityFailure() != null).map(result -> new IdentityKeyMismatch(Recipient.external(context, result.getAddress().getNumber()).getId(), result.getIdentityFailure().getIdentityKey())).toList();
-      Set<RecipientId>          successIds               = Stream.of(results).filter(result -> result.getSuccess() != null).map(result -> result.getAddress().getNumber()).map(a -> Recipient.external(context, a).getId()).collect(Collectors.toSet());
+      long                      updateStart              = System.currentTimeMillis();
+      Map<String, RecipientId>  recipientIds             = getRecipientIdsByNumber(target);
+      List<NetworkFailure>      networkFailures          = Stream.of(results).filter(SendMessageResult::isNetworkFailure).map(result -> new NetworkFailure(getRecipientId(recipientIds, result))).toList();
+      List<IdentityKeyMismatch> identityMismatches       = Stream.of(results).filter(result -> result.getIdentityFailure() != null).map(result -> new IdentityKeyMismatch(getRecipientId(recipientIds, result), result.getIdentityFailure().getIdentityKey())).toList();
+      Set<RecipientId>          successIds               = Stream.of(results).filter(result -> result.getSuccess() != null).map(result -> getRecipientId(recipientIds, result)).collect(Collectors.toSet());
       List<NetworkFailure>      resolvedNetworkFailures  = Stream.of(existingNetworkFailures).filter(failure -> successIds.contains(failure.getRecipientId(context))).toList();
       List<IdentityKeyMismatch> resolvedIdentityFailures = Stream.of(existingIdentityMismatches).filter(failure -> successIds.contains(failure.getRecipientId(context))).toList();
       List<SendMessageResult>   successes                = Stream.of(results).filter(result -> result.getSuccess() != null).toList();
 
-      for (NetworkFailure resolvedFailure : resolvedNetworkFailures) {
-        database.removeFailure(messageId, resolvedFailure);
-        existingNetworkFailures.remove(resolvedFailure);
-      }
+      database.beginTransaction();
 
-      for (IdentityKeyMismatch resolvedIdentity : resolvedIdentityFailures) {
-        database.removeMismatchedIdentity(messageId, resolvedIdentity.getRecipientId(context), resolvedIdentity.getIdentityKey());
-        existingIdentityMismatches.remove(resolvedIdentity);
-      }
+      try {
+        for (NetworkFailure resolvedFailure : resolvedNetworkFailures) {
+          database.removeFailure(messageId, resolvedFailure);
+          existingNetworkFailures.remove(resolvedFailure);
+        }
 
-      if (!networkFailures.isEmpty()) {
-        database.addFailures(messageId, networkFailures);
-      }
+        for (IdentityKeyMismatch resolvedIdentity : resolvedIdentityFailures) {
+          database.removeMismatchedIdentity(messageId, resolvedIdentity.getRecipientId(context), resolvedIdentity.getIdentityKey());
+          existingIdentityMismatches.remove(resolvedIdentity);
+        }
 
-      for (IdentityKeyMismatch mismatch : identityMismatches) {
-        database.addMismatchedIdentity(messageId, mismatch.getRecipientId(context), mismatch.getIdentityKey());
-      }
+        if (!networkFailures.isEmpty()) {
+          database.addFailures(messageId, networkFailures);
+        }
 
-      for (SendMessageResult success : successes) {
-        DatabaseFactory.getGroupReceiptDatabase(context).setUnidentified(Recipient.external(context, success.getAddress().getNumber()).getId(),
-                                                                         messageId,
-                                                                         success.getSuccess().isUnidentified());
+        for (IdentityKeyMismatch mismatch : identityMismatches) {
+          database.addMismatchedIdentity(messageId, mismatch.getRecipientId(context), mismatch.getIdentityKey());
+        }
+
+        DatabaseFactory.getGroupReceiptDatabase(context).setUnidentified(Stream.of(successes)
+                                                                               .map(result -> new Pair<>(getRecipientId(recipientIds, result), result.getSuccess().isUnidentified()))
+                                                                               .toList(),
+                                                                         messageId);
+
+        database.setTransactionSuccessful();
+      } finally {
+        database.endTransaction();
       }
 
+      log(TAG, "Recorded results for " + results.size() + " recipients in " + (System.currentTimeMillis() - updateStart) + " ms.");
+
       if (existingNetworkFailures.isEmpty() && networkFailures.isEmpty() && identityMismatches.isEmpty() && existingIdentityMismatches.isEmpty()) {
         database.markAsSent(messageId, true);
 
@@ -218,6 +232,8 @@ public class PushGroupSendJob extends PushSendJob {
 
   private List<SendMessageResult> deliver(OutgoingMediaMessage message, @NonNull List<RecipientId> destinations)
       throws IOException, UntrustedIdentityException, UndeliverableMessageException {
+    long prepareStart = System.currentTimeMillis();
+
     rotateSenderCertificateIfNecessary();
 
     SignalServiceMessageSender                 messageSender      = ApplicationDependencies.getSignalServiceMessageSender();
@@ -227,7 +243,7 @@ public class PushGroupSendJob extends PushSendJob {
     Optional<SignalServiceDataMessage.Sticker> sticker            = getStickerFor(message);
     List<SharedContact>                        sharedContacts     = getSharedContactsFor(message);
     List<Preview>                              previews           = getPreviewsFor(message);
-    List<SignalServiceAddress>                 addresses          = Stream.of(destinations).map(Recipient::resolved).map(Recipient::requireAddress).map(this::getPushAddress).toList();
+    List<SignalServiceAddress>                 addresses          = Stream.of(Recipient.resolvedList(destinations)).map(Recipient::requireAddress).map(this::getPushAddress).toList();
     List<Attachment>                           attachments        = Stream.of(message.getAttachments()).filterNot(Attachment::isSticker).toList();
     List<SignalServiceAttachment>              attachmentPointers = getAttachmentPointersFor(attachments);
     boolean                                    isRecipientUpdate  = destinations.size() != DatabaseFactory.getGroupReceiptDatabase(context).getGroupReceiptInfo(messageId).size();
@@ -249,7 +265,7 @@ public class PushGroupSendJob extends PushSendJob {
                                                                            .asGroupMessage(group)
                                                                            .build();
 
-      return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupDataMessage);
+      return send(messageSender, addresses, unidentifiedAccess, isRecipientUpdate, groupDataMessage, prepareStart);
     } else {
       SignalServiceGroup       group        = new SignalServiceGroup(GroupUtil.getDecodedId(groupId));
       SignalServiceDataMessage groupMessage = SignalServiceDataMessage.newBuilder()
@@ -267,8 +283,48 @@ public class PushGroupSendJob extends PushSendJob {
                                                                       .withPreviews(previews)
                                                                       .build();
 
-      return messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, groupMessage);
+      return send(messageSender, addresses, unidentifiedAccess, isRecipientUpdate, groupMessage, prepareStart);
+    }
+  }
+
+  /**
+   * Sends the message to every recipient in a single call. SignalServiceMessageSender follows every
+   * call with a sync transcript to our linked devices, so splitting the recipients up would send
+   * one transcript per part.
+   */
+  private List<SendMessageResult> send(@NonNull SignalServiceMessageSender messageSender,
+                                       @NonNull List<SignalServiceAddress> addresses,
+                                       @NonNull List<Optional<UnidentifiedAccessPair>> unidentifiedAccess,
+                                       boolean isRecipientUpdate,
+                                       @NonNull SignalServiceDataMessage message,
+                                       long prepareStart)
+      throws IOException, UntrustedIdentityException
+  {
+    long                    sendStart = System.currentTimeMillis();
+    List<SendMessageResult> results   = messageSender.sendMessage(addresses, unidentifiedAccess, isRecipientUpdate, message);
+
+    logSendTimings(addresses.size(), prepareStart, sendStart);
+
+    return results;
+  }
+
+  private void logSendTimings(int recipientCount, long prepareStart, long sendStart) {
+    log(TAG, "Prepared message in " + (sendStart - prepareStart) + " ms, sent to " + recipientCount + " recipients in " + (System.currentTimeMillis() - sendStart) + " ms.");
+  }
+
+  private @NonNull Map<String, RecipientId> getRecipientIdsByNumber(@NonNull List<RecipientId> destinations) {
+    Map<String, RecipientId> recipientIds = new HashMap<>(destinations.size());
+
+    for (RecipientId destination : destinations) {
+      recipientIds.put(getPushAddress(Recipient.resolved(destination).requireAddress()).getNumber(), destination);
     }
+
+    return recipientIds;
+  }
+
+  private @NonNull RecipientId getRecipientId(@NonNull Map<String, RecipientId> recipientIds, @NonNull SendMessageResult result) {
+    RecipientId recipientId = recipientIds.get(result.getAddress().getNumber());
+    return recipientId != null ? recipientId : Recipient.external(context, result.getAddress().getNumber()).getId();
   }
 
   private @NonNull List<RecipientId> getGroupMessageRecipients(String groupId, long messageId) {
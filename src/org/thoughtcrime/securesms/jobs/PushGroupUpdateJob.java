@@ -94,8 +94,8 @@ public class PushGroupUpdateJob extends BaseJob {
 
     List<String> members = new LinkedList<>();
 
-    for (RecipientId member : record.get().getMembers()) {
-      members.add(Recipient.resolved(member).requireAddress().serialize());
+    for (Recipient member : Recipient.resolvedList(record.get().getMembers())) {
+      members.add(member.requireAddress().serialize());
     }
 
     SignalServiceGroup groupContext = SignalServiceGroup.newBuilder(Type.UPDATE)
@@ -27,19 +27,27 @@ import javax.crypto.spec.SecretKeySpec;
 
 class LogFile {
 
+  /**
+   * Writes encrypted frames of the form [iv][ciphertext length][ciphertext]. A frame may contain
+   * many newline-separated lines, which {@link Reader} decodes the same way it decodes frames that
+   * hold a single line.
+   */
   public static class Writer {
 
     private final byte[]        ivBuffer         = new byte[16];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
 
-    private final byte[]               secret;
-    private final File                 file;
+    private final SecretKeySpec        key;
+    private final SecureRandom         secureRandom;
     private final Cipher               cipher;
     private final BufferedOutputStream outputStream;
 
+    private long logSize;
+
     Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret       = secret;
-      this.file         = file;
+      this.key          = new SecretKeySpec(secret, "AES");
+      this.secureRandom = new SecureRandom();
+      this.logSize      = file.length();
       this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
 
       try {
@@ -49,12 +57,15 @@ class LogFile {
       }
     }
 
+    /**
+     * Encrypts the entry as a single frame. The frame is buffered until {@link #flush()} is called.
+     */
     void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
+      secureRandom.nextBytes(ivBuffer);
 
       byte[] plaintext = entry.getBytes();
       try {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(ivBuffer));
 
         int    cipherLength = cipher.getOutputSize(plaintext.length);
         byte[] ciphertext   = ciphertextBuffer.get(cipherLength);
@@ -64,14 +75,18 @@ class LogFile {
         outputStream.write(Conversions.intToByteArray(cipherLength));
         outputStream.write(ciphertext, 0, cipherLength);
 
-        outputStream.flush();
+        logSize += ivBuffer.length + 4 + cipherLength;
       } catch (ShortBufferException | InvalidAlgorithmParameterException | InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
         throw new AssertionError(e);
       }
     }
 
+    void flush() throws IOException {
+      outputStream.flush();
+    }
+
     long getLogSize() {
-      return file.length();
+      return logSize;
     }
 
     void close() {
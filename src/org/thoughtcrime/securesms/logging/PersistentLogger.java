@@ -17,9 +17,14 @@ import java.util.Arrays;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PersistentLogger extends Log.Logger {
 
@@ -38,16 +43,26 @@ public class PersistentLogger extends Log.Logger {
   private static final int              MAX_LOG_SIZE    = 300 * 1024;
   private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
 
-  private final Context  context;
-  private final Executor executor;
-  private final byte[]   secret;
+  private static final long FLUSH_DELAY_MS  = 500;
+  private static final int  FLUSH_THRESHOLD = 200;
+  private static final int  MAX_FRAME_SIZE  = 16 * 1024;
+
+  private final Context                  context;
+  private final ScheduledExecutorService executor;
+  private final byte[]                   secret;
+  private final Queue<LogEntry>          pendingEntries;
+  private final AtomicInteger            pendingCount;
+  private final AtomicBoolean            writeScheduled;
 
   private LogFile.Writer writer;
 
   public PersistentLogger(Context context) {
-    this.context  = context.getApplicationContext();
-    this.secret   = LogSecretProvider.getOrCreateAttachmentSecret(context);
-    this.executor = Executors.newSingleThreadExecutor(r -> {
+    this.context        = context.getApplicationContext();
+    this.secret         = LogSecretProvider.getOrCreateAttachmentSecret(context);
+    this.pendingEntries = new ConcurrentLinkedQueue<>();
+    this.pendingCount   = new AtomicInteger(0);
+    this.writeScheduled = new AtomicBoolean(false);
+    this.executor       = Executors.newSingleThreadScheduledExecutor(r -> {
       Thread thread = new Thread(r, "signal-PersistentLogger");
       thread.setPriority(Thread.MIN_PRIORITY);
       return thread;
@@ -90,7 +105,10 @@ public class PersistentLogger extends Log.Logger {
   public void blockUntilAllWritesFinished() {
     CountDownLatch latch = new CountDownLatch(1);
 
-    executor.execute(latch::countDown);
+    executor.execute(() -> {
+      writePendingEntries();
+      latch.countDown();
+    });
 
     try {
       latch.await();
@@ -104,6 +122,8 @@ public class PersistentLogger extends Log.Logger {
     final SettableFuture<String> future = new SettableFuture<>();
 
     executor.execute(() -> {
+      writePendingEntries();
+
       StringBuilder builder = new StringBuilder();
 
       try {
@@ -136,32 +156,84 @@ public class PersistentLogger extends Log.Logger {
     }
   }
 
+  /**
+   * Only queues the entry. Formatting, encryption and disk writes all happen in batches on the
+   * logging thread, either {@link #FLUSH_DELAY_MS} after the first queued entry or as soon as
+   * {@link #FLUSH_THRESHOLD} entries are waiting.
+   */
   @AnyThread
   private void write(String level, String tag, String message, Throwable t) {
-    executor.execute(() -> {
-      try {
-        if (writer == null) {
-          return;
-        }
+    pendingEntries.offer(new LogEntry(level, tag, message, t, System.currentTimeMillis()));
 
-        if (writer.getLogSize() >= MAX_LOG_SIZE) {
-          writer.close();
-          writer = new LogFile.Writer(secret, createNewLogFile());
-          trimLogFilesOverMax();
-        }
+    int count = pendingCount.incrementAndGet();
+
+    if (writeScheduled.compareAndSet(false, true)) {
+      executor.schedule(() -> writePendingEntries(), count >= FLUSH_THRESHOLD ? 0 : FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    } else if (count == FLUSH_THRESHOLD) {
+      executor.execute(() -> writePendingEntries());
+    }
+  }
+
+  @WorkerThread
+  private void writePendingEntries() {
+    writeScheduled.set(false);
+
+    StringBuilder frame = new StringBuilder();
+    LogEntry      entry;
+
+    while ((entry = pendingEntries.poll()) != null) {
+      pendingCount.decrementAndGet();
 
-        for (String entry : buildLogEntries(level, tag, message, t)) {
-          writer.writeEntry(entry);
+      for (String line : buildLogEntries(entry.level, entry.tag, entry.message, entry.throwable, new Date(entry.timestamp))) {
+        if (frame.length() > 0) {
+          frame.append('\n');
         }
 
-      } catch (NoExternalStorageException e) {
-        android.util.Log.w(TAG, "Cannot persist logs.", e);
-      } catch (IOException e) {
-        android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
-        deleteAllLogs();
-        initializeWriter();
+        frame.append(line);
       }
-    });
+
+      if (frame.length() >= MAX_FRAME_SIZE) {
+        writeFrame(frame.toString());
+        frame.setLength(0);
+      }
+    }
+
+    if (frame.length() > 0) {
+      writeFrame(frame.toString());
+    }
+
+    try {
+      if (writer != null) {
+        writer.flush();
+      }
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to flush. Deleting all logs and starting over.");
+      deleteAllLogs();
+      initializeWriter();
+    }
+  }
+
+  @WorkerThread
+  private void writeFrame(String frame) {
+    try {
+      if (writer == null) {
+        return;
+      }
+
+      if (writer.getLogSize() >= MAX_LOG_SIZE) {
+        writer.close();
+        writer = new LogFile.Writer(secret, createNewLogFile());
+        trimLogFilesOverMax();
+      }
+
+      writer.writeEntry(frame);
+    } catch (NoExternalStorageException e) {
+      android.util.Log.w(TAG, "Cannot persist logs.", e);
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
+      deleteAllLogs();
+      initializeWriter();
+    }
   }
 
   private void trimLogFilesOverMax() throws NoExternalStorageException {
@@ -215,9 +287,8 @@ public class PersistentLogger extends Log.Logger {
     return logDir;
   }
 
-  private List<String> buildLogEntries(String level, String tag, String message, Throwable t) {
+  private List<String> buildLogEntries(String level, String tag, String message, Throwable t, Date date) {
     List<String> entries = new LinkedList<>();
-    Date         date    = new Date();
 
     entries.add(buildEntry(level, tag, message, date));
 
@@ -239,4 +310,20 @@ public class PersistentLogger extends Log.Logger {
   private String buildEntry(String level, String tag, String message, Date date) {
     return DATE_FORMAT.format(date) + ' ' + level + ' ' + tag + ": " + message;
   }
+
+  private static class LogEntry {
+    private final String    level;
+    private final String    tag;
+    private final String    message;
+    private final Throwable throwable;
+    private final long      timestamp;
+
+    private LogEntry(String level, String tag, String message, Throwable throwable, long timestamp) {
+      this.level     = level;
+      this.tag       = tag;
+      this.message   = message;
+      this.throwable = throwable;
+      this.timestamp = timestamp;
+    }
+  }
 }
@@ -1,7 +1,6 @@
 package org.thoughtcrime.securesms.migrations;
 
 import android.content.Context;
-import android.database.Cursor;
 
 import androidx.annotation.NonNull;
 import androidx.preference.PreferenceManager;
@@ -16,7 +15,6 @@ import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.MmsDatabase;
 import org.thoughtcrime.securesms.database.MmsDatabase.Reader;
-import org.thoughtcrime.securesms.database.PushDatabase;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.dependencies.ApplicationDependencies;
 import org.thoughtcrime.securesms.jobmanager.Data;
@@ -295,20 +293,7 @@ public class LegacyMigrationJob extends MigrationJob {
   }
 
   private void scheduleMessagesInPushDatabase(Context context) {
-    PushDatabase pushDatabase = DatabaseFactory.getPushDatabase(context);
-    Cursor       pushReader   = null;
-
-    try {
-      pushReader = pushDatabase.getPending();
-
-      while (pushReader != null && pushReader.moveToNext()) {
-        ApplicationDependencies.getJobManager().add(new PushDecryptJob(context,
-                                                                       pushReader.getLong(pushReader.getColumnIndexOrThrow(PushDatabase.ID))));
-      }
-    } finally {
-      if (pushReader != null)
-        pushReader.close();
-    }
+    PushDecryptJob.enqueueBatch(context);
   }
 
   public interface DatabaseUpgradeListener {
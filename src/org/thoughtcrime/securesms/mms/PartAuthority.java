@@ -153,6 +153,10 @@ public class PartAuthority {
     return ContentUris.withAppendedId(STICKER_CONTENT_URI, id);
   }
 
+  public static boolean isAttachmentDataUri(@NonNull Uri uri) {
+    return uriMatcher.match(uri) == PART_ROW;
+  }
+
   public static boolean isLocalUri(final @NonNull Uri uri) {
     int match = uriMatcher.match(uri);
     switch (match) {
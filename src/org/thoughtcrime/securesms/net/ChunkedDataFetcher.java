@@ -12,11 +12,12 @@ import org.thoughtcrime.securesms.util.concurrent.SignalExecutors;
 import org.whispersystems.libsignal.util.Pair;
 import org.whispersystems.libsignal.util.guava.Optional;
 
-import java.io.FilterInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.SecureRandom;
-import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -32,6 +33,8 @@ public class ChunkedDataFetcher {
 
   private static final CacheControl NO_CACHE = new CacheControl.Builder().noCache().build();
 
+  private static final int MAX_CONCURRENT_REQUESTS = 4;
+
   private static final long MB = 1024 * 1024;
   private static final long KB = 1024;
 
@@ -41,6 +44,10 @@ public class ChunkedDataFetcher {
     this.client = client;
   }
 
+  /**
+   * Each call downloads into a new temporary file. A chunk that drops part way is resumed within
+   * the call, but nothing is kept once the call fails, so fetching the url again starts over.
+   */
   public RequestController fetch(@NonNull String url, long contentLength, @NonNull Callback callback) {
     if (contentLength <= 0) {
       return fetchChunksWithUnknownTotalSize(url, callback);
@@ -138,8 +145,7 @@ public class ChunkedDataFetcher {
       if (firstChunk.isPresent()) {
         requestPattern = Stream.of(getRequestPattern(contentLength - firstChunk.get().second()))
                                .map(b -> new ByteRange(b.start + firstChunk.get().second(),
-                                                       b.end   + firstChunk.get().second(),
-                                                       b.ignoreFirst))
+                                                       b.end   + firstChunk.get().second()))
                                .toList();
       } else {
         requestPattern = getRequestPattern(contentLength);
@@ -151,74 +157,33 @@ public class ChunkedDataFetcher {
     }
 
     SignalExecutors.UNBOUNDED.execute(() -> {
-      List<CallRequestController> controllers = Stream.of(requestPattern).map(range -> makeChunkRequest(client, url, range)).toList();
-      List<InputStream>           streams     = new ArrayList<>(controllers.size() + (firstChunk.isPresent() ? 1 : 0));
+      List<ParallelRangeFetcher.Chunk> chunks = Stream.of(requestPattern).map(range -> new ParallelRangeFetcher.Chunk(range.start, range.end)).toList();
+      File                             file   = null;
 
-      if (firstChunk.isPresent()) {
-        streams.add(firstChunk.get().first());
-      }
+      try {
+        file = File.createTempFile("chunked", ".tmp");
 
-      Stream.of(controllers).forEach(compositeController::addController);
+        if (firstChunk.isPresent()) {
+          Util.copy(firstChunk.get().first(), new FileOutputStream(file));
+        }
 
-      for (CallRequestController controller : controllers) {
-        Optional<InputStream> stream = controller.getStream();
+        long startTime = System.currentTimeMillis();
 
-        if (!stream.isPresent()) {
-          Log.w(TAG, "Stream was canceled.");
-          callback.onFailure(new IOException("Failure"));
-          compositeController.cancel();
-          return;
-        }
+        new ParallelRangeFetcher(client, SignalExecutors.UNBOUNDED, MAX_CONCURRENT_REQUESTS).fetch(url, chunks, file, compositeController);
 
-        streams.add(stream.get());
-      }
+        long slowest = Stream.of(chunks).mapToLong(ParallelRangeFetcher.Chunk::getDuration).max().orElse(0);
+        Log.d(TAG, "Fetched " + chunks.size() + " chunks in " + (System.currentTimeMillis() - startTime) + " ms, slowest took " + slowest + " ms.");
 
-      try {
-        callback.onSuccess(new InputStreamList(streams));
+        callback.onSuccess(new FileInputStream(file));
       } catch (IOException e) {
         callback.onFailure(e);
         compositeController.cancel();
-      }
-    });
-  }
-
-  private CallRequestController makeChunkRequest(@NonNull OkHttpClient client, @NonNull String url, @NonNull ByteRange range) {
-    Request request = new Request.Builder()
-                                 .url(url)
-                                 .cacheControl(NO_CACHE)
-                                 .addHeader("Range", "bytes=" + range.start + "-" + range.end)
-                                 .addHeader("Accept-Encoding", "identity")
-                                 .build();
-
-    Call                  call           = client.newCall(request);
-    CallRequestController callController = new CallRequestController(call);
-
-    call.enqueue(new okhttp3.Callback() {
-      @Override
-      public void onFailure(@NonNull Call call, @NonNull IOException e) {
-        callController.cancel();
-      }
-
-      @Override
-      public void onResponse(@NonNull Call call, @NonNull Response response) {
-        if (!response.isSuccessful()) {
-          callController.cancel();
-          if (response.body() != null) response.body().close();
-          return;
+      } finally {
+        if (file != null && !file.delete()) {
+          Log.w(TAG, "Failed to delete temporary file.");
         }
-
-        if (response.body() == null) {
-          callController.cancel();
-          if (response.body() != null) response.body().close();
-          return;
-        }
-
-        InputStream stream = new SkippingInputStream(ContentLengthInputStream.obtain(response.body().byteStream(), response.body().contentLength()), range.ignoreFirst);
-        callController.setStream(stream);
       }
     });
-
-    return callController;
   }
 
   private Optional<Long> parseLengthFromContentRange(@NonNull String contentRange) {
@@ -254,12 +219,12 @@ public class ChunkedDataFetcher {
     long offset = 0;
 
     while (size - offset > increment) {
-      results.add(new ByteRange(offset, offset + increment - 1, 0));
+      results.add(new ByteRange(offset, offset + increment - 1));
       offset += increment;
     }
 
     if (size - offset > 0) {
-      results.add(new ByteRange(size - increment, size-1, increment - (size - offset)));
+      results.add(new ByteRange(size - increment, size-1));
     }
 
     return results;
@@ -268,132 +233,10 @@ public class ChunkedDataFetcher {
   private static class ByteRange {
     private final long start;
     private final long end;
-    private final long ignoreFirst;
-
-    private ByteRange(long start, long end, long ignoreFirst) {
-      this.start       = start;
-      this.end         = end;
-      this.ignoreFirst = ignoreFirst;
-    }
-  }
-
-  private static class SkippingInputStream extends FilterInputStream {
-
-    private long skip;
-
-    SkippingInputStream(InputStream in, long skip) {
-      super(in);
-      this.skip = skip;
-    }
-
-    @Override
-    public int read() throws IOException {
-      if (skip != 0) {
-        skipFully(skip);
-        skip = 0;
-      }
-
-      return super.read();
-    }
-
-    @Override
-    public int read(@NonNull byte[] buffer) throws IOException {
-      if (skip != 0) {
-        skipFully(skip);
-        skip = 0;
-      }
-
-      return super.read(buffer);
-    }
-
-    @Override
-    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
-      if (skip != 0) {
-        skipFully(skip);
-        skip = 0;
-      }
-
-      return super.read(buffer, offset, length);
-    }
-
-    @Override
-    public int available() throws IOException {
-      return Util.toIntExact(super.available() - skip);
-    }
-
-    private void skipFully(long amount) throws IOException {
-      byte[] buffer = new byte[4096];
-
-      while (amount > 0) {
-        int read = super.read(buffer, 0, Math.min(buffer.length, Util.toIntExact(amount)));
-
-        if (read != -1) amount -= read;
-        else            return;
-      }
-    }
-  }
-
-  private static class InputStreamList extends InputStream {
-
-    private final List<InputStream> inputStreams;
-
-    private int currentStreamIndex = 0;
-
-    InputStreamList(List<InputStream> inputStreams) {
-      this.inputStreams = inputStreams;
-    }
-
-    @Override
-    public int read() throws IOException {
-      while (currentStreamIndex < inputStreams.size()) {
-        int result = inputStreams.get(currentStreamIndex).read();
-
-        if (result == -1) currentStreamIndex++;
-        else              return result;
-      }
-
-      return -1;
-    }
-
-    @Override
-    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
-      while (currentStreamIndex < inputStreams.size()) {
-        int result = inputStreams.get(currentStreamIndex).read(buffer, offset, length);
-
-        if (result == -1) currentStreamIndex++;
-        else              return result;
-      }
-
-      return -1;
-    }
-
-    @Override
-    public int read(@NonNull byte[] buffer) throws IOException {
-      return read(buffer, 0, buffer.length);
-    }
-
-    @Override
-    public void close() throws IOException {
-      for (InputStream stream : inputStreams) {
-        try {
-          stream.close();
-        } catch (IOException ignored) {}
-      }
-    }
-
-    @Override
-    public int available() {
-      int total = 0;
-
-      for (int i=currentStreamIndex;i<inputStreams.size();i++) {
-        try {
-          int available = inputStreams.get(i).available();
-
-          if (available != -1) total += available;
-        } catch (IOException ignored) {}
-      }
 
-      return total;
+    private ByteRange(long start, long end) {
+      this.start = start;
+      this.end   = end;
     }
   }
 
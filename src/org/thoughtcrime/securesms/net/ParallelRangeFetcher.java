@@ -0,0 +1,264 @@
+package org.thoughtcrime.securesms.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads byte ranges of a resource with a bounded number of requests in flight, writing each
+ * response straight into a file at its offset instead of stitching the responses into one stream.
+ *
+ * Every {@link Chunk} remembers how much of it has been written, so a chunk that fails part way is
+ * retried from where it stopped, and calling {@link #fetch} again with the same chunks and file
+ * only requests what's still missing. That's up to the caller: {@link ChunkedDataFetcher} doesn't
+ * keep either across its own calls.
+ */
+public class ParallelRangeFetcher {
+
+  private static final String TAG = ParallelRangeFetcher.class.getSimpleName();
+
+  private static final CacheControl NO_CACHE = new CacheControl.Builder().noCache().build();
+
+  private static final int MAX_ATTEMPTS = 3;
+  private static final int BUFFER_SIZE  = 32 * 1024;
+
+  private final OkHttpClient client;
+  private final Executor     executor;
+  private final int          maxConcurrentRequests;
+
+  public ParallelRangeFetcher(@NonNull OkHttpClient client, @NonNull Executor executor, int maxConcurrentRequests) {
+    this.client                = client;
+    this.executor              = executor;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+  }
+
+  /**
+   * Blocks until every chunk has been written to the file, one of them has failed
+   * {@link #MAX_ATTEMPTS} times in a row, or the controller is canceled.
+   */
+  @WorkerThread
+  public void fetch(@NonNull String url,
+                    @NonNull List<Chunk> chunks,
+                    @NonNull File file,
+                    @NonNull CompositeRequestController controller)
+      throws IOException
+  {
+    Queue<Chunk> remaining = new ConcurrentLinkedQueue<>();
+    long         length    = 0;
+
+    for (Chunk chunk : chunks) {
+      length = Math.max(length, chunk.end + 1);
+
+      if (!chunk.isComplete()) {
+        remaining.add(chunk);
+      }
+    }
+
+    if (remaining.isEmpty()) {
+      return;
+    }
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      if (randomAccessFile.length() < length) {
+        randomAccessFile.setLength(length);
+      }
+
+      FileChannel    channel = randomAccessFile.getChannel();
+      int            workers = Math.max(1, Math.min(maxConcurrentRequests, remaining.size()));
+      CountDownLatch latch   = new CountDownLatch(workers);
+      Failure        failure = new Failure();
+
+      for (int i = 0; i < workers; i++) {
+        executor.execute(() -> {
+          try {
+            Chunk chunk;
+
+            while (!failure.isSet() && !controller.isCanceled() && (chunk = remaining.poll()) != null) {
+              fetchChunk(url, chunk, channel, controller);
+            }
+          } catch (IOException e) {
+            failure.set(e);
+            controller.cancel();
+          } finally {
+            latch.countDown();
+          }
+        });
+      }
+
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        controller.cancel();
+        throw new IOException(e);
+      }
+
+      if (failure.get() != null) {
+        throw failure.get();
+      }
+
+      if (controller.isCanceled()) {
+        throw new IOException("Canceled.");
+      }
+    }
+  }
+
+  private void fetchChunk(@NonNull String url, @NonNull Chunk chunk, @NonNull FileChannel channel, @NonNull CompositeRequestController controller)
+      throws IOException
+  {
+    long started = System.currentTimeMillis();
+
+    for (int attempt = 1; ; attempt++) {
+      chunk.attempts++;
+
+      try {
+        downloadRemaining(url, chunk, channel, controller);
+        chunk.duration += System.currentTimeMillis() - started;
+        return;
+      } catch (IOException e) {
+        if (attempt >= MAX_ATTEMPTS || controller.isCanceled()) {
+          chunk.duration += System.currentTimeMillis() - started;
+          throw e;
+        }
+
+        Log.w(TAG, "Chunk " + chunk + " failed on attempt " + attempt + ", resuming.", e);
+      }
+    }
+  }
+
+  private void downloadRemaining(@NonNull String url, @NonNull Chunk chunk, @NonNull FileChannel channel, @NonNull CompositeRequestController controller)
+      throws IOException
+  {
+    Request request = new Request.Builder()
+                                 .url(url)
+                                 .cacheControl(NO_CACHE)
+                                 .addHeader("Range", "bytes=" + (chunk.start + chunk.received) + "-" + chunk.end)
+                                 .addHeader("Accept-Encoding", "identity")
+                                 .build();
+
+    Call call = client.newCall(request);
+    controller.addController(call::cancel);
+
+    try (Response response = call.execute()) {
+      ResponseBody body = response.body();
+
+      if (response.code() != 206) {
+        throw new IOException("Unexpected response code for range request: " + response.code());
+      }
+
+      if (body == null) {
+        throw new IOException("Missing body.");
+      }
+
+      InputStream in     = body.byteStream();
+      byte[]      buffer = new byte[BUFFER_SIZE];
+      int         read;
+
+      while (!chunk.isComplete() && (read = in.read(buffer, 0, (int) Math.min(buffer.length, chunk.getLength() - chunk.received))) != -1) {
+        ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+
+        while (data.hasRemaining()) {
+          channel.write(data, chunk.start + chunk.received + data.position());
+        }
+
+        chunk.received += read;
+      }
+
+      if (!chunk.isComplete()) {
+        throw new IOException("Response ended early for " + chunk);
+      }
+    }
+  }
+
+  /**
+   * An inclusive range of bytes, along with how much of it has been fetched so far and how long
+   * that took.
+   */
+  public static class Chunk {
+    private final long start;
+    private final long end;
+
+    private volatile long received;
+    private volatile long duration;
+    private volatile int  attempts;
+
+    public Chunk(long start, long end) {
+      this.start = start;
+      this.end   = end;
+    }
+
+    public long getStart() {
+      return start;
+    }
+
+    public long getEnd() {
+      return end;
+    }
+
+    public long getLength() {
+      return end - start + 1;
+    }
+
+    public long getReceived() {
+      return received;
+    }
+
+    public boolean isComplete() {
+      return received >= getLength();
+    }
+
+    /**
+     * @return Time spent fetching this chunk, over all attempts, in milliseconds.
+     */
+    public long getDuration() {
+      return duration;
+    }
+
+    public int getAttempts() {
+      return attempts;
+    }
+
+    @Override
+    public @NonNull String toString() {
+      return "[" + start + "-" + end + ", " + received + " received]";
+    }
+  }
+
+  private static class Failure {
+    private IOException exception;
+
+    synchronized void set(@NonNull IOException exception) {
+      if (this.exception == null) {
+        this.exception = exception;
+      }
+    }
+
+    synchronized @Nullable IOException get() {
+      return exception;
+    }
+
+    synchronized boolean isSet() {
+      return exception != null;
+    }
+  }
+}
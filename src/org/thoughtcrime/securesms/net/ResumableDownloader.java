@@ -0,0 +1,243 @@
+package org.thoughtcrime.securesms.net;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.thoughtcrime.securesms.logging.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Downloads a file over HTTP into a destination that may already hold the start of it from an
+ * earlier, interrupted attempt, asking only for the rest with a Range request.
+ *
+ * How far an attempt got is described by a {@link Checkpoint}: the number of bytes written and the
+ * SHA-256 of those bytes. Before resuming, the bytes in the file are checked against it, so a file
+ * that was truncated, cleared or otherwise changed while we weren't looking is downloaded again from
+ * the start rather than spliced onto the rest of the response.
+ */
+public class ResumableDownloader {
+
+  private static final String TAG = ResumableDownloader.class.getSimpleName();
+
+  private static final int BUFFER_SIZE = 32 * 1024;
+
+  private final OkHttpClient client;
+  private final String       url;
+  private final String       hostHeader;
+  private final File         destination;
+
+  private Checkpoint checkpoint;
+
+  public ResumableDownloader(@NonNull OkHttpClient client,
+                             @NonNull String url,
+                             @Nullable String hostHeader,
+                             @NonNull File destination,
+                             @NonNull Checkpoint checkpoint)
+  {
+    this.client      = client;
+    this.url         = url;
+    this.hostHeader  = hostHeader;
+    this.destination = destination;
+    this.checkpoint  = checkpoint;
+  }
+
+  /**
+   * Downloads whatever hasn't been downloaded yet. Whether this succeeds or throws,
+   * {@link #getCheckpoint()} describes what's in the file afterwards.
+   *
+   * @throws PermanentFailureException If trying again won't help, like for an error response.
+   * @throws IOException If the download was interrupted, and can be resumed.
+   */
+  @WorkerThread
+  public void download(long maxSize, @Nullable ProgressListener listener) throws IOException {
+    MessageDigest digest = verifyCheckpoint();
+
+    Request.Builder request = new Request.Builder().url(url).get();
+
+    if (hostHeader != null) {
+      request.addHeader("Host", hostHeader);
+    }
+
+    if (checkpoint.getLength() > 0) {
+      Log.i(TAG, "Resuming download at " + checkpoint.getLength());
+      request.addHeader("Range", "bytes=" + checkpoint.getLength() + "-");
+    }
+
+    Call call = client.newCall(request.build());
+
+    try (Response response = call.execute()) {
+      ResponseBody body = response.body();
+
+      if (response.code() == 416 && checkpoint.getLength() > 0) {
+        Log.w(TAG, "Server wouldn't resume, starting over.");
+        checkpoint = Checkpoint.EMPTY;
+        throw new IOException("Range not satisfiable.");
+      }
+
+      if (!response.isSuccessful() || body == null) {
+        throw new PermanentFailureException("Bad response: " + response.code());
+      }
+
+      if (checkpoint.getLength() > 0 && response.code() != 206) {
+        Log.w(TAG, "Server ignored the range, starting over.");
+        checkpoint = Checkpoint.EMPTY;
+        digest.reset();
+      }
+
+      if (response.code() == 206 && !isRangeFrom(response.header("Content-Range"), checkpoint.getLength())) {
+        Log.w(TAG, "Server sent a different range, starting over.");
+        checkpoint = Checkpoint.EMPTY;
+        throw new IOException("Unexpected Content-Range: " + response.header("Content-Range"));
+      }
+
+      long offset = checkpoint.getLength();
+      long total  = body.contentLength() >= 0 ? offset + body.contentLength() : -1;
+
+      if (total > maxSize) {
+        throw new PermanentFailureException("Response exceeds max size: " + total);
+      }
+
+      try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+        file.setLength(offset);
+        file.seek(offset);
+
+        InputStream in       = body.byteStream();
+        byte[]      buffer   = new byte[BUFFER_SIZE];
+        long        received = offset;
+        int         read;
+
+        try {
+          while ((read = in.read(buffer)) != -1) {
+            if (received + read > maxSize) {
+              throw new PermanentFailureException("Response exceeds max size.");
+            }
+
+            file.write(buffer, 0, read);
+            digest.update(buffer, 0, read);
+            received += read;
+
+            if (listener != null) {
+              listener.onProgress(total, received);
+            }
+          }
+        } finally {
+          checkpoint = new Checkpoint(received, digest.digest());
+        }
+      }
+    }
+  }
+
+  public @NonNull Checkpoint getCheckpoint() {
+    return checkpoint;
+  }
+
+  private static boolean isRangeFrom(@Nullable String contentRange, long offset) {
+    return contentRange != null && contentRange.startsWith("bytes " + offset + "-");
+  }
+
+  /**
+   * Makes sure the file starts with exactly the bytes described by the checkpoint, and returns a
+   * digest that has taken them in, so it can carry on from where it left off. Anything after them
+   * is dropped, and if they don't match, the checkpoint is reset so the download starts over.
+   */
+  private @NonNull MessageDigest verifyCheckpoint() throws IOException {
+    MessageDigest digest = newDigest();
+
+    if (checkpoint.getLength() == 0) {
+      return digest;
+    }
+
+    if (destination.length() >= checkpoint.getLength()) {
+      try (InputStream in = new FileInputStream(destination)) {
+        byte[] buffer    = new byte[BUFFER_SIZE];
+        long   remaining = checkpoint.getLength();
+        int    read;
+
+        while (remaining > 0 && (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+          digest.update(buffer, 0, read);
+          remaining -= read;
+        }
+
+        if (remaining == 0 && Arrays.equals(copyOf(digest).digest(), checkpoint.getDigest())) {
+          return digest;
+        }
+      }
+    }
+
+    Log.w(TAG, "Partial download doesn't match its checkpoint, starting over.");
+
+    checkpoint = Checkpoint.EMPTY;
+    new FileOutputStream(destination).close();
+
+    return newDigest();
+  }
+
+  private static @NonNull MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static @NonNull MessageDigest copyOf(@NonNull MessageDigest digest) {
+    try {
+      return (MessageDigest) digest.clone();
+    } catch (CloneNotSupportedException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * How much of a download made it into the file, and the SHA-256 of those bytes.
+   */
+  public static final class Checkpoint {
+
+    public static final Checkpoint EMPTY = new Checkpoint(0, null);
+
+    private final long   length;
+    private final byte[] digest;
+
+    public Checkpoint(long length, @Nullable byte[] digest) {
+      this.length = digest != null ? length : 0;
+      this.digest = digest;
+    }
+
+    public long getLength() {
+      return length;
+    }
+
+    public @Nullable byte[] getDigest() {
+      return digest;
+    }
+  }
+
+  public interface ProgressListener {
+    void onProgress(long total, long progress);
+  }
+
+  /**
+   * The download failed in a way that retrying won't fix.
+   */
+  public static class PermanentFailureException extends IOException {
+    PermanentFailureException(String message) {
+      super(message);
+    }
+  }
+}
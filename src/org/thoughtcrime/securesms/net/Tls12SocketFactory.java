@@ -0,0 +1,83 @@
+package org.thoughtcrime.securesms.net;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Enables TLS 1.2 on every socket it creates. API 19 supports TLS 1.2 but doesn't enable it by
+ * default, so without this a connection limited to TLS 1.2 and up can't be made there.
+ */
+public class Tls12SocketFactory extends SSLSocketFactory {
+
+  private static final String TLS_1_2 = "TLSv1.2";
+
+  private final SSLSocketFactory delegate;
+
+  public Tls12SocketFactory(@NonNull SSLSocketFactory delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public String[] getDefaultCipherSuites() {
+    return delegate.getDefaultCipherSuites();
+  }
+
+  @Override
+  public String[] getSupportedCipherSuites() {
+    return delegate.getSupportedCipherSuites();
+  }
+
+  @Override
+  public Socket createSocket() throws IOException {
+    return enableTls12(delegate.createSocket());
+  }
+
+  @Override
+  public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+    return enableTls12(delegate.createSocket(s, host, port, autoClose));
+  }
+
+  @Override
+  public Socket createSocket(String host, int port) throws IOException {
+    return enableTls12(delegate.createSocket(host, port));
+  }
+
+  @Override
+  public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+    return enableTls12(delegate.createSocket(host, port, localHost, localPort));
+  }
+
+  @Override
+  public Socket createSocket(InetAddress host, int port) throws IOException {
+    return enableTls12(delegate.createSocket(host, port));
+  }
+
+  @Override
+  public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+    return enableTls12(delegate.createSocket(address, port, localAddress, localPort));
+  }
+
+  private static Socket enableTls12(Socket socket) {
+    if (socket instanceof SSLSocket) {
+      SSLSocket sslSocket = (SSLSocket) socket;
+
+      if (Arrays.asList(sslSocket.getSupportedProtocols()).contains(TLS_1_2)) {
+        Set<String> protocols = new LinkedHashSet<>(Arrays.asList(sslSocket.getEnabledProtocols()));
+
+        protocols.add(TLS_1_2);
+        sslSocket.setEnabledProtocols(protocols.toArray(new String[0]));
+      }
+    }
+
+    return socket;
+  }
+}
@@ -64,6 +64,9 @@ import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.webrtc.CallNotificationBuilder;
 import org.whispersystems.signalservice.internal.util.Util;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.ListIterator;
@@ -207,12 +210,64 @@ public class MessageNotifier {
   {
     if (System.currentTimeMillis() - lastDesktopActivityTimestamp < DESKTOP_ACTIVITY_PERIOD) {
       Log.i(TAG, "Scheduling delayed notification...");
-      executor.execute(new DelayedNotification(context, threadId));
+      executor.execute(new DelayedNotification(context, Collections.singleton(threadId)));
     } else {
       updateNotification(context, threadId, true);
     }
   }
 
+  /**
+   * Like {@link #updateNotification(Context, long)}, but for messages that arrived in several
+   * threads at once. The notification is only rebuilt a single time.
+   */
+  public static void updateNotification(@NonNull Context context, @NonNull Collection<Long> threadIds)
+  {
+    if (threadIds.isEmpty()) {
+      return;
+    }
+
+    if (System.currentTimeMillis() - lastDesktopActivityTimestamp < DESKTOP_ACTIVITY_PERIOD) {
+      Log.i(TAG, "Scheduling delayed notification...");
+      executor.execute(new DelayedNotification(context, new ArrayList<>(threadIds)));
+    } else {
+      updateNotification(context, threadIds, true);
+    }
+  }
+
+  private static void updateNotification(@NonNull Context context,
+                                         @NonNull Collection<Long> threadIds,
+                                         boolean signal)
+  {
+    if (threadIds.size() == 1) {
+      updateNotification(context, threadIds.iterator().next(), signal);
+      return;
+    }
+
+    ThreadDatabase threads              = DatabaseFactory.getThreadDatabase(context);
+    boolean        notificationsEnabled = TextSecurePreferences.isNotificationsEnabled(context);
+    boolean        rebuild              = false;
+
+    for (long threadId : threadIds) {
+      Recipient recipient = threads.getRecipientForThreadId(threadId);
+      boolean   isMuted   = recipient != null && recipient.isMuted();
+
+      if (visibleThread == threadId) {
+        List<MarkedMessageInfo> messageIds = threads.setRead(threadId, false);
+        MarkReadReceiver.process(context, messageIds);
+
+        if (notificationsEnabled && !isMuted) {
+          sendInThreadNotification(context, recipient);
+        }
+      } else if (!isMuted) {
+        rebuild = true;
+      }
+    }
+
+    if (notificationsEnabled && rebuild) {
+      updateNotification(context, signal, 0);
+    }
+  }
+
   public static void updateNotification(@NonNull  Context context,
                                         long      threadId,
                                         boolean   signal)
@@ -565,13 +620,13 @@ public class MessageNotifier {
 
     private final AtomicBoolean canceled = new AtomicBoolean(false);
 
-    private final Context context;
-    private final long    threadId;
-    private final long    delayUntil;
+    private final Context          context;
+    private final Collection<Long> threadIds;
+    private final long             delayUntil;
 
-    private DelayedNotification(Context context, long threadId) {
+    private DelayedNotification(Context context, Collection<Long> threadIds) {
       this.context    = context;
-      this.threadId   = threadId;
+      this.threadIds  = threadIds;
       this.delayUntil = System.currentTimeMillis() + DELAY;
     }
 
@@ -586,7 +641,7 @@ public class MessageNotifier {
 
       if (!canceled.get()) {
         Log.i(TAG, "Not canceled, notifying...");
-        MessageNotifier.updateNotification(context, threadId, true);
+        MessageNotifier.updateNotification(context, threadIds, true);
         MessageNotifier.cancelDelayedNotifications();
       } else {
         Log.w(TAG, "Canceled, not notifying...");
@@ -0,0 +1,123 @@
+package org.thoughtcrime.securesms.push;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.thoughtcrime.securesms.net.Tls12SocketFactory;
+import org.whispersystems.signalservice.api.push.TrustStore;
+import org.whispersystems.signalservice.internal.configuration.SignalCdnUrl;
+import org.whispersystems.signalservice.internal.configuration.SignalServiceConfiguration;
+
+import java.io.IOException;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.cert.CertificateException;
+import java.util.Collections;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionSpec;
+import okhttp3.OkHttpClient;
+
+/**
+ * {@link OkHttpClient}s for the CDN urls of one {@link SignalServiceConfiguration}, for code that
+ * needs to talk to the CDN directly. Like the service library's own clients, they only trust the
+ * url's trust store and only use TLS 1.2 and up.
+ *
+ * The clients are built once and shared, so that requests can reuse their connection pools. Get it
+ * from {@link org.thoughtcrime.securesms.dependencies.ApplicationDependencies}.
+ */
+public final class SignalCdnClient {
+
+  private final SignalServiceConfiguration configuration;
+  private final Connection[]               connections;
+  private final SecureRandom               random;
+
+  public SignalCdnClient(@NonNull SignalServiceConfiguration configuration) {
+    SignalCdnUrl[] cdnUrls = configuration.getSignalCdnUrls();
+
+    this.configuration = configuration;
+    this.connections   = new Connection[cdnUrls.length];
+    this.random        = new SecureRandom();
+
+    for (int i = 0; i < cdnUrls.length; i++) {
+      connections[i] = new Connection(cdnUrls[i]);
+    }
+  }
+
+  public @NonNull SignalServiceConfiguration getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * @return One of the configured CDN urls, picked at random.
+   */
+  public @NonNull Connection getConnection() {
+    return connections[random.nextInt(connections.length)];
+  }
+
+  public static final class Connection {
+
+    private final OkHttpClient client;
+    private final String       baseUrl;
+    private final String       hostHeader;
+
+    private Connection(@NonNull SignalCdnUrl cdnUrl) {
+      try {
+        X509TrustManager trustManager = createTrustManager(cdnUrl.getTrustStore());
+        SSLContext       sslContext   = SSLContext.getInstance("TLS");
+        sslContext.init(null, new TrustManager[] { trustManager }, null);
+
+        this.client     = new OkHttpClient.Builder()
+                                          .sslSocketFactory(new Tls12SocketFactory(sslContext.getSocketFactory()), trustManager)
+                                          .connectionSpecs(cdnUrl.getConnectionSpecs().or(Collections.singletonList(ConnectionSpec.RESTRICTED_TLS)))
+                                          .build();
+        this.baseUrl    = cdnUrl.getUrl();
+        this.hostHeader = cdnUrl.getHostHeader().orNull();
+      } catch (NoSuchAlgorithmException | KeyManagementException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    /**
+     * Trusts only the certificates in the trust store, the same ones the service library pins.
+     */
+    private static @NonNull X509TrustManager createTrustManager(@NonNull TrustStore trustStore) {
+      try {
+        KeyStore keyStore = KeyStore.getInstance("BKS");
+        keyStore.load(trustStore.getKeyStoreInputStream(), trustStore.getKeyStorePassword().toCharArray());
+
+        TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+
+        for (TrustManager trustManager : trustManagerFactory.getTrustManagers()) {
+          if (trustManager instanceof X509TrustManager) {
+            return (X509TrustManager) trustManager;
+          }
+        }
+
+        throw new AssertionError("No X509TrustManager for the trust store.");
+      } catch (KeyStoreException | CertificateException | IOException | NoSuchAlgorithmException e) {
+        throw new AssertionError(e);
+      }
+    }
+
+    public @NonNull OkHttpClient getClient() {
+      return client;
+    }
+
+    public @NonNull String getAttachmentUrl(long attachmentId) {
+      return baseUrl + "/attachments/" + attachmentId;
+    }
+
+    public @Nullable String getHostHeader() {
+      return hostHeader;
+    }
+  }
+}
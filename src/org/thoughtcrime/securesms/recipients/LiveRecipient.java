@@ -16,13 +16,16 @@ import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupDatabase.GroupRecord;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
+import org.thoughtcrime.securesms.database.RecipientDatabase.MissingRecipientError;
 import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.logging.Log;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.Util;
 import org.whispersystems.libsignal.util.guava.Optional;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
@@ -40,6 +43,7 @@ public final class LiveRecipient {
   private final RecipientDatabase             recipientDatabase;
   private final GroupDatabase                 groupDatabase;
   private final String                        unnamedGroupName;
+  private final Object                        resolveLock;
 
   LiveRecipient(@NonNull Context context, @NonNull MutableLiveData<Recipient> liveData, @NonNull Recipient defaultRecipient) {
     this.context           = context.getApplicationContext();
@@ -48,6 +52,7 @@ public final class LiveRecipient {
     this.recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
     this.groupDatabase     = DatabaseFactory.getGroupDatabase(context);
     this.unnamedGroupName  = context.getString(R.string.RecipientProvider_unnamed_group);
+    this.resolveLock       = new Object();
     this.observers         = new CopyOnWriteArraySet<>();
     this.foreverObserver   = recipient -> {
       for (RecipientForeverObserver o : observers) {
@@ -127,20 +132,45 @@ public final class LiveRecipient {
       Log.w(TAG, "[Resolve][MAIN] " + getId(), new Throwable());
     }
 
-    Recipient       updated      = fetchRecipientFromDisk(getId());
-    List<Recipient> participants = Stream.of(updated.getParticipants())
-                                         .filter(Recipient::isResolving)
-                                         .map(Recipient::getId)
-                                         .map(this::fetchRecipientFromDisk)
-                                         .toList();
+    synchronized (resolveLock) {
+      current = recipient.get();
 
-    for (Recipient participant : participants) {
-      participant.live().set(participant);
+      if (!current.isResolving()) {
+        return current;
+      }
+
+      return resolve(recipientDatabase.getRecipientSettings(getId()));
     }
+  }
+
+  /**
+   * Resolves the recipient from settings that have already been read, unless it's been resolved in
+   * the meantime.
+   */
+  @WorkerThread
+  @NonNull Recipient resolve(@NonNull RecipientSettings settings) {
+    synchronized (resolveLock) {
+      Recipient current = recipient.get();
+
+      if (!current.isResolving()) {
+        return current;
+      }
+
+      Recipient       updated      = getRecipient(settings);
+      List<Recipient> participants = Stream.of(updated.getParticipants())
+                                           .filter(Recipient::isResolving)
+                                           .map(Recipient::getId)
+                                           .map(this::fetchRecipientFromDisk)
+                                           .toList();
+
+      for (Recipient participant : participants) {
+        participant.live().set(participant);
+      }
 
-    set(updated);
+      set(updated);
 
-    return updated;
+      return updated;
+    }
   }
 
   /**
@@ -154,13 +184,9 @@ public final class LiveRecipient {
       Log.w(TAG, "[Refresh][MAIN] " + getId(), new Throwable());
     }
 
-    Recipient       recipient    = fetchRecipientFromDisk(getId());
-    List<Recipient> participants = Stream.of(recipient.getParticipants())
-                                         .map(Recipient::getId)
-                                         .map(this::fetchRecipientFromDisk)
-                                         .toList();
+    Recipient recipient = fetchRecipientFromDisk(getId());
 
-    for (Recipient participant : participants) {
+    for (Recipient participant : recipient.getParticipants()) {
       participant.live().set(participant);
     }
 
@@ -168,11 +194,31 @@ public final class LiveRecipient {
   }
 
   private @NonNull Recipient fetchRecipientFromDisk(RecipientId id) {
-    RecipientSettings settings = recipientDatabase.getRecipientSettings(id);
-    RecipientDetails  details  = settings.getAddress().isGroup() ? getGroupRecipientDetails(settings)
-                                                                 : getIndividualRecipientDetails(settings);
+    return getRecipient(recipientDatabase.getRecipientSettings(id));
+  }
+
+  private @NonNull List<Recipient> fetchRecipientsFromDisk(@NonNull List<RecipientId> ids) {
+    Map<RecipientId, RecipientSettings> settings   = recipientDatabase.getRecipientSettings(ids);
+    List<Recipient>                     recipients = new ArrayList<>(ids.size());
+
+    for (RecipientId id : ids) {
+      RecipientSettings recipientSettings = settings.get(id);
+
+      if (recipientSettings == null) {
+        throw new MissingRecipientError(id);
+      }
+
+      recipients.add(getRecipient(recipientSettings));
+    }
+
+    return recipients;
+  }
+
+  private @NonNull Recipient getRecipient(@NonNull RecipientSettings settings) {
+    RecipientDetails details = settings.getAddress().isGroup() ? getGroupRecipientDetails(settings)
+                                                               : getIndividualRecipientDetails(settings);
 
-    return new Recipient(id, details);
+    return new Recipient(settings.getId(), details);
   }
 
   private @NonNull RecipientDetails getIndividualRecipientDetails(RecipientSettings settings) {
@@ -187,7 +233,7 @@ public final class LiveRecipient {
 
     if (groupRecord.isPresent()) {
       String          title    = groupRecord.get().getTitle();
-      List<Recipient> members  = Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).map(this::fetchRecipientFromDisk).toList();
+      List<Recipient> members  = fetchRecipientsFromDisk(Stream.of(groupRecord.get().getMembers()).filterNot(RecipientId::isUnknown).toList());
       Optional<Long>  avatarId = Optional.absent();
 
       if (!settings.getAddress().isMmsGroup() && title == null) {
@@ -1,6 +1,5 @@
 package org.thoughtcrime.securesms.recipients;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.database.Cursor;
 
@@ -14,18 +13,20 @@ import com.annimon.stream.Stream;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.database.RecipientDatabase.MissingRecipientError;
-import org.thoughtcrime.securesms.database.ThreadDatabase;
-import org.thoughtcrime.securesms.database.model.ThreadRecord;
+import org.thoughtcrime.securesms.database.RecipientDatabase.RecipientSettings;
 import org.thoughtcrime.securesms.logging.Log;
-import org.thoughtcrime.securesms.util.LRUCache;
+import org.thoughtcrime.securesms.util.ConcurrentLRUCache;
 import org.thoughtcrime.securesms.util.TextSecurePreferences;
 import org.thoughtcrime.securesms.util.concurrent.SignalExecutors;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public final class LiveRecipientCache {
 
@@ -34,47 +35,128 @@ public final class LiveRecipientCache {
   private static final int CACHE_MAX      = 1000;
   private static final int CACHE_WARM_MAX = 500;
 
-  private final Context                         context;
-  private final RecipientDatabase               recipientDatabase;
-  private final Map<RecipientId, LiveRecipient> recipients;
-  private final LiveRecipient                   unknown;
+  private final Context                                        context;
+  private final RecipientDatabase                              recipientDatabase;
+  private final ConcurrentLRUCache<RecipientId, LiveRecipient> recipients;
+  private final Queue<PendingResolve>                          pendingResolves;
+  private final AtomicBoolean                                  resolveScheduled;
+  private final Executor                                       resolveExecutor;
+  private final LiveRecipient                                  unknown;
 
   private RecipientId localRecipientId;
   private boolean     warmedUp;
 
-  @SuppressLint("UseSparseArrays")
   public LiveRecipientCache(@NonNull Context context) {
     this.context           = context.getApplicationContext();
     this.recipientDatabase = DatabaseFactory.getRecipientDatabase(context);
-    this.recipients        = new LRUCache<>(CACHE_MAX);
+    this.recipients        = new ConcurrentLRUCache<>(CACHE_MAX);
+    this.pendingResolves   = new ConcurrentLinkedQueue<>();
+    this.resolveScheduled  = new AtomicBoolean();
+    this.resolveExecutor   = SignalExecutors.newCachedSingleThreadExecutor("signal-LiveRecipientCache");
     this.unknown           = new LiveRecipient(context, new MutableLiveData<>(), Recipient.UNKNOWN);
   }
 
+  /**
+   * Doesn't block. A recipient that isn't cached is returned unresolved, and resolved in the
+   * background along with any others that were missed around the same time.
+   */
   @AnyThread
-  synchronized @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
+  @NonNull LiveRecipient getLive(@NonNull RecipientId id) {
     if (id.isUnknown()) return unknown;
 
     LiveRecipient live = recipients.get(id);
 
     if (live == null) {
-      final LiveRecipient newLive = new LiveRecipient(context, new MutableLiveData<>(), new Recipient(id));
+      LiveRecipient newLive = new LiveRecipient(context, new MutableLiveData<>(), new Recipient(id));
 
-      recipients.put(id, newLive);
+      live = recipients.putIfAbsent(id, newLive);
 
-      MissingRecipientError prettyStackTraceError = new MissingRecipientError(newLive.getId());
+      if (live == null) {
+        live = newLive;
+        pendingResolves.add(new PendingResolve(newLive, new MissingRecipientError(id)));
+        scheduleResolve();
+      }
+    }
 
-      SignalExecutors.BOUNDED.execute(() -> {
-        try {
-          newLive.resolve();
-        } catch (MissingRecipientError e) {
-          throw prettyStackTraceError;
-        }
-      });
+    return live;
+  }
 
-      live = newLive;
+  /**
+   * @return The fraction of lookups that found the recipient already cached.
+   */
+  public float getHitRate() {
+    return recipients.getHitRate();
+  }
+
+  private void scheduleResolve() {
+    if (resolveScheduled.compareAndSet(false, true)) {
+      resolveExecutor.execute(this::resolvePending);
     }
+  }
 
-    return live;
+  /**
+   * Resolves the recipients missed since the last run, reading all of their settings at once. A
+   * recipient that's missed while this runs schedules another run.
+   */
+  @WorkerThread
+  private void resolvePending() {
+    resolveScheduled.set(false);
+
+    List<PendingResolve> batch = new ArrayList<>(pendingResolves.size());
+    PendingResolve       pending;
+
+    while ((pending = pendingResolves.poll()) != null) {
+      batch.add(pending);
+    }
+
+    resolve(batch);
+  }
+
+  /**
+   * @return The recipients, fully resolved. The ones that aren't already are read together rather
+   *         than one at a time.
+   */
+  @WorkerThread
+  @NonNull List<Recipient> getResolved(@NonNull List<RecipientId> ids) {
+    List<LiveRecipient>  lives      = Stream.of(ids).map(this::getLive).toList();
+    List<PendingResolve> unresolved = new ArrayList<>();
+
+    for (LiveRecipient live : lives) {
+      if (live != unknown && live.get().isResolving()) {
+        unresolved.add(new PendingResolve(live, new MissingRecipientError(live.getId())));
+      }
+    }
+
+    resolve(unresolved);
+
+    return Stream.of(lives).map(LiveRecipient::get).toList();
+  }
+
+  @WorkerThread
+  private void resolve(@NonNull List<PendingResolve> batch) {
+    List<PendingResolve> unresolved = Stream.of(batch).filter(p -> p.live.get().isResolving()).toList();
+
+    if (unresolved.isEmpty()) {
+      return;
+    }
+
+    List<RecipientId>                   ids      = Stream.of(unresolved).map(p -> p.live.getId()).toList();
+    Map<RecipientId, RecipientSettings> settings = recipientDatabase.getRecipientSettings(ids);
+
+    for (PendingResolve pending : unresolved) {
+      RecipientSettings recipientSettings = settings.get(pending.live.getId());
+
+      if (recipientSettings == null) {
+        Log.w(TAG, "Failed to resolve a recipient.", pending.error);
+        continue;
+      }
+
+      try {
+        pending.live.resolve(recipientSettings);
+      } catch (MissingRecipientError e) {
+        Log.w(TAG, "Failed to resolve a recipient.", e);
+      }
+    }
   }
 
   @NonNull Recipient getSelf() {
@@ -96,23 +178,22 @@ public final class LiveRecipientCache {
     }
 
     SignalExecutors.BOUNDED.execute(() -> {
-      ThreadDatabase threadDatabase = DatabaseFactory.getThreadDatabase(context);
+      List<RecipientId> recipientIds = DatabaseFactory.getThreadDatabase(context).getRecentRecipientIds(CACHE_WARM_MAX);
 
-      try (ThreadDatabase.Reader reader = threadDatabase.readerFor(threadDatabase.getConversationList())) {
-        int             i          = 0;
-        ThreadRecord    record     = null;
-        List<Recipient> recipients = new ArrayList<>();
+      Log.d(TAG, "Warming up " + recipientIds.size() + " recipients.");
 
-        while ((record = reader.getNext()) != null && i < CACHE_WARM_MAX) {
-          recipients.add(record.getRecipient());
-          i++;
-        }
+      Collections.reverse(recipientIds);
+      getResolved(recipientIds);
+    });
+  }
 
-        Log.d(TAG, "Warming up " + recipients.size() + " recipients.");
+  private static final class PendingResolve {
+    private final LiveRecipient         live;
+    private final MissingRecipientError error;
 
-        Collections.reverse(recipients);
-        Stream.of(recipients).map(Recipient::getId).forEach(this::getLive);
-      }
-    });
+    private PendingResolve(@NonNull LiveRecipient live, @NonNull MissingRecipientError error) {
+      this.live  = live;
+      this.error = error;
+    }
   }
 }
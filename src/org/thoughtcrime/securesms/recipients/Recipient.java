@@ -97,6 +97,15 @@ public class Recipient {
     return live(id).resolve();
   }
 
+  /**
+   * Returns fully-populated {@link Recipient}s, reading the ones that aren't cached together. May
+   * hit the disk, and therefore should be called on a background thread.
+   */
+  @WorkerThread
+  public static @NonNull List<Recipient> resolvedList(@NonNull List<RecipientId> ids) {
+    return ApplicationDependencies.getRecipientCache().getResolved(ids);
+  }
+
   /**
    * Returns a fully-populated {@link Recipient} based off of a string identifier, creating one in
    * the database if necessary. The identifier may be a phone number, email, or serialized groupId.
@@ -0,0 +1,113 @@
+package org.thoughtcrime.securesms.service;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A min-heap of messages ordered by the time they expire. Entries are kept in parallel primitive
+ * arrays rather than as individual objects, since a busy device can have tens of thousands of
+ * messages waiting to disappear.
+ *
+ * Not thread safe.
+ */
+final class ExpiringMessageHeap {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private long[]    expirations = new long[INITIAL_CAPACITY];
+  private long[]    ids         = new long[INITIAL_CAPACITY];
+  private boolean[] mms         = new boolean[INITIAL_CAPACITY];
+  private int       size;
+
+  void add(long id, boolean isMms, long expiresAtMillis) {
+    if (size == expirations.length) {
+      int capacity = size * 2;
+
+      expirations = Arrays.copyOf(expirations, capacity);
+      ids         = Arrays.copyOf(ids, capacity);
+      mms         = Arrays.copyOf(mms, capacity);
+    }
+
+    int index = size++;
+
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+
+      if (expirations[parent] <= expiresAtMillis) break;
+
+      move(parent, index);
+      index = parent;
+    }
+
+    set(index, id, isMms, expiresAtMillis);
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return The time the earliest message expires. Only valid if the heap isn't empty.
+   */
+  long peekExpiration() {
+    return expirations[0];
+  }
+
+  /**
+   * Removes every message that expires at or before the given time, adding its id to the matching
+   * list.
+   */
+  void removeExpiringBefore(long timeMillis, @NonNull List<Long> smsIds, @NonNull List<Long> mmsIds) {
+    while (size > 0 && expirations[0] <= timeMillis) {
+      if (mms[0]) mmsIds.add(ids[0]);
+      else        smsIds.add(ids[0]);
+
+      removeFirst();
+    }
+  }
+
+  private void removeFirst() {
+    int     last           = --size;
+    long    lastExpiration = expirations[last];
+    long    lastId         = ids[last];
+    boolean lastMms        = mms[last];
+    int     index          = 0;
+    int     half           = size >>> 1;
+
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+
+      if (right < size && expirations[right] < expirations[child]) {
+        child = right;
+      }
+
+      if (lastExpiration <= expirations[child]) break;
+
+      move(child, index);
+      index = child;
+    }
+
+    if (size > 0) {
+      set(index, lastId, lastMms, lastExpiration);
+    }
+  }
+
+  private void move(int from, int to) {
+    expirations[to] = expirations[from];
+    ids[to]         = ids[from];
+    mms[to]         = mms[from];
+  }
+
+  private void set(int index, long id, boolean isMms, long expiresAtMillis) {
+    expirations[index] = expiresAtMillis;
+    ids[index]         = id;
+    mms[index]         = isMms;
+  }
+}
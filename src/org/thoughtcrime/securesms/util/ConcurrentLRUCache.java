@@ -0,0 +1,200 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe cache that evicts approximately the least recently used entries. Unlike a
+ * synchronized {@link LRUCache}, where even a read reorders the map, reads here never take a lock
+ * and usually write nothing shared: an entry is only marked as used if it isn't marked already.
+ *
+ * Entries are spread across segments by hash. A segment only takes its lock when a write pushes it
+ * past its share of the capacity. It then evicts a quarter of its entries, preferring the ones that
+ * haven't been read since the last eviction and giving the rest a second chance.
+ */
+public final class ConcurrentLRUCache<K, V> {
+
+  private static final int DEFAULT_SEGMENTS = 16;
+
+  private final Segment<K, V>[] segments;
+  private final StripedCounter  hits;
+  private final StripedCounter  misses;
+
+  public ConcurrentLRUCache(int maxSize) {
+    this(maxSize, DEFAULT_SEGMENTS);
+  }
+
+  @VisibleForTesting
+  @SuppressWarnings("unchecked")
+  ConcurrentLRUCache(int maxSize, int segmentCount) {
+    if (maxSize < segmentCount) {
+      throw new IllegalArgumentException("Max size must be at least the segment count: " + maxSize);
+    }
+
+    this.segments = new Segment[segmentCount];
+    this.hits     = new StripedCounter();
+    this.misses   = new StripedCounter();
+
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment<>(maxSize / segmentCount);
+    }
+  }
+
+  public @Nullable V get(@NonNull K key) {
+    V value = getSegment(key).get(key);
+
+    if (value != null) hits.increment();
+    else               misses.increment();
+
+    return value;
+  }
+
+  /**
+   * Adds the value unless the key already has one.
+   *
+   * @return The value already cached for the key, or null if the given value was added.
+   */
+  public @Nullable V putIfAbsent(@NonNull K key, @NonNull V value) {
+    return getSegment(key).putIfAbsent(key, value);
+  }
+
+  public int size() {
+    int size = 0;
+
+    for (Segment<K, V> segment : segments) {
+      size += segment.entries.size();
+    }
+
+    return size;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  /**
+   * @return The fraction of reads that found a value, or 0 if there haven't been any.
+   */
+  public float getHitRate() {
+    long hitCount = getHitCount();
+    long total    = hitCount + getMissCount();
+
+    return total == 0 ? 0 : (float) hitCount / total;
+  }
+
+  private @NonNull Segment<K, V> getSegment(@NonNull K key) {
+    int hash = key.hashCode() * 0x9E3779B9;
+    return segments[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % segments.length];
+  }
+
+  private static final class Segment<K, V> {
+
+    private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int                            maxSize;
+
+    private Segment(int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    @Nullable V get(@NonNull K key) {
+      Entry<V> entry = entries.get(key);
+
+      if (entry == null) {
+        return null;
+      }
+
+      if (!entry.referenced) {
+        entry.referenced = true;
+      }
+
+      return entry.value;
+    }
+
+    @Nullable V putIfAbsent(@NonNull K key, @NonNull V value) {
+      Entry<V> existing = entries.putIfAbsent(key, new Entry<>(value));
+
+      if (existing != null) {
+        existing.referenced = true;
+        return existing.value;
+      }
+
+      if (entries.size() > maxSize) {
+        evict();
+      }
+
+      return null;
+    }
+
+    /**
+     * Shrinks the segment to three quarters of its size. The first pass only drops entries that
+     * haven't been read since they were added or last spared, and clears the mark of the ones it
+     * spares. The second pass, if one is needed, drops whatever is left in order.
+     */
+    private synchronized void evict() {
+      if (entries.size() <= maxSize) {
+        return;
+      }
+
+      int target = maxSize * 3 / 4;
+
+      for (int pass = 0; pass < 2 && entries.size() > target; pass++) {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+
+        while (iterator.hasNext() && entries.size() > target) {
+          Entry<V> entry = iterator.next();
+
+          if (entry.referenced && pass == 0) {
+            entry.referenced = false;
+          } else {
+            iterator.remove();
+          }
+        }
+      }
+    }
+  }
+
+  private static final class Entry<V> {
+    private final V value;
+
+    private volatile boolean referenced;
+
+    private Entry(@NonNull V value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * A counter spread over several cells, picked by thread, so that threads counting at the same
+   * time rarely write to the same cache line. LongAdder isn't available before API 24.
+   */
+  private static final class StripedCounter {
+
+    private static final int STRIPES = 16;
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+      cells.incrementAndGet((int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING);
+    }
+
+    long sum() {
+      long sum = 0;
+
+      for (int i = 0; i < STRIPES; i++) {
+        sum += cells.get(i * PADDING);
+      }
+
+      return sum;
+    }
+  }
+}
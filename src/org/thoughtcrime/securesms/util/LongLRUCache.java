@@ -0,0 +1,218 @@
+package org.thoughtcrime.securesms.util;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * A least recently used cache keyed by primitive longs. Unlike {@link LRUCache}, lookups don't box
+ * their key or allocate an entry, which matters for caches that are hit on every frame of a scroll.
+ *
+ * Entries live in fixed arrays linked into recency order, and are found through an open addressed
+ * table of their indices. Not thread safe.
+ */
+public final class LongLRUCache<V> {
+
+  private static final int NONE = -1;
+
+  private int      maxSize;
+  private long[]   keys;
+  private Object[] values;
+  private int[]    newer;
+  private int[]    older;
+  private int[]    table;
+  private int      newest;
+  private int      oldest;
+  private int      size;
+
+  public LongLRUCache(int maxSize) {
+    allocate(maxSize);
+  }
+
+  public @Nullable V get(long key) {
+    int entry = find(key);
+
+    if (entry == NONE) {
+      return null;
+    }
+
+    unlink(entry);
+    linkNewest(entry);
+
+    return getValue(entry);
+  }
+
+  public boolean containsKey(long key) {
+    return find(key) != NONE;
+  }
+
+  public void put(long key, @NonNull V value) {
+    int entry = find(key);
+
+    if (entry != NONE) {
+      values[entry] = value;
+      unlink(entry);
+      linkNewest(entry);
+      return;
+    }
+
+    if (size < maxSize) {
+      entry = size++;
+    } else {
+      entry = oldest;
+      removeFromTable(keys[entry]);
+      unlink(entry);
+    }
+
+    keys[entry]   = key;
+    values[entry] = value;
+
+    addToTable(entry);
+    linkNewest(entry);
+  }
+
+  public void clear() {
+    Arrays.fill(table, NONE);
+    Arrays.fill(values, null);
+
+    newest = NONE;
+    oldest = NONE;
+    size   = 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Changes the number of entries the cache can hold, keeping the most recently used ones.
+   */
+  public void setMaxSize(int maxSize) {
+    if (maxSize == this.maxSize) {
+      return;
+    }
+
+    int      count      = Math.min(size, maxSize);
+    long[]   keptKeys   = new long[count];
+    Object[] keptValues = new Object[count];
+    int      entry      = newest;
+
+    for (int i = 0; i < count; i++) {
+      keptKeys[i]   = keys[entry];
+      keptValues[i] = values[entry];
+      entry         = older[entry];
+    }
+
+    allocate(maxSize);
+
+    for (int i = count - 1; i >= 0; i--) {
+      put(keptKeys[i], cast(keptValues[i]));
+    }
+  }
+
+  private void allocate(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Max size must be positive: " + maxSize);
+    }
+
+    this.maxSize = maxSize;
+    this.keys    = new long[maxSize];
+    this.values  = new Object[maxSize];
+    this.newer   = new int[maxSize];
+    this.older   = new int[maxSize];
+    this.table   = new int[Integer.highestOneBit(maxSize * 2 - 1) << 1];
+    this.newest  = NONE;
+    this.oldest  = NONE;
+    this.size    = 0;
+
+    Arrays.fill(table, NONE);
+  }
+
+  private int find(long key) {
+    int mask = table.length - 1;
+
+    for (int slot = getSlot(key); table[slot] != NONE; slot = (slot + 1) & mask) {
+      if (keys[table[slot]] == key) {
+        return table[slot];
+      }
+    }
+
+    return NONE;
+  }
+
+  private void addToTable(int entry) {
+    int mask = table.length - 1;
+    int slot = getSlot(keys[entry]);
+
+    while (table[slot] != NONE) {
+      slot = (slot + 1) & mask;
+    }
+
+    table[slot] = entry;
+  }
+
+  /**
+   * Removes a key from the table, shifting back any entries further along its probe sequence so that
+   * lookups never stop early at the hole.
+   */
+  private void removeFromTable(long key) {
+    int mask = table.length - 1;
+    int hole = getSlot(key);
+
+    while (keys[table[hole]] != key) {
+      hole = (hole + 1) & mask;
+    }
+
+    table[hole] = NONE;
+
+    for (int slot = (hole + 1) & mask; table[slot] != NONE; slot = (slot + 1) & mask) {
+      int home = getSlot(keys[table[slot]]);
+
+      boolean reachable = hole <= slot ? (home <= hole || home > slot)
+                                       : (home <= hole && home > slot);
+
+      if (reachable) {
+        table[hole] = table[slot];
+        table[slot] = NONE;
+        hole        = slot;
+      }
+    }
+  }
+
+  private int getSlot(long key) {
+    int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+    return (hash ^ (hash >>> 16)) & (table.length - 1);
+  }
+
+  private void linkNewest(int entry) {
+    newer[entry] = NONE;
+    older[entry] = newest;
+
+    if (newest != NONE) newer[newest] = entry;
+    else                oldest        = entry;
+
+    newest = entry;
+  }
+
+  private void unlink(int entry) {
+    if (newer[entry] != NONE) older[newer[entry]] = older[entry];
+    else                      newest              = older[entry];
+
+    if (older[entry] != NONE) newer[older[entry]] = newer[entry];
+    else                      oldest              = newer[entry];
+  }
+
+  private V getValue(int entry) {
+    return cast(values[entry]);
+  }
+
+  @SuppressWarnings("unchecked")
+  private V cast(Object value) {
+    return (V) value;
+  }
+}
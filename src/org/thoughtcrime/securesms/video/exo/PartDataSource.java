@@ -11,6 +11,7 @@ import com.google.android.exoplayer2.upstream.DataSpec;
 import com.google.android.exoplayer2.upstream.TransferListener;
 
 import org.thoughtcrime.securesms.attachments.Attachment;
+import org.thoughtcrime.securesms.crypto.ModernDecryptingPartChannel;
 import org.thoughtcrime.securesms.database.AttachmentDatabase;
 import org.thoughtcrime.securesms.database.DatabaseFactory;
 import org.thoughtcrime.securesms.mms.PartUriParser;
@@ -27,8 +28,10 @@ public class PartDataSource implements DataSource {
   private final @NonNull  Context          context;
   private final @Nullable TransferListener listener;
 
-  private Uri         uri;
-  private InputStream inputSteam;
+  private Uri                         uri;
+  private ModernDecryptingPartChannel channel;
+  private long                        position;
+  private InputStream                 inputSteam;
 
   PartDataSource(@NonNull Context context, @Nullable TransferListener listener) {
     this.context  = context.getApplicationContext();
@@ -49,7 +52,12 @@ public class PartDataSource implements DataSource {
 
     if (attachment == null) throw new IOException("Attachment not found");
 
-    this.inputSteam = attachmentDatabase.getAttachmentStream(partUri.getPartId(), dataSpec.position);
+    this.channel  = attachmentDatabase.getAttachmentChannel(partUri.getPartId());
+    this.position = dataSpec.position;
+
+    if (channel == null) {
+      this.inputSteam = attachmentDatabase.getAttachmentStream(partUri.getPartId(), dataSpec.position);
+    }
 
     if (listener != null) {
       listener.onTransferStart(this, dataSpec, false);
@@ -62,7 +70,14 @@ public class PartDataSource implements DataSource {
 
   @Override
   public int read(byte[] buffer, int offset, int readLength) throws IOException {
-    int read = inputSteam.read(buffer, offset, readLength);
+    int read;
+
+    if (channel != null) {
+      read = channel.read(position, buffer, offset, readLength);
+      if (read > 0) position += read;
+    } else {
+      read = inputSteam.read(buffer, offset, readLength);
+    }
 
     if (read > 0 && listener != null) {
       listener.onBytesTransferred(this, null, false, read);
@@ -83,6 +98,14 @@ public class PartDataSource implements DataSource {
 
   @Override
   public void close() throws IOException {
-    inputSteam.close();
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+
+    if (inputSteam != null) {
+      inputSteam.close();
+      inputSteam = null;
+    }
   }
 }
@@ -0,0 +1,62 @@
+package org.thoughtcrime.securesms;
+
+import org.junit.Test;
+import org.thoughtcrime.securesms.database.model.ThreadRecord;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public final class ConversationListDataSourceTest {
+
+  @Test
+  public void merge_movesChangedThreadToTop() {
+    List<ThreadRecord> records = Arrays.asList(thread(1, 300), thread(2, 200), thread(3, 100));
+    ThreadRecord       updated = thread(3, 400);
+
+    List<ThreadRecord> merged = ConversationListDataSource.merge(records, Collections.singleton(3L), Collections.singletonList(updated), Long.MIN_VALUE, Long.MIN_VALUE);
+
+    assertEquals(Arrays.asList(updated, records.get(0), records.get(1)), merged);
+  }
+
+  @Test
+  public void merge_removesThreadsWithoutRows() {
+    List<ThreadRecord> records = Arrays.asList(thread(1, 300), thread(2, 200), thread(3, 100));
+
+    List<ThreadRecord> merged = ConversationListDataSource.merge(records, Collections.singleton(2L), Collections.emptyList(), Long.MIN_VALUE, Long.MIN_VALUE);
+
+    assertEquals(Arrays.asList(records.get(0), records.get(2)), merged);
+  }
+
+  @Test
+  public void merge_ordersEqualDatesByThreadId() {
+    List<ThreadRecord> records = Arrays.asList(thread(5, 100), thread(3, 100), thread(1, 100));
+    ThreadRecord       added   = thread(4, 100);
+
+    List<ThreadRecord> merged = ConversationListDataSource.merge(records, Collections.singleton(4L), Collections.singletonList(added), Long.MIN_VALUE, Long.MIN_VALUE);
+
+    assertEquals(Arrays.asList(records.get(0), added, records.get(1), records.get(2)), merged);
+  }
+
+  @Test
+  public void merge_leavesThreadsPastBoundaryForNextPage() {
+    List<ThreadRecord> records = Arrays.asList(thread(1, 300), thread(2, 200));
+    ThreadRecord       moved   = thread(2, 50);
+    ThreadRecord       added   = thread(7, 250);
+
+    List<ThreadRecord> merged = ConversationListDataSource.merge(records, Arrays.asList(2L, 7L), Arrays.asList(added, moved), 200, 2);
+
+    assertEquals(Arrays.asList(records.get(0), added), merged);
+  }
+
+  private static ThreadRecord thread(long threadId, long date) {
+    ThreadRecord record = mock(ThreadRecord.class);
+    when(record.getThreadId()).thenReturn(threadId);
+    when(record.getDate()).thenReturn(date);
+    return record;
+  }
+}
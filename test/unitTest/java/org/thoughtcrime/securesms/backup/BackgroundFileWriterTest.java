@@ -0,0 +1,86 @@
+package org.thoughtcrime.securesms.backup;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class BackgroundFileWriterTest {
+
+  @Test
+  public void writer_writesEveryStreamInOrder() throws IOException {
+    BackgroundFileWriter writer   = new BackgroundFileWriter();
+    ClosingOutputStream  first    = new ClosingOutputStream();
+    ClosingOutputStream  second   = new ClosingOutputStream();
+    byte[]               expected = new byte[3 * 1024 * 1024];
+
+    new Random(1).nextBytes(expected);
+
+    OutputStream firstWrapped  = writer.wrap(first);
+    OutputStream secondWrapped = writer.wrap(second);
+
+    for (int i = 0; i < expected.length; i += 8192) {
+      firstWrapped.write(expected, i, Math.min(8192, expected.length - i));
+    }
+
+    firstWrapped.close();
+    secondWrapped.write(7);
+    secondWrapped.close();
+
+    writer.finish();
+    writer.close();
+
+    assertArrayEquals(expected, first.toByteArray());
+    assertArrayEquals(new byte[] { 7 }, second.toByteArray());
+    assertTrue(first.closed);
+    assertTrue(second.closed);
+  }
+
+  @Test
+  public void writer_reportsFailedWrite() throws IOException {
+    BackgroundFileWriter writer  = new BackgroundFileWriter();
+    OutputStream         wrapped = writer.wrap(new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException("Disk full");
+      }
+    });
+
+    try {
+      wrapped.write(new byte[16], 0, 16);
+      wrapped.close();
+      writer.finish();
+      fail();
+    } catch (IOException e) {
+      assertTrue(e.getMessage().contains("Disk full"));
+    } finally {
+      writer.close();
+    }
+  }
+
+  @Test
+  public void close_closesStreamsThatWereNeverClosed() throws IOException {
+    BackgroundFileWriter writer = new BackgroundFileWriter();
+    ClosingOutputStream  stream = new ClosingOutputStream();
+
+    writer.wrap(stream).write(new byte[16], 0, 16);
+    writer.close();
+
+    assertTrue(stream.closed);
+  }
+
+  private static final class ClosingOutputStream extends ByteArrayOutputStream {
+    private boolean closed;
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
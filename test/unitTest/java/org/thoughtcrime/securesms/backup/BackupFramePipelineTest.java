@@ -0,0 +1,209 @@
+package org.thoughtcrime.securesms.backup;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class BackupFramePipelineTest {
+
+  private static final byte[] CIPHER_KEY = bytes(32, 1);
+  private static final byte[] MAC_KEY    = bytes(32, 2);
+  private static final byte[] IV         = bytes(16, 3);
+
+  @Test
+  public void pipeline_matchesSequentialOutput() throws Exception {
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    ByteArrayOutputStream actual   = new ByteArrayOutputStream();
+
+    SequentialWriter    sequential = new SequentialWriter(expected);
+    BackupFramePipeline pipeline   = new BackupFramePipeline(actual, CIPHER_KEY, MAC_KEY, IV, 3);
+    Random              random     = new Random(42);
+
+    for (int i = 0; i < 500; i++) {
+      if (i % 50 == 7) {
+        byte[]                   attachment = bytes(random.nextInt(200 * 1024), i);
+        BackupProtos.BackupFrame frame      = attachmentFrame(i, attachment.length);
+
+        sequential.write(frame);
+        sequential.writeStream(new ByteArrayInputStream(attachment));
+        pipeline.write(frame, new ByteArrayInputStream(attachment));
+      } else {
+        BackupProtos.BackupFrame frame = statementFrame(i % 100 == 3 ? 100 * 1024 : random.nextInt(300));
+
+        sequential.write(frame);
+        pipeline.write(frame);
+      }
+    }
+
+    BackupProtos.BackupFrame end = BackupProtos.BackupFrame.newBuilder().setEnd(true).build();
+
+    sequential.write(end);
+    pipeline.write(end);
+    pipeline.finish();
+
+    assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+  }
+
+  @Test
+  public void pipeline_reportsStreamFailure() throws Exception {
+    BackupFramePipeline pipeline = new BackupFramePipeline(new ByteArrayOutputStream(), CIPHER_KEY, MAC_KEY, IV, 2);
+
+    pipeline.write(statementFrame(10));
+    pipeline.write(attachmentFrame(1, 100), new InputStream() {
+      @Override
+      public int read() throws IOException {
+        throw new IOException("Broken stream");
+      }
+    });
+
+    try {
+      pipeline.finish();
+      fail();
+    } catch (IOException e) {
+      assertEquals("Broken stream", e.getMessage());
+    }
+  }
+
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void pipeline_throughput() throws Exception {
+    byte[] attachment = bytes(1024 * 1024, 7);
+
+    long sequentialTime = System.currentTimeMillis();
+    SequentialWriter sequential = new SequentialWriter(new NullOutputStream());
+
+    for (int i = 0; i < 50; i++) {
+      for (int j = 0; j < 200; j++) sequential.write(statementFrame(200));
+      sequential.write(attachmentFrame(i, attachment.length));
+      sequential.writeStream(new ByteArrayInputStream(attachment));
+    }
+
+    sequentialTime = System.currentTimeMillis() - sequentialTime;
+
+    long pipelinedTime = System.currentTimeMillis();
+    BackupFramePipeline pipeline = new BackupFramePipeline(new NullOutputStream(), CIPHER_KEY, MAC_KEY, IV, BackupFramePipeline.getDefaultWorkerCount());
+
+    for (int i = 0; i < 50; i++) {
+      for (int j = 0; j < 200; j++) pipeline.write(statementFrame(200));
+      pipeline.write(attachmentFrame(i, attachment.length), new ByteArrayInputStream(attachment));
+    }
+
+    pipeline.finish();
+    pipelinedTime = System.currentTimeMillis() - pipelinedTime;
+
+    System.out.println("Sequential: " + sequentialTime + " ms, pipelined: " + pipelinedTime + " ms");
+  }
+
+  private static BackupProtos.BackupFrame statementFrame(int length) {
+    StringBuilder statement = new StringBuilder("INSERT INTO sms VALUES (");
+
+    for (int i = 0; i < length; i++) {
+      statement.append((char) ('a' + i % 26));
+    }
+
+    return BackupProtos.BackupFrame.newBuilder()
+                                   .setStatement(BackupProtos.SqlStatement.newBuilder().setStatement(statement.append(')').toString()))
+                                   .build();
+  }
+
+  private static BackupProtos.BackupFrame attachmentFrame(long id, int length) {
+    return BackupProtos.BackupFrame.newBuilder()
+                                   .setAttachment(BackupProtos.Attachment.newBuilder()
+                                                                         .setRowId(id)
+                                                                         .setAttachmentId(id)
+                                                                         .setLength(length))
+                                   .build();
+  }
+
+  private static byte[] bytes(int length, int seed) {
+    byte[] bytes = new byte[length];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * The frame format as written by the original single threaded exporter.
+   */
+  private static final class SequentialWriter {
+
+    private final OutputStream out;
+    private final Cipher       cipher;
+    private final Mac          mac;
+    private final byte[]       iv;
+
+    private int counter;
+
+    SequentialWriter(OutputStream out) throws GeneralSecurityException {
+      this.out     = out;
+      this.cipher  = Cipher.getInstance("AES/CTR/NoPadding");
+      this.mac     = Mac.getInstance("HmacSHA256");
+      this.iv      = IV.clone();
+      this.counter = Conversions.byteArrayToInt(iv);
+
+      mac.init(new SecretKeySpec(MAC_KEY, "HmacSHA256"));
+    }
+
+    void write(BackupProtos.BackupFrame frame) throws Exception {
+      Conversions.intToByteArray(iv, 0, counter++);
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(CIPHER_KEY, "AES"), new IvParameterSpec(iv));
+
+      byte[] frameCiphertext = cipher.doFinal(frame.toByteArray());
+      byte[] frameMac        = mac.doFinal(frameCiphertext);
+
+      out.write(Conversions.intToByteArray(frameCiphertext.length + 10));
+      out.write(frameCiphertext);
+      out.write(frameMac, 0, 10);
+    }
+
+    void writeStream(InputStream in) throws Exception {
+      Conversions.intToByteArray(iv, 0, counter++);
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(CIPHER_KEY, "AES"), new IvParameterSpec(iv));
+      mac.update(iv);
+
+      byte[] buffer = new byte[8192];
+      int    read;
+
+      while ((read = in.read(buffer)) != -1) {
+        byte[] ciphertext = cipher.update(buffer, 0, read);
+
+        if (ciphertext != null) {
+          out.write(ciphertext);
+          mac.update(ciphertext);
+        }
+      }
+
+      byte[] remainder = cipher.doFinal();
+      out.write(remainder);
+      mac.update(remainder);
+
+      out.write(mac.doFinal(), 0, 10);
+    }
+  }
+
+  private static final class NullOutputStream extends OutputStream {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
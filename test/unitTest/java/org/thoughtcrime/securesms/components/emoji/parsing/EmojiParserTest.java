@@ -0,0 +1,173 @@
+package org.thoughtcrime.securesms.components.emoji.parsing;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class EmojiParserTest {
+
+  private static final String HEART        = "\u2764";
+  private static final String HEART_FE0F   = "\u2764\uFE0F";
+  private static final String THUMBS_UP    = "\uD83D\uDC4D";
+  private static final String SKIN_TONE    = "\uD83C\uDFFD";
+  private static final String FAMILY       = "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67";
+  private static final String MAN          = "\uD83D\uDC68";
+
+  private EmojiDrawInfo heart;
+  private EmojiDrawInfo thumbsUp;
+  private EmojiDrawInfo family;
+  private EmojiDrawInfo man;
+  private EmojiParser   parser;
+
+  @Before
+  public void setUp() {
+    EmojiTree tree = new EmojiTree();
+
+    heart    = newDrawInfo(0);
+    thumbsUp = newDrawInfo(1);
+    family   = newDrawInfo(2);
+    man      = newDrawInfo(3);
+
+    tree.add(HEART_FE0F, heart);
+    tree.add(THUMBS_UP, thumbsUp);
+    tree.add(FAMILY, family);
+    tree.add(MAN, man);
+
+    parser = new EmojiParser(tree);
+  }
+
+  @Test
+  public void findCandidates_null() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(null);
+
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_noEmoji() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("hello there");
+
+    assertEquals(0, candidates.size());
+    assertFalse(candidates.allEmojis);
+  }
+
+  @Test
+  public void findCandidates_mixedText() {
+    EmojiParser.CandidateList candidates = parser.findCandidates("a" + THUMBS_UP + "b");
+
+    assertEquals(1, candidates.size());
+    assertFalse(candidates.allEmojis);
+    assertCandidate(candidates, 0, 1, 3, thumbsUp);
+  }
+
+  @Test
+  public void findCandidates_onlyEmojiAndSpaces() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + " " + THUMBS_UP);
+
+    assertEquals(2, candidates.size());
+    assertTrue(candidates.allEmojis);
+    assertCandidate(candidates, 0, 0, 2, thumbsUp);
+    assertCandidate(candidates, 1, 3, 5, thumbsUp);
+  }
+
+  @Test
+  public void findCandidates_prefersLongestMatch() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(FAMILY + MAN);
+
+    assertEquals(2, candidates.size());
+    assertCandidate(candidates, 0, 0, FAMILY.length(), family);
+    assertCandidate(candidates, 1, FAMILY.length(), FAMILY.length() + MAN.length(), man);
+  }
+
+  @Test
+  public void findCandidates_fallsBackToShorterMatch() {
+    String                    text       = MAN + "\u200D" + MAN;
+    EmojiParser.CandidateList candidates = parser.findCandidates(text);
+
+    assertEquals(2, candidates.size());
+    assertFalse(candidates.allEmojis);
+    assertCandidate(candidates, 0, 0, 2, man);
+    assertCandidate(candidates, 1, 3, 5, man);
+  }
+
+  @Test
+  public void findCandidates_missingVariationSelector() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(HEART);
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates, 0, 0, 1, heart);
+  }
+
+  @Test
+  public void findCandidates_withVariationSelector() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(HEART_FE0F);
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates, 0, 0, 2, heart);
+  }
+
+  @Test
+  public void findCandidates_includesSkinTone() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + SKIN_TONE);
+
+    assertEquals(1, candidates.size());
+    assertCandidate(candidates, 0, 0, 4, thumbsUp);
+  }
+
+  @Test
+  public void findCandidates_iteratorMatchesIndexedAccess() {
+    EmojiParser.CandidateList candidates = parser.findCandidates(THUMBS_UP + "x" + FAMILY);
+
+    int i = 0;
+
+    for (EmojiParser.Candidate candidate : candidates) {
+      assertEquals(candidates.getStartIndex(i), candidate.getStartIndex());
+      assertEquals(candidates.getEndIndex(i), candidate.getEndIndex());
+      assertSame(candidates.getDrawInfo(i), candidate.getDrawInfo());
+      i++;
+    }
+
+    assertEquals(2, i);
+  }
+
+  @Test
+  public void findCandidates_resultsSurviveNextParse() {
+    EmojiParser.CandidateList first  = parser.findCandidates(THUMBS_UP);
+    EmojiParser.CandidateList second = parser.findCandidates("x" + FAMILY);
+
+    assertCandidate(first, 0, 0, 2, thumbsUp);
+    assertCandidate(second, 0, 1, 1 + FAMILY.length(), family);
+  }
+
+  @Test(timeout = 5000)
+  public void findCandidates_longEmojiRunIsLinear() {
+    StringBuilder builder = new StringBuilder();
+
+    for (int i = 0; i < 100_000; i++) {
+      builder.append(i % 2 == 0 ? FAMILY : THUMBS_UP + SKIN_TONE);
+    }
+
+    for (int i = 0; i < 10; i++) {
+      EmojiParser.CandidateList candidates = parser.findCandidates(builder);
+
+      assertEquals(100_000, candidates.size());
+      assertTrue(candidates.allEmojis);
+    }
+  }
+
+  private static void assertCandidate(EmojiParser.CandidateList candidates, int index, int start, int end, EmojiDrawInfo drawInfo) {
+    assertEquals(start, candidates.getStartIndex(index));
+    assertEquals(end, candidates.getEndIndex(index));
+    assertSame(drawInfo, candidates.getDrawInfo(index));
+  }
+
+  private static EmojiDrawInfo newDrawInfo(int index) {
+    return new EmojiDrawInfo(mock(EmojiPageBitmap.class), index);
+  }
+}
@@ -0,0 +1,165 @@
+package org.thoughtcrime.securesms.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class ModernDecryptingPartChannelTest {
+
+  private static final int FILE_SIZE           = 64 * 1024;
+  private static final int BENCHMARK_FILE_SIZE = 16 * 1024 * 1024;
+  private static final int READ_COUNT          = 2000;
+  private static final int READ_SIZE           = 4096;
+
+  private AttachmentSecret attachmentSecret;
+  private byte[]           random;
+  private byte[]           plaintext;
+  private File             file;
+
+  @Before
+  public void setUp() throws Exception {
+    Random source = new Random(42);
+
+    attachmentSecret = new AttachmentSecret(new byte[32], new byte[32], bytes(source, 32));
+    random           = bytes(source, 32);
+    plaintext        = bytes(source, FILE_SIZE);
+    file             = File.createTempFile("part", ".mms");
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(encrypt(plaintext));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void read_matchesPlaintextAtUnalignedPositions() throws IOException {
+    try (ModernDecryptingPartChannel channel = ModernDecryptingPartChannel.createFor(attachmentSecret, random, file)) {
+      for (long position : new long[] { 0, 1, 15, 16, 17, 1000, 4095, FILE_SIZE - 33 }) {
+        assertRead(channel, position, 33);
+      }
+    }
+  }
+
+  @Test
+  public void read_continuesSequentially() throws IOException {
+    try (ModernDecryptingPartChannel channel = ModernDecryptingPartChannel.createFor(attachmentSecret, random, file)) {
+      for (long position = 5; position < 5000; position += 7) {
+        assertRead(channel, position, 7);
+      }
+    }
+  }
+
+  @Test
+  public void read_stopsAtEndOfFile() throws IOException {
+    try (ModernDecryptingPartChannel channel = ModernDecryptingPartChannel.createFor(attachmentSecret, random, file)) {
+      byte[] buffer = new byte[100];
+
+      assertEquals(10, channel.read(FILE_SIZE - 10, buffer, 0, 100));
+      assertArrayEquals(Arrays.copyOfRange(plaintext, FILE_SIZE - 10, FILE_SIZE), Arrays.copyOf(buffer, 10));
+      assertEquals(-1, channel.read(FILE_SIZE, buffer, 0, 100));
+    }
+  }
+
+  @Test
+  public void read_withRandomInFile() throws Exception {
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(random);
+      out.write(encrypt(plaintext));
+    }
+
+    try (ModernDecryptingPartChannel channel = ModernDecryptingPartChannel.createFor(attachmentSecret, null, file)) {
+      assertRead(channel, 0, 64);
+      assertRead(channel, 12345, 64);
+    }
+  }
+
+  /**
+   * Reads small chunks from random positions, as MediaMetadataRetriever and video seeking do,
+   * comparing a new stream per read with a single channel.
+   */
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void randomRead_performance() throws Exception {
+    Random positions = new Random(7);
+    long[] offsets   = new long[READ_COUNT];
+    byte[] buffer    = new byte[READ_SIZE];
+
+    for (int i = 0; i < READ_COUNT; i++) {
+      offsets[i] = (long) (positions.nextDouble() * (BENCHMARK_FILE_SIZE - READ_SIZE));
+    }
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(encrypt(bytes(positions, BENCHMARK_FILE_SIZE)));
+    }
+
+    long streamTime = System.currentTimeMillis();
+
+    for (long offset : offsets) {
+      try (InputStream in = ModernDecryptingPartInputStream.createFor(attachmentSecret, random, file, offset)) {
+        int total = 0;
+        int read;
+
+        while (total < READ_SIZE && (read = in.read(buffer, total, READ_SIZE - total)) != -1) {
+          total += read;
+        }
+      }
+    }
+
+    streamTime = System.currentTimeMillis() - streamTime;
+
+    long channelTime = System.currentTimeMillis();
+
+    try (ModernDecryptingPartChannel channel = ModernDecryptingPartChannel.createFor(attachmentSecret, random, file)) {
+      for (long offset : offsets) {
+        channel.read(offset, buffer, 0, READ_SIZE);
+      }
+    }
+
+    channelTime = System.currentTimeMillis() - channelTime;
+
+    System.out.println(READ_COUNT + " random reads of " + READ_SIZE + " bytes. Stream per read: " + streamTime + " ms, channel: " + channelTime + " ms");
+  }
+
+  private void assertRead(ModernDecryptingPartChannel channel, long position, int length) throws IOException {
+    byte[] buffer = new byte[length + 2];
+
+    assertEquals(length, channel.read(position, buffer, 1, length));
+    assertArrayEquals(Arrays.copyOfRange(plaintext, (int) position, (int) position + length), Arrays.copyOfRange(buffer, 1, length + 1));
+  }
+
+  private byte[] encrypt(byte[] data) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(random), "AES"), new IvParameterSpec(new byte[16]));
+
+    return cipher.doFinal(data);
+  }
+
+  private static byte[] bytes(Random source, int length) {
+    byte[] bytes = new byte[length];
+    source.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,131 @@
+package org.thoughtcrime.securesms.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class ModernEncryptingPartWriterTest {
+
+  private static final int VIDEO_SIZE = 100 * 1024 * 1024;
+
+  private AttachmentSecret attachmentSecret;
+  private File             file;
+
+  @Before
+  public void setUp() throws Exception {
+    attachmentSecret = new AttachmentSecret(new byte[32], new byte[32], bytes(new Random(1), 32));
+    file             = File.createTempFile("part", ".mms");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void write_isReadableInExistingFormat() throws Exception {
+    byte[] plaintext = bytes(new Random(2), 300_001);
+
+    ModernEncryptingPartWriter.Result result = ModernEncryptingPartWriter.write(attachmentSecret, file, new ByteArrayInputStream(plaintext));
+
+    assertEquals(plaintext.length, result.getLength());
+    assertEquals(plaintext.length, file.length());
+    assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(plaintext), result.getHash());
+
+    try (InputStream in = ModernDecryptingPartInputStream.createFor(attachmentSecret, result.getRandom(), file, 0)) {
+      byte[] decrypted = new byte[plaintext.length];
+      int    total     = 0;
+      int    read;
+
+      while ((read = in.read(decrypted, total, decrypted.length - total)) > 0) {
+        total += read;
+      }
+
+      assertEquals(plaintext.length, total);
+      assertArrayEquals(plaintext, decrypted);
+    }
+  }
+
+  @Test
+  public void write_emptyStream() throws Exception {
+    ModernEncryptingPartWriter.Result result = ModernEncryptingPartWriter.write(attachmentSecret, file, new ByteArrayInputStream(new byte[0]));
+
+    assertEquals(0, result.getLength());
+    assertEquals(0, file.length());
+    assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(), result.getHash());
+  }
+
+  /**
+   * Saves a 100 MB video both through a digest stream and cipher stream copied 8 KB at a time, as
+   * attachments used to be, and through the writer.
+   */
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void write_performance() throws Exception {
+    byte[] video = bytes(new Random(3), VIDEO_SIZE);
+
+    long streamTime = System.currentTimeMillis();
+
+    try (DigestInputStream in  = new DigestInputStream(new ByteArrayInputStream(video), MessageDigest.getInstance("SHA-256"));
+         OutputStream      out = new CipherOutputStream(new FileOutputStream(file), createCipher()))
+    {
+      byte[] buffer = new byte[8192];
+      int    read;
+
+      while ((read = in.read(buffer)) != -1) {
+        out.write(buffer, 0, read);
+      }
+
+      in.getMessageDigest().digest();
+    }
+
+    streamTime = System.currentTimeMillis() - streamTime;
+
+    long writerTime = System.currentTimeMillis();
+
+    ModernEncryptingPartWriter.write(attachmentSecret, file, new ByteArrayInputStream(video));
+
+    writerTime = System.currentTimeMillis() - writerTime;
+
+    System.out.println("Encrypted " + (VIDEO_SIZE / (1024 * 1024)) + " MB. Streams: " + throughput(streamTime) + " MB/s, writer: " + throughput(writerTime) + " MB/s");
+  }
+
+  private Cipher createCipher() throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(new byte[32]), "AES"), new IvParameterSpec(new byte[16]));
+
+    return cipher;
+  }
+
+  private static long throughput(long millis) {
+    return VIDEO_SIZE / (1024 * 1024) * 1000L / Math.max(1, millis);
+  }
+
+  private static byte[] bytes(Random source, int length) {
+    byte[] bytes = new byte[length];
+    source.nextBytes(bytes);
+    return bytes;
+  }
+}
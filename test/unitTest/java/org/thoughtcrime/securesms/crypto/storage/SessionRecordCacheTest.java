@@ -0,0 +1,178 @@
+package org.thoughtcrime.securesms.crypto.storage;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.thoughtcrime.securesms.recipients.RecipientId;
+import org.whispersystems.libsignal.state.SessionRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+public final class SessionRecordCacheTest {
+
+  private static final int GROUP_SIZE   = 500;
+  private static final int SEND_COUNT   = 10;
+  private static final int THREAD_COUNT = 4;
+
+  @Test
+  public void get_returnsCopyOfStoredRecord() {
+    SessionRecordCache cache  = new SessionRecordCache(10);
+    SessionRecord      record = new SessionRecord();
+
+    cache.put(RecipientId.from(1), 1, record);
+
+    SessionRecord first  = cache.get(RecipientId.from(1), 1).getRecord();
+    SessionRecord second = cache.get(RecipientId.from(1), 1).getRecord();
+
+    assertNotSame(record, first);
+    assertNotSame(first, second);
+    assertArrayEquals(record.serialize(), first.serialize());
+  }
+
+  @Test
+  public void get_remembersMissingSession() {
+    SessionRecordCache cache = new SessionRecordCache(10);
+
+    cache.put(RecipientId.from(1), 1, null);
+
+    SessionRecordCache.CachedRecord cached = cache.get(RecipientId.from(1), 1);
+
+    assertNotNull(cached);
+    assertNull(cached.getRecord());
+    assertFalse(cached.hasCurrentSession());
+  }
+
+  @Test
+  public void removeAll_onlyRemovesSessionsForRecipient() {
+    SessionRecordCache cache = new SessionRecordCache(10);
+
+    cache.put(RecipientId.from(1), 1, new SessionRecord());
+    cache.put(RecipientId.from(1), 2, new SessionRecord());
+    cache.put(RecipientId.from(2), 1, new SessionRecord());
+
+    cache.removeAll(RecipientId.from(1));
+
+    assertNull(cache.get(RecipientId.from(1), 1));
+    assertNull(cache.get(RecipientId.from(1), 2));
+    assertNotNull(cache.get(RecipientId.from(2), 1));
+  }
+
+  @Test
+  public void get_countsHitsAndMisses() {
+    SessionRecordCache cache = new SessionRecordCache(10);
+
+    assertNull(cache.get(RecipientId.from(1), 1));
+
+    cache.put(RecipientId.from(1), 1, new SessionRecord());
+
+    assertNotNull(cache.get(RecipientId.from(1), 1));
+    assertNotNull(cache.get(RecipientId.from(1), 1));
+    assertEquals(1, cache.getMissCount());
+    assertEquals(2, cache.getHitCount());
+  }
+
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void groupFanOut() throws Exception {
+    FakeSessionDatabase database = new FakeSessionDatabase();
+    Object              fileLock = new Object();
+
+    long uncachedTime = fanOut((recipientId) -> {
+      synchronized (fileLock) {
+        SessionRecord record = database.load(recipientId);
+        database.store(recipientId, record != null ? record : new SessionRecord());
+      }
+    });
+
+    SessionRecordCache cache = new SessionRecordCache(1000);
+
+    long cachedTime = fanOut((recipientId) -> {
+      synchronized (cache.getLock(recipientId)) {
+        SessionRecordCache.CachedRecord cached = cache.get(recipientId, 1);
+
+        if (cached == null) {
+          cached = cache.put(recipientId, 1, database.load(recipientId));
+        }
+
+        SessionRecord record = cached.getRecord();
+
+        if (record == null) {
+          record = new SessionRecord();
+        }
+
+        database.store(recipientId, record);
+        cache.put(recipientId, 1, record);
+      }
+    });
+
+    System.out.println("Fan-out to " + GROUP_SIZE + " members x " + SEND_COUNT + " sends. Single lock, uncached: " + uncachedTime + " ms, striped locks, cached: " + cachedTime + " ms (" + cache.getDebugInfo() + ")");
+
+    assertEquals(GROUP_SIZE, cache.getMissCount());
+    assertEquals(GROUP_SIZE * (SEND_COUNT - 1), cache.getHitCount());
+  }
+
+  private static long fanOut(SessionOperation operation) throws Exception {
+    ExecutorService executor  = Executors.newFixedThreadPool(THREAD_COUNT);
+    long            startTime = System.currentTimeMillis();
+
+    try {
+      for (int send = 0; send < SEND_COUNT; send++) {
+        List<Future<?>> futures = new ArrayList<>(GROUP_SIZE);
+
+        for (int member = 1; member <= GROUP_SIZE; member++) {
+          RecipientId recipientId = RecipientId.from(member);
+          futures.add(executor.submit(() -> {
+            operation.run(recipientId);
+            return null;
+          }));
+        }
+
+        for (Future<?> future : futures) {
+          future.get();
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    return System.currentTimeMillis() - startTime;
+  }
+
+  private interface SessionOperation {
+    void run(RecipientId recipientId) throws Exception;
+  }
+
+  /**
+   * Stands in for the session table, with roughly the cost of an indexed read and a write.
+   */
+  private static final class FakeSessionDatabase {
+
+    private final Map<RecipientId, byte[]> records = new ConcurrentHashMap<>();
+
+    SessionRecord load(RecipientId recipientId) throws Exception {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+
+      byte[] serialized = records.get(recipientId);
+      return serialized != null ? new SessionRecord(serialized) : null;
+    }
+
+    void store(RecipientId recipientId, SessionRecord record) {
+      LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+      records.put(recipientId, record.serialize());
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.thoughtcrime.securesms.database;
+
+import android.database.Cursor;
+import android.database.MergeCursor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ColumnIndexCacheTest {
+
+  private static final String[] COLUMNS = new String[40];
+
+  static {
+    for (int i = 0; i < COLUMNS.length; i++) {
+      COLUMNS[i] = "column_" + i;
+    }
+  }
+
+  @Test
+  public void get_resolvesEachColumnOnce() {
+    Cursor           cursor = mockCursor(Cursor.class);
+    ColumnIndexCache cache  = new ColumnIndexCache(cursor);
+
+    for (int row = 0; row < 10_000; row++) {
+      for (int i = 0; i < COLUMNS.length; i++) {
+        assertEquals(i, cache.get(COLUMNS[i]));
+      }
+    }
+
+    for (String column : COLUMNS) {
+      verify(cursor, times(1)).getColumnIndexOrThrow(column);
+    }
+  }
+
+  @Test
+  public void get_matchesEqualColumnNames() {
+    Cursor           cursor = mockCursor(Cursor.class);
+    ColumnIndexCache cache  = new ColumnIndexCache(cursor);
+
+    assertEquals(3, cache.get(COLUMNS[3]));
+    assertEquals(3, cache.get(new String(COLUMNS[3])));
+
+    verify(cursor, times(1)).getColumnIndexOrThrow(COLUMNS[3]);
+  }
+
+  @Test
+  public void get_neverCachesForMergeCursor() {
+    MergeCursor      cursor = mockCursor(MergeCursor.class);
+    ColumnIndexCache cache  = new ColumnIndexCache(cursor);
+
+    assertEquals(5, cache.get(COLUMNS[5]));
+    assertEquals(5, cache.get(COLUMNS[5]));
+
+    verify(cursor, times(2)).getColumnIndexOrThrow(COLUMNS[5]);
+  }
+
+  private static <T extends Cursor> T mockCursor(Class<T> type) {
+    T cursor = mock(type);
+
+    for (int i = 0; i < COLUMNS.length; i++) {
+      when(cursor.getColumnIndexOrThrow(COLUMNS[i])).thenReturn(i);
+    }
+
+    return cursor;
+  }
+}
@@ -0,0 +1,74 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class DataHashReferencesTest {
+
+  private DataHashReferences references;
+
+  @Before
+  public void setUp() {
+    references = new DataHashReferences();
+  }
+
+  @Test
+  public void release_sharedHash_onlyUnreferencedAfterLastRelease() {
+    references.add("a", 2);
+    references.acquire("a");
+
+    assertFalse(references.release("a"));
+    assertFalse(references.release("a"));
+    assertTrue(references.release("a"));
+    assertFalse(references.isReferenced("a"));
+  }
+
+  @Test
+  public void release_unknownOrNullHash_isUnreferenced() {
+    assertTrue(references.release("a"));
+    assertTrue(references.release(null));
+  }
+
+  @Test
+  public void replace_movesSingleReference() {
+    references.add("a", 2);
+
+    references.replace("a", "b");
+
+    assertTrue(references.release("a"));
+    assertTrue(references.release("b"));
+    assertFalse(references.isReferenced("a"));
+  }
+
+  @Test
+  public void replace_fromNull_acquires() {
+    references.replace(null, "a");
+
+    assertTrue(references.isReferenced("a"));
+  }
+
+  @Test
+  public void rename_mergesAllReferences() {
+    references.add("a", 2);
+    references.acquire("b");
+
+    references.rename("a", "b");
+
+    assertFalse(references.isReferenced("a"));
+    assertFalse(references.release("b"));
+    assertFalse(references.release("b"));
+    assertTrue(references.release("b"));
+  }
+
+  @Test
+  public void clear_dropsEverything() {
+    references.add("a", 3);
+
+    references.clear();
+
+    assertFalse(references.isReferenced("a"));
+  }
+}
@@ -0,0 +1,129 @@
+package org.thoughtcrime.securesms.database;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public final class DatabaseObserverTest {
+
+  private ScheduledExecutorService       executor;
+  private TestDatabaseObserver           observer;
+  private List<DatabaseObserver.Changes> received;
+
+  @Before
+  public void setUp() {
+    executor = mock(ScheduledExecutorService.class);
+    observer = new TestDatabaseObserver(executor);
+    received = new ArrayList<>();
+
+    observer.registerObserver(received::add);
+  }
+
+  @Test
+  public void notify_coalescesIntoSingleFlush() {
+    observer.notifyConversation(1, 10, false);
+    observer.notifyConversation(1, 11, true);
+    observer.notifyConversation(2);
+    observer.notifyConversationList();
+    observer.notifyConversationList();
+
+    verify(executor, times(1)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+
+    observer.flush();
+
+    assertEquals(1, received.size());
+    assertEquals(1, observer.contentNotifications);
+
+    DatabaseObserver.Changes changes = received.get(0);
+
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), changes.getThreadIds());
+    assertTrue(changes.isConversationListChanged());
+    assertFalse(changes.isThreadFullyChanged(1));
+    assertTrue(changes.isThreadFullyChanged(2));
+    assertEquals(Collections.singleton(10L), changes.getChangedSmsIds(1));
+    assertEquals(Collections.singleton(11L), changes.getChangedMmsIds(1));
+  }
+
+  @Test
+  public void notifyConversationList_tracksChangedThreads() {
+    observer.notifyConversationList(1);
+    observer.notifyConversationList(2);
+    observer.flush();
+
+    DatabaseObserver.Changes changes = received.get(0);
+
+    assertTrue(changes.isConversationListChanged());
+    assertFalse(changes.isConversationListFullyChanged());
+    assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), changes.getChangedListThreadIds());
+
+    observer.notifyConversationList(3);
+    observer.notifyConversationList();
+    observer.flush();
+
+    assertTrue(received.get(1).isConversationListFullyChanged());
+  }
+
+  @Test
+  public void notify_afterFlushSchedulesAnother() {
+    observer.notifyConversation(1);
+    observer.flush();
+    observer.notifyConversation(1);
+
+    verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void flush_withNothingPendingDoesNothing() {
+    observer.flush();
+
+    assertEquals(0, received.size());
+    assertEquals(0, observer.contentNotifications);
+  }
+
+  @Test
+  public void unregisteredObserver_isNotCalled() {
+    DatabaseObserver.Observer other = changes -> { throw new AssertionError(); };
+
+    observer.registerObserver(other);
+    observer.unregisterObserver(other);
+    observer.notifyConversation(1);
+    observer.flush();
+
+    assertEquals(1, received.size());
+  }
+
+  private static final class TestDatabaseObserver extends DatabaseObserver {
+
+    private int contentNotifications;
+
+    TestDatabaseObserver(@NonNull ScheduledExecutorService executor) {
+      super(mock(Application.class), executor);
+    }
+
+    @Override
+    void notifyContentObservers(@NonNull Changes changes) {
+      contentNotifications++;
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package org.thoughtcrime.securesms.database;
+
+import org.junit.Ignore;
+import org.junit.Test;
+import org.thoughtcrime.securesms.util.Conversions;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public final class MmsSmsDatabaseTest {
+
+  private static final int  THREAD_SIZE   = 50000;
+  private static final int  SCROLL_PASSES = 5;
+  private static final long START_DATE    = 1570000000000L;
+
+  @Test
+  public void getStableId_differsByTransport() {
+    assertNotEquals(MmsSmsDatabase.getStableId(false, 1, START_DATE), MmsSmsDatabase.getStableId(true, 1, START_DATE));
+  }
+
+  @Test
+  public void getStableId_differsByDateSent() {
+    assertNotEquals(MmsSmsDatabase.getStableId(true, 1, START_DATE), MmsSmsDatabase.getStableId(true, 1, START_DATE + 1));
+  }
+
+  @Test
+  public void getStableId_isUniqueAcrossThread() {
+    Set<Long> ids = new HashSet<>();
+
+    for (int i = 0; i < THREAD_SIZE; i++) {
+      ids.add(MmsSmsDatabase.getStableId(false, i, START_DATE + i * 1000));
+      ids.add(MmsSmsDatabase.getStableId(true, i, START_DATE + i * 1000));
+    }
+
+    assertEquals(THREAD_SIZE * 2, ids.size());
+  }
+
+  /**
+   * Scrolls from one end of a large thread to the other a few times, asking for the id of each row
+   * as often as RecyclerView does during layout and prefetch.
+   */
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void scroll_performance() throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA1");
+    long          sink   = 0;
+
+    long digestTime = System.currentTimeMillis();
+
+    for (int pass = 0; pass < SCROLL_PASSES; pass++) {
+      for (int position = 0; position < THREAD_SIZE; position++) {
+        for (int lookup = 0; lookup < 3; lookup++) {
+          String unique = (position % 2 == 0 ? "SMS::" : "MMS::") + position + "::" + (START_DATE + position);
+          sink += Conversions.byteArrayToLong(digest.digest(unique.getBytes()));
+        }
+      }
+    }
+
+    digestTime = System.currentTimeMillis() - digestTime;
+
+    long   hashTime = System.currentTimeMillis();
+    long[] cache    = new long[THREAD_SIZE];
+
+    Arrays.fill(cache, Long.MIN_VALUE);
+
+    for (int pass = 0; pass < SCROLL_PASSES; pass++) {
+      for (int position = 0; position < THREAD_SIZE; position++) {
+        for (int lookup = 0; lookup < 3; lookup++) {
+          if (cache[position] == Long.MIN_VALUE) {
+            cache[position] = MmsSmsDatabase.getStableId(position % 2 == 1, position, START_DATE + position);
+          }
+
+          sink += cache[position];
+        }
+      }
+    }
+
+    hashTime = System.currentTimeMillis() - hashTime;
+
+    System.out.println("Scrolled " + THREAD_SIZE + " messages " + SCROLL_PASSES + " times. SHA1 of unique row id: " + digestTime + " ms, cached hash: " + hashTime + " ms (" + sink + ")");
+  }
+}
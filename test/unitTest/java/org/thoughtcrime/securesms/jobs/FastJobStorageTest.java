@@ -5,6 +5,7 @@ import androidx.annotation.NonNull;
 import com.annimon.stream.Stream;
 
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.thoughtcrime.securesms.database.JobDatabase;
 import org.thoughtcrime.securesms.jobmanager.Data;
 import org.thoughtcrime.securesms.jobmanager.Job;
@@ -14,6 +15,7 @@ import org.thoughtcrime.securesms.jobmanager.persistence.DependencySpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.FullSpec;
 import org.thoughtcrime.securesms.jobmanager.persistence.JobSpec;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -22,7 +24,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -165,9 +173,9 @@ public class FastJobStorageTest {
     JobDatabase    database = noopDatabase();
     FastJobStorage subject  = new FastJobStorage(database);
 
-    subject.updateJobAfterRetry("1", true, 1, 10);
+    subject.updateJobAfterRetry("1", true, 1, 10, "a");
 
-    verify(database).updateJobAfterRetry("1", true, 1, 10);
+    verify(database).updateJobAfterRetry("1", true, 1, 10, "a");
   }
 
   @Test
@@ -179,7 +187,7 @@ public class FastJobStorageTest {
     FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Collections.singletonList(fullSpec)));
 
     subject.init();
-    subject.updateJobAfterRetry("1", false, 1, 10);
+    subject.updateJobAfterRetry("1", false, 1, 10, "a");
 
     JobSpec job = subject.getJobSpec("1");
 
@@ -187,6 +195,7 @@ public class FastJobStorageTest {
     assertFalse(job.isRunning());
     assertEquals(1, job.getRunAttempt());
     assertEquals(10, job.getNextRunAttemptTime());
+    assertEquals("a", job.getSerializedData());
   }
 
   @Test
@@ -397,6 +406,108 @@ public class FastJobStorageTest {
     assertTrue(jobs.isEmpty());
   }
 
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_queueOrderedByCreateTime() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 5, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 2, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+    subject.init();
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_nextInQueueAfterDelete() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Arrays.asList(fullSpec1, fullSpec2));
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_eligibleAfterDependencyDeleted() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, true),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.singletonList(new DependencySpec("2", "1")));
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Arrays.asList(fullSpec1, fullSpec2));
+    subject.deleteJob("1");
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(1, jobs.size());
+    assertEquals("2", jobs.get(0).getId());
+  }
+
+  @Test
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_respectsQueueChangeFromUpdate() {
+    FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+    FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                      Collections.emptyList(),
+                                      Collections.emptyList());
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(Arrays.asList(fullSpec1, fullSpec2));
+    subject.updateJobs(Collections.singletonList(new JobSpec("2", "f2", "q2", 1, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false)));
+
+    List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+    assertEquals(2, jobs.size());
+    assertEquals("1", jobs.get(0).getId());
+    assertEquals("2", jobs.get(1).getId());
+  }
+
+  @Test(timeout = 10_000)
+  public void getPendingJobsWithNoDependenciesInCreatedOrder_manyQueuedJobs() {
+    int            count     = 50_000;
+    List<FullSpec> fullSpecs = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) {
+      String queue = i % 2 == 0 ? "q" + (i % 100) : null;
+      fullSpecs.add(new FullSpec(new JobSpec(String.valueOf(i), "f", queue, i, 0, 0, 0, 0, -1, -1, EMPTY_DATA, false),
+                                 Collections.emptyList(),
+                                 Collections.emptyList()));
+    }
+
+    FastJobStorage subject = new FastJobStorage(noopDatabase());
+    subject.insertJobs(fullSpecs);
+
+    for (int i = 0; i < 1000; i++) {
+      List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+      JobSpec       next = jobs.get(0);
+
+      assertEquals(String.valueOf(i), next.getId());
+
+      subject.updateJobRunningState(next.getId(), true);
+      subject.deleteJob(next.getId());
+    }
+  }
+
   @Test
   public void deleteJobs_writesToDatabase() {
     JobDatabase    database = noopDatabase();
@@ -427,6 +538,49 @@ public class FastJobStorageTest {
     assertEquals(1, dependencies.size());
   }
 
+  @Test
+  public void writeBehind_coalescesWritesToSameJob() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = FastJobStorage.withWriteBehind(database);
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+    subject.updateJobRunningState("id1", true);
+    subject.updateJobAfterRetry("id1", false, 1, 10, EMPTY_DATA);
+    subject.flush();
+
+    verify(database).updateJobAfterRetry("id1", false, 1, 10, EMPTY_DATA);
+    verify(database, never()).updateJobRunningState(anyString(), anyBoolean());
+  }
+
+  @Test
+  public void writeBehind_deleteIsWrittenImmediately() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = FastJobStorage.withWriteBehind(database);
+
+    subject.insertJobs(DataSet1.FULL_SPECS);
+    subject.updateJobRunningState("id1", true);
+    subject.deleteJob("id1");
+
+    verify(database).deleteJobs(Collections.singletonList("id1"));
+    verify(database, never()).updateJobRunningState(anyString(), anyBoolean());
+  }
+
+  @Test
+  public void writeBehind_insertPersistsPendingWritesInSameTransaction() {
+    JobDatabase    database = noopDatabase();
+    FastJobStorage subject  = FastJobStorage.withWriteBehind(database);
+
+    subject.updateJobRunningState("id0", true);
+    subject.insertJobs(DataSet1.FULL_SPECS);
+
+    InOrder inOrder = inOrder(database);
+    inOrder.verify(database).beginTransaction();
+    inOrder.verify(database).updateJobRunningState("id0", true);
+    inOrder.verify(database).insertJobs(DataSet1.FULL_SPECS);
+    inOrder.verify(database).setTransactionSuccessful();
+    inOrder.verify(database).endTransaction();
+  }
+
   @Test
   public void getDependencySpecsThatDependOnJob_startOfChain() {
     FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
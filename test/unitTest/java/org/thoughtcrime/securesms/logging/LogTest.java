@@ -1,7 +1,12 @@
 package org.thoughtcrime.securesms.logging;
 
+import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+
 import static org.junit.Assert.assertEquals;
 
 public final class LogTest {
@@ -26,6 +31,96 @@ public final class LogTest {
     assertEquals(23, Log.tag(TwentyThreeCharacters23.class).length());
   }
 
+  @Test
+  public void logFile_readsBatchedFramesAlongsideSingleLineFrames() throws IOException {
+    byte[] secret = newSecret();
+    File   file   = File.createTempFile("log", null);
+
+    try {
+      LogFile.Writer writer = new LogFile.Writer(secret, file);
+      writer.writeEntry("one");
+      writer.writeEntry("two\nthree\nfour");
+      writer.writeEntry("five");
+      writer.close();
+
+      assertEquals("one\ntwo\nthree\nfour\nfive\n", new LogFile.Reader(secret, file).readAll());
+      assertEquals(file.length(), new LogFile.Writer(secret, file).getLogSize());
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Test
+  public void logFile_trackedSizeMatchesFileSize() throws IOException {
+    byte[] secret = newSecret();
+    File   file   = File.createTempFile("log", null);
+
+    try {
+      LogFile.Writer writer = new LogFile.Writer(secret, file);
+
+      for (int i = 0; i < 100; i++) {
+        writer.writeEntry("entry " + i);
+      }
+
+      writer.flush();
+      assertEquals(file.length(), writer.getLogSize());
+      writer.close();
+    } finally {
+      file.delete();
+    }
+  }
+
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void logFile_throughput() throws IOException {
+    int lines = 50_000;
+
+    long singleLineTime = timeWrites(lines, 1, true);
+    long batchedTime    = timeWrites(lines, 100, false);
+
+    System.out.println(String.format("LogFile throughput (%d lines) | one line per frame, flushed: %d ms | 100 lines per frame: %d ms",
+                                     lines, singleLineTime, batchedTime));
+  }
+
+  private static long timeWrites(int lines, int linesPerFrame, boolean flushEachFrame) throws IOException {
+    byte[] secret = newSecret();
+    File   file   = File.createTempFile("log", null);
+
+    try {
+      LogFile.Writer writer    = new LogFile.Writer(secret, file);
+      StringBuilder  frame     = new StringBuilder();
+      long           startTime = System.currentTimeMillis();
+
+      for (int i = 0; i < lines; i++) {
+        if (frame.length() > 0) frame.append('\n');
+        frame.append("2019-01-01 00:00:00.000 GMT I JobRunner: Job finished with result SUCCESS in 10 ms. ").append(i);
+
+        if ((i + 1) % linesPerFrame == 0) {
+          writer.writeEntry(frame.toString());
+          frame.setLength(0);
+
+          if (flushEachFrame) writer.flush();
+        }
+      }
+
+      writer.close();
+
+      long elapsed = System.currentTimeMillis() - startTime;
+
+      assertEquals(lines, new LogFile.Reader(secret, file).readAll().split("\n").length);
+
+      return elapsed;
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static byte[] newSecret() {
+    byte[] secret = new byte[32];
+    new SecureRandom().nextBytes(secret);
+    return secret;
+  }
+
   private class MyClass {
   }
 
@@ -0,0 +1,196 @@
+package org.thoughtcrime.securesms.net;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ParallelRangeFetcherTest {
+
+  private static final int SIZE       = 100_000;
+  private static final int CHUNK_SIZE = 10_000;
+
+  private byte[]          data;
+  private MockWebServer   server;
+  private ExecutorService executor;
+  private File            file;
+  private List<String>    ranges;
+
+  @Before
+  public void setUp() throws IOException {
+    data     = new byte[SIZE];
+    server   = new MockWebServer();
+    executor = Executors.newCachedThreadPool();
+    file     = File.createTempFile("chunked", ".tmp");
+    ranges   = Collections.synchronizedList(new ArrayList<>());
+
+    new Random(1).nextBytes(data);
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+    executor.shutdownNow();
+    file.delete();
+  }
+
+  @Test
+  public void fetch_writesChunksAtTheirOffsets() throws IOException {
+    server.setDispatcher(new RangeDispatcher());
+
+    List<ParallelRangeFetcher.Chunk> chunks = chunks();
+    chunks.add(new ParallelRangeFetcher.Chunk(SIZE - CHUNK_SIZE - 500, SIZE - 501));
+
+    fetch(chunks);
+
+    assertArrayEquals(data, readFile());
+    assertEquals(chunks.size(), ranges.size());
+  }
+
+  @Test
+  public void fetch_resumesChunkCutOffPartWay() throws IOException {
+    Set<String> cut = Collections.synchronizedSet(new HashSet<>());
+
+    server.setDispatcher(new RangeDispatcher() {
+      @Override
+      MockResponse respond(long start, long end, @NonNull MockResponse response) {
+        if (cut.add(String.valueOf(end))) {
+          response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+        }
+        return response;
+      }
+    });
+
+    List<ParallelRangeFetcher.Chunk> chunks = chunks();
+
+    fetch(chunks);
+
+    assertArrayEquals(data, readFile());
+
+    for (ParallelRangeFetcher.Chunk chunk : chunks) {
+      assertEquals(2, chunk.getAttempts());
+    }
+
+    assertEquals(chunks.size() * 2, ranges.size());
+    assertEquals(ranges.size(), new HashSet<>(ranges).size());
+  }
+
+  @Test
+  public void fetch_resumesRemainingChunksOnNextCall() throws IOException {
+    AtomicBoolean available = new AtomicBoolean(false);
+
+    server.setDispatcher(new RangeDispatcher() {
+      @Override
+      MockResponse respond(long start, long end, @NonNull MockResponse response) {
+        if (start >= CHUNK_SIZE && !available.get()) {
+          return new MockResponse().setResponseCode(503);
+        }
+        return response;
+      }
+    });
+
+    List<ParallelRangeFetcher.Chunk> chunks = chunks();
+
+    try {
+      fetch(chunks);
+      fail();
+    } catch (IOException e) {
+      // Expected
+    }
+
+    assertTrue(chunks.get(0).isComplete());
+
+    available.set(true);
+    ranges.clear();
+
+    fetch(chunks);
+
+    assertArrayEquals(data, readFile());
+    assertFalse(ranges.contains("bytes=0-" + (CHUNK_SIZE - 1)));
+  }
+
+  private void fetch(@NonNull List<ParallelRangeFetcher.Chunk> chunks) throws IOException {
+    new ParallelRangeFetcher(new OkHttpClient(), executor, 4).fetch(server.url("/").toString(), chunks, file, new CompositeRequestController());
+  }
+
+  private static @NonNull List<ParallelRangeFetcher.Chunk> chunks() {
+    List<ParallelRangeFetcher.Chunk> chunks = new ArrayList<>();
+
+    for (long start = 0; start < SIZE; start += CHUNK_SIZE) {
+      chunks.add(new ParallelRangeFetcher.Chunk(start, start + CHUNK_SIZE - 1));
+    }
+
+    return chunks;
+  }
+
+  private @NonNull byte[] readFile() throws IOException {
+    byte[] contents = new byte[(int) file.length()];
+
+    try (InputStream in = new FileInputStream(file)) {
+      int total = 0;
+      int read;
+
+      while (total < contents.length && (read = in.read(contents, total, contents.length - total)) != -1) {
+        total += read;
+      }
+    }
+
+    return contents;
+  }
+
+  /**
+   * Serves "bytes=start-end" requests for {@link #data} the way our content proxy does.
+   */
+  private class RangeDispatcher extends Dispatcher {
+    @Override
+    public @NonNull MockResponse dispatch(@NonNull RecordedRequest request) {
+      String   range = request.getHeader("Range");
+      String[] parts = range.substring("bytes=".length()).split("-");
+      int      start = Integer.parseInt(parts[0]);
+      int      end   = Integer.parseInt(parts[1]);
+
+      ranges.add(range);
+
+      MockResponse response = new MockResponse().setResponseCode(206)
+                                                .setHeader("Content-Range", "bytes " + start + "-" + end + "/" + SIZE)
+                                                .setBody(new Buffer().write(Arrays.copyOfRange(data, start, end + 1)));
+
+      return respond(start, end, response);
+    }
+
+    MockResponse respond(long start, long end, @NonNull MockResponse response) {
+      return response;
+    }
+  }
+}
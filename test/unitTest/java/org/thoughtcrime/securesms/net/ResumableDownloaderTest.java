@@ -0,0 +1,215 @@
+package org.thoughtcrime.securesms.net;
+
+import androidx.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class ResumableDownloaderTest {
+
+  private static final int SIZE = 200_000;
+
+  private byte[]        data;
+  private MockWebServer server;
+  private File          file;
+  private List<String>  ranges;
+
+  @Before
+  public void setUp() throws IOException {
+    data   = new byte[SIZE];
+    server = new MockWebServer();
+    file   = File.createTempFile("resumable", ".tmp");
+    ranges = Collections.synchronizedList(new ArrayList<>());
+
+    new Random(1).nextBytes(data);
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    server.shutdown();
+    file.delete();
+  }
+
+  @Test
+  public void download_resumesAfterConnectionIsCut() throws Exception {
+    server.setDispatcher(new CuttingDispatcher());
+
+    ResumableDownloader first = downloader(ResumableDownloader.Checkpoint.EMPTY);
+
+    try {
+      first.download(SIZE, null);
+      fail();
+    } catch (ResumableDownloader.PermanentFailureException e) {
+      throw e;
+    } catch (IOException e) {
+      // Expected
+    }
+
+    ResumableDownloader.Checkpoint checkpoint = first.getCheckpoint();
+
+    assertTrue(checkpoint.getLength() > 0);
+    assertTrue(checkpoint.getLength() < SIZE);
+    assertArrayEquals(sha256(Arrays.copyOf(data, (int) checkpoint.getLength())), checkpoint.getDigest());
+
+    ResumableDownloader second = downloader(copy(checkpoint));
+    second.download(SIZE, null);
+
+    assertArrayEquals(data, readFile());
+    assertEquals(SIZE, second.getCheckpoint().getLength());
+    assertArrayEquals(sha256(data), second.getCheckpoint().getDigest());
+    assertEquals(Arrays.asList(null, "bytes=" + checkpoint.getLength() + "-"), ranges);
+  }
+
+  @Test
+  public void download_startsOverWhenPartialFileDoesNotMatchCheckpoint() throws Exception {
+    server.setDispatcher(new RangeDispatcher());
+
+    int half = SIZE / 2;
+
+    try (RandomAccessFile partial = new RandomAccessFile(file, "rw")) {
+      partial.write(data, 0, half);
+      partial.seek(10);
+      partial.write(data[10] + 1);
+    }
+
+    ResumableDownloader downloader = downloader(new ResumableDownloader.Checkpoint(half, sha256(Arrays.copyOf(data, half))));
+    downloader.download(SIZE, null);
+
+    assertArrayEquals(data, readFile());
+    assertEquals(Collections.singletonList(null), ranges);
+  }
+
+  @Test
+  public void download_startsOverWhenServerIgnoresRange() throws Exception {
+    server.setDispatcher(new RangeDispatcher() {
+      @Override
+      boolean supportsRanges() {
+        return false;
+      }
+    });
+
+    int half = SIZE / 2;
+
+    try (RandomAccessFile partial = new RandomAccessFile(file, "rw")) {
+      partial.write(data, 0, half);
+    }
+
+    ResumableDownloader downloader = downloader(new ResumableDownloader.Checkpoint(half, sha256(Arrays.copyOf(data, half))));
+    downloader.download(SIZE, null);
+
+    assertArrayEquals(data, readFile());
+    assertArrayEquals(sha256(data), downloader.getCheckpoint().getDigest());
+    assertEquals(Collections.singletonList("bytes=" + half + "-"), ranges);
+  }
+
+  @Test(expected = ResumableDownloader.PermanentFailureException.class)
+  public void download_tooLarge() throws Exception {
+    server.setDispatcher(new RangeDispatcher());
+
+    downloader(ResumableDownloader.Checkpoint.EMPTY).download(SIZE - 1, null);
+  }
+
+  private @NonNull ResumableDownloader downloader(@NonNull ResumableDownloader.Checkpoint checkpoint) {
+    return new ResumableDownloader(new OkHttpClient(), server.url("/attachments/1").toString(), null, file, checkpoint);
+  }
+
+  /**
+   * What the job would read back out of its serialized data.
+   */
+  private static @NonNull ResumableDownloader.Checkpoint copy(@NonNull ResumableDownloader.Checkpoint checkpoint) {
+    return new ResumableDownloader.Checkpoint(checkpoint.getLength(), checkpoint.getDigest().clone());
+  }
+
+  private static @NonNull byte[] sha256(@NonNull byte[] input) throws Exception {
+    return MessageDigest.getInstance("SHA-256").digest(input);
+  }
+
+  private @NonNull byte[] readFile() throws IOException {
+    byte[] contents = new byte[(int) file.length()];
+
+    try (InputStream in = new FileInputStream(file)) {
+      int total = 0;
+      int read;
+
+      while (total < contents.length && (read = in.read(contents, total, contents.length - total)) != -1) {
+        total += read;
+      }
+    }
+
+    return contents;
+  }
+
+  /**
+   * Serves {@link #data}, honoring "bytes=start-" requests the way the CDN does.
+   */
+  private class RangeDispatcher extends Dispatcher {
+    @Override
+    public @NonNull MockResponse dispatch(@NonNull RecordedRequest request) {
+      String range = request.getHeader("Range");
+
+      ranges.add(range);
+
+      if (range == null || !supportsRanges()) {
+        return respond(new MockResponse().setResponseCode(200)
+                                         .setBody(new Buffer().write(data)));
+      }
+
+      int start = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+
+      return respond(new MockResponse().setResponseCode(206)
+                                       .setHeader("Content-Range", "bytes " + start + "-" + (SIZE - 1) + "/" + SIZE)
+                                       .setBody(new Buffer().write(Arrays.copyOfRange(data, start, SIZE))));
+    }
+
+    boolean supportsRanges() {
+      return true;
+    }
+
+    @NonNull MockResponse respond(@NonNull MockResponse response) {
+      return response;
+    }
+  }
+
+  /**
+   * Drops the connection part way through the first response.
+   */
+  private class CuttingDispatcher extends RangeDispatcher {
+    private final AtomicBoolean cut = new AtomicBoolean(false);
+
+    @Override
+    @NonNull MockResponse respond(@NonNull MockResponse response) {
+      if (cut.compareAndSet(false, true)) {
+        response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+      }
+      return response;
+    }
+  }
+}
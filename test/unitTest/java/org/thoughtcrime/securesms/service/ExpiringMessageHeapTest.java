@@ -0,0 +1,100 @@
+package org.thoughtcrime.securesms.service;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class ExpiringMessageHeapTest {
+
+  @Test
+  public void removeExpiringBefore_onlyRemovesDueMessages() {
+    ExpiringMessageHeap heap   = new ExpiringMessageHeap();
+    List<Long>          smsIds = new ArrayList<>();
+    List<Long>          mmsIds = new ArrayList<>();
+
+    heap.add(1, false, 300);
+    heap.add(2, true, 100);
+    heap.add(3, false, 200);
+    heap.add(4, true, 400);
+
+    heap.removeExpiringBefore(300, smsIds, mmsIds);
+
+    assertEquals(listOf(3L, 1L), smsIds);
+    assertEquals(listOf(2L), mmsIds);
+    assertEquals(1, heap.size());
+    assertEquals(400, heap.peekExpiration());
+  }
+
+  @Test
+  public void removeExpiringBefore_returnsMessagesInExpirationOrder() {
+    ExpiringMessageHeap heap     = new ExpiringMessageHeap();
+    List<Long>          expected = new ArrayList<>();
+    List<Long>          actual   = new ArrayList<>();
+    Random              random   = new Random(7);
+
+    for (long id = 0; id < 10000; id++) {
+      long expiresAt = random.nextInt(1000000);
+      heap.add(expiresAt * 100000 + id, false, expiresAt);
+      expected.add(expiresAt * 100000 + id);
+    }
+
+    Collections.sort(expected);
+
+    while (!heap.isEmpty()) {
+      heap.removeExpiringBefore(heap.peekExpiration(), actual, new ArrayList<>());
+    }
+
+    assertEquals(expected.size(), actual.size());
+
+    for (int i = 1; i < actual.size(); i++) {
+      assertTrue(actual.get(i - 1) / 100000 <= actual.get(i) / 100000);
+    }
+  }
+
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void heap_performance() {
+    int    count  = 200000;
+    long[] times  = new long[count];
+    Random random = new Random(1);
+
+    for (int i = 0; i < count; i++) {
+      times[i] = random.nextInt(Integer.MAX_VALUE);
+    }
+
+    long treeTime = System.currentTimeMillis();
+    TreeSet<long[]> tree = new TreeSet<>((lhs, rhs) -> lhs[0] != rhs[0] ? Long.compare(lhs[0], rhs[0]) : Long.compare(lhs[1], rhs[1]));
+
+    for (int i = 0; i < count; i++) tree.add(new long[] { times[i], i });
+    while (!tree.isEmpty()) tree.pollFirst();
+
+    treeTime = System.currentTimeMillis() - treeTime;
+
+    long heapTime = System.currentTimeMillis();
+    ExpiringMessageHeap heap    = new ExpiringMessageHeap();
+    List<Long>          removed = new ArrayList<>(count);
+
+    for (int i = 0; i < count; i++) heap.add(i, false, times[i]);
+    heap.removeExpiringBefore(Long.MAX_VALUE, removed, removed);
+
+    heapTime = System.currentTimeMillis() - heapTime;
+
+    System.out.println("Schedule and expire " + count + " messages. TreeSet: " + treeTime + " ms, heap: " + heapTime + " ms");
+
+    assertEquals(count, removed.size());
+  }
+
+  private static List<Long> listOf(Long... values) {
+    List<Long> list = new ArrayList<>();
+    Collections.addAll(list, values);
+    return list;
+  }
+}
@@ -0,0 +1,139 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class ConcurrentLRUCacheTest {
+
+  private static final int THREADS         = 8;
+  private static final int LOOKUPS         = 1_000_000;
+  private static final int RECIPIENT_COUNT = 800;
+
+  @Test
+  public void putIfAbsent_keepsExistingValue() {
+    ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<>(4, 1);
+
+    assertNull(cache.putIfAbsent("a", "one"));
+    assertEquals("one", cache.putIfAbsent("a", "uno"));
+    assertEquals("one", cache.get("a"));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void putIfAbsent_evictsUnreadEntriesFirst() {
+    ConcurrentLRUCache<Integer, String> cache = new ConcurrentLRUCache<>(4, 1);
+
+    cache.putIfAbsent(1, "one");
+    cache.putIfAbsent(2, "two");
+    cache.putIfAbsent(3, "three");
+    cache.putIfAbsent(4, "four");
+    cache.get(1);
+    cache.get(2);
+    cache.putIfAbsent(5, "five");
+
+    assertEquals(3, cache.size());
+    assertNull(cache.get(3));
+    assertNull(cache.get(4));
+    assertEquals("one", cache.get(1));
+    assertEquals("two", cache.get(2));
+    assertEquals("five", cache.get(5));
+  }
+
+  @Test
+  public void getHitRate_countsHitsAndMisses() {
+    ConcurrentLRUCache<Integer, String> cache = new ConcurrentLRUCache<>(16);
+
+    assertEquals(0, cache.getHitRate(), 0);
+
+    cache.get(1);
+    cache.putIfAbsent(1, "one");
+    cache.get(1);
+    cache.get(1);
+    cache.get(2);
+
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(0.5f, cache.getHitRate(), 0);
+  }
+
+  @Test
+  public void size_staysWithinMax() {
+    ConcurrentLRUCache<Integer, String> cache = new ConcurrentLRUCache<>(64);
+
+    for (int i = 0; i < 1000; i++) {
+      cache.putIfAbsent(i, String.valueOf(i));
+    }
+
+    assertTrue(cache.size() <= 64);
+  }
+
+  /**
+   * Looks recipients up from several threads at once, as conversation list binds, notifications and
+   * decryption do, comparing a synchronized {@link LRUCache} with this cache.
+   */
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void contention_performance() throws Exception {
+    Map<Integer, String>                synchronizedCache = new LRUCache<>(1000);
+    ConcurrentLRUCache<Integer, String> concurrentCache   = new ConcurrentLRUCache<>(1000);
+
+    for (int i = 0; i < RECIPIENT_COUNT; i++) {
+      synchronizedCache.put(i, String.valueOf(i));
+      concurrentCache.putIfAbsent(i, String.valueOf(i));
+    }
+
+    long synchronizedTime = runConcurrently(() -> {
+      for (int i = 0; i < LOOKUPS; i++) {
+        synchronized (synchronizedCache) {
+          synchronizedCache.get(i % RECIPIENT_COUNT);
+        }
+      }
+    });
+
+    long concurrentTime = runConcurrently(() -> {
+      for (int i = 0; i < LOOKUPS; i++) {
+        concurrentCache.get(i % RECIPIENT_COUNT);
+      }
+    });
+
+    System.out.println(THREADS + " threads x " + LOOKUPS + " lookups. Synchronized LRUCache: " + synchronizedTime + " ms, ConcurrentLRUCache: " + concurrentTime + " ms");
+  }
+
+  private static long runConcurrently(Runnable runnable) throws InterruptedException {
+    CountDownLatch start   = new CountDownLatch(1);
+    List<Thread>   threads = new ArrayList<>(THREADS);
+
+    for (int i = 0; i < THREADS; i++) {
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+
+        runnable.run();
+      });
+
+      thread.start();
+      threads.add(thread);
+    }
+
+    long startTime = System.currentTimeMillis();
+    start.countDown();
+
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    return System.currentTimeMillis() - startTime;
+  }
+}
@@ -0,0 +1,127 @@
+package org.thoughtcrime.securesms.util;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class LongLRUCacheTest {
+
+  @Test
+  public void put_evictsLeastRecentlyUsed() {
+    LongLRUCache<String> cache = new LongLRUCache<>(2);
+
+    cache.put(1, "one");
+    cache.put(2, "two");
+    cache.get(1);
+    cache.put(3, "three");
+
+    assertEquals("one", cache.get(1));
+    assertNull(cache.get(2));
+    assertEquals("three", cache.get(3));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void put_replacesExistingValue() {
+    LongLRUCache<String> cache = new LongLRUCache<>(2);
+
+    cache.put(1, "one");
+    cache.put(1, "uno");
+
+    assertEquals("uno", cache.get(1));
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void setMaxSize_keepsMostRecentlyUsed() {
+    LongLRUCache<String> cache = new LongLRUCache<>(4);
+
+    cache.put(1, "one");
+    cache.put(2, "two");
+    cache.put(3, "three");
+    cache.put(4, "four");
+    cache.get(1);
+
+    cache.setMaxSize(2);
+
+    assertTrue(cache.containsKey(1));
+    assertTrue(cache.containsKey(4));
+    assertFalse(cache.containsKey(2));
+    assertFalse(cache.containsKey(3));
+
+    cache.setMaxSize(8);
+    cache.put(5, "five");
+    cache.put(6, "six");
+
+    assertEquals(4, cache.size());
+    assertEquals("one", cache.get(1));
+  }
+
+  @Test
+  public void cache_matchesLinkedHashMap() {
+    LongLRUCache<Long>     cache     = new LongLRUCache<>(37);
+    LRUCache<Long, Long>   reference = new LRUCache<Long, Long>(37) {
+      @Override
+      public Long get(Object key) {
+        Long value = remove(key);
+        if (value != null) put((Long) key, value);
+        return value;
+      }
+    };
+    Random                 random    = new Random(3);
+
+    for (int i = 0; i < 100000; i++) {
+      long key = random.nextInt(100) - 50;
+
+      if (random.nextBoolean()) {
+        assertEquals(reference.get(key), cache.get(key));
+      } else {
+        reference.remove(key);
+        reference.put(key, (long) i);
+        cache.put(key, (long) i);
+      }
+
+      assertEquals(reference.size(), cache.size());
+    }
+  }
+
+  @Ignore("Benchmark, run manually")
+  @Test
+  public void cache_performance() {
+    int                      count  = 2000000;
+    LongLRUCache<Object>     cache  = new LongLRUCache<>(120);
+    LRUCache<String, Object> boxed  = new LRUCache<>(120);
+    Object                   record = new Object();
+    Random                   random = new Random(5);
+    long[]                   keys   = new long[count];
+
+    for (int i = 0; i < count; i++) {
+      keys[i] = random.nextInt(150);
+    }
+
+    long boxedTime = System.currentTimeMillis();
+
+    for (int i = 0; i < count; i++) {
+      String key = "mms" + keys[i];
+      if (boxed.get(key) == null) boxed.put(key, record);
+    }
+
+    boxedTime = System.currentTimeMillis() - boxedTime;
+
+    long primitiveTime = System.currentTimeMillis();
+
+    for (int i = 0; i < count; i++) {
+      if (cache.get(keys[i]) == null) cache.put(keys[i], record);
+    }
+
+    primitiveTime = System.currentTimeMillis() - primitiveTime;
+
+    System.out.println(count + " lookups. String keyed LRUCache: " + boxedTime + " ms, LongLRUCache: " + primitiveTime + " ms");
+  }
+}